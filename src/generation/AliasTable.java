@@ -0,0 +1,121 @@
+package generation;
+
+import java.util.Random;
+
+/**
+ * This class draws an index at random, each index with its own weight, in a
+ * constant time whatever the number of indexes: the alias method of Walker, as
+ * built by Vose.
+ *
+ * The weights are spread once over as many columns as indexes, each column
+ * holding at most two indexes: its own one and an alias. A draw picks a column
+ * then one of its two indexes, so it costs a random integer and a random
+ * double, no search.
+ *
+ * The table cannot be modified once built, and can be shared by any number of
+ * threads each drawing with its own random generator.
+ *
+ * @author Nicolas Brax
+ */
+public final class AliasTable {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The chance of each column to give its own index rather than its alias.
+   */
+  private final double[] probability;
+
+  /**
+   * The alias of each column.
+   */
+  private final int[] alias;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of a table drawing the indexes of the weights given, each one
+   * in proportion to its weight.
+   *
+   * @param weights The weight of each index, none negative, at least one
+   *                positive.
+   */
+  public AliasTable(double[] weights){
+    int n = weights.length;
+    double total = 0;
+    for(double w : weights){
+      if(w < 0 || Double.isNaN(w) || Double.isInfinite(w)){
+        throw new IllegalArgumentException("A weight cannot be " + w + ".");
+      }
+      total += w;
+    }
+    if(total <= 0){
+      throw new IllegalArgumentException("There is nothing to draw.");
+    }
+    this.probability = new double[n];
+    this.alias = new int[n];
+    double[] scaled = new double[n];                                            // the weights, 1 on average
+    int[] small = new int[n];                                                   // the columns under 1
+    int[] large = new int[n];                                                   // and the others
+    int smalls = 0;
+    int larges = 0;
+    for(int i = 0 ; i < n ; ++i){
+      scaled[i] = weights[i] * n / total;
+      if(scaled[i] < 1){
+        small[smalls++] = i;
+      }
+      else{
+        large[larges++] = i;
+      }
+    }
+    while(smalls > 0 && larges > 0){                                            // a small column is filled up by a large one
+      int less = small[--smalls];
+      int more = large[--larges];
+      this.probability[less] = scaled[less];
+      this.alias[less] = more;
+      scaled[more] = (scaled[more] + scaled[less]) - 1;
+      if(scaled[more] < 1){
+        small[smalls++] = more;
+      }
+      else{
+        large[larges++] = more;
+      }
+    }
+    while(larges > 0){                                                          // what is left is full, up to rounding errors
+      this.probability[large[--larges]] = 1;
+    }
+    while(smalls > 0){
+      this.probability[small[--smalls]] = 1;
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Drawing Methods                                                        **/
+  /****************************************************************************/
+
+  /**
+   * Draw an index.
+   *
+   * @param random The random generator to draw with.
+   * @return The index drawn.
+   */
+  public int sample(Random random){
+    int column = random.nextInt(this.probability.length);
+    return (random.nextDouble() < this.probability[column] ? column : this.alias[column]);
+  }
+
+  /**
+   * Give the number of indexes of the table.
+   *
+   * @return The number of indexes.
+   */
+  public int size(){
+    return this.probability.length;
+  }
+}
@@ -0,0 +1,523 @@
+package generation;
+
+import generation.CreationData.Entry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import scenario.Scenario;
+
+/**
+ * This class generates scenarios satisfying constraints, see
+ * {@link ScenarioConstraints}, by a backtracking search over their structure:
+ * each element after the main one is given the element it follows and its
+ * kind, one element after the other.
+ *
+ * After each choice, the bounds of what the elements left can still reach
+ * are checked: the number of endings, of divergences and the construction
+ * points. A choice from which the constraints cannot be satisfied anymore is
+ * dropped at once, without going deeper. The choices are tried in a random
+ * order, the likeliest first as for the {@link ScenarioGenerator}, so that
+ * the scenarios found differ from one search to the other.
+ *
+ * The search keeps the scenario whose construction points are the nearest to
+ * the target of the budget, and stops as soon as it hits the target, or once
+ * the time limit is over. On timeout, the best scenario found so far is given,
+ * or the largest part of a scenario satisfying the constraints if none was
+ * found. The search keeps the choices of each element in arrays rather than
+ * on the call stack, so that it fits scenarios of any number of elements.
+ * It can also be cancelled from another thread.
+ *
+ * @author Nicolas Brax
+ */
+public class ConstrainedGenerator {
+
+  /****************************************************************************/
+  /** Result Class                                                           **/
+  /****************************************************************************/
+
+  /**
+   * The result of a search.
+   */
+  public static final class Result {
+
+    /**
+     * The scenario found.
+     */
+    private final Scenario scenario;
+
+    /**
+     * True if the scenario satisfies all the constraints.
+     */
+    private final boolean satisfied;
+
+    /**
+     * True if the search was stopped by the time limit.
+     */
+    private final boolean timedOut;
+
+    /**
+     * True if the search was cancelled.
+     */
+    private final boolean cancelled;
+
+    /**
+     * The construction points of the scenario.
+     */
+    private final int points;
+
+    /**
+     * The entries drawn for the cores of the scenario, in order.
+     */
+    private final List<Entry> drawn;
+
+    /**
+     * Constructor of a result.
+     *
+     * @param scenario The scenario found.
+     * @param drawn The entries drawn for the cores of the scenario.
+     * @param satisfied True if the scenario satisfies all the constraints.
+     * @param timedOut True if the search was stopped by the time limit.
+     * @param cancelled True if the search was cancelled.
+     * @param points The construction points of the scenario.
+     */
+    private Result(Scenario scenario, List<Entry> drawn, boolean satisfied, boolean timedOut, boolean cancelled, int points){
+      this.scenario = scenario;
+      this.drawn = Collections.unmodifiableList(drawn);
+      this.satisfied = satisfied;
+      this.timedOut = timedOut;
+      this.cancelled = cancelled;
+      this.points = points;
+    }
+
+    /**
+     * Give the scenario found. It only holds a part of the elements asked for
+     * if no scenario satisfying the constraints was found.
+     *
+     * @return The scenario, without title.
+     */
+    public Scenario getScenario(){
+      return this.scenario;
+    }
+
+    /**
+     * Give the entries drawn for the cores of the scenario, to judge them,
+     * see {@link PreferenceLearner}.
+     *
+     * @return The entries, in order, that cannot be modified.
+     */
+    public List<Entry> getDrawn(){
+      return this.drawn;
+    }
+
+    /**
+     * Tell whether the scenario satisfies all the constraints.
+     *
+     * @return true if the constraints are satisfied.
+     */
+    public boolean isSatisfied(){
+      return this.satisfied;
+    }
+
+    /**
+     * Tell whether the search was stopped by the time limit, so that a better
+     * scenario may exist.
+     *
+     * @return true if the time was over.
+     */
+    public boolean isTimedOut(){
+      return this.timedOut;
+    }
+
+    /**
+     * Tell whether the search was cancelled, so that a better scenario may
+     * exist.
+     *
+     * @return true if the search was cancelled.
+     */
+    public boolean isCancelled(){
+      return this.cancelled;
+    }
+
+    /**
+     * Give the construction points of the scenario.
+     *
+     * @return The construction points.
+     */
+    public int getPoints(){
+      return this.points;
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Search Class                                                           **/
+  /****************************************************************************/
+
+  /**
+   * The state of one search.
+   */
+  private static final class Search {
+
+    /**
+     * The constraints.
+     */
+    private final ScenarioConstraints constraints;
+
+    /**
+     * The random generator ordering the choices.
+     */
+    private final Random random;
+
+    /**
+     * The table drawing the likeliest kind of each element.
+     */
+    private final AliasTable kindTable;
+
+    /**
+     * The cost of each kind.
+     */
+    private final int[] costs = new int[ScenarioGenerator.KIND_COUNT];
+
+    /**
+     * The cost of the cheapest and of the dearest kinds.
+     */
+    private int minCost = Integer.MAX_VALUE, maxCost;
+
+    /**
+     * The time the search stops at, in nanoseconds.
+     */
+    private final long deadline;
+
+    /**
+     * Tell whether the search is cancelled.
+     */
+    private final BooleanSupplier cancel;
+
+    /**
+     * The number of elements reached.
+     */
+    private long tried;
+
+    /**
+     * True once the time is over.
+     */
+    private boolean timedOut;
+
+    /**
+     * True once the search is cancelled.
+     */
+    private boolean cancelled;
+
+    /**
+     * The number of the element each element follows.
+     */
+    private final int[] previous;
+
+    /**
+     * The kind of each element.
+     */
+    private final int[] kinds;
+
+    /**
+     * The number of elements following each element.
+     */
+    private final int[] nexts;
+
+    /**
+     * The number of endings, divergences and construction points of the
+     * elements given so far.
+     */
+    private int endings, divergences, points;
+
+    /**
+     * The number of endings, divergences and construction points before the
+     * choice of each element.
+     */
+    private final int[] endingsBefore, divergencesBefore, pointsBefore;
+
+    /**
+     * The element each element prefers to follow, the first of the others it
+     * tries to follow, and its likeliest kind, as drawn when it is reached.
+     */
+    private final int[] preferred, offset, firstKind;
+
+    /**
+     * The next element each element tries to follow, -1 for the preferred
+     * one, and the next of its kinds to try, as it is tried in turn.
+     */
+    private final int[] followedCursor, kindCursor;
+
+    /**
+     * The best scenario found, null if none.
+     */
+    private int[] bestPrevious, bestKinds;
+
+    /**
+     * The distance of the points of the best scenario to the target.
+     */
+    private int bestDistance = Integer.MAX_VALUE;
+
+    /**
+     * The construction points of the best scenario.
+     */
+    private int bestPoints;
+
+    /**
+     * The largest part of a scenario found, as long as no scenario is found.
+     */
+    private int[] partPrevious, partKinds;
+
+    /**
+     * The number of elements of the largest part, and its points.
+     */
+    private int partSize, partPoints;
+
+    /**
+     * Constructor of a search.
+     *
+     * @param constraints The constraints.
+     * @param random The random generator ordering the choices.
+     * @param cancel Tell whether the search is cancelled.
+     */
+    private Search(ScenarioConstraints constraints, Random random, BooleanSupplier cancel){
+      this.constraints = constraints;
+      this.random = random;
+      this.cancel = cancel;
+      this.kindTable = ScenarioGenerator.kinds(constraints.getDifficulty());
+      for(int k = 0 ; k < this.costs.length ; ++k){
+        this.costs[k] = constraints.cost(k);
+        this.minCost = Math.min(this.minCost, this.costs[k]);
+        this.maxCost = Math.max(this.maxCost, this.costs[k]);
+      }
+      int n = constraints.getElementCount();
+      this.previous = new int[n];
+      this.kinds = new int[n];
+      this.nexts = new int[n];
+      this.partPrevious = new int[n];
+      this.partKinds = new int[n];
+      this.endingsBefore = new int[n];
+      this.divergencesBefore = new int[n];
+      this.pointsBefore = new int[n];
+      this.preferred = new int[n];
+      this.offset = new int[n];
+      this.firstKind = new int[n];
+      this.followedCursor = new int[n];
+      this.kindCursor = new int[n];
+      this.deadline = System.nanoTime() + constraints.getTimeLimit() * 1000000L;
+    }
+
+    /**
+     * Search the scenarios, from the element following the main one to the
+     * last one. Each element draws the order of its choices when it is
+     * reached, then takes its choices one after the other, going on with the
+     * next element after each choice and coming back to it once all the
+     * choices of the next element are tried.
+     */
+    private void run(){
+      int n = this.constraints.getElementCount();
+      int element = 1;                                                          // the main element is numbered 0
+      boolean reached = true;
+      while(true){
+        if(reached && element == n){                                            // a whole scenario, satisfying the constraints
+          int distance = Math.abs(this.points - this.constraints.getTargetPoints());
+          if(distance < this.bestDistance){
+            this.bestDistance = distance;
+            this.bestPoints = this.points;
+            this.bestPrevious = this.previous.clone();
+            this.bestKinds = this.kinds.clone();
+          }
+          if(distance == 0){
+            return;
+          }
+          undo(--element);
+          reached = false;
+        }
+        else if(reached){                                                       // draw the order of the choices of the element
+          if((++this.tried & 1023) == 0){
+            this.timedOut = (System.nanoTime() > this.deadline);
+            this.cancelled = this.cancel.getAsBoolean();
+          }
+          if(this.timedOut || this.cancelled){
+            return;
+          }
+          if(element > this.partSize && this.bestPrevious == null){               // keep the largest part until a scenario is found
+            System.arraycopy(this.previous, 0, this.partPrevious, 0, element);
+            System.arraycopy(this.kinds, 0, this.partKinds, 0, element);
+            this.partSize = element;
+            this.partPoints = this.points;
+          }
+          this.preferred[element] = (this.random.nextDouble() < this.constraints.getDifficulty().getBranching()
+                  ? this.random.nextInt(element) : element - 1);
+          this.offset[element] = this.random.nextInt(element);
+          this.firstKind[element] = this.kindTable.sample(this.random);
+          this.followedCursor[element] = -1;
+          this.kindCursor[element] = 0;
+          this.endingsBefore[element] = this.endings;
+          this.divergencesBefore[element] = this.divergences;
+          this.pointsBefore[element] = this.points;
+        }
+        if(choose(element)){
+          ++element;
+          reached = true;
+        }
+        else if(element == 1){                                                  // all the choices are tried
+          return;
+        }
+        else{
+          undo(--element);
+          reached = false;
+        }
+      }
+    }
+
+    /**
+     * Take the next choice of an element: the element it follows, the
+     * preferred one first then the others, and its kind, the likeliest first.
+     * A choice from which the constraints cannot be satisfied anymore, or the
+     * best scenario cannot be bettered, is skipped.
+     *
+     * @param element The number of the element, the main one being 0.
+     * @return true if a choice is taken, false if all the choices are tried.
+     */
+    private boolean choose(int element){
+      int left = this.constraints.getElementCount() - 1 - element;              // the elements after this one
+      int preferred = this.preferred[element];
+      for( ; this.followedCursor[element] < element ; ++this.followedCursor[element], this.kindCursor[element] = 0){
+        int p = this.followedCursor[element];
+        int followed = (p < 0 ? preferred : (this.offset[element] + p) % element);
+        if((p >= 0 && followed == preferred) || this.nexts[followed] >= this.constraints.getMaxNexts()){
+          continue;
+        }
+        int endingsThen = this.endings + (this.nexts[followed] == 0 ? 0 : 1);   // the element is an ending, the followed one not anymore
+        int divergencesThen = this.divergences + (this.nexts[followed] == 1 ? 1 : 0);
+        if(endingsThen + Math.max(0, this.constraints.getMinDivergences() - divergencesThen) > this.constraints.getMaxEndings()
+        || endingsThen + left < this.constraints.getMinEndings()
+        || divergencesThen + left < this.constraints.getMinDivergences()){
+          continue;                                                             // each element adds an ending or a divergence at most
+        }
+        while(this.kindCursor[element] < ScenarioGenerator.KIND_COUNT){
+          int k = this.kindCursor[element]++;
+          int firstKind = this.firstKind[element];
+          int kind = (k == 0 ? firstKind : (k <= firstKind ? k - 1 : k));       // the likeliest kind first
+          int pointsThen = this.points + this.costs[kind];
+          int low = pointsThen + left * this.minCost;
+          int high = pointsThen + left * this.maxCost;
+          int target = this.constraints.getTargetPoints();
+          if(low > this.constraints.getMaxPoints() || high < this.constraints.getMinPoints()
+          || Math.max(0, Math.max(low - target, target - high)) >= this.bestDistance){
+            continue;                                                           // cannot do better than the best scenario
+          }
+          this.previous[element] = followed;
+          this.kinds[element] = kind;
+          this.nexts[followed]++;
+          this.endings = endingsThen;
+          this.divergences = divergencesThen;
+          this.points = pointsThen;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Undo the choice taken for an element.
+     *
+     * @param element The number of the element, the main one being 0.
+     */
+    private void undo(int element){
+      this.nexts[this.previous[element]]--;
+      this.endings = this.endingsBefore[element];
+      this.divergences = this.divergencesBefore[element];
+      this.points = this.pointsBefore[element];
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The generator drawing the cores of the elements.
+   */
+  private final ScenarioGenerator generator;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of a generator of scenarios satisfying constraints.
+   *
+   * @param generator The generator drawing the cores of the elements.
+   */
+  public ConstrainedGenerator(ScenarioGenerator generator){
+    this.generator = generator;
+  }
+
+
+  /****************************************************************************/
+  /** Generation Methods                                                     **/
+  /****************************************************************************/
+
+  /**
+   * Generate a scenario satisfying constraints, drawing with the random
+   * generator of the current thread.
+   *
+   * @param constraints The constraints.
+   * @return The result of the search.
+   */
+  public Result generate(ScenarioConstraints constraints){
+    return generate(constraints, ThreadLocalRandom.current());
+  }
+
+  /**
+   * Generate a scenario satisfying constraints. The same random generator in
+   * the same state gives the same scenario, unless the time limit is reached.
+   *
+   * @param constraints The constraints.
+   * @param random The random generator to draw with.
+   * @return The result of the search.
+   */
+  public Result generate(ScenarioConstraints constraints, Random random){
+    return generate(constraints, random, () -> false);
+  }
+
+  /**
+   * Generate a scenario satisfying constraints, stopping as soon as the search
+   * is cancelled. The same random generator in the same state gives the same
+   * scenario, unless the search is stopped.
+   *
+   * @param constraints The constraints.
+   * @param random The random generator to draw with.
+   * @param cancel Tell whether the search is cancelled, checked from time to
+   *               time by the thread searching.
+   * @return The result of the search, the best scenario found so far if it
+   *         is cancelled.
+   */
+  public Result generate(ScenarioConstraints constraints, Random random, BooleanSupplier cancel){
+    Search search = new Search(constraints, random, cancel);
+    search.endings = 1;                                                         // the main element alone
+    if(constraints.getElementCount() > 1){
+      search.run();
+    }
+    else if(constraints.getMinEndings() <= 1 && constraints.getMaxEndings() >= 1
+         && constraints.getMinDivergences() <= 0 && constraints.getMinPoints() <= 0){
+      search.bestPrevious = search.previous;
+      search.bestKinds = search.kinds;
+    }
+    ArrayList<Entry> drawn = new ArrayList<>();
+    if(search.bestPrevious != null){
+      return new Result(this.generator.build(search.bestPrevious, search.bestKinds,
+              constraints.getElementCount(), constraints.getDifficulty(), random, drawn),
+              drawn, true, search.timedOut, search.cancelled, search.bestPoints);
+    }
+    return new Result(this.generator.build(search.partPrevious, search.partKinds,
+            Math.max(1, search.partSize), constraints.getDifficulty(), random, drawn),
+            drawn, false, search.timedOut, search.cancelled, search.partPoints);
+  }
+}
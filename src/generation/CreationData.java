@@ -0,0 +1,780 @@
+package generation;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import tools.RPGSCException;
+import tools.XmlTool;
+
+/**
+ * This class keeps the creation data the scenarios are generated from: the
+ * games listed in games.xml, and the races, characters, motivations,
+ * objectives, locations and monsters of the other files, each entry with a
+ * score.
+ *
+ * The files are parsed once, into a {@link Snapshot} that cannot be modified:
+ * for each game and each category, a {@link Pool} of the entries available in
+ * this game, kept in plain arrays with their cumulative scores. An entry given
+ * inside a &lt;game type="..."&gt; group is available in the games of this
+ * type, or in all the games for the "generic" type; an entry given outside of
+ * any group is available in all the games. The type of a game is given by the
+ * type attribute of its tag in games.xml, several types being separated by
+ * spaces; a game without type only has the generic entries.
+ *
+ * When the files change, they are parsed again into a new snapshot that takes
+ * the place of the current one at once: a generation working on a snapshot is
+ * never given half of the new data. Once {@link #startWatching()} is called, a
+ * background thread follows the changes of the folder.
+ *
+ * @author Nicolas Brax
+ */
+public class CreationData {
+
+  /****************************************************************************/
+  /** Category Enum                                                          **/
+  /****************************************************************************/
+
+  /**
+   * The categories of entries of the creation data, each one in its file.
+   */
+  public enum Category {
+    RACES("races"),
+    CHARACTERS("characters"),
+    MOTIVATIONS("motivations"),
+    OBJECTIVES("objectives"),
+    LOCATIONS("locations"),
+    MONSTERS("monsters");
+
+    /**
+     * The name of the file of the category, without extension.
+     */
+    private final String fileName;
+
+    /**
+     * Constructor of a category.
+     *
+     * @param fileName The name of the file of the category.
+     */
+    private Category(String fileName){
+      this.fileName = fileName;
+    }
+
+    /**
+     * Give the name of the file of the category, extension included.
+     *
+     * @return The name of the file.
+     */
+    public String getFileName(){
+      return this.fileName + ".xml";
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Entry Class                                                            **/
+  /****************************************************************************/
+
+  /**
+   * An entry of the creation data, as drawn: its name in its category, and
+   * the game group it is given in, since the same name may be given in
+   * several groups with different scores. An entry is immutable.
+   */
+  public static final class Entry {
+
+    /**
+     * The type of the game group the entry is given in, null outside of any
+     * group.
+     */
+    private final String game;
+
+    /**
+     * The category of the entry.
+     */
+    private final Category category;
+
+    /**
+     * The name of the entry.
+     */
+    private final String name;
+
+    /**
+     * Constructor of an entry.
+     *
+     * @param game The type of the game group the entry is given in, null
+     *             outside of any group.
+     * @param category The category of the entry.
+     * @param name The name of the entry.
+     */
+    public Entry(String game, Category category, String name){
+      this.game = game;
+      this.category = category;
+      this.name = name;
+    }
+
+    /**
+     * Give the type of the game group the entry is given in.
+     *
+     * @return The type, null outside of any group.
+     */
+    public String getGame(){
+      return this.game;
+    }
+
+    /**
+     * Give the category of the entry.
+     *
+     * @return The category.
+     */
+    public Category getCategory(){
+      return this.category;
+    }
+
+    /**
+     * Give the name of the entry.
+     *
+     * @return The name.
+     */
+    public String getName(){
+      return this.name;
+    }
+
+    @Override
+    public boolean equals(Object other){
+      if(!(other instanceof Entry)){
+        return false;
+      }
+      Entry entry = (Entry)other;
+      return Objects.equals(this.game, entry.game) && this.category == entry.category
+              && this.name.equals(entry.name);
+    }
+
+    @Override
+    public int hashCode(){
+      return (Objects.hashCode(this.game) * 31 + this.category.hashCode()) * 31 + this.name.hashCode();
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Pool Class                                                             **/
+  /****************************************************************************/
+
+  /**
+   * The entries of a category available in a game. A pool is immutable.
+   */
+  public static final class Pool {
+
+    /**
+     * The empty pool.
+     */
+    private static final Pool EMPTY = new Pool(new String[0], new String[0], new double[0]);
+
+    /**
+     * The types of the game groups of the entries, null outside of any group.
+     */
+    private final String[] games;
+
+    /**
+     * The names of the entries.
+     */
+    private final String[] names;
+
+    /**
+     * The score of each entry added to the scores of the entries before it.
+     */
+    private final double[] cumulative;
+
+    /**
+     * The table drawing the entries, null if there is none.
+     */
+    private final AliasTable table;
+
+    /**
+     * Constructor of a pool.
+     *
+     * @param games The types of the game groups of the entries.
+     * @param names The names of the entries.
+     * @param scores The score of each entry, positive.
+     */
+    private Pool(String[] games, String[] names, double[] scores){
+      this.games = games;
+      this.names = names;
+      this.cumulative = new double[scores.length];
+      double total = 0;
+      for(int i = 0 ; i < scores.length ; ++i){
+        total += scores[i];
+        this.cumulative[i] = total;
+      }
+      this.table = (names.length == 0 ? null : new AliasTable(scores));
+    }
+
+    /**
+     * Give the number of entries of the pool.
+     *
+     * @return The number of entries.
+     */
+    public int size(){
+      return this.names.length;
+    }
+
+    /**
+     * Tell whether the pool has no entry.
+     *
+     * @return true if there is nothing to draw.
+     */
+    public boolean isEmpty(){
+      return this.names.length == 0;
+    }
+
+    /**
+     * Give the name of an entry.
+     *
+     * @param index The index of the entry.
+     * @return The name of the entry.
+     */
+    public String getName(int index){
+      return this.names[index];
+    }
+
+    /**
+     * Give the type of the game group of an entry.
+     *
+     * @param index The index of the entry.
+     * @return The type, null if the entry is outside of any group.
+     */
+    public String getGame(int index){
+      return this.games[index];
+    }
+
+    /**
+     * Give the score of an entry.
+     *
+     * @param index The index of the entry.
+     * @return The score of the entry.
+     */
+    public double getScore(int index){
+      return this.cumulative[index] - (index == 0 ? 0 : this.cumulative[index - 1]);
+    }
+
+    /**
+     * Give the sum of the scores of the entries.
+     *
+     * @return The sum of the scores, 0 for an empty pool.
+     */
+    public double getTotal(){
+      return (this.cumulative.length == 0 ? 0 : this.cumulative[this.cumulative.length - 1]);
+    }
+
+    /**
+     * Give the entry found at a point of the scores laid end to end: the first
+     * entry whose cumulative score is above the point.
+     *
+     * @param point The point, in [0, {@link #getTotal()}[.
+     * @return The index of the entry.
+     */
+    public int at(double point){
+      int found = Arrays.binarySearch(this.cumulative, point);
+      found = (found < 0 ? -found - 1 : found + 1);                             // the cumulative score just above
+      return Math.min(found, this.cumulative.length - 1);
+    }
+
+    /**
+     * Draw an entry in proportion to its score, in a constant time.
+     *
+     * @param random The random generator to draw with.
+     * @return The index of the entry drawn.
+     */
+    public int draw(Random random){
+      return this.table.sample(random);
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Snapshot Class                                                         **/
+  /****************************************************************************/
+
+  /**
+   * The creation data as read at one time. A snapshot is immutable.
+   */
+  public static final class Snapshot {
+
+    /**
+     * The names of the games, in the order of their file.
+     */
+    private final List<String> games;
+
+    /**
+     * The pools of each game, by category.
+     */
+    private final HashMap<String,Pool[]> pools;
+
+    /**
+     * The pools of all the entries, whatever their game, by category.
+     */
+    private final Pool[] all;
+
+    /**
+     * Constructor of a snapshot.
+     *
+     * @param games The names of the games.
+     * @param pools The pools of each game.
+     * @param all The pools of all the entries.
+     */
+    private Snapshot(List<String> games, HashMap<String,Pool[]> pools, Pool[] all){
+      this.games = Collections.unmodifiableList(games);
+      this.pools = pools;
+      this.all = all;
+    }
+
+    /**
+     * Give the names of the games, in the order of their file.
+     *
+     * @return The names of the games, that cannot be modified.
+     */
+    public List<String> getGames(){
+      return this.games;
+    }
+
+    /**
+     * Give the entries of a category available in a game.
+     *
+     * @param game The name of the game, null for all the entries whatever
+     *             their game.
+     * @param category The category.
+     * @return The pool of the entries, empty for an unknown game.
+     */
+    public Pool getPool(String game, Category category){
+      Pool[] ofGame = (game == null ? this.all : this.pools.get(game));
+      return (ofGame == null ? Pool.EMPTY : ofGame[category.ordinal()]);
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The type of the entries available in all the games.
+   */
+  public static final String GENERIC = "generic";
+
+  /**
+   * The name of the file of the games.
+   */
+  private static final String GAMES_FILE = "games.xml";
+
+  /**
+   * The factory of the pull parsers, configured once. DTD and external
+   * entities are disabled as a creation data file never needs them.
+   */
+  private static final XMLInputFactory FACTORY = createFactory();
+
+  /**
+   * The creation data of the data folder, shared by all the generators.
+   */
+  private static CreationData shared;
+
+  /**
+   * The folder of the creation data.
+   */
+  private final File directory;
+
+  /**
+   * The current snapshot.
+   */
+  private final AtomicReference<Snapshot> current = new AtomicReference<>();
+
+  /**
+   * The size and last modification time of each file the current snapshot
+   * was read from, to know whether the files changed.
+   */
+  private long[] stamp;
+
+  /**
+   * The listeners called when the creation data change.
+   */
+  private final CopyOnWriteArrayList<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * The service watching the folder, null if the folder is not watched.
+   */
+  private WatchService watcher;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Read the creation data of a folder. A missing file is read as an empty
+   * one.
+   *
+   * @param directory The folder of the creation data.
+   * @throws RPGSCException If a file cannot be read.
+   */
+  public CreationData(File directory) throws RPGSCException{
+    this.directory = directory.getAbsoluteFile();
+    this.stamp = stamp();
+    this.current.set(read());
+  }
+
+  /**
+   * Give the creation data of the data folder, see
+   * {@link XmlTool#getCreationDataFolder()}, shared by all the tools. The
+   * first call reads them and starts following the changes of the folder.
+   *
+   * @return The creation data.
+   * @throws RPGSCException If a file cannot be read.
+   */
+  public static CreationData getShared() throws RPGSCException{
+    synchronized(CreationData.class){
+      if(shared == null){
+        shared = new CreationData(new XmlTool().getCreationDataFolder());
+        try{
+          shared.startWatching();
+        }catch(RPGSCException e){
+          // the data are read again on each reload instead
+        }
+      }
+      return shared;
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Data Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Give the folder of the creation data.
+   *
+   * @return The folder.
+   */
+  public File getDirectory(){
+    return this.directory;
+  }
+
+  /**
+   * Give the current snapshot of the creation data. A generation should get
+   * it once and draw from it, so that it does not see a change in between.
+   *
+   * @return The current snapshot.
+   */
+  public Snapshot current(){
+    return this.current.get();
+  }
+
+  /**
+   * Read the files again if any of them changed since the current snapshot
+   * was read, and replace the current snapshot.
+   *
+   * @return true if the files changed.
+   * @throws RPGSCException If a file cannot be read. The current snapshot is
+   *                        kept.
+   */
+  public boolean reload() throws RPGSCException{
+    Snapshot read;
+    synchronized(this){
+      long[] now = stamp();
+      if(Arrays.equals(now, this.stamp)){
+        return false;
+      }
+      read = read();
+      if(!Arrays.equals(now, stamp())){                                         // changed while read, read on the next change
+        return false;
+      }
+      this.stamp = now;
+      this.current.set(read);
+    }
+    for(Runnable listener : this.listeners){
+      listener.run();
+    }
+    return true;
+  }
+
+  /**
+   * Add a listener called each time the creation data change. When the
+   * folder is watched, the listener is called from the watching thread.
+   *
+   * @param listener The listener.
+   */
+  public void addChangeListener(Runnable listener){
+    this.listeners.add(listener);
+  }
+
+  /**
+   * Remove a listener added by {@link #addChangeListener(Runnable)}.
+   *
+   * @param listener The listener.
+   */
+  public void removeChangeListener(Runnable listener){
+    this.listeners.remove(listener);
+  }
+
+
+  /****************************************************************************/
+  /** Watching Methods                                                       **/
+  /****************************************************************************/
+
+  /**
+   * Start following the changes of the folder in a background thread. Does
+   * nothing if the folder is already watched.
+   *
+   * @throws RPGSCException If the folder cannot be watched.
+   */
+  public synchronized void startWatching() throws RPGSCException{
+    if(this.watcher != null){
+      return;
+    }
+    try{
+      this.watcher = this.directory.toPath().getFileSystem().newWatchService();
+      this.directory.toPath().register(this.watcher,
+              StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_DELETE,
+              StandardWatchEventKinds.ENTRY_MODIFY);
+    }catch(IOException ioe){
+      close();
+      throw new RPGSCException("Unable to watch the creation data folder "
+              + this.directory.getName() + ".", ioe);
+    }
+    final WatchService toWatch = this.watcher;
+    Thread thread = new Thread(() -> watch(toWatch), "Creation data watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stop following the changes of the folder.
+   */
+  public synchronized void close(){
+    if(this.watcher != null){
+      try{
+        this.watcher.close();
+      }catch(IOException ioe){
+        // the watching thread stops anyway
+      }
+      this.watcher = null;
+    }
+  }
+
+  /**
+   * The loop of the watching thread: read the files again each time the
+   * folder changes, until the watch service is closed.
+   *
+   * @param toWatch The watch service.
+   */
+  private void watch(WatchService toWatch){
+    try{
+      while(true){
+        WatchKey key = toWatch.take();
+        key.pollEvents();
+        try{
+          reload();
+        }catch(RPGSCException e){
+          // a file being written, read again on its next change
+        }
+        if(!key.reset()){                                                       // the folder is gone
+          close();
+          return;
+        }
+      }
+    }catch(InterruptedException | ClosedWatchServiceException e){
+      // the creation data are closed
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Give the size and the last modification time of each file of the
+   * creation data.
+   *
+   * @return The sizes and times, two per file.
+   */
+  private long[] stamp(){
+    Category[] categories = Category.values();
+    long[] toReturn = new long[2 * (categories.length + 1)];
+    for(int i = 0 ; i <= categories.length ; ++i){
+      File file = new File(this.directory, (i == categories.length ? GAMES_FILE : categories[i].getFileName()));
+      toReturn[2 * i] = file.length();
+      toReturn[2 * i + 1] = file.lastModified();
+    }
+    return toReturn;
+  }
+
+  /**
+   * Read all the files into a snapshot.
+   *
+   * @return The snapshot.
+   * @throws RPGSCException If a file cannot be read.
+   */
+  private Snapshot read() throws RPGSCException{
+    ArrayList<String> games = new ArrayList<>();
+    HashMap<String,HashSet<String>> types = new HashMap<>();
+    for(String[] entry : parse(new File(this.directory, GAMES_FILE), false)){
+      if(!types.containsKey(entry[1])){
+        games.add(entry[1]);
+        types.put(entry[1], new HashSet<>());
+      }
+      types.get(entry[1]).add(GENERIC);
+      if(entry[0] != null){
+        types.get(entry[1]).addAll(Arrays.asList(entry[0].trim().split("\\s+")));
+      }
+    }
+    Category[] categories = Category.values();
+    HashMap<String,Pool[]> pools = new HashMap<>();
+    for(String game : games){
+      pools.put(game, new Pool[categories.length]);
+    }
+    Pool[] all = new Pool[categories.length];
+    for(Category category : categories){
+      ArrayList<String[]> entries = parse(new File(this.directory, category.getFileName()), true);
+      all[category.ordinal()] = pool(entries, null);
+      for(String game : games){
+        pools.get(game)[category.ordinal()] = pool(entries, types.get(game));
+      }
+    }
+    return new Snapshot(games, pools, all);
+  }
+
+  /**
+   * Build the pool of the entries of some types.
+   *
+   * @param entries The entries, as given by {@link #parse(File, boolean)}.
+   * @param types The types, null for all the entries.
+   * @return The pool.
+   */
+  private static Pool pool(ArrayList<String[]> entries, HashSet<String> types){
+    ArrayList<String> games = new ArrayList<>();
+    ArrayList<String> names = new ArrayList<>();
+    ArrayList<String> scores = new ArrayList<>();
+    for(String[] entry : entries){
+      if(types == null || entry[0] == null || types.contains(entry[0])){
+        games.add(entry[0]);
+        names.add(entry[1]);
+        scores.add(entry[2]);
+      }
+    }
+    double[] weights = new double[scores.size()];
+    for(int i = 0 ; i < weights.length ; ++i){
+      weights[i] = Double.parseDouble(scores.get(i));
+    }
+    return new Pool(games.toArray(new String[games.size()]), names.toArray(new String[names.size()]), weights);
+  }
+
+  /**
+   * Read the entries of a file: the tags with a text, inside &lt;game&gt;
+   * groups or not. An entry of a category needs a positive score to be kept.
+   *
+   * @param file The file, that may not exist.
+   * @param scored true for a file of a category, whose entries have a score,
+   *               false for the file of the games.
+   * @return For each entry, its type or null, its name and its score.
+   * @throws RPGSCException If the file cannot be read or a score is invalid.
+   */
+  private static ArrayList<String[]> parse(File file, boolean scored) throws RPGSCException{
+    ArrayList<String[]> toReturn = new ArrayList<>();
+    if(!file.isFile()){
+      return toReturn;
+    }
+    try(InputStream in = new BufferedInputStream(new FileInputStream(file))){
+      XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+      try{
+        String type = null;                                                     // the type of the current group
+        int depth = 0;
+        int groupDepth = -1;
+        while(reader.hasNext()){
+          int event = reader.next();
+          if(event == XMLStreamConstants.END_ELEMENT){
+            if(depth-- == groupDepth){
+              type = null;
+              groupDepth = -1;
+            }
+            continue;
+          }
+          if(event != XMLStreamConstants.START_ELEMENT){
+            continue;
+          }
+          depth++;
+          String score = reader.getAttributeValue(null, "score");
+          if(scored && score == null){                                          // the root or a group of entries
+            if("game".equals(reader.getLocalName())){
+              type = reader.getAttributeValue(null, "type");
+              groupDepth = depth;
+            }
+            continue;
+          }
+          if(!scored && depth == 1){                                            // the root
+            continue;
+          }
+          String entryType = (scored ? type : reader.getAttributeValue(null, "type"));
+          String name = reader.getElementText().trim();                         // at the end of the entry
+          depth--;
+          if(name.isEmpty() || (scored && score.trim().isEmpty())){             // an entry to come
+            continue;
+          }
+          if(scored){
+            double value;
+            try{
+              value = Double.parseDouble(score.trim());
+            }catch(NumberFormatException nfe){
+              throw new RPGSCException("Invalid score " + score + " of " + name
+                      + " in the creation data file " + file.getName() + ".", nfe);
+            }
+            if(!(value > 0) || Double.isInfinite(value)){                       // never drawn
+              continue;
+            }
+          }
+          toReturn.add(new String[]{entryType, name, (scored ? score.trim() : null)});
+        }
+      }finally{
+        reader.close();
+      }
+    }catch(XMLStreamException xse){
+      throw new RPGSCException("Invalid creation data file " + file.getName()
+              + ": " + xse.getMessage(), xse);
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to read the creation data file "
+              + file.getName() + ".", ioe);
+    }
+    return toReturn;
+  }
+
+  /**
+   * Create the factory of the pull parsers.
+   *
+   * @return The factory.
+   */
+  private static XMLInputFactory createFactory(){
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
+  }
+}
@@ -0,0 +1,144 @@
+package generation;
+
+/**
+ * The difficulty of a generated scenario, as offered by the main IHM. The
+ * harder the scenario, the more construction points it is given: more
+ * encounters, more threats in each element and more divergent paths.
+ *
+ * @author Nicolas Brax
+ */
+public enum Difficulty {
+
+  PIECE_OF_CAKE("Piece of Cake", 1, 0, 0.10, 1.2),
+  EASY("Easy", 2, 0, 0.15, 1.5),
+  NORMAL("Normal", 3, 1, 0.20, 1.8),
+  HARD("Hard", 4, 1, 0.30, 2.2),
+  HELL_ON_EARTH("Hell on Earth", 6, 2, 0.40, 2.8);
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The name of the difficulty as shown to the user.
+   */
+  private final String label;
+
+  /**
+   * The weight of the encounters among the elements, the other kinds of
+   * element weighing 2.
+   */
+  private final double encounterWeight;
+
+  /**
+   * The number of threats added to each encounter.
+   */
+  private final int threats;
+
+  /**
+   * The chance of an element to follow any of the elements before it rather
+   * than the last one, making the paths diverge.
+   */
+  private final double branching;
+
+  /**
+   * The construction points given to each element following the main one, on
+   * average, see {@link ScenarioConstraints}.
+   */
+  private final double points;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of a difficulty.
+   *
+   * @param label The name of the difficulty.
+   * @param encounterWeight The weight of the encounters among the elements.
+   * @param threats The number of threats added to each encounter.
+   * @param branching The chance of an element to follow any previous element.
+   * @param points The construction points given to each element.
+   */
+  private Difficulty(String label, double encounterWeight, int threats, double branching,
+          double points){
+    this.label = label;
+    this.encounterWeight = encounterWeight;
+    this.threats = threats;
+    this.branching = branching;
+    this.points = points;
+  }
+
+
+  /****************************************************************************/
+  /** Getter Methods                                                         **/
+  /****************************************************************************/
+
+  /**
+   * Give the name of the difficulty as shown to the user.
+   *
+   * @return The name of the difficulty.
+   */
+  public String getLabel(){
+    return this.label;
+  }
+
+  /**
+   * Give the weight of the encounters among the elements.
+   *
+   * @return The weight of the encounters.
+   */
+  public double getEncounterWeight(){
+    return this.encounterWeight;
+  }
+
+  /**
+   * Give the number of threats added to each encounter.
+   *
+   * @return The number of threats.
+   */
+  public int getThreats(){
+    return this.threats;
+  }
+
+  /**
+   * Give the chance of an element to follow any of the elements before it.
+   *
+   * @return The chance, between 0 and 1.
+   */
+  public double getBranching(){
+    return this.branching;
+  }
+
+  /**
+   * Give the construction points given to each element following the main
+   * one, on average.
+   *
+   * @return The construction points.
+   */
+  public double getPoints(){
+    return this.points;
+  }
+
+  /**
+   * Give the difficulty shown to the user with the given name.
+   *
+   * @param label The name of the difficulty.
+   * @return The difficulty.
+   * @throws IllegalArgumentException If no difficulty has this name.
+   */
+  public static Difficulty ofLabel(String label){
+    for(Difficulty difficulty : values()){
+      if(difficulty.label.equals(label)){
+        return difficulty;
+      }
+    }
+    throw new IllegalArgumentException("Unknown difficulty: " + label);
+  }
+
+  @Override
+  public String toString(){
+    return this.label;
+  }
+}
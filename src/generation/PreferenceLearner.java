@@ -0,0 +1,480 @@
+package generation;
+
+import generation.CreationData.Category;
+import generation.CreationData.Entry;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import tools.RPGSCException;
+
+/**
+ * This class learns the preferences of the players and of the game master
+ * from their judgement of the entries of the creation data: each entry
+ * accepted sees its score raised, each entry rejected sees it lowered, so
+ * that it is drawn more or less often by the next generations. An entry is
+ * the name given in a category inside a game group, see {@link Entry}: the
+ * same name given in another group, or in another category, keeps its score.
+ *
+ * A judgement only counts one more accept or reject of the entry, in striped
+ * counters, so that any number of threads can judge at once without waiting
+ * for each other or for the files. The counts are applied to the scores of
+ * the files a while after the first judgement, in one batch by file, by a
+ * background thread; the creation data are then read again, see
+ * {@link CreationData#reload()}. Each accept multiplies the score by 1.1 and
+ * each reject divides it by 1.1, within [{@link #MIN_SCORE},
+ * {@link #MAX_SCORE}]. A score of 0 is kept, its entry being left out on
+ * purpose.
+ *
+ * @author Nicolas Brax
+ */
+public class PreferenceLearner {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The factor a score is multiplied by for each accept.
+   */
+  private static final double RATE = 1.1;
+
+  /**
+   * The lowest score learnt, so that an entry rejected is still drawn from
+   * time to time.
+   */
+  public static final double MIN_SCORE = 1;
+
+  /**
+   * The highest score learnt, so that an entry accepted does not take the
+   * place of all the others.
+   */
+  public static final double MAX_SCORE = 1000;
+
+  /**
+   * The delay between the first judgement of a batch and its writing, in
+   * milliseconds.
+   */
+  private static final long WRITE_DELAY = 2000;
+
+  /**
+   * The name of the attribute holding the score of an entry.
+   */
+  private static final QName SCORE = new QName("score");
+
+  /**
+   * The name of the tags of the game groups of the entries.
+   */
+  private static final String GAME = "game";
+
+  /**
+   * The name of the attribute holding the type of a game group.
+   */
+  private static final QName TYPE = new QName("type");
+
+  /**
+   * The factory of the event readers rewriting the files.
+   */
+  private static final XMLInputFactory INPUT = createInput();
+
+  /**
+   * The factory of the event writers rewriting the files.
+   */
+  private static final XMLOutputFactory OUTPUT = XMLOutputFactory.newInstance();
+
+  /**
+   * The factory of the events written in place of the entries judged.
+   */
+  private static final XMLEventFactory EVENTS = XMLEventFactory.newInstance();
+
+  /**
+   * The judgements of an entry.
+   */
+  private static final class Counter {
+
+    /**
+     * The number of accepts.
+     */
+    private final LongAdder accepted = new LongAdder();
+
+    /**
+     * The number of rejects.
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * The number of accepts less the number of rejects already applied to
+     * the files, only used by the writing thread.
+     */
+    private long applied;
+  }
+
+  /**
+   * The creation data learnt.
+   */
+  private final CreationData data;
+
+  /**
+   * The judgements of the entries, by category then entry.
+   */
+  private final EnumMap<Category,ConcurrentHashMap<Entry,Counter>> counters = new EnumMap<>(Category.class);
+
+  /**
+   * True if a writing is scheduled.
+   */
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  /**
+   * The error of the last writing in the background, null if none or if a
+   * writing succeeded since. Thrown by the next flush or close.
+   */
+  private volatile RPGSCException failure;
+
+  /**
+   * The thread writing the scores.
+   */
+  private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread toReturn = new Thread(r, "Preference write-back");
+    toReturn.setDaemon(true);                                                   // never keeps the application alive
+    return toReturn;
+  });
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of a learner of the scores of creation data.
+   *
+   * @param data The creation data.
+   */
+  public PreferenceLearner(CreationData data){
+    this.data = data;
+    for(Category category : Category.values()){
+      this.counters.put(category, new ConcurrentHashMap<>());
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Judgement Methods                                                      **/
+  /****************************************************************************/
+
+  /**
+   * Accept an entry.
+   *
+   * @param entry The entry.
+   */
+  public void accept(Entry entry){
+    counter(entry).accepted.increment();
+    schedule();
+  }
+
+  /**
+   * Reject an entry.
+   *
+   * @param entry The entry.
+   */
+  public void reject(Entry entry){
+    counter(entry).rejected.increment();
+    schedule();
+  }
+
+  /**
+   * Accept all the entries drawn for a generated scenario, as given by
+   * {@link ConstrainedGenerator.Result#getDrawn()}.
+   *
+   * @param drawn The entries, an entry drawn twice being accepted twice.
+   */
+  public void accept(List<Entry> drawn){
+    judge(drawn, true);
+  }
+
+  /**
+   * Reject all the entries drawn for a generated scenario, as given by
+   * {@link ConstrainedGenerator.Result#getDrawn()}.
+   *
+   * @param drawn The entries, an entry drawn twice being rejected twice.
+   */
+  public void reject(List<Entry> drawn){
+    judge(drawn, false);
+  }
+
+  /**
+   * Write the judgements not written yet into the files at once, then read
+   * the creation data again. The judgements a writing in the background
+   * failed to write are written again.
+   *
+   * @throws RPGSCException If a file cannot be read or written, or if the
+   *                        wait is interrupted after a writing in the
+   *                        background failed. The judgements of the entries
+   *                        of the file are written next time.
+   */
+  public void flush() throws RPGSCException{
+    try{
+      this.writer.submit(() -> {
+        write();
+        return null;
+      }).get();
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      RPGSCException failed = this.failure;
+      if(failed != null){
+        throw failed;
+      }
+    }catch(ExecutionException e){
+      if(e.getCause() instanceof RPGSCException){
+        throw (RPGSCException)e.getCause();
+      }
+      throw new RPGSCException(e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  /**
+   * Write the judgements not written yet, then stop the writing thread. The
+   * following judgements are not written anymore.
+   *
+   * @throws RPGSCException If a file cannot be read or written.
+   */
+  public void close() throws RPGSCException{
+    try{
+      flush();
+    }finally{
+      this.writer.shutdown();
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Give the counter of an entry, created if needed.
+   *
+   * @param entry The entry.
+   * @return The counter.
+   */
+  private Counter counter(Entry entry){
+    ConcurrentHashMap<Entry,Counter> ofCategory = this.counters.get(entry.getCategory());
+    Counter toReturn = ofCategory.get(entry);                                   // no lock once the entry is known
+    return (toReturn != null ? toReturn : ofCategory.computeIfAbsent(entry, k -> new Counter()));
+  }
+
+  /**
+   * Judge all the entries drawn for a generated scenario.
+   *
+   * @param drawn The entries.
+   * @param accepted true to accept the entries, false to reject them.
+   */
+  private void judge(List<Entry> drawn, boolean accepted){
+    for(Entry entry : drawn){
+      Counter counter = counter(entry);
+      (accepted ? counter.accepted : counter.rejected).increment();
+    }
+    schedule();
+  }
+
+  /**
+   * Schedule the writing of the judgements, unless it is already scheduled or
+   * the learner is closed.
+   */
+  private void schedule(){
+    if(this.writer.isShutdown()){                                               // closed
+      return;
+    }
+    if(this.scheduled.compareAndSet(false, true)){
+      this.writer.schedule(() -> {
+        try{
+          write();
+        }catch(RPGSCException e){
+          this.failure = e;                                                     // written with the next batch
+        }
+      }, WRITE_DELAY, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Write the judgements not written yet into the files, from the writing
+   * thread, then read the creation data again.
+   *
+   * @throws RPGSCException If a file cannot be read or written.
+   */
+  private void write() throws RPGSCException{
+    this.scheduled.set(false);                                                  // the judgements from now on schedule a writing
+    RPGSCException failed = null;
+    for(Category category : Category.values()){
+      HashMap<Entry,Long> changes = new HashMap<>();
+      HashMap<Entry,Counter> judged = new HashMap<>();
+      for(Map.Entry<Entry,Counter> entry : this.counters.get(category).entrySet()){
+        Counter counter = entry.getValue();
+        long net = counter.accepted.sum() - counter.rejected.sum();             // only grows with the judgements
+        if(net != counter.applied){
+          changes.put(entry.getKey(), net - counter.applied);
+          judged.put(entry.getKey(), counter);
+        }
+      }
+      if(changes.isEmpty()){
+        continue;
+      }
+      try{
+        rewrite(new File(this.data.getDirectory(), category.getFileName()), category, changes);
+        for(Map.Entry<Entry,Counter> entry : judged.entrySet()){
+          entry.getValue().applied += changes.get(entry.getKey());
+        }
+      }catch(RPGSCException e){
+        failed = e;
+      }
+    }
+    this.data.reload();
+    if(failed != null){
+      throw failed;
+    }
+    this.failure = null;
+  }
+
+  /**
+   * Rewrite a file of the creation data with the scores of some entries
+   * changed, each entry being found by its name inside its game group. The
+   * file is written aside then put in place of the previous one.
+   *
+   * @param file The file.
+   * @param category The category of the entries of the file.
+   * @param changes The number of accepts less the number of rejects of each
+   *                entry changed.
+   * @throws RPGSCException If the file cannot be read or written.
+   */
+  private static void rewrite(File file, Category category, HashMap<Entry,Long> changes) throws RPGSCException{
+    File aside = new File(file + ".saving");
+    try(InputStream in = new BufferedInputStream(new FileInputStream(file));
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(aside))){
+      XMLEventReader reader = INPUT.createXMLEventReader(in);
+      XMLEventWriter writer = OUTPUT.createXMLEventWriter(out, "UTF-8");
+      String game = null;                                                       // the type of the current group
+      while(reader.hasNext()){
+        XMLEvent event = reader.nextEvent();
+        if(event.isStartDocument()){                                            // the files are kept without declaration
+          continue;
+        }
+        if(!event.isStartElement() || event.asStartElement().getAttributeByName(SCORE) == null){
+          if(event.isStartElement() && GAME.equals(event.asStartElement().getName().getLocalPart())){
+            Attribute type = event.asStartElement().getAttributeByName(TYPE);
+            game = (type == null ? null : type.getValue());
+          }
+          else if(event.isEndElement() && GAME.equals(event.asEndElement().getName().getLocalPart())){
+            game = null;
+          }
+          writer.add(event);
+          continue;
+        }
+        ArrayList<XMLEvent> entry = new ArrayList<>();                          // the entry, up to its end, to know its name
+        StringBuilder name = new StringBuilder();
+        XMLEvent next;
+        while(!(next = reader.nextEvent()).isEndElement()){
+          if(next.isCharacters()){
+            name.append(next.asCharacters().getData());
+          }
+          entry.add(next);
+        }
+        entry.add(next);
+        Long change = changes.get(new Entry(game, category, name.toString().trim()));
+        writer.add(change == null ? event : scored(event.asStartElement(), change));
+        for(XMLEvent e : entry){
+          writer.add(e);
+        }
+      }
+      writer.close();                                                           // leaves the stream open
+      reader.close();
+      out.write('\n');                                                          // the reader drops the end of line of the file
+    }catch(XMLStreamException xse){
+      aside.delete();
+      throw new RPGSCException("Invalid creation data file " + file.getName()
+              + ": " + xse.getMessage(), xse);
+    }catch(IOException ioe){
+      aside.delete();
+      throw new RPGSCException("Unable to write the creation data file "
+              + file.getName() + ".", ioe);
+    }
+    try{
+      Files.move(aside.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }catch(IOException ioe){
+      aside.delete();
+      throw new RPGSCException("Unable to write the creation data file "
+              + file.getName() + ".", ioe);
+    }
+  }
+
+  /**
+   * Give the start of an entry with its score changed.
+   *
+   * @param start The start of the entry.
+   * @param change The number of accepts less the number of rejects.
+   * @return The start of the entry with the new score, the same start if the
+   *         score is empty or invalid.
+   */
+  private static StartElement scored(StartElement start, long change){
+    double score;
+    try{
+      score = Double.parseDouble(start.getAttributeByName(SCORE).getValue().trim());
+    }catch(NumberFormatException e){
+      return start;
+    }
+    if(score <= 0){
+      return start;
+    }
+    score = Math.max(MIN_SCORE, Math.min(MAX_SCORE, score * Math.pow(RATE, change)));
+    ArrayList<Attribute> attributes = new ArrayList<>();
+    for(Iterator<?> it = start.getAttributes() ; it.hasNext() ; ){
+      Attribute attribute = (Attribute)it.next();
+      attributes.add(SCORE.equals(attribute.getName()) ? EVENTS.createAttribute(SCORE,
+              new BigDecimal(score).setScale(2, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString())
+              : attribute);
+    }
+    return EVENTS.createStartElement(start.getName(), attributes.iterator(), start.getNamespaces());
+  }
+
+  /**
+   * Create the factory of the event readers. DTD and external entities are
+   * disabled as a creation data file never needs them.
+   *
+   * @return The factory.
+   */
+  private static XMLInputFactory createInput(){
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
+  }
+}
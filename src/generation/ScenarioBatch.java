@@ -0,0 +1,360 @@
+package generation;
+
+import java.io.File;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import scenario.Scenario;
+import tools.ProgressListener;
+import tools.RPGSCException;
+import tools.ScenarioBinaryWriter;
+import tools.ScenarioFormat;
+import tools.ScenarioXmlWriter;
+import tools.XmlTool;
+
+/**
+ * This class generates a pool of scenarios at once, on all the processors,
+ * and writes each scenario into its own file as soon as it is generated, so
+ * that the pool is never held in memory.
+ *
+ * The scenarios are numbered, and the range of their numbers is split in
+ * halves by a fork join task down to small ranges, each half being given its
+ * own random generator split from the one of the whole range. The way the
+ * ranges are split does not depend on the threads, so the same seed always
+ * gives the same scenarios, whatever the number of threads generating them.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioBatch {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The number of scenarios under which a range is generated by one thread.
+   * It must not change, as it decides the random generator of each scenario.
+   */
+  private static final int LEAF_SIZE = 16;
+
+  /**
+   * The generator of the scenarios.
+   */
+  private final ScenarioGenerator generator;
+
+  /**
+   * The number of elements of each scenario.
+   */
+  private final int elementCount;
+
+  /**
+   * The difficulty of the scenarios.
+   */
+  private final Difficulty difficulty;
+
+  /**
+   * The format of the files written.
+   */
+  private ScenarioFormat format = ScenarioFormat.XML;
+
+  /**
+   * The number of threads generating the scenarios, 0 for the common pool of
+   * the fork join tasks.
+   */
+  private int parallelism;
+
+  /**
+   * The listener of the progress of the generation, in scenarios, null if
+   * none.
+   */
+  private ProgressListener progressListener;
+
+  /**
+   * A generation of a pool of scenarios.
+   */
+  private static final class Run {
+
+    /**
+     * The name of the pool, the title of each scenario being the name of the
+     * pool followed by the number of the scenario.
+     */
+    private final String name;
+
+    /**
+     * The folder the files are written in.
+     */
+    private final File folder;
+
+    /**
+     * The number of scenarios of the pool.
+     */
+    private final int count;
+
+    /**
+     * The number of scenarios written so far.
+     */
+    private final AtomicLong done = new AtomicLong();
+
+    /**
+     * Constructor of a generation.
+     *
+     * @param name The name of the pool.
+     * @param folder The folder the files are written in.
+     * @param count The number of scenarios of the pool.
+     */
+    private Run(String name, File folder, int count){
+      this.name = name;
+      this.folder = folder;
+      this.count = count;
+    }
+  }
+
+  /**
+   * The generation of a range of scenarios of a pool.
+   */
+  private final class Part extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The generation the range belongs to.
+     */
+    private final Run run;
+
+    /**
+     * The number of the first scenario of the range.
+     */
+    private final int from;
+
+    /**
+     * The number of the scenario following the range.
+     */
+    private final int to;
+
+    /**
+     * The random generator of the range.
+     */
+    private final SplittableRandom random;
+
+    /**
+     * Constructor of the generation of a range.
+     *
+     * @param run The generation the range belongs to.
+     * @param from The number of the first scenario of the range.
+     * @param to The number of the scenario following the range.
+     * @param random The random generator of the range.
+     */
+    private Part(Run run, int from, int to, SplittableRandom random){
+      this.run = run;
+      this.from = from;
+      this.to = to;
+      this.random = random;
+    }
+
+    @Override
+    protected void compute(){
+      if(this.to - this.from > LEAF_SIZE){
+        int middle = (this.from + this.to) >>> 1;
+        SplittableRandom second = this.random.split();                          // split before either half draws
+        invokeAll(new Part(this.run, this.from, middle, this.random),
+                  new Part(this.run, middle, this.to, second));
+        return;
+      }
+      try{
+        write(this.run, this.from, this.to, this.random);
+      }catch(RPGSCException e){
+        throw new BatchException(e);
+      }
+    }
+  }
+
+  /**
+   * An exception carrying an {@link RPGSCException} out of a fork join task.
+   */
+  private static final class BatchException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor of an exception carrying another one.
+     *
+     * @param cause The exception carried.
+     */
+    private BatchException(RPGSCException cause){
+      super(cause);
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of a batch generating scenarios alike.
+   *
+   * @param generator The generator of the scenarios.
+   * @param elementCount The number of elements of each scenario, at least 1.
+   * @param difficulty The difficulty of the scenarios.
+   */
+  public ScenarioBatch(ScenarioGenerator generator, int elementCount, Difficulty difficulty){
+    if(elementCount < 1){
+      throw new IllegalArgumentException("A scenario has at least one element.");
+    }
+    this.generator = generator;
+    this.elementCount = elementCount;
+    this.difficulty = difficulty;
+  }
+
+
+  /****************************************************************************/
+  /** Generation Methods                                                     **/
+  /****************************************************************************/
+
+  /**
+   * Generate a pool of scenarios from the command line, into the batch folder
+   * of the data, see {@link XmlTool#getBatchFolder()}.
+   *
+   * @param args The number of scenarios, then optionally the seed, the number
+   *             of elements of each scenario, the difficulty as numbered in
+   *             the main IHM from 0 and the format, "xml" or "binary".
+   */
+  public static void main(String[] args){
+    if(args.length == 0){
+      System.err.println("Usage: ScenarioBatch count [seed [elements [difficulty [xml|binary]]]]");
+      System.exit(2);
+    }
+    try{
+      int count = Integer.parseInt(args[0]);
+      long seed = (args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime());
+      int elements = (args.length > 2 ? Integer.parseInt(args[2]) : 10);
+      Difficulty difficulty = Difficulty.values()[args.length > 3 ? Integer.parseInt(args[3]) : Difficulty.NORMAL.ordinal()];
+      XmlTool xml = new XmlTool();
+      ScenarioBatch batch = new ScenarioBatch(
+              new ScenarioGenerator(new CreationData(xml.getCreationDataFolder())), elements, difficulty);
+      if(args.length > 4 && "binary".equalsIgnoreCase(args[4])){
+        batch.setFormat(ScenarioFormat.BINARY);
+      }
+      long start = System.nanoTime();
+      batch.generate("Batch " + seed, count, seed, xml.getBatchFolder());
+      System.out.println(count + " scenario(s) generated with the seed " + seed + " in "
+              + (System.nanoTime() - start) / 1000000 + " ms.");
+    }catch(RPGSCException | IllegalArgumentException | IndexOutOfBoundsException e){
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Set the format of the files written, XML by default. The XML files are
+   * written compact.
+   *
+   * @param format The format of the files.
+   */
+  public void setFormat(ScenarioFormat format){
+    this.format = format;
+  }
+
+  /**
+   * Set the number of threads generating the scenarios. It has no effect on
+   * the scenarios generated.
+   *
+   * @param parallelism The number of threads, 0 for the common pool of the
+   *                    fork join tasks.
+   */
+  public void setParallelism(int parallelism){
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Set the listener of the progress of the generation, in scenarios. It is
+   * called from the threads generating the scenarios, and may stop the
+   * generation by throwing a {@link java.util.concurrent.CancellationException}.
+   *
+   * @param progressListener The listener, null for none.
+   */
+  public void setProgressListener(ProgressListener progressListener){
+    this.progressListener = progressListener;
+  }
+
+  /**
+   * Generate a pool of scenarios, each one into a file of the folder named
+   * after its title, see {@link #titleOf(String, int)}. The same seed gives
+   * the same pool.
+   *
+   * @param name The name of the pool.
+   * @param count The number of scenarios.
+   * @param seed The seed of the random generation.
+   * @param folder The folder to write the files in, created if needed.
+   * @throws RPGSCException If a file cannot be written.
+   */
+  public void generate(String name, int count, long seed, File folder) throws RPGSCException{
+    if(!folder.isDirectory() && !folder.mkdirs()){
+      throw new RPGSCException("Unable to create the folder " + folder.getName() + ".");
+    }
+    Part whole = new Part(new Run(name, folder, count), 0, count, new SplittableRandom(seed));
+    ForkJoinPool pool = (this.parallelism > 0 ? new ForkJoinPool(this.parallelism) : ForkJoinPool.commonPool());
+    try{
+      pool.invoke(whole);
+    }catch(BatchException e){
+      throw (RPGSCException)e.getCause();
+    }finally{
+      if(pool != ForkJoinPool.commonPool()){
+        pool.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Give the title of a scenario of a pool: the name of the pool followed by
+   * the number of the scenario, from 1, on six digits at least.
+   *
+   * @param name The name of the pool.
+   * @param number The number of the scenario, from 0.
+   * @return The title of the scenario.
+   */
+  public static String titleOf(String name, int number){
+    String digits = Integer.toString(number + 1);
+    StringBuilder toReturn = new StringBuilder(name).append(' ');
+    for(int i = digits.length() ; i < 6 ; ++i){
+      toReturn.append('0');
+    }
+    return toReturn.append(digits).toString();
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Generate a range of scenarios one after the other, each one written as
+   * soon as generated.
+   *
+   * @param run The generation the range belongs to.
+   * @param from The number of the first scenario of the range.
+   * @param to The number of the scenario following the range.
+   * @param random The random generator of the range.
+   * @throws RPGSCException If a file cannot be written.
+   */
+  private void write(Run run, int from, int to, SplittableRandom random) throws RPGSCException{
+    ScenarioXmlWriter xml = (this.format == ScenarioFormat.XML ? new ScenarioXmlWriter(false, false) : null);
+    ScenarioBinaryWriter binary = (xml == null ? new ScenarioBinaryWriter() : null);
+    for(int i = from ; i < to ; ++i){
+      Scenario generated = this.generator.generate(this.elementCount, this.difficulty, random);
+      generated.setTitle(titleOf(run.name, i));
+      File outputFile = new File(run.folder, generated.getTitle() + this.format.getExtension());
+      if(xml != null){
+        xml.write(generated, outputFile);
+      }
+      else{
+        binary.write(generated, outputFile);
+      }
+      long done = run.done.incrementAndGet();
+      if(this.progressListener != null){
+        this.progressListener.progressed(done, run.count);
+      }
+    }
+  }
+}
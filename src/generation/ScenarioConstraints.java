@@ -0,0 +1,274 @@
+package generation;
+
+/**
+ * This class holds the constraints a scenario generated by a
+ * {@link ConstrainedGenerator} must satisfy:
+ *  - its number of elements;
+ *  - its number of endings, the elements followed by no other one;
+ *  - its branching: the number of elements an element can be followed by at
+ *    most, and the number of divergences, the elements followed by several
+ *    ones, at least;
+ *  - its budget of construction points, each element but the main one
+ *    costing points after its kind: 1 for a secondary character or location,
+ *    2 for a secondary objective, 3 for a hidden objective, 2 for an
+ *    encounter plus 1 for each of its threats.
+ *
+ * The search looks for the scenario whose cost is the nearest to the target
+ * of the budget, within the time limit.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioConstraints {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The number of elements.
+   */
+  private final int elementCount;
+
+  /**
+   * The difficulty of the scenario.
+   */
+  private final Difficulty difficulty;
+
+  /**
+   * The number of endings at least.
+   */
+  private int minEndings;
+
+  /**
+   * The number of endings at most.
+   */
+  private int maxEndings;
+
+  /**
+   * The number of elements an element can be followed by at most.
+   */
+  private int maxNexts;
+
+  /**
+   * The number of divergences at least.
+   */
+  private int minDivergences;
+
+  /**
+   * The construction points at least.
+   */
+  private int minPoints;
+
+  /**
+   * The construction points at most.
+   */
+  private int maxPoints;
+
+  /**
+   * The construction points aimed at.
+   */
+  private int targetPoints;
+
+  /**
+   * The time given to the search, in milliseconds.
+   */
+  private long timeLimit = 1000;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of the constraints of a scenario, set after its difficulty:
+   *  - between 1 and a third of the elements as endings, enough for the
+   *    divergences;
+   *  - at most 3 elements following an element, and half as many divergences
+   *    as the chance of the paths to diverge gives on average;
+   *  - the construction points of the difficulty for each element but the
+   *    main one, give or take 10%.
+   *
+   * @param elementCount The number of elements, at least 1.
+   * @param difficulty The difficulty of the scenario.
+   */
+  public ScenarioConstraints(int elementCount, Difficulty difficulty){
+    if(elementCount < 1){
+      throw new IllegalArgumentException("A scenario has at least one element.");
+    }
+    this.elementCount = elementCount;
+    this.difficulty = difficulty;
+    this.maxNexts = 3;
+    this.minDivergences = (int)(difficulty.getBranching() * (elementCount - 1) / 2);
+    this.minEndings = 1;
+    this.maxEndings = Math.max(1 + this.minDivergences, (elementCount + 2) / 3);
+    this.targetPoints = (int)Math.round(difficulty.getPoints() * (elementCount - 1));
+    this.minPoints = (int)Math.floor(this.targetPoints * 0.9);
+    this.maxPoints = (int)Math.ceil(this.targetPoints * 1.1);
+  }
+
+
+  /****************************************************************************/
+  /** Getter and Setter Methods                                              **/
+  /****************************************************************************/
+
+  /**
+   * Give the number of elements.
+   *
+   * @return The number of elements.
+   */
+  public int getElementCount(){
+    return this.elementCount;
+  }
+
+  /**
+   * Give the difficulty of the scenario.
+   *
+   * @return The difficulty.
+   */
+  public Difficulty getDifficulty(){
+    return this.difficulty;
+  }
+
+  /**
+   * Give the number of endings at least.
+   *
+   * @return The number of endings.
+   */
+  public int getMinEndings(){
+    return this.minEndings;
+  }
+
+  /**
+   * Give the number of endings at most.
+   *
+   * @return The number of endings.
+   */
+  public int getMaxEndings(){
+    return this.maxEndings;
+  }
+
+  /**
+   * Set the number of endings.
+   *
+   * @param minEndings The number of endings at least.
+   * @param maxEndings The number of endings at most.
+   */
+  public void setEndings(int minEndings, int maxEndings){
+    this.minEndings = minEndings;
+    this.maxEndings = maxEndings;
+  }
+
+  /**
+   * Give the number of elements an element can be followed by at most.
+   *
+   * @return The number of elements.
+   */
+  public int getMaxNexts(){
+    return this.maxNexts;
+  }
+
+  /**
+   * Set the number of elements an element can be followed by at most.
+   *
+   * @param maxNexts The number of elements, at least 1.
+   */
+  public void setMaxNexts(int maxNexts){
+    this.maxNexts = maxNexts;
+  }
+
+  /**
+   * Give the number of divergences at least.
+   *
+   * @return The number of divergences.
+   */
+  public int getMinDivergences(){
+    return this.minDivergences;
+  }
+
+  /**
+   * Set the number of divergences at least.
+   *
+   * @param minDivergences The number of divergences.
+   */
+  public void setMinDivergences(int minDivergences){
+    this.minDivergences = minDivergences;
+  }
+
+  /**
+   * Give the construction points at least.
+   *
+   * @return The construction points.
+   */
+  public int getMinPoints(){
+    return this.minPoints;
+  }
+
+  /**
+   * Give the construction points at most.
+   *
+   * @return The construction points.
+   */
+  public int getMaxPoints(){
+    return this.maxPoints;
+  }
+
+  /**
+   * Give the construction points aimed at.
+   *
+   * @return The construction points.
+   */
+  public int getTargetPoints(){
+    return this.targetPoints;
+  }
+
+  /**
+   * Set the budget of construction points.
+   *
+   * @param minPoints The construction points at least.
+   * @param targetPoints The construction points aimed at, between the two
+   *                     others.
+   * @param maxPoints The construction points at most.
+   */
+  public void setPoints(int minPoints, int targetPoints, int maxPoints){
+    this.minPoints = minPoints;
+    this.targetPoints = targetPoints;
+    this.maxPoints = maxPoints;
+  }
+
+  /**
+   * Give the time given to the search.
+   *
+   * @return The time, in milliseconds.
+   */
+  public long getTimeLimit(){
+    return this.timeLimit;
+  }
+
+  /**
+   * Set the time given to the search.
+   *
+   * @param timeLimit The time, in milliseconds.
+   */
+  public void setTimeLimit(long timeLimit){
+    this.timeLimit = timeLimit;
+  }
+
+  /**
+   * Give the cost of an element in construction points.
+   *
+   * @param kind The kind of the element, see {@link ScenarioGenerator}.
+   * @return The cost of the element.
+   */
+  int cost(int kind){
+    switch(kind){
+      case ScenarioGenerator.OBJECTIVE:
+        return 2;
+      case ScenarioGenerator.HIDDEN:
+        return 3;
+      case ScenarioGenerator.ENCOUNTER:
+        return 2 + this.difficulty.getThreats();
+      default:
+        return 1;
+    }
+  }
+}
@@ -0,0 +1,353 @@
+package generation;
+
+import generation.CreationData.Category;
+import generation.CreationData.Entry;
+import generation.CreationData.Pool;
+import generation.CreationData.Snapshot;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import scenario.Scenario;
+import tools.RPGSCException;
+
+/**
+ * This class generates scenarios at random from the creation data: the races,
+ * characters, motivations, objectives, locations and monsters of a game, see
+ * {@link CreationData}, each one with a score.
+ *
+ * Each entry is drawn in proportion to its score, in a constant time. An entry
+ * without a score, or with a score of 0, is never drawn. Each scenario is
+ * drawn from the snapshot of the creation data current when it starts, even
+ * if the files change meanwhile. A generator can be used by several threads
+ * at once.
+ *
+ * A generated scenario starts with its main element: the main protagonist,
+ * its motivation, the main objective and the main location. Each following
+ * element is a secondary character, objective or location, a hidden objective
+ * or an encounter, drawn according to the difficulty, and follows the element
+ * just before it, or any previous one when the paths diverge.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioGenerator {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * A random generator drawing from a splittable one, so that the scenarios
+   * can be drawn by the same code from both kinds of generators. It is not
+   * thread safe, as the splittable generator it draws from.
+   */
+  private static final class SplitRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The splittable generator drawn from.
+     */
+    private final SplittableRandom source;
+
+    /**
+     * Constructor of a generator drawing from a splittable one.
+     *
+     * @param source The splittable generator.
+     */
+    private SplitRandom(SplittableRandom source){
+      this.source = source;
+    }
+
+    @Override
+    protected int next(int bits){
+      return (int)(this.source.nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public int nextInt(int bound){
+      return this.source.nextInt(bound);
+    }
+
+    @Override
+    public double nextDouble(){
+      return this.source.nextDouble();
+    }
+  }
+
+  /**
+   * The kinds of element following the main one, in the order of their
+   * weights, see {@link #KIND_WEIGHTS}.
+   */
+  static final int CHARACTER = 0, OBJECTIVE = 1, LOCATION = 2, HIDDEN = 3,
+          ENCOUNTER = 4, KIND_COUNT = 5;
+
+  /**
+   * The weights of the kinds of element but the encounters, whose weight
+   * depends on the difficulty.
+   */
+  private static final double[] KIND_WEIGHTS = {2, 2, 2, 1};
+
+  /**
+   * The creation data drawn from.
+   */
+  private final CreationData data;
+
+  /**
+   * The game of the scenarios, null for the entries of all the games.
+   */
+  private final String game;
+
+  /**
+   * The table drawing the kind of the elements, by difficulty.
+   */
+  private static final EnumMap<Difficulty,AliasTable> KINDS = createKinds();
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of a generator drawing the entries of all the games.
+   *
+   * @param data The creation data.
+   */
+  public ScenarioGenerator(CreationData data){
+    this.data = data;
+    this.game = null;
+  }
+
+  /**
+   * Constructor of a generator drawing the entries of a game.
+   *
+   * @param data The creation data.
+   * @param game The name of the game, see {@link Snapshot#getGames()}.
+   * @throws RPGSCException If the game is not known.
+   */
+  public ScenarioGenerator(CreationData data, String game) throws RPGSCException{
+    if(!data.current().getGames().contains(game)){
+      throw new RPGSCException("The game " + game + " is not known.");
+    }
+    this.data = data;
+    this.game = game;
+  }
+
+
+  /****************************************************************************/
+  /** Generation Methods                                                     **/
+  /****************************************************************************/
+
+  /**
+   * Generate a scenario, drawing with the random generator of the current
+   * thread. The scenario has no title.
+   *
+   * @param elementCount The number of elements of the scenario, at least 1.
+   * @param difficulty The difficulty of the scenario.
+   * @return The scenario generated.
+   */
+  public Scenario generate(int elementCount, Difficulty difficulty){
+    return generate(elementCount, difficulty, ThreadLocalRandom.current());
+  }
+
+  /**
+   * Generate a scenario. The scenario has no title, and the same random
+   * generator in the same state gives the same scenario.
+   *
+   * @param elementCount The number of elements of the scenario, at least 1.
+   * @param difficulty The difficulty of the scenario.
+   * @param random The random generator to draw with.
+   * @return The scenario generated.
+   */
+  public Scenario generate(int elementCount, Difficulty difficulty, Random random){
+    return generate(elementCount, difficulty, random, null);
+  }
+
+  /**
+   * Generate a scenario, as {@link #generate(int, Difficulty, Random)}, giving
+   * the entries drawn for its cores, so that they can be judged, see
+   * {@link PreferenceLearner}.
+   *
+   * @param elementCount The number of elements of the scenario, at least 1.
+   * @param difficulty The difficulty of the scenario.
+   * @param random The random generator to draw with.
+   * @param drawn The list the entries drawn are added to, in order, null if
+   *              they are not needed.
+   * @return The scenario generated.
+   */
+  public Scenario generate(int elementCount, Difficulty difficulty, Random random, List<Entry> drawn){
+    if(elementCount < 1){
+      throw new IllegalArgumentException("A scenario has at least one element.");
+    }
+    int[] previous = new int[elementCount];
+    int[] kinds = new int[elementCount];
+    AliasTable kind = KINDS.get(difficulty);
+    for(int i = 1 ; i < elementCount ; ++i){                                    // follows the last element, or any when diverging
+      kinds[i] = kind.sample(random);
+      previous[i] = (random.nextDouble() < difficulty.getBranching() ? random.nextInt(i) : i - 1);
+    }
+    return build(previous, kinds, elementCount, difficulty, random, drawn);
+  }
+
+  /**
+   * Generate a scenario drawing from a splittable random generator, as
+   * {@link #generate(int, Difficulty, Random)}. The same generator in the same
+   * state gives the same scenario.
+   *
+   * @param elementCount The number of elements of the scenario, at least 1.
+   * @param difficulty The difficulty of the scenario.
+   * @param random The splittable random generator to draw with.
+   * @return The scenario generated.
+   */
+  public Scenario generate(int elementCount, Difficulty difficulty, SplittableRandom random){
+    return generate(elementCount, difficulty, new SplitRandom(random));
+  }
+
+
+  /**
+   * Build a scenario whose structure is given: the main element first, then
+   * each element following one of the elements before it. The cores of the
+   * elements are drawn from the creation data.
+   *
+   * @param previous The index of the element each element follows, the main
+   *                 element being at 0, ignored for the main element.
+   * @param kinds The kind of each element, ignored for the main element.
+   * @param elementCount The number of elements, at least 1, the numbers of
+   *                     the elements following being ignored.
+   * @param difficulty The difficulty of the scenario.
+   * @param random The random generator to draw with.
+   * @param drawn The list the entries drawn are added to, in order, null if
+   *              they are not needed.
+   * @return The scenario built.
+   */
+  Scenario build(int[] previous, int[] kinds, int elementCount, Difficulty difficulty, Random random, List<Entry> drawn){
+    Scenario toReturn = new Scenario();
+    String[] ids = new String[elementCount];
+    Snapshot snapshot = this.data.current();                                    // the same data for the whole scenario
+    for(int i = 0 ; i < elementCount ; ++i){
+      ids[i] = idOf(i + 1);
+      ArrayList<String> core = new ArrayList<>();
+      if(i == 0){                                                               // the main element
+        core.add(line(snapshot, "Main protagonist", random, drawn, Category.RACES, Category.CHARACTERS));
+        core.add(line(snapshot, "Motivation", random, drawn, Category.MOTIVATIONS));
+        core.add(line(snapshot, "Main objective", random, drawn, Category.OBJECTIVES));
+        core.add(line(snapshot, "Main location", random, drawn, Category.LOCATIONS));
+      }
+      else{
+        fill(snapshot, core, kinds[i], difficulty, random, drawn);
+      }
+      toReturn.addElement(ids[i], core, true);
+      if(i > 0){
+        toReturn.getElement(ids[previous[i]]).addNextElement(ids[i]);
+        toReturn.getElement(ids[i]).addPreviousElement(ids[previous[i]]);
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Give the table drawing the kind of the elements for a difficulty.
+   *
+   * @param difficulty The difficulty.
+   * @return The table, drawing among {@link #KIND_COUNT} kinds.
+   */
+  static AliasTable kinds(Difficulty difficulty){
+    return KINDS.get(difficulty);
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Fill the core of an element following the main one.
+   *
+   * @param snapshot The creation data to draw from.
+   * @param core The core to fill.
+   * @param kind The kind of the element.
+   * @param difficulty The difficulty of the scenario.
+   * @param random The random generator to draw with.
+   * @param drawn The list the entries drawn are added to, null if none.
+   */
+  private void fill(Snapshot snapshot, ArrayList<String> core, int kind, Difficulty difficulty, Random random, List<Entry> drawn){
+    switch(kind){
+      case CHARACTER:
+        core.add(line(snapshot, "Secondary character", random, drawn, Category.RACES, Category.CHARACTERS));
+        core.add(line(snapshot, "Motivation", random, drawn, Category.MOTIVATIONS));
+        break;
+      case OBJECTIVE:
+        core.add(line(snapshot, "Secondary objective", random, drawn, Category.OBJECTIVES));
+        break;
+      case LOCATION:
+        core.add(line(snapshot, "Location", random, drawn, Category.LOCATIONS));
+        break;
+      case HIDDEN:
+        core.add(line(snapshot, "Hidden objective", random, drawn, Category.OBJECTIVES));
+        core.add(line(snapshot, "Hidden location", random, drawn, Category.LOCATIONS));
+        break;
+      default:
+        core.add(line(snapshot, "Encounter", random, drawn, Category.MONSTERS));
+        for(int i = 0 ; i < difficulty.getThreats() ; ++i){
+          core.add(line(snapshot, "Threat", random, drawn, Category.MONSTERS));
+        }
+    }
+  }
+
+  /**
+   * Build a line of the core of an element: a label followed by an entry drawn
+   * from each category given, the empty categories being skipped.
+   *
+   * @param snapshot The creation data to draw from.
+   * @param label The label of the line.
+   * @param random The random generator to draw with.
+   * @param drawn The list the entries drawn are added to, null if none.
+   * @param categories The categories to draw from.
+   * @return The line.
+   */
+  private String line(Snapshot snapshot, String label, Random random, List<Entry> drawn, Category... categories){
+    StringBuilder toReturn = new StringBuilder(label);
+    char separator = ':';
+    for(Category category : categories){
+      Pool pool = snapshot.getPool(this.game, category);
+      if(!pool.isEmpty()){
+        int index = pool.draw(random);
+        toReturn.append(separator).append(' ').append(pool.getName(index));
+        separator = ',';
+        if(drawn != null){
+          drawn.add(new Entry(pool.getGame(index), category, pool.getName(index)));
+        }
+      }
+    }
+    return toReturn.toString();
+  }
+
+  /**
+   * Give the id of an element of a generated scenario, numbered as the ids
+   * given by {@link Scenario#createID()}.
+   *
+   * @param number The number of the element, from 1.
+   * @return The id of the element.
+   */
+  private static String idOf(int number){
+    return (number < 10 ? "Element00" : (number < 100 ? "Element0" : "Element")) + number;
+  }
+
+  /**
+   * Create the tables drawing the kind of the elements, by difficulty.
+   *
+   * @return The tables.
+   */
+  private static EnumMap<Difficulty,AliasTable> createKinds(){
+    EnumMap<Difficulty,AliasTable> toReturn = new EnumMap<>(Difficulty.class);
+    for(Difficulty d : Difficulty.values()){
+      double[] weights = new double[KIND_WEIGHTS.length + 1];
+      System.arraycopy(KIND_WEIGHTS, 0, weights, 0, KIND_WEIGHTS.length);
+      weights[ENCOUNTER] = d.getEncounterWeight();
+      toReturn.put(d, new AliasTable(weights));
+    }
+    return toReturn;
+  }
+}
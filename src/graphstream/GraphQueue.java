@@ -0,0 +1,364 @@
+package graphstream;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import org.graphstream.graph.Graph;
+import org.graphstream.stream.SinkAdapter;
+import org.graphstream.ui.view.ViewerPipe;
+
+/**
+ * This class carries the modifications of a graph between the threads:
+ *  - the modifications asked from any thread are queued and run in the event
+ *    dispatch thread, in the order they were asked. The queue is lock free,
+ *    filled by any thread and emptied by the event dispatch thread only. A
+ *    burst of modifications is run by one task of the event dispatch thread.
+ *  - the events of the viewer, mainly the positions of the nodes given by the
+ *    continuous layout, are pumped a few times per second while they come. The
+ *    positions of a node given several times between two pumps are given once
+ *    to the graph, the last one.
+ *
+ * @author Nicolas Brax
+ */
+class GraphQueue extends SinkAdapter {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * A position of a node given by the viewer, not given to the graph yet.
+   */
+  private static final class Position {
+
+    /**
+     * The source of the event.
+     */
+    private final String sourceId;
+
+    /**
+     * The time of the event in its source.
+     */
+    private final long timeId;
+
+    /**
+     * The position attribute.
+     */
+    private final String attribute;
+
+    /**
+     * The position.
+     */
+    private final Object value;
+
+    /**
+     * Constructor of a position.
+     *
+     * @param sourceId The source of the event.
+     * @param timeId The time of the event in its source.
+     * @param attribute The position attribute.
+     * @param value The position.
+     */
+    private Position(String sourceId, long timeId, String attribute, Object value){
+      this.sourceId = sourceId;
+      this.timeId = timeId;
+      this.attribute = attribute;
+      this.value = value;
+    }
+  }
+
+  /**
+   * The delay between two pumps of the events of the viewer, in milliseconds.
+   */
+  private static final int PUMP_DELAY = 40;
+
+  /**
+   * The graph modified.
+   */
+  private final Graph graph;
+
+  /**
+   * The modifications waiting to be run.
+   */
+  private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+
+  /**
+   * True if a task running the modifications waiting is scheduled.
+   */
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  /**
+   * True while the modifications queued are run, in the event dispatch thread.
+   */
+  private boolean draining;
+
+  /**
+   * The timer pumping the events of the viewer.
+   */
+  private final Timer timer;
+
+  /**
+   * The last positions of the nodes given by the viewer, by node, in the order
+   * they were given.
+   */
+  private final LinkedHashMap<String,Position> positions = new LinkedHashMap<>();
+
+  /**
+   * The events of the viewer, null if none.
+   */
+  private ViewerPipe fromViewer;
+
+  /**
+   * True if the events of the viewer are pumped until told otherwise, false if
+   * they are pumped until they stop coming.
+   */
+  private boolean continuous;
+
+  /**
+   * The number of events of the viewer received by the last pump.
+   */
+  private int received;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of the queue of a graph.
+   *
+   * @param graph The graph modified.
+   */
+  GraphQueue(Graph graph){
+    this.graph = graph;
+    this.timer = new Timer(PUMP_DELAY, e -> tick());
+  }
+
+
+  /****************************************************************************/
+  /** Modification Methods                                                   **/
+  /****************************************************************************/
+
+  /**
+   * Queue a modification of the graph, from any thread. It is run in the event
+   * dispatch thread after the modifications queued before.
+   *
+   * @param command The modification.
+   */
+  void post(Runnable command){
+    this.commands.add(command);
+    if(this.scheduled.compareAndSet(false, true)){                              // one task for a burst
+      SwingUtilities.invokeLater(this::drain);
+    }
+  }
+
+  /**
+   * Run the modifications queued, from the event dispatch thread. This is done
+   * before a modification asked from the event dispatch thread itself, so that
+   * the modifications are run in the order they were asked.
+   *
+   * A modification being run may itself drain the queue: nothing is done then,
+   * the following modifications being run once it is over.
+   */
+  void drain(){
+    if(this.draining){
+      return;
+    }
+    this.draining = true;
+    try{
+      this.scheduled.set(false);                                                // those queued from now on schedule a task
+      Runnable command;
+      while((command = this.commands.poll()) != null){
+        command.run();
+      }
+    }finally{
+      this.draining = false;
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Viewer Events Methods                                                  **/
+  /****************************************************************************/
+
+  /**
+   * Pump the events of a viewer into the graph.
+   *
+   * @param toFollow The events of the viewer.
+   */
+  void follow(ViewerPipe toFollow){
+    this.fromViewer = toFollow;
+    toFollow.addSink(this);
+    if(this.continuous){
+      pumpSoon();
+    }
+  }
+
+  /**
+   * Pump the events of the viewer for a while, until they stop coming.
+   */
+  void pumpSoon(){
+    if(this.fromViewer != null && !this.timer.isRunning()){
+      this.timer.start();
+    }
+  }
+
+  /**
+   * Pump the events of the viewer until told otherwise, while they keep
+   * coming, or stop doing so.
+   *
+   * @param continuous true to pump the events until told otherwise.
+   */
+  void setContinuous(boolean continuous){
+    this.continuous = continuous;
+    if(continuous){
+      pumpSoon();
+    }
+  }
+
+  /**
+   * Pump the events of the viewer at once.
+   */
+  void pump(){
+    if(this.fromViewer == null){
+      return;
+    }
+    this.received = 0;
+    this.fromViewer.pump();
+    flush();
+  }
+
+  @Override
+  public void nodeAttributeAdded(String sourceId, long timeId, String nodeId,
+          String attribute, Object value){
+    if(!position(sourceId, timeId, nodeId, attribute, value)){
+      flush();
+      this.graph.nodeAttributeAdded(sourceId, timeId, nodeId, attribute, value);
+    }
+  }
+
+  @Override
+  public void nodeAttributeChanged(String sourceId, long timeId, String nodeId,
+          String attribute, Object oldValue, Object newValue){
+    if(!position(sourceId, timeId, nodeId, attribute, newValue)){
+      flush();
+      this.graph.nodeAttributeChanged(sourceId, timeId, nodeId, attribute, oldValue, newValue);
+    }
+  }
+
+  @Override
+  public void nodeAttributeRemoved(String sourceId, long timeId, String nodeId,
+          String attribute){
+    this.received++;
+    flush();
+    this.graph.nodeAttributeRemoved(sourceId, timeId, nodeId, attribute);
+  }
+
+  @Override
+  public void edgeAttributeAdded(String sourceId, long timeId, String edgeId,
+          String attribute, Object value){
+    this.received++;
+    flush();
+    this.graph.edgeAttributeAdded(sourceId, timeId, edgeId, attribute, value);
+  }
+
+  @Override
+  public void edgeAttributeChanged(String sourceId, long timeId, String edgeId,
+          String attribute, Object oldValue, Object newValue){
+    this.received++;
+    flush();
+    this.graph.edgeAttributeChanged(sourceId, timeId, edgeId, attribute, oldValue, newValue);
+  }
+
+  @Override
+  public void edgeAttributeRemoved(String sourceId, long timeId, String edgeId,
+          String attribute){
+    this.received++;
+    flush();
+    this.graph.edgeAttributeRemoved(sourceId, timeId, edgeId, attribute);
+  }
+
+  @Override
+  public void graphAttributeAdded(String sourceId, long timeId,
+          String attribute, Object value){
+    this.received++;
+    flush();
+    this.graph.graphAttributeAdded(sourceId, timeId, attribute, value);
+  }
+
+  @Override
+  public void graphAttributeChanged(String sourceId, long timeId,
+          String attribute, Object oldValue, Object newValue){
+    this.received++;
+    flush();
+    this.graph.graphAttributeChanged(sourceId, timeId, attribute, oldValue, newValue);
+  }
+
+  @Override
+  public void graphAttributeRemoved(String sourceId, long timeId,
+          String attribute){
+    this.received++;
+    flush();
+    this.graph.graphAttributeRemoved(sourceId, timeId, attribute);
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Pump the events of the viewer, and stop pumping them once they stop
+   * coming, unless they are pumped until told otherwise.
+   */
+  private void tick(){
+    pump();
+    if(this.received == 0 && !this.continuous){
+      this.timer.stop();
+    }
+  }
+
+  /**
+   * Keep a position of a node given by the viewer, in place of the previous
+   * one not given to the graph yet.
+   *
+   * @param sourceId The source of the event.
+   * @param timeId The time of the event in its source.
+   * @param nodeId The id of the node.
+   * @param attribute The attribute.
+   * @param value The value of the attribute.
+   * @return true if the attribute is a position, false otherwise.
+   */
+  private boolean position(String sourceId, long timeId, String nodeId,
+          String attribute, Object value){
+    this.received++;
+    switch(attribute){
+      case "xyz":
+      case "xy":
+        this.positions.remove(nodeId);                                          // given again after the others
+        this.positions.put(nodeId, new Position(sourceId, timeId, attribute, value));
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Give the positions kept to the graph, in the order they were given so that
+   * the graph does not see them as old events.
+   */
+  private void flush(){
+    for(Iterator<Map.Entry<String,Position>> it = this.positions.entrySet().iterator() ; it.hasNext() ; ){
+      Map.Entry<String,Position> entry = it.next();
+      it.remove();
+      Position p = entry.getValue();
+      if(this.graph.getNode(entry.getKey()) != null){                           // not removed since
+        this.graph.nodeAttributeChanged(p.sourceId, p.timeId, entry.getKey(), p.attribute, null, p.value);
+      }
+    }
+  }
+}
@@ -0,0 +1,604 @@
+package graphstream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+
+/**
+ * This class computes a layered layout of a directed graph, as the graph of a
+ * scenario whose links go from an element to its next elements. The nodes are
+ * placed on horizontal layers so that the links go downward as much as
+ * possible, following the method of Sugiyama:
+ * - the cycles are broken by reversing a few links;
+ * - each node is put on the layer after the deepest of its previous nodes;
+ * - the links crossing a few layers go through virtual nodes, the longer
+ *   ones are kept as they are, so that their number stays bounded;
+ * - the nodes of each layer are ordered to reduce the crossings, by moving
+ *   each node to the barycenter of its neighbours;
+ * - the abscissas are aligned on the neighbours, keeping the order.
+ *
+ * The layout is deterministic: the same graph, given in the same order, gives
+ * the same positions. The connected components are placed independently, in
+ * parallel, then side by side; the lone nodes are gathered in a grid.
+ *
+ * The positions are in graph units: one unit between two neighbour nodes of a
+ * layer and between two layers, the first layer on top at ordinate 0.
+ *
+ * @author Nicolas Brax
+ */
+public class LayeredLayout {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The version of the algorithm, part of the fingerprint of the graphs so
+   * that the positions kept are computed again when the algorithm changes.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * The largest number of layers crossed by a link going through virtual
+   * nodes.
+   */
+  private static final int MAX_SPAN = 8;
+
+  /**
+   * The number of down and up sweeps ordering the nodes of the layers.
+   */
+  private static final int ORDER_SWEEPS = 8;
+
+  /**
+   * The number of down and up sweeps aligning the abscissas of the nodes.
+   */
+  private static final int ALIGN_SWEEPS = 4;
+
+  /**
+   * The space between two components, in graph units.
+   */
+  private static final double COMPONENT_GAP = 1;
+
+  /**
+   * The ids of the nodes, by index.
+   */
+  private final ArrayList<String> ids = new ArrayList<>();
+
+  /**
+   * The indexes of the nodes, by id.
+   */
+  private final HashMap<String,Integer> indexes = new HashMap<>();
+
+  /**
+   * The index of the node each link starts from.
+   */
+  private int[] linkFrom = new int[16];
+
+  /**
+   * The index of the node each link goes to.
+   */
+  private int[] linkTo = new int[16];
+
+  /**
+   * The number of links.
+   */
+  private int linkCount;
+
+
+  /****************************************************************************/
+  /** Graph Methods                                                          **/
+  /****************************************************************************/
+
+  /**
+   * Add a node to the graph to place. A node already added is ignored.
+   *
+   * @param nodeId The id of the node.
+   */
+  public void addNode(String nodeId){
+    index(nodeId);
+  }
+
+  /**
+   * Add a link to the graph to place, adding its nodes if needed.
+   *
+   * @param fromId The id of the node the link starts from.
+   * @param toId The id of the node the link goes to.
+   */
+  public void addLink(String fromId, String toId){
+    if(this.linkCount == this.linkFrom.length){
+      this.linkFrom = Arrays.copyOf(this.linkFrom, 2 * this.linkCount);
+      this.linkTo = Arrays.copyOf(this.linkTo, 2 * this.linkCount);
+    }
+    this.linkFrom[this.linkCount] = index(fromId);
+    this.linkTo[this.linkCount] = index(toId);
+    this.linkCount++;
+  }
+
+  /**
+   * Give a fingerprint of the graph, whatever the order of its nodes and links,
+   * to know whether positions computed before are still those of the graph.
+   *
+   * @return The fingerprint.
+   */
+  public long fingerprint(){
+    long toReturn = mix(VERSION * 0x9E3779B97F4A7C15L + this.ids.size() * 31L + this.linkCount);
+    for(String id : this.ids){
+      toReturn += mix(id.hashCode());
+    }
+    for(int l = 0 ; l < this.linkCount ; l++){
+      toReturn += mix(((long)this.ids.get(this.linkFrom[l]).hashCode() << 32)
+                    ^ (this.ids.get(this.linkTo[l]).hashCode() & 0xFFFFFFFFL) ^ 0x5DEECE66DL);
+    }
+    return toReturn;
+  }
+
+
+  /****************************************************************************/
+  /** Layout Methods                                                         **/
+  /****************************************************************************/
+
+  /**
+   * Compute the positions of the nodes.
+   *
+   * @return The abscissa and the ordinate of each node, by id.
+   */
+  public HashMap<String,double[]> compute(){
+    int n = this.ids.size();
+    int[] component = components();
+    int[] size = new int[n];
+    for(int v = 0 ; v < n ; v++){
+      size[component[v]]++;
+    }
+    ArrayList<int[]> groups = new ArrayList<>();                                // the components of several nodes, in order
+    int[] group = new int[n];
+    int[] filled = new int[n];
+    ArrayList<Integer> lone = new ArrayList<>();
+    for(int v = 0 ; v < n ; v++){
+      int c = component[v];
+      if(size[c] == 1){
+        lone.add(v);
+      }
+      else{
+        if(filled[c] == 0){
+          group[c] = groups.size();
+          groups.add(new int[size[c]]);
+        }
+        groups.get(group[c])[filled[c]++] = v;
+      }
+    }
+    int[][] groupLinks = new int[groups.size()][];                              // the links of each component
+    int[] linkFill = new int[groups.size()];
+    for(int l = 0 ; l < this.linkCount ; l++){
+      int c = component[this.linkFrom[l]];
+      if(size[c] > 1){
+        linkFill[group[c]]++;
+      }
+    }
+    for(int g = 0 ; g < groups.size() ; g++){
+      groupLinks[g] = new int[linkFill[g]];
+      linkFill[g] = 0;
+    }
+    for(int l = 0 ; l < this.linkCount ; l++){
+      int c = component[this.linkFrom[l]];
+      if(size[c] > 1){
+        groupLinks[group[c]][linkFill[group[c]]++] = l;
+      }
+    }
+    double[][][] placed = IntStream.range(0, groups.size()).parallel()          // independent components
+            .mapToObj(g -> place(groups.get(g), groupLinks[g]))
+            .toArray(double[][][]::new);
+    HashMap<String,double[]> toReturn = new HashMap<>(2 * n);
+    double offset = 0;
+    for(int g = 0 ; g < groups.size() ; g++){                                   // side by side, in order
+      double width = 0;
+      int[] nodes = groups.get(g);
+      for(int i = 0 ; i < nodes.length ; i++){
+        double[] position = placed[g][i];
+        width = Math.max(width, position[0]);
+        toReturn.put(this.ids.get(nodes[i]), new double[]{offset + position[0], position[1]});
+      }
+      offset += width + 1 + COMPONENT_GAP;
+    }
+    int columns = (int)Math.ceil(Math.sqrt(lone.size()));                       // the lone nodes in a grid
+    for(int i = 0 ; i < lone.size() ; i++){
+      toReturn.put(this.ids.get(lone.get(i)), new double[]{offset + i % columns, -(i / columns)});
+    }
+    return toReturn;
+  }
+
+  /**
+   * Place the nodes of a connected component.
+   *
+   * @param nodes The indexes of the nodes, in order.
+   * @param links The indexes of the links.
+   * @return The position of each node, in the order of the nodes, from the
+   *         abscissa 0 and the ordinate 0 downward.
+   */
+  private double[][] place(int[] nodes, int[] links){
+    int n = nodes.length;
+    HashMap<Integer,Integer> local = new HashMap<>(2 * n);
+    for(int i = 0 ; i < n ; i++){
+      local.put(nodes[i], i);
+    }
+    int[] from = new int[links.length], to = new int[links.length];
+    int m = 0;
+    for(int l : links){
+      int a = local.get(this.linkFrom[l]), b = local.get(this.linkTo[l]);
+      if(a != b){                                                               // the loops do not change the layout
+        from[m] = a;
+        to[m++] = b;
+      }
+    }
+    breakCycles(n, from, to, m);
+    int[] layer = layers(n, from, to, m);
+
+    int dummies = 0;                                                            // the virtual nodes of the long links
+    for(int l = 0 ; l < m ; l++){
+      int span = layer[to[l]] - layer[from[l]];
+      if(span <= MAX_SPAN){
+        dummies += span - 1;
+      }
+    }
+    int total = n + dummies;
+    int[] vertexLayer = Arrays.copyOf(layer, total);
+    int[] upFrom = new int[m + dummies], upTo = new int[m + dummies];           // the links going down the layers
+    int e = 0, next = n;
+    for(int l = 0 ; l < m ; l++){
+      int previous = from[l];
+      int last = (layer[to[l]] - layer[from[l]] <= MAX_SPAN ? layer[to[l]] : 0); // a long link is kept whole
+      for(int k = layer[from[l]] + 1 ; k < last ; k++){
+        vertexLayer[next] = k;
+        upFrom[e] = previous;
+        upTo[e++] = next;
+        previous = next++;
+      }
+      upFrom[e] = previous;
+      upTo[e++] = to[l];
+    }
+    int[][] ups = adjacency(total, upTo, upFrom, e);                            // the neighbours on the layers above
+    int[][] downs = adjacency(total, upFrom, upTo, e);                          // the neighbours on the layers below
+
+    int[][] order = initialOrder(total, vertexLayer, ups, downs);
+    double[] position = new double[total];
+    for(int[] row : order){
+      for(int i = 0 ; i < row.length ; i++){
+        position[row[i]] = i;
+      }
+    }
+    for(int sweep = 0 ; sweep < ORDER_SWEEPS ; sweep++){                        // reduce the crossings
+      for(int k = 1 ; k < order.length ; k++){
+        reorder(order[k], ups, position);
+      }
+      for(int k = order.length - 2 ; k >= 0 ; k--){
+        reorder(order[k], downs, position);
+      }
+    }
+    for(int sweep = 0 ; sweep < ALIGN_SWEEPS ; sweep++){                        // align on the neighbours
+      for(int k = 1 ; k < order.length ; k++){
+        align(order[k], ups, position);
+      }
+      for(int k = order.length - 2 ; k >= 0 ; k--){
+        align(order[k], downs, position);
+      }
+    }
+    double min = Double.MAX_VALUE;
+    for(int v = 0 ; v < total ; v++){
+      min = Math.min(min, position[v]);
+    }
+    double[][] toReturn = new double[n][];
+    for(int v = 0 ; v < n ; v++){
+      toReturn[v] = new double[]{position[v] - min, -layer[v]};
+    }
+    return toReturn;
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Give the index of a node, adding it if needed.
+   *
+   * @param nodeId The id of the node.
+   * @return The index.
+   */
+  private int index(String nodeId){
+    Integer toReturn = this.indexes.get(nodeId);
+    if(toReturn == null){
+      toReturn = this.ids.size();
+      this.indexes.put(nodeId, toReturn);
+      this.ids.add(nodeId);
+    }
+    return toReturn;
+  }
+
+  /**
+   * Find the connected components of the graph, the links taken in both ways.
+   *
+   * @return The component of each node, as the index of one of its nodes.
+   */
+  private int[] components(){
+    int n = this.ids.size();
+    int[] parent = new int[n];
+    for(int v = 0 ; v < n ; v++){
+      parent[v] = v;
+    }
+    for(int l = 0 ; l < this.linkCount ; l++){
+      int a = root(parent, this.linkFrom[l]), b = root(parent, this.linkTo[l]);
+      if(a != b){
+        parent[Math.max(a, b)] = Math.min(a, b);
+      }
+    }
+    for(int v = 0 ; v < n ; v++){
+      parent[v] = root(parent, v);
+    }
+    return parent;
+  }
+
+  /**
+   * Find the root of a node in a union-find forest, halving the path.
+   *
+   * @param parent The parent of each node.
+   * @param v The node.
+   * @return The root.
+   */
+  private static int root(int[] parent, int v){
+    while(parent[v] != v){
+      parent[v] = parent[parent[v]];
+      v = parent[v];
+    }
+    return v;
+  }
+
+  /**
+   * Reverse the links closing a cycle, found by a depth first search started
+   * from the nodes without previous node, so that the graph has no cycle.
+   *
+   * @param n The number of nodes.
+   * @param from The node each link starts from, modified.
+   * @param to The node each link goes to, modified.
+   * @param m The number of links.
+   */
+  private static void breakCycles(int n, int[] from, int[] to, int m){
+    int[][] outs = adjacency(n, from, to, m);
+    int[][] outLinks = adjacency(n, from, null, m);
+    int[] in = new int[n];
+    for(int l = 0 ; l < m ; l++){
+      in[to[l]]++;
+    }
+    byte[] state = new byte[n];                                                 // 0 new, 1 on the path, 2 done
+    int[] stack = new int[n], cursor = new int[n];
+    boolean[] reversed = new boolean[m];
+    for(int pass = 0 ; pass < 2 ; pass++){                                      // the sources first, then the cycles
+      for(int start = 0 ; start < n ; start++){
+        if(state[start] != 0 || (pass == 0 && in[start] > 0)){
+          continue;
+        }
+        int depth = 0;
+        stack[depth++] = start;
+        state[start] = 1;
+        while(depth > 0){
+          int v = stack[depth - 1];
+          if(cursor[v] < outs[v].length){
+            int w = outs[v][cursor[v]];
+            int link = outLinks[v][cursor[v]++];
+            if(state[w] == 1){
+              reversed[link] = true;
+            }
+            else if(state[w] == 0){
+              state[w] = 1;
+              stack[depth++] = w;
+            }
+          }
+          else{
+            state[v] = 2;
+            depth--;
+          }
+        }
+      }
+    }
+    for(int l = 0 ; l < m ; l++){
+      if(reversed[l]){
+        int swap = from[l];
+        from[l] = to[l];
+        to[l] = swap;
+      }
+    }
+  }
+
+  /**
+   * Put each node of a graph without cycle on the layer after the deepest of
+   * its previous nodes.
+   *
+   * @param n The number of nodes.
+   * @param from The node each link starts from.
+   * @param to The node each link goes to.
+   * @param m The number of links.
+   * @return The layer of each node, from 0.
+   */
+  private static int[] layers(int n, int[] from, int[] to, int m){
+    int[][] outs = adjacency(n, from, to, m);
+    int[] in = new int[n];
+    for(int l = 0 ; l < m ; l++){
+      in[to[l]]++;
+    }
+    int[] layer = new int[n];
+    int[] queue = new int[n];
+    int head = 0, tail = 0;
+    for(int v = 0 ; v < n ; v++){
+      if(in[v] == 0){
+        queue[tail++] = v;
+      }
+    }
+    while(head < tail){
+      int v = queue[head++];
+      for(int w : outs[v]){
+        layer[w] = Math.max(layer[w], layer[v] + 1);
+        if(--in[w] == 0){
+          queue[tail++] = w;
+        }
+      }
+    }
+    return layer;
+  }
+
+  /**
+   * Give the first order of the nodes of each layer: the order in which a
+   * depth first search going down the layers meets them.
+   *
+   * @param total The number of nodes, virtual ones included.
+   * @param layer The layer of each node.
+   * @param ups The neighbours of each node on the layer above.
+   * @param downs The neighbours of each node on the layer below.
+   * @return The nodes of each layer, in order.
+   */
+  private static int[][] initialOrder(int total, int[] layer, int[][] ups, int[][] downs){
+    int layers = 0;
+    for(int v = 0 ; v < total ; v++){
+      layers = Math.max(layers, layer[v] + 1);
+    }
+    int[] count = new int[layers];
+    for(int v = 0 ; v < total ; v++){
+      count[layer[v]]++;
+    }
+    int[][] toReturn = new int[layers][];
+    for(int k = 0 ; k < layers ; k++){
+      toReturn[k] = new int[count[k]];
+      count[k] = 0;
+    }
+    boolean[] seen = new boolean[total];
+    int[] stack = new int[total];
+    for(int start = 0 ; start < total ; start++){
+      if(seen[start] || ups[start].length > 0){                                 // from the top of the graph
+        continue;
+      }
+      int depth = 0;
+      stack[depth++] = start;
+      seen[start] = true;
+      while(depth > 0){
+        int v = stack[--depth];
+        toReturn[layer[v]][count[layer[v]]++] = v;
+        for(int i = downs[v].length - 1 ; i >= 0 ; i--){                        // the first neighbour on top of the stack
+          int w = downs[v][i];
+          if(!seen[w]){
+            seen[w] = true;
+            stack[depth++] = w;
+          }
+        }
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Order the nodes of a layer by the barycenter of their neighbours on an
+   * adjacent layer, or at the end of a long link. A node without neighbour
+   * keeps its position.
+   *
+   * @param row The nodes of the layer, in order, modified.
+   * @param neighbours The neighbours of each node above or below it.
+   * @param position The position of each node in its layer, modified.
+   */
+  private static void reorder(int[] row, int[][] neighbours, double[] position){
+    double[] key = new double[row.length];
+    Integer[] sorted = new Integer[row.length];
+    for(int i = 0 ; i < row.length ; i++){
+      sorted[i] = i;
+      int[] around = neighbours[row[i]];
+      if(around.length == 0){
+        key[i] = i;
+      }
+      else{
+        double sum = 0;
+        for(int w : around){
+          sum += position[w];
+        }
+        key[i] = sum / around.length;
+      }
+    }
+    Arrays.sort(sorted, (a, b) -> (key[a] != key[b] ? Double.compare(key[a], key[b])
+                                                    : Integer.compare(a, b)));
+    int[] previous = row.clone();
+    for(int i = 0 ; i < row.length ; i++){
+      row[i] = previous[sorted[i]];
+      position[row[i]] = i;
+    }
+  }
+
+  /**
+   * Move the nodes of a layer toward the mean abscissa of their neighbours on
+   * one side, keeping their order and one unit between them.
+   *
+   * @param row The nodes of the layer, in order.
+   * @param neighbours The neighbours of each node above or below it.
+   * @param position The abscissa of each node, modified.
+   */
+  private static void align(int[] row, int[][] neighbours, double[] position){
+    if(row.length == 0){
+      return;
+    }
+    double[] wanted = new double[row.length];
+    for(int i = 0 ; i < row.length ; i++){
+      int[] around = neighbours[row[i]];
+      if(around.length == 0){
+        wanted[i] = position[row[i]];
+      }
+      else{
+        double sum = 0;
+        for(int w : around){
+          sum += position[w];
+        }
+        wanted[i] = sum / around.length;
+      }
+    }
+    double[] x = new double[row.length];
+    double shift = 0;
+    for(int i = 0 ; i < row.length ; i++){                                      // from left to right, never to the left
+      x[i] = (i == 0 ? wanted[i] : Math.max(wanted[i], x[i - 1] + 1));          // of the wanted abscissa
+      shift += x[i] - wanted[i];
+    }
+    shift /= row.length;                                                        // then the whole layer back
+    for(int i = 0 ; i < row.length ; i++){
+      position[row[i]] = x[i] - shift;
+    }
+  }
+
+  /**
+   * Build the lists of neighbours of the nodes of a graph.
+   *
+   * @param n The number of nodes.
+   * @param from The node each link starts from.
+   * @param to The node each link goes to, or null to list the links instead.
+   * @param m The number of links.
+   * @return For each node, the nodes it links to, or its links, in order.
+   */
+  private static int[][] adjacency(int n, int[] from, int[] to, int m){
+    int[] count = new int[n];
+    for(int l = 0 ; l < m ; l++){
+      count[from[l]]++;
+    }
+    int[][] toReturn = new int[n][];
+    for(int v = 0 ; v < n ; v++){
+      toReturn[v] = new int[count[v]];
+      count[v] = 0;
+    }
+    for(int l = 0 ; l < m ; l++){
+      toReturn[from[l]][count[from[l]]++] = (to == null ? l : to[l]);
+    }
+    return toReturn;
+  }
+
+  /**
+   * Mix the bits of a value, as the finalizer of the SplitMix generator.
+   *
+   * @param value The value.
+   * @return The mixed value.
+   */
+  private static long mix(long value){
+    value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+    value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+    return value ^ (value >>> 31);
+  }
+}
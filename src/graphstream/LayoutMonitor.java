@@ -0,0 +1,109 @@
+package graphstream;
+
+import javax.swing.Timer;
+import org.graphstream.ui.layout.Layout;
+
+/**
+ * This class watches a continuous layout running in the thread of the viewer,
+ * and tells when it has converged: when its stabilization has stayed above its
+ * limit for a while, that is when the nodes do not move anymore. The layout
+ * can then be stopped so that it does not use the processor for nothing.
+ *
+ * The layout is polled from the event dispatch thread, where the convergence
+ * is told.
+ *
+ * @author Nicolas Brax
+ */
+class LayoutMonitor {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The delay between two polls of the layout, in milliseconds.
+   */
+  private static final int POLL_DELAY = 250;
+
+  /**
+   * The number of successive polls the layout must be stable for.
+   */
+  private static final int STABLE_POLLS = 3;
+
+  /**
+   * The timer polling the layout.
+   */
+  private final Timer timer;
+
+  /**
+   * What to do when the layout has converged.
+   */
+  private final Runnable converged;
+
+  /**
+   * The layout watched, null if none.
+   */
+  private Layout layout;
+
+  /**
+   * The number of successive polls the layout has been stable for.
+   */
+  private int stablePolls;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of a monitor.
+   *
+   * @param converged What to do when the layout watched has converged, called
+   *                  once from the event dispatch thread.
+   */
+  LayoutMonitor(Runnable converged){
+    this.converged = converged;
+    this.timer = new Timer(POLL_DELAY, e -> poll());
+  }
+
+
+  /****************************************************************************/
+  /** Monitoring Methods                                                     **/
+  /****************************************************************************/
+
+  /**
+   * Watch a layout, from now on: a layout already watched is watched again
+   * from the start, since its graph changed.
+   *
+   * @param toWatch The layout.
+   */
+  void watch(Layout toWatch){
+    this.layout = toWatch;
+    this.stablePolls = 0;
+    this.timer.restart();
+  }
+
+  /**
+   * Stop watching the layout.
+   */
+  void stop(){
+    this.timer.stop();
+    this.layout = null;
+  }
+
+  /**
+   * Poll the stabilization of the layout.
+   */
+  private void poll(){
+    if(this.layout == null){
+      return;
+    }
+    if(this.layout.getStabilization() < this.layout.getStabilizationLimit()){
+      this.stablePolls = 0;
+    }
+    else if(++this.stablePolls >= STABLE_POLLS){
+      stop();
+      this.converged.run();
+    }
+  }
+}
@@ -0,0 +1,808 @@
+package graphstream;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import javax.swing.Timer;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import org.graphstream.ui.swingViewer.DefaultView;
+import org.graphstream.ui.swingViewer.ViewPanel;
+import org.graphstream.ui.swingViewer.util.GraphMetrics;
+import org.graphstream.ui.view.Camera;
+
+/**
+ * This class keeps the cost of drawing a large graph bounded, whatever the size
+ * of the scenario:
+ *  - the chains of elements, elements having one previous and one next element
+ *    that follow each other, are grouped in clusters. A collapsed cluster is
+ *    drawn as a single node, its elements and their edges being hidden. The
+ *    clusters seen are expanded when the view zooms in enough for their
+ *    elements to be drawn, and collapsed again when it zooms out. A cluster can
+ *    also be expanded by hand, until the view zooms out.
+ *  - the labels of the nodes are only drawn when the view zooms in enough for
+ *    a few of them to be seen.
+ *  - the quality and the antialiasing of the drawing are only used when a few
+ *    nodes are drawn.
+ *  - while the view moves, while the continuous layout moves the nodes, or
+ *    while the frames take longer to draw than a target time, the drawing is
+ *    degraded: no quality, no antialiasing and no labels. The drawing is full
+ *    again once the view is still.
+ *
+ * Small graphs are not grouped. The view is polled from the event dispatch
+ * thread, where the graph is modified and drawn.
+ *
+ * @author Nicolas Brax
+ */
+class LevelOfDetail {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * A chain of nodes grouped in a cluster.
+   */
+  private static final class Cluster {
+
+    /**
+     * The ids of the nodes of the chain, in their order.
+     */
+    private final ArrayList<String> members = new ArrayList<>();
+
+    /**
+     * The node before the chain, null if the chain is a cycle.
+     */
+    private String before;
+
+    /**
+     * The node after the chain, null if the chain is a cycle.
+     */
+    private String after;
+
+    /**
+     * The id of the node standing for the cluster when it is collapsed.
+     */
+    private String nodeId;
+
+    /**
+     * The position of the cluster, the center of its nodes, null if they are
+     * not placed.
+     */
+    private double[] position;
+
+    /**
+     * True if the cluster is collapsed.
+     */
+    private boolean collapsed;
+
+    /**
+     * True if the cluster was expanded by hand.
+     */
+    private boolean pinned;
+  }
+
+  /**
+   * The number of nodes under which the graph is not grouped.
+   */
+  private static final int GROUP_LIMIT = 500;
+
+  /**
+   * The smallest number of nodes of a cluster.
+   */
+  private static final int MIN_CLUSTER = 3;
+
+  /**
+   * The number of nodes that may be seen at once when the clusters are
+   * expanded by the zoom.
+   */
+  private static final int EXPAND_BUDGET = 400;
+
+  /**
+   * The number of labels that may be seen at once.
+   */
+  private static final int LABEL_BUDGET = 150;
+
+  /**
+   * The number of nodes drawn under which the quality drawing is used.
+   */
+  private static final int QUALITY_LIMIT = 1000;
+
+  /**
+   * The delay between two polls of the view, in milliseconds.
+   */
+  private static final int POLL_DELAY = 100;
+
+  /**
+   * The time the view must be still for the drawing to be full again, in
+   * nanoseconds.
+   */
+  private static final long IDLE_DELAY = 300_000_000L;
+
+  /**
+   * The default target time to draw a frame, in milliseconds.
+   */
+  static final long DEFAULT_FRAME_TARGET = 33;
+
+  /**
+   * The size of the nodes standing for the clusters, in pixels.
+   */
+  private static final int CLUSTER_SIZE = 22;
+
+  /**
+   * The graph drawn.
+   */
+  private final Graph graph;
+
+  /**
+   * The timer polling the view.
+   */
+  private final Timer timer;
+
+  /**
+   * The clusters by id of the node standing for them.
+   */
+  private final HashMap<String,Cluster> clusters = new HashMap<>();
+
+  /**
+   * The clusters by id of their nodes.
+   */
+  private final HashMap<String,Cluster> members = new HashMap<>();
+
+  /**
+   * The ids of the nodes changed since the chains were last grouped, with the
+   * nodes of the clusters removed for these changes.
+   */
+  private final HashSet<String> changed = new HashSet<>();
+
+  /**
+   * The camera of the view watched, null if none.
+   */
+  private Camera camera;
+
+  /**
+   * The number of nodes of the scenario.
+   */
+  private int nodeCount;
+
+  /**
+   * The number of nodes hidden in collapsed clusters.
+   */
+  private int hiddenCount;
+
+  /**
+   * The zoom of the view at the last poll.
+   */
+  private double lastZoom = -1;
+
+  /**
+   * The part of the graph seen at the last poll.
+   */
+  private double lastLoX, lastLoY, lastHiX, lastHiY;
+
+  /**
+   * The zoom under which the labels are drawn, as last set in the style sheet,
+   * 0 if not set, -1 if the labels are hidden.
+   */
+  private double labelZoom;
+
+  /**
+   * True if the quality drawing is used, null if not set.
+   */
+  private Boolean quality;
+
+  /**
+   * True if the drawing is degraded while the view moves.
+   */
+  private boolean degraded;
+
+  /**
+   * True if the continuous layout moves the nodes.
+   */
+  private boolean layoutRunning;
+
+  /**
+   * The target time to draw a frame, in nanoseconds.
+   */
+  private long frameTarget = DEFAULT_FRAME_TARGET * 1_000_000L;
+
+  /**
+   * The time the frame being drawn started, in nanoseconds.
+   */
+  private long frameStart;
+
+  /**
+   * The time the last frame ended, in nanoseconds.
+   */
+  private long frameEnd;
+
+  /**
+   * The last time the view moved or a frame took too long, in nanoseconds.
+   */
+  private long lastActivity;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of the level of detail of a graph.
+   *
+   * @param graph The graph drawn.
+   */
+  LevelOfDetail(Graph graph){
+    this.graph = graph;
+    this.timer = new Timer(POLL_DELAY, e -> poll());
+  }
+
+
+  /****************************************************************************/
+  /** Grouping Methods                                                       **/
+  /****************************************************************************/
+
+  /**
+   * Watch the view of the graph, to expand or collapse the clusters as it
+   * zooms, and to time the drawing of its frames.
+   *
+   * @param toWatch The view.
+   */
+  void watch(ViewPanel toWatch){
+    this.camera = toWatch.getCamera();
+    this.lastZoom = -1;
+    if(toWatch instanceof DefaultView){                                         // the frames can be timed
+      ((DefaultView)toWatch).setBackLayerRenderer((g, gg, px2Gu, w, h, minX, minY, maxX, maxY)
+              -> this.frameStart = System.nanoTime());                          // before the nodes and the edges
+      ((DefaultView)toWatch).setForeLayoutRenderer((g, gg, px2Gu, w, h, minX, minY, maxX, maxY)
+              -> framed());                                                     // after them
+    }
+    this.timer.restart();
+  }
+
+  /**
+   * Set the target time to draw a frame: while the frames take longer, the
+   * drawing is degraded.
+   *
+   * @param millis The target time, in milliseconds.
+   */
+  void setFrameTarget(long millis){
+    this.frameTarget = millis * 1_000_000L;
+  }
+
+  /**
+   * Tell whether the continuous layout moves the nodes: while it does, the
+   * drawing is degraded.
+   *
+   * @param running true if the layout runs.
+   */
+  void setLayoutRunning(boolean running){
+    this.layoutRunning = running;
+    if(!running){
+      this.lastActivity = System.nanoTime();                                    // full again once still
+    }
+    quality();
+  }
+
+  /**
+   * Forget the clusters and the drawing settings of a graph just cleared.
+   */
+  void reset(){
+    this.clusters.clear();
+    this.members.clear();
+    this.changed.clear();
+    this.nodeCount = 0;
+    this.hiddenCount = 0;
+    this.labelZoom = 0;
+    this.quality = null;
+    restyle();
+  }
+
+  /**
+   * Group all the chains of the graph in clusters again, as after the nodes
+   * were all moved: the previous clusters are removed first. The clusters that
+   * are seen when the view zooms in are expanded at the next poll.
+   *
+   * @param nodeIds The ids of the nodes of the scenario.
+   */
+  void group(Collection<String> nodeIds){
+    ungroup();
+    this.changed.clear();
+    this.nodeCount = nodeIds.size();
+    if(this.nodeCount >= GROUP_LIMIT){
+      HashSet<String> visited = new HashSet<>();
+      for(String id : nodeIds){                                                 // the chains from their first node
+        Node n = this.graph.getNode(id);
+        if(inChain(n) && !inChain(previous(n)) && visited.add(id)){
+          chain(n, visited);
+        }
+      }
+      for(String id : nodeIds){                                                 // then the cycles, from anywhere
+        Node n = this.graph.getNode(id);
+        if(inChain(n) && visited.add(id)){
+          chain(n, visited);
+        }
+      }
+      for(Cluster c : this.clusters.values()){
+        collapse(c);
+      }
+      this.lastZoom = -1;                                                       // the view is checked again
+    }
+    restyle();
+  }
+
+  /**
+   * Group in clusters the chains going through the nodes changed since the
+   * chains were last grouped, see {@link #ungroup(Collection)}: the other
+   * clusters are kept as they are. The whole graph is grouped again when it
+   * becomes large enough to be grouped, and ungrouped when it does not
+   * anymore.
+   *
+   * @param nodeIds The ids of the nodes of the scenario.
+   */
+  void regroup(Collection<String> nodeIds){
+    if((nodeIds.size() >= GROUP_LIMIT) != (this.nodeCount >= GROUP_LIMIT)){
+      group(nodeIds);
+      return;
+    }
+    this.nodeCount = nodeIds.size();
+    if(this.nodeCount >= GROUP_LIMIT && !this.changed.isEmpty()){
+      LinkedHashSet<String> starts = new LinkedHashSet<>();                     // the changed nodes and their neighbours
+      for(String id : this.changed){
+        Node n = this.graph.getNode(id);
+        if(n != null && !isCluster(id)){
+          starts.add(id);
+          for(Edge e : n.getEachEdge()){
+            starts.add(e.getOpposite(n).getId());
+          }
+        }
+      }
+      HashSet<String> visited = new HashSet<>();
+      ArrayList<Cluster> added = new ArrayList<>();
+      for(String id : starts){
+        Node n = first(this.graph.getNode(id));
+        if(n != null && !this.members.containsKey(n.getId()) && visited.add(n.getId())){
+          Cluster c = chain(n, visited);
+          if(c != null){
+            added.add(c);
+          }
+        }
+      }
+      for(Cluster c : added){
+        collapse(c);
+      }
+      this.lastZoom = -1;                                                       // the view is checked again
+    }
+    this.changed.clear();
+    restyle();
+  }
+
+  /**
+   * Remove the clusters holding one of the given nodes or linked to one of
+   * them, before these nodes change: their nodes and edges are shown again.
+   * The nodes given and the nodes of these clusters are grouped again by
+   * {@link #regroup(Collection)}.
+   *
+   * @param around The ids of the nodes about to change.
+   */
+  void ungroup(Collection<String> around){
+    this.changed.addAll(around);
+    if(this.clusters.isEmpty()){
+      return;
+    }
+    HashSet<Cluster> toRemove = new HashSet<>();
+    for(String id : around){
+      Cluster c = this.members.get(id);
+      if(c != null){
+        toRemove.add(c);
+      }
+      Node n = this.graph.getNode(id);
+      if(n != null){
+        for(Edge e : n.getEachEdge()){                                          // the clusters it comes before or after
+          Cluster linked = this.clusters.get(e.getOpposite(n).getId());
+          if(linked == null){
+            linked = this.members.get(e.getOpposite(n).getId());
+          }
+          if(linked != null && (id.equals(linked.before) || id.equals(linked.after))){
+            toRemove.add(linked);
+          }
+        }
+      }
+    }
+    for(Cluster c : toRemove){
+      expand(c);
+      this.clusters.remove(c.nodeId);
+      for(String id : c.members){
+        this.members.remove(id);
+      }
+      this.changed.addAll(c.members);
+    }
+  }
+
+  /**
+   * Remove all the clusters: their nodes and edges are shown again.
+   */
+  void ungroup(){
+    if(this.clusters.isEmpty()){
+      return;
+    }
+    for(Cluster c : this.clusters.values()){
+      expand(c);
+    }
+    this.clusters.clear();
+    this.members.clear();
+  }
+
+  /**
+   * Tell whether a node stands for a cluster.
+   *
+   * @param nodeId The id of the node.
+   * @return true if the node stands for a cluster.
+   */
+  boolean isCluster(String nodeId){
+    return this.clusters.containsKey(nodeId);
+  }
+
+  /**
+   * Expand by hand the cluster standing as a node, or holding a node, so that
+   * the node is seen. It is collapsed again when the view zooms out.
+   *
+   * @param nodeId The id of the node.
+   */
+  void show(String nodeId){
+    Cluster c = this.clusters.get(nodeId);
+    if(c == null){
+      c = this.members.get(nodeId);
+    }
+    if(c != null){
+      c.pinned = true;
+      if(c.collapsed){
+        expand(c);
+        restyle();
+      }
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Poll the view: if it moved, expand the clusters seen when it zooms in
+   * enough and collapse the others.
+   */
+  private void poll(){
+    if(this.camera == null){
+      return;
+    }
+    GraphMetrics metrics = this.camera.getMetrics();
+    double zoom = this.camera.getViewPercent();
+    if(metrics.loVisible == null || metrics.hiVisible == null){
+      return;
+    }
+    double loX = metrics.loVisible.x, loY = metrics.loVisible.y;
+    double hiX = metrics.hiVisible.x, hiY = metrics.hiVisible.y;
+    if(zoom == this.lastZoom && loX == this.lastLoX && loY == this.lastLoY
+    && hiX == this.lastHiX && hiY == this.lastHiY){
+      quality();                                                                // full again once still for a while
+      return;
+    }
+    boolean moved = (this.lastZoom >= 0);
+    boolean zoomedOut = (moved && zoom > this.lastZoom);
+    this.lastZoom = zoom;
+    this.lastLoX = loX;
+    this.lastLoY = loY;
+    this.lastHiX = hiX;
+    this.lastHiY = hiY;
+    boolean close = zoom <= zoomFor(EXPAND_BUDGET, this.nodeCount);
+    for(Cluster c : this.clusters.values()){
+      if(zoomedOut){
+        c.pinned = false;
+      }
+      boolean seen = c.pinned || (close && c.position != null
+              && c.position[0] >= loX && c.position[0] <= hiX
+              && c.position[1] >= loY && c.position[1] <= hiY);
+      if(seen && c.collapsed){
+        expand(c);
+      }
+      else if(!seen && !c.collapsed){
+        collapse(c);
+      }
+    }
+    if(moved){
+      this.lastActivity = System.nanoTime();
+    }
+    if(!quality()){
+      restyle();
+    }
+  }
+
+  /**
+   * Time the frame just drawn: a frame drawn while the frames follow each
+   * other that took longer than the target degrades the drawing. A frame drawn
+   * alone, such as the first full frame once the view is still, does not.
+   */
+  private void framed(){
+    long end = System.nanoTime();
+    if(end - this.frameStart > this.frameTarget
+    && this.frameStart - this.frameEnd < IDLE_DELAY){
+      this.lastActivity = end;
+    }
+    this.frameEnd = end;
+  }
+
+  /**
+   * Degrade the drawing while the view or the nodes move, or while the frames
+   * are too long, and make it full again once still.
+   *
+   * @return true if the drawing settings were set again, false otherwise.
+   */
+  private boolean quality(){
+    boolean toDegrade = this.layoutRunning
+            || (this.lastActivity != 0 && System.nanoTime() - this.lastActivity < IDLE_DELAY);
+    if(toDegrade == this.degraded){
+      return false;
+    }
+    this.degraded = toDegrade;
+    restyle();
+    return true;
+  }
+
+  /**
+   * Group a chain of nodes in a new cluster, if it is long enough.
+   *
+   * @param first The first node of the chain, already visited.
+   * @param visited The nodes already in a chain.
+   * @return The cluster, null if the chain is too short.
+   */
+  private Cluster chain(Node first, HashSet<String> visited){
+    Cluster c = new Cluster();
+    c.members.add(first.getId());
+    Node n = next(first);
+    while(inChain(n) && !this.members.containsKey(n.getId()) && visited.add(n.getId())){
+      c.members.add(n.getId());
+      n = next(n);
+    }
+    if(c.members.size() < MIN_CLUSTER){
+      return null;
+    }
+    Node before = previous(first);
+    if(!c.members.contains(before.getId())){                                    // not a cycle
+      c.before = before.getId();
+      c.after = n.getId();
+    }
+    c.nodeId = freeId("cluster " + first.getId());
+    double x = 0, y = 0;
+    for(String id : c.members){
+      double[] p = position(this.graph.getNode(id));
+      if(p == null){
+        x = Double.NaN;
+        break;
+      }
+      x += p[0];
+      y += p[1];
+    }
+    if(!Double.isNaN(x)){
+      c.position = new double[]{x / c.members.size(), y / c.members.size()};
+    }
+    this.clusters.put(c.nodeId, c);
+    for(String id : c.members){
+      this.members.put(id, c);
+    }
+    return c;
+  }
+
+  /**
+   * Give the first node of the chain going through a node: the node itself if
+   * the chain is a cycle.
+   *
+   * @param n The node, may be null.
+   * @return The first node, null if the node is not in a chain.
+   */
+  private Node first(Node n){
+    if(!inChain(n)){
+      return null;
+    }
+    Node toReturn = n;
+    Node p = previous(n);
+    while(inChain(p) && p != n && !this.members.containsKey(p.getId())){
+      toReturn = p;
+      p = previous(p);
+    }
+    return toReturn;
+  }
+
+  /**
+   * Collapse a cluster: its nodes and their edges are hidden and a node stands
+   * for them, linked to the nodes before and after the chain.
+   *
+   * @param c The cluster.
+   */
+  private void collapse(Cluster c){
+    for(String id : c.members){
+      Node n = this.graph.getNode(id);
+      n.addAttribute("ui.hide");
+      for(Edge e : n.getEachEdge()){
+        e.addAttribute("ui.hide");
+      }
+    }
+    Node n = this.graph.addNode(c.nodeId);
+    n.addAttribute("ui.label", c.members.get(0) + " ... "
+            + c.members.get(c.members.size() - 1) + " (" + c.members.size() + ")");
+    n.addAttribute("ui.size", CLUSTER_SIZE);
+    n.addAttribute("ui.class", "cluster");
+    if(c.position != null){
+      n.addAttribute("xyz", c.position[0], c.position[1], 0.0);
+      n.addAttribute("layout.frozen");                                          // stays over its nodes
+    }
+    if(c.before != null){
+      this.graph.addEdge(freeId(c.nodeId + " in"), c.before, c.nodeId, true);
+      this.graph.addEdge(freeId(c.nodeId + " out"), c.nodeId, c.after, true);
+    }
+    c.collapsed = true;
+    this.hiddenCount += c.members.size();
+  }
+
+  /**
+   * Expand a cluster: the node standing for it is removed and its nodes and
+   * their edges are shown again.
+   *
+   * @param c The cluster.
+   */
+  private void expand(Cluster c){
+    if(!c.collapsed){
+      return;
+    }
+    this.graph.removeNode(c.nodeId);                                            // with its edges
+    for(String id : c.members){
+      Node n = this.graph.getNode(id);
+      n.removeAttribute("ui.hide");
+      for(Edge e : n.getEachEdge()){
+        e.removeAttribute("ui.hide");
+      }
+    }
+    c.collapsed = false;
+    this.hiddenCount -= c.members.size();
+  }
+
+  /**
+   * Set the drawing settings according to the number of nodes drawn: the zoom
+   * under which the labels are drawn, and the quality drawing, none while the
+   * drawing is degraded. They are only set when they change, since the whole
+   * graph is drawn again.
+   */
+  private void restyle(){
+    int drawn = this.nodeCount - this.hiddenCount + clustersCollapsed();
+    double zoom = (this.degraded ? -1                                           // no labels
+            : Math.min(1, Math.floor(zoomFor(LABEL_BUDGET, drawn) * 100) / 100));
+    if(zoom != this.labelZoom){
+      this.labelZoom = zoom;
+      this.graph.addAttribute("ui.stylesheet", (zoom >= 1
+              ? "node { text-visibility-mode: normal; }"
+              : zoom < 0
+              ? "node { text-visibility-mode: hidden; }"
+              : "node { text-visibility-mode: under-zoom; text-visibility: " + zoom + "; }"));
+    }
+    boolean toUse = (drawn <= QUALITY_LIMIT && !this.degraded);
+    if(this.quality == null || this.quality != toUse){
+      this.quality = toUse;
+      if(toUse){
+        this.graph.addAttribute("ui.quality");
+        this.graph.addAttribute("ui.antialias");
+      }
+      else{
+        this.graph.removeAttribute("ui.quality");
+        this.graph.removeAttribute("ui.antialias");
+      }
+    }
+  }
+
+  /**
+   * Give the number of clusters collapsed.
+   *
+   * @return The number of clusters drawn as a node.
+   */
+  private int clustersCollapsed(){
+    int toReturn = 0;
+    for(Cluster c : this.clusters.values()){
+      if(c.collapsed){
+        toReturn++;
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Give the zoom under which a given number of nodes are seen at most, the
+   * nodes being spread over the graph: the part of the graph seen is the
+   * square of the zoom.
+   *
+   * @param budget The number of nodes that may be seen.
+   * @param count The number of nodes of the graph.
+   * @return The zoom, 1 or more if all the nodes may be seen.
+   */
+  private static double zoomFor(int budget, int count){
+    return (count <= budget ? 1 : Math.sqrt((double)budget / count));
+  }
+
+  /**
+   * Tell whether a node may be in a chain: it has one previous and one next
+   * node, the edges of the clusters aside.
+   *
+   * @param n The node, may be null.
+   * @return true if the node may be in a chain.
+   */
+  private boolean inChain(Node n){
+    return (n != null && !isCluster(n.getId()) && previous(n) != null && next(n) != null);
+  }
+
+  /**
+   * Give the previous node of a node in a chain.
+   *
+   * @param n The node.
+   * @return The previous node, null if there is not one only.
+   */
+  private Node previous(Node n){
+    return only(n.getEnteringEdgeIterator(), n);
+  }
+
+  /**
+   * Give the next node of a node in a chain.
+   *
+   * @param n The node.
+   * @return The next node, null if there is not one only.
+   */
+  private Node next(Node n){
+    return only(n.getLeavingEdgeIterator(), n);
+  }
+
+  /**
+   * Give the only node a node is linked to by some of its edges, the edges of
+   * the clusters aside.
+   *
+   * @param edges The edges of the node, entering or leaving it.
+   * @param n The node.
+   * @return The other node, null if there is not one only.
+   */
+  private Node only(Iterator<Edge> edges, Node n){
+    Node toReturn = null;
+    while(edges.hasNext()){
+      Node other = edges.next().getOpposite(n);
+      if(!isCluster(other.getId())){
+        if(toReturn != null){
+          return null;
+        }
+        toReturn = other;
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Give an id that is not used by a node or an edge of the graph.
+   *
+   * @param base The id wanted.
+   * @return The id wanted, or the id wanted followed by a number.
+   */
+  private String freeId(String base){
+    String toReturn = base;
+    for(int i = 2 ; this.graph.getNode(toReturn) != null || this.graph.getEdge(toReturn) != null ; i++){
+      toReturn = base + " " + i;
+    }
+    return toReturn;
+  }
+
+  /**
+   * Give the position of a node.
+   *
+   * @param n The node.
+   * @return The abscissa and the ordinate, null if the node is not placed.
+   */
+  private static double[] position(Node n){
+    return NodeIndex.position(n.getAttribute("xyz"));
+  }
+}
@@ -0,0 +1,171 @@
+package graphstream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * This class registers the links of a graph between the nodes, each link going
+ * from a node to another one. A link is found from its two nodes, and the
+ * links of a node from the node, without going through all the links.
+ *
+ * The id of a link is built from its two nodes so that two different pairs of
+ * nodes never give the same id: the length of the id of the first node comes
+ * first, see {@link #idOf(String, String)}. The graph view and the main IHM
+ * both name the links this way.
+ *
+ * @author Nicolas Brax
+ */
+public class LinkRegistry {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The two nodes of each link, by id of the link.
+   */
+  private final HashMap<String,String[]> links = new HashMap<>();
+
+  /**
+   * The ids of the links of each node, coming in or going out, in the order
+   * they were added.
+   */
+  private final HashMap<String,LinkedHashSet<String>> incidence = new HashMap<>();
+
+
+  /****************************************************************************/
+  /** Link Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Give the id of the link going from a node to another one: the length of
+   * the id of the first node, a colon, the id of the first node, a greater
+   * than sign and the id of the second node. For example "1:a>bc" and "2:ab>c".
+   *
+   * @param fromId The id of the node the link starts from.
+   * @param toId The id of the node the link goes to.
+   * @return The id of the link.
+   */
+  public static String idOf(String fromId, String toId){
+    return fromId.length() + ":" + fromId + ">" + toId;
+  }
+
+  /**
+   * Tell whether a link going from a node to another one is registered.
+   *
+   * @param fromId The id of the node the link starts from.
+   * @param toId The id of the node the link goes to.
+   * @return true if the link is registered.
+   */
+  public boolean contains(String fromId, String toId){
+    return this.links.containsKey(idOf(fromId, toId));
+  }
+
+  /**
+   * Register a link going from a node to another one.
+   *
+   * @param fromId The id of the node the link starts from.
+   * @param toId The id of the node the link goes to.
+   * @return The id of the link, null if it is already registered.
+   */
+  public String add(String fromId, String toId){
+    String toReturn = idOf(fromId, toId);
+    if(this.links.putIfAbsent(toReturn, new String[]{fromId, toId}) != null){
+      return null;
+    }
+    this.incidence.computeIfAbsent(fromId, k -> new LinkedHashSet<>()).add(toReturn);
+    this.incidence.computeIfAbsent(toId, k -> new LinkedHashSet<>()).add(toReturn);
+    return toReturn;
+  }
+
+  /**
+   * Remove a link.
+   *
+   * @param linkId The id of the link.
+   * @return true if the link was registered.
+   */
+  public boolean remove(String linkId){
+    String[] ends = this.links.remove(linkId);
+    if(ends == null){
+      return false;
+    }
+    for(String nodeId : ends){
+      LinkedHashSet<String> ofNode = this.incidence.get(nodeId);
+      if(ofNode != null){
+        ofNode.remove(linkId);
+        if(ofNode.isEmpty()){
+          this.incidence.remove(nodeId);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Remove all the links of a node, coming in or going out.
+   *
+   * @param nodeId The id of the node.
+   * @return The ids of the links removed.
+   */
+  public ArrayList<String> removeNode(String nodeId){
+    LinkedHashSet<String> ofNode = this.incidence.get(nodeId);
+    ArrayList<String> toReturn = (ofNode == null ? new ArrayList<>() : new ArrayList<>(ofNode));
+    for(String linkId : toReturn){
+      remove(linkId);
+    }
+    return toReturn;
+  }
+
+  /**
+   * Give the links of a node, coming in or going out.
+   *
+   * @param nodeId The id of the node.
+   * @return The ids of the links, that cannot be modified.
+   */
+  public Set<String> linksOf(String nodeId){
+    LinkedHashSet<String> ofNode = this.incidence.get(nodeId);
+    return (ofNode == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(ofNode));
+  }
+
+  /**
+   * Give the node a link starts from.
+   *
+   * @param linkId The id of the link.
+   * @return The id of the node, null if the link is not registered.
+   */
+  public String getFrom(String linkId){
+    String[] ends = this.links.get(linkId);
+    return (ends == null ? null : ends[0]);
+  }
+
+  /**
+   * Give the node a link goes to.
+   *
+   * @param linkId The id of the link.
+   * @return The id of the node, null if the link is not registered.
+   */
+  public String getTo(String linkId){
+    String[] ends = this.links.get(linkId);
+    return (ends == null ? null : ends[1]);
+  }
+
+  /**
+   * Give the number of links registered.
+   *
+   * @return The number of links.
+   */
+  public int size(){
+    return this.links.size();
+  }
+
+  /**
+   * Remove all the links.
+   */
+  public void clear(){
+    this.links.clear();
+    this.incidence.clear();
+  }
+}
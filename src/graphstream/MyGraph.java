@@ -4,16 +4,31 @@ import ihm.RPGScenarioCreationIHM;
 import java.awt.Dimension;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import javax.swing.SwingUtilities;
 import javax.swing.event.MouseInputListener;
 import org.graphstream.graph.Edge;
 import org.graphstream.graph.Graph;
 import org.graphstream.graph.Node;
 import org.graphstream.graph.implementations.SingleGraph;
+import org.graphstream.ui.geom.Point3;
+import org.graphstream.ui.layout.Layout;
+import org.graphstream.ui.layout.springbox.implementations.SpringBox;
 import org.graphstream.ui.swingViewer.ViewPanel;
+import org.graphstream.ui.view.Camera;
 import org.graphstream.ui.view.View;
 import org.graphstream.ui.view.Viewer;
 import org.graphstream.ui.view.ViewerListener;
 import org.graphstream.ui.view.ViewerPipe;
+import scenario.Scenario;
+import scenario.ScenarioElement;
+import tools.ScenarioLayoutFile;
 import tools.RPGSCException;
 
 /**
@@ -28,6 +43,22 @@ import tools.RPGSCException;
  * This allows a quick overview of the whole scenario and the elements that have
  * to be followed and to complete it.
  * 
+ * By default the nodes are placed by a layered layout, see {@link LayeredLayout},
+ * computed for the whole graph at the end of a batch of modifications or when
+ * asked, see {@link #layout()}; a single modification only places the nodes
+ * it changes, next to the nodes already placed. The continuous layout of the
+ * viewer can be used instead, see {@link #setAutoLayout(boolean)}. It is
+ * stopped once it has converged, and started again for the nodes around a
+ * change only.
+ * 
+ * The chains of elements of a large graph are drawn as clusters, expanded when
+ * the view zooms in or when they are double clicked, see {@link LevelOfDetail}.
+ * A modification only groups again the chains it changes.
+ * 
+ * The graph is modified in the event dispatch thread only: the modifications
+ * asked from other threads are queued, see {@link #post(Runnable)}, and the
+ * events of the viewer are pumped a few times per second while they come.
+ * 
  * This also help to create the scenario by the mouse input allowing to create and
  * remove elements (edges or nodes) while its running, thus adapting to the 
  * actual flow of the scenario.
@@ -43,12 +74,12 @@ public class MyGraph implements ViewerListener, MouseInputListener{
   /**
    * The node size in pixel that is used by the graph viewer.
    */
-  private final int NODE_SIZE = 15;
+  static final int NODE_SIZE = 15;
   
   /**
    * The edge size in pixel that is used by the graph viewer.
    */
-  private final int LINK_SIZE = 10;
+  static final int LINK_SIZE = 10;
   
   /**
    * The graph reprensenting, in this project, one scenario.
@@ -71,14 +102,43 @@ public class MyGraph implements ViewerListener, MouseInputListener{
   private ViewerPipe fromViewer;
   
   /**
-   * A list of all the nodes in the graph identified by their id.
+   * The modifications of the graph asked from other threads and the events of
+   * the viewer, given to the graph in the event dispatch thread.
+   */
+  private GraphQueue graphQueue;
+  
+  /**
+   * A list of all the nodes in the graph identified by their id, in the order
+   * they were added.
+   */
+  private LinkedHashSet<String> nodeIds;
+  
+  /**
+   * The edges of the graph, found by their two nodes, see 
+   * {@link LinkRegistry#idOf(String, String)} for their ids.
+   */
+  private LinkRegistry links;
+  
+  /**
+   * The ids of the nodes currently selected.
+   */
+  private HashSet<String> selectedNodes;
+  
+  /**
+   * The ids of the edges currently selected.
+   */
+  private HashSet<String> selectedLinks;
+  
+  /**
+   * The positions of the nodes, to find the node under the mouse.
    */
-  private ArrayList<String> nodeIds;
+  private NodeIndex nodeIndex;
   
   /**
-   * A list of all the edges in the graph identified by their id.
+   * The clusters and the drawing settings, that keep the drawing of a large
+   * graph fast.
    */
-  private ArrayList<String> linkIds;
+  private LevelOfDetail levelOfDetail;
   
   /**
    * A reference to the main IHM of the project in order to pass information
@@ -98,6 +158,67 @@ public class MyGraph implements ViewerListener, MouseInputListener{
    */
   private boolean graphBuilt =false ; 
   
+  /**
+   * True if the viewer runs the automatic layout of the nodes, false if the
+   * nodes are placed by the layered layout.
+   */
+  private boolean autoLayout;
+  
+  /**
+   * True if the graph changed since the nodes were last placed by the layered
+   * layout.
+   */
+  private boolean layoutNeeded;
+  
+  /**
+   * True if the graph changed since its chains were last grouped in clusters.
+   */
+  private boolean groupNeeded;
+  
+  /**
+   * The positions of the nodes placed by the layered layout, by id.
+   */
+  private HashMap<String,double[]> positions;
+  
+  /**
+   * The file keeping the positions of the nodes of the scenario shown, null
+   * for none.
+   */
+  private ScenarioLayoutFile layoutFile;
+  
+  /**
+   * The continuous layout running in the viewer, null if it is stopped.
+   */
+  private Layout forceLayout;
+  
+  /**
+   * The watcher of the continuous layout, stopping it once converged.
+   */
+  private LayoutMonitor layoutMonitor;
+  
+  /**
+   * True if the continuous layout moves all the nodes, false if it only moves
+   * the nodes around the changes.
+   */
+  private boolean wholeLayout = true;
+  
+  /**
+   * The ids of the nodes the continuous layout moves, when it does not move
+   * them all: the nodes around the changes since it was last stopped.
+   */
+  private HashSet<String> movingNodes;
+  
+  /**
+   * The ids of the nodes frozen for the continuous layout.
+   */
+  private HashSet<String> frozenNodes;
+  
+  /**
+   * The depth of the nested batches of modifications, 0 outside of a batch.
+   * See {@link #beginBatch()}.
+   */
+  private int batchDepth;
+  
   
   /****************************************************************************/
   /** Constructor Methods                                                    **/
@@ -112,12 +233,19 @@ public class MyGraph implements ViewerListener, MouseInputListener{
   public MyGraph(RPGScenarioCreationIHM ihm){
     System.setProperty("org.graphstream.ui.renderer", "org.graphstream.ui.j2dviewer.J2DGraphRenderer");
     this.graph = new SingleGraph("Scenario visualisation.");
-    this.graph.addAttribute("ui.stylesheet", "url('file:" + System.getProperty("user.dir") 
-            + "/data/graphstream_ressources/graph_style.css'" + ")");
-    this.graph.addAttribute("ui.quality");
-    this.graph.addAttribute("ui.antialias");
-    this.nodeIds = new ArrayList<>();
-    this.linkIds = new ArrayList<>();
+    this.levelOfDetail = new LevelOfDetail(this.graph);
+    this.graphQueue = new GraphQueue(this.graph);
+    style();
+    this.nodeIds = new LinkedHashSet<>();
+    this.links = new LinkRegistry();
+    this.selectedNodes = new HashSet<>();
+    this.selectedLinks = new HashSet<>();
+    this.movingNodes = new HashSet<>();
+    this.frozenNodes = new HashSet<>();
+    this.positions = new HashMap<>();
+    this.layoutMonitor = new LayoutMonitor(this::stopForceLayout);
+    this.nodeIndex = new NodeIndex();
+    this.graph.addSink(this.nodeIndex);                                         // follows the nodes moved by the layout
     this.ihm = ihm;
   }
   
@@ -135,17 +263,13 @@ public class MyGraph implements ViewerListener, MouseInputListener{
    * @param nodeId The id of the node to add.
    */
   public void addNode(String nodeId){
+    if(queued(() -> addNode(nodeId))){
+      return;
+    }
     if(nodeIds != null && nodeIds.contains(nodeId)){
       removeNode(nodeId);
     }
-    Node n = graph.addNode(nodeId);
-    nodeIds.add(nodeId);
-    n.addAttribute("ui.label",nodeId);
-    n.addAttribute("ui.size",NODE_SIZE);
-    n.addAttribute("ui.class","unselected");
-    if(!graphBuilt){
-      graphBuilt = true;
-    }
+    node(nodeId);
   }
   
   /**
@@ -155,11 +279,27 @@ public class MyGraph implements ViewerListener, MouseInputListener{
    * @param selected The value of the selection.
    */
   public void updateNode(String nodeId, boolean selected){
+    if(queued(() -> updateNode(nodeId, selected))){
+      return;
+    }
+    selectNode(nodeId, selected);
+  }
+  
+  /**
+   * Set the selection of a node, the modifications queued being already run.
+   * 
+   * @param nodeId The id of the node to update.
+   * @param selected The value of the selection.
+   */
+  private void selectNode(String nodeId, boolean selected){
     if(selected){
+      levelOfDetail.show(nodeId);                                               // out of its cluster
       graph.getNode(nodeId).setAttribute("selected?");
+      selectedNodes.add(nodeId);
     }
     else{
       graph.getNode(nodeId).removeAttribute("selected?");
+      selectedNodes.remove(nodeId);
     }
     graph.getNode(nodeId).setAttribute("ui.class", (selected ? "selected" : "unselected"));
   }
@@ -171,16 +311,27 @@ public class MyGraph implements ViewerListener, MouseInputListener{
    * @param nodeId  The id of the node to remove.
    */
   public void removeNode(String nodeId){
-    ArrayList<String> linksToRemove = new ArrayList<>();                        // list all the edges linked to the node
-    for(Edge edge : graph.getNode(nodeId).getEdgeSet()){
-      linksToRemove.add(edge.getId());
+    if(queued(() -> removeNode(nodeId))){
+      return;
     }
-    for(String s : linksToRemove){                                              // remove them
-      linkIds.remove(s);                                                        // from the list of edges
+    ArrayList<String> neighbours = new ArrayList<>();                           // the nodes that may move, read before their links are removed
+    for(String s : links.linksOf(nodeId)){
+      neighbours.add(nodeId.equals(links.getFrom(s)) ? links.getTo(s) : links.getFrom(s));
+    }
+    ArrayList<String> around = new ArrayList<>(neighbours);
+    around.add(nodeId);
+    levelOfDetail.ungroup(around);                                              // its cluster, before its node is removed
+    for(String s : links.removeNode(nodeId)){                                   // remove all the edges linked to the node from the registry
+      selectedLinks.remove(s);
       graph.removeEdge(s);                                                      // as well as from the graph itself
     }
+    selectedNodes.remove(nodeId);
+    frozenNodes.remove(nodeId);
+    movingNodes.remove(nodeId);
+    positions.remove(nodeId);
     nodeIds.remove(nodeId);                                                     // then remove the node from the list
     graph.removeNode(nodeId);                                                   // and from the graph
+    changed(false,neighbours.toArray(new String[neighbours.size()]));           // the neighbours keep their places
   }
   
   /**
@@ -206,15 +357,9 @@ public class MyGraph implements ViewerListener, MouseInputListener{
    * @throws RPGSCException 
    */
   public void addLink(String fromId,String toId) throws RPGSCException{
-    if(!linkIds.contains(fromId+toId)){
-      Edge e = graph.addEdge(fromId+toId,fromId,toId,true);
-      linkIds.add(fromId+toId);
-      e.addAttribute("ui.size",LINK_SIZE);
-      if((graph.getNode(fromId).hasAttribute("selected?")) 
-      || (graph.getNode(toId).hasAttribute("selected?"))){
-        e.setAttribute("selected?");
-      }
-      e.setAttribute("ui.class",(e.hasAttribute("selected?")?"selected":"unselected"));
+    checkThread();
+    if(!links.contains(fromId,toId)){
+      link(fromId,toId);
     }
     else{
       throw new RPGSCException("The edge is already existing.");
@@ -228,16 +373,228 @@ public class MyGraph implements ViewerListener, MouseInputListener{
    * @param selected The value of the selection.
    */
   public void updateLink(String linkId, boolean selected){
+    if(queued(() -> updateLink(linkId, selected))){
+      return;
+    }
+    selectLink(linkId, selected);
+  }
+  
+  /**
+   * Set the selection of an edge, the modifications queued being already run.
+   * 
+   * @param linkId The id of the edge to update.
+   * @param selected The value of the selection.
+   */
+  private void selectLink(String linkId, boolean selected){
     if(selected){
       graph.getEdge(linkId).setAttribute("selected?");
+      selectedLinks.add(linkId);
     }
     else{
       graph.getEdge(linkId).removeAttribute("selected?");
+      selectedLinks.remove(linkId);
     }
     graph.getEdge(linkId).setAttribute("ui.class", (selected ? "selected" : "unselected"));
   }
   
   
+  /****************************************************************************/
+  /** Bulk Construction Methods                                              **/
+  /****************************************************************************/
+  
+  /**
+   * Start a batch of modifications of the graph: the layout is suspended until
+   * the end of the batch, so that the nodes are not moved for each node or
+   * edge added. Batches can be nested.
+   */
+  public void beginBatch(){
+    if(queued(this::beginBatch)){
+      return;
+    }
+    if(batchDepth++ == 0 && forceLayout != null){
+      this.viewer.disableAutoLayout();                                          // resumed at the end of the batch
+      this.layoutMonitor.stop();
+      this.graphQueue.setContinuous(false);
+      this.levelOfDetail.setLayoutRunning(false);
+      this.forceLayout = null;
+    }
+  }
+  
+  /**
+   * End a batch of modifications of the graph. The end of the outermost batch
+   * resumes the layout, that then places all the nodes at once, and groups
+   * all the chains again.
+   */
+  public void endBatch(){
+    if(queued(this::endBatch)){
+      return;
+    }
+    if(batchDepth > 0 && --batchDepth == 0){
+      if(autoLayout){
+        if(wholeLayout || !movingNodes.isEmpty()){
+          startForceLayout();
+        }
+      }
+      else if(layoutNeeded){
+        layout();
+      }
+      if(groupNeeded){
+        group();
+      }
+    }
+  }
+  
+  /**
+   * Replace the graph by the graph of a whole scenario: a node for each 
+   * element and an edge for each link to a next element. This is done in one
+   * batch, see {@link #beginBatch()}, and without the checks of 
+   * {@link #addNode(String)} and {@link #addLink(String, String)} since the
+   * graph is emptied first.
+   * 
+   * @param toShow The scenario to show.
+   * @throws RPGSCException If a link of the scenario is given twice.
+   */
+  public void showScenario(Scenario toShow) throws RPGSCException{
+    showScenario(toShow, null);
+  }
+  
+  /**
+   * Replace the graph by the graph of a whole scenario, as 
+   * {@link #showScenario(Scenario)}, placing the nodes at the positions kept
+   * in a layout file if they were computed for this graph. Otherwise the
+   * nodes are placed by the layered layout and their positions are kept in
+   * the file for the next time. The positions of the nodes placed by the next
+   * modifications are kept in the file as well.
+   * 
+   * @param toShow The scenario to show.
+   * @param layoutFile The file keeping the positions of the nodes, null for
+   *                   none.
+   * @throws RPGSCException If a link of the scenario is given twice.
+   */
+  public void showScenario(Scenario toShow, ScenarioLayoutFile layoutFile) throws RPGSCException{
+    checkThread();
+    beginBatch();
+    try{
+      graph.clear();                                                            // remove the previous scenario, with its clusters
+      style();
+      frozenNodes.clear();
+      movingNodes.clear();
+      wholeLayout = true;
+      positions.clear();
+      this.layoutFile = layoutFile;
+      nodeIds.clear();
+      links.clear();
+      selectedNodes.clear();
+      selectedLinks.clear();
+      firstSelectedForLinkCreation = "";
+      for(String id : toShow.getWholeScenario().keySet()){                      // a node for each element
+        node(id);
+      }
+      for(ScenarioElement element : toShow.getWholeScenario().values()){        // then an edge for each next element
+        if(element.hasNext()){
+          for(String next : element.getNextElements()){
+            if(links.contains(element.getElementId(),next)){
+              throw new RPGSCException("The link between " + element.getElementId()
+                      + " and " + next + " is given twice.");
+            }
+            link(element.getElementId(),next);
+          }
+        }
+      }
+      if(!autoLayout && layoutFile != null){
+        LayeredLayout layered = layeredLayout();
+        long fingerprint = layered.fingerprint();
+        HashMap<String,double[]> kept = layoutFile.read(fingerprint);
+        if(kept == null || kept.size() != nodeIds.size()){                      // computed once for this graph
+          kept = layered.compute();
+          layoutFile.write(fingerprint, kept);
+        }
+        place(kept);
+      }
+    }finally{
+      endBatch();
+    }
+  }
+  
+  /**
+   * Choose how the nodes are placed: by the continuous layout of the viewer,
+   * that keeps moving them, or by the layered layout, computed for the whole
+   * graph at once then for the nodes changed.
+   * 
+   * @param autoLayout true for the continuous layout, false for the layered
+   *                   layout.
+   */
+  public void setAutoLayout(boolean autoLayout){
+    if(queued(() -> setAutoLayout(autoLayout))){
+      return;
+    }
+    if(this.autoLayout == autoLayout){
+      return;
+    }
+    this.autoLayout = autoLayout;
+    if(autoLayout){
+      wholeLayout = true;
+      startForceLayout();
+    }
+    else{
+      stopForceLayout();
+      layout();
+    }
+  }
+  
+  /**
+   * Tell whether the continuous layout is running: it is stopped once it has
+   * converged.
+   * 
+   * @return true if the continuous layout is running.
+   */
+  public boolean isLayoutRunning(){
+    return (forceLayout != null);
+  }
+  
+  /**
+   * Set the target time to draw a frame of the view: while the frames take
+   * longer, as while the view or the nodes move, the graph is drawn without
+   * quality, antialiasing and labels, until the view is still.
+   * 
+   * @param millis The target time in milliseconds, 33 by default.
+   */
+  public void setFrameTimeTarget(long millis){
+    if(queued(() -> setFrameTimeTarget(millis))){
+      return;
+    }
+    levelOfDetail.setFrameTarget(millis);
+  }
+  
+  /**
+   * Place all the nodes by the layered layout of the whole graph, and group
+   * all its chains again.
+   */
+  public void layout(){
+    if(queued(this::layout)){
+      return;
+    }
+    place(layeredLayout().compute());
+    keepPositions();
+    groupNeeded = true;
+    if(batchDepth == 0){
+      group();
+    }
+  }
+  
+  /**
+   * Run a modification of the graph asked from any thread: it is queued and
+   * run in the event dispatch thread, after the modifications asked before. 
+   * The methods modifying the graph that do not throw exceptions do so by 
+   * themselves.
+   * 
+   * @param command The modification.
+   */
+  public void post(Runnable command){
+    graphQueue.post(command);
+  }
+  
+  
   /****************************************************************************/
   /** Graphic Management Methods                                             **/
   /****************************************************************************/
@@ -252,8 +609,11 @@ public class MyGraph implements ViewerListener, MouseInputListener{
    */
   public ViewPanel getView(int x, int y){
     this.viewer = new Viewer(graph, Viewer.ThreadingModel.GRAPH_IN_ANOTHER_THREAD);
-    this.viewer.enableAutoLayout();
+    if(autoLayout){
+      startForceLayout();
+    }
     ViewPanel toReturn = this.viewer.addDefaultView(false);
+    levelOfDetail.watch(toReturn);
     toReturn.setMaximumSize(new Dimension(x,y));
     toReturn.setMinimumSize(new Dimension(x,y));
     toReturn.setPreferredSize(new Dimension(x,y));
@@ -267,8 +627,12 @@ public class MyGraph implements ViewerListener, MouseInputListener{
    */
   public void display(){
     this.viewer = new Viewer(graph, Viewer.ThreadingModel.GRAPH_IN_GUI_THREAD);
-    this.viewer.enableAutoLayout();
-    this.view = this.viewer.addDefaultView(true);
+    if(autoLayout){
+      startForceLayout();
+    }
+    ViewPanel panel = this.viewer.addDefaultView(true);
+    levelOfDetail.watch(panel);
+    this.view = panel;
     this.view.addMouseListener(this);
   }
   
@@ -280,7 +644,7 @@ public class MyGraph implements ViewerListener, MouseInputListener{
     if(this.fromViewer == null){
       this.fromViewer = this.viewer.newViewerPipe();
       fromViewer.addViewerListener(this);
-      fromViewer.addSink(graph);
+      graphQueue.follow(fromViewer);                                            // pumped while the events come
     }
   }
   
@@ -290,15 +654,347 @@ public class MyGraph implements ViewerListener, MouseInputListener{
    * This function set the select attribute of the node and the edges given in
    * parameters to true and to false for all the other nodes and edges.
    * 
+   * Only the nodes and the edges whose selection changes are updated: the
+   * previous selection is unselected except what stays selected, then the new
+   * one is selected, so that the cost of a selection does not depend on the
+   * size of the graph.
+   * 
    * @param nodeId The id of the node to update.
    * @param linkIds The ids of the edges to update.
    */
   public void updateNodesAndLinks(String nodeId, ArrayList<String>linkIds){
-    for(String s : this.nodeIds){                                               // process all the nodes
-      updateNode(s,s.equalsIgnoreCase(nodeId));                                 // select the one in parameter and unselect the others
+    if(queued(() -> updateNodesAndLinks(nodeId, linkIds))){
+      return;
+    }
+    HashSet<String> links = new HashSet<>(linkIds);
+    for(Iterator<String> it = selectedNodes.iterator() ; it.hasNext() ; ){      // unselect the previous nodes
+      String s = it.next();
+      if(!s.equals(nodeId)){
+        it.remove();
+        selectNode(s,false);                                                    // no modification run meanwhile
+      }
+    }
+    for(Iterator<String> it = selectedLinks.iterator() ; it.hasNext() ; ){      // unselect the previous edges
+      String s = it.next();
+      if(!links.contains(s)){
+        it.remove();
+        selectLink(s,false);
+      }
+    }
+    if(!selectedNodes.contains(nodeId) && graph.getNode(nodeId) != null){       // select the node in parameter
+      selectNode(nodeId,true);
+    }
+    for(String s : links){                                                      // and the edges in parameter
+      if(!selectedLinks.contains(s) && graph.getEdge(s) != null){
+        selectLink(s,true);
+      }
+    }
+  }
+  
+  
+  /**
+   * Set the style attributes of the graph. The quality of the drawing depends
+   * on the size of the graph, see {@link LevelOfDetail}.
+   */
+  private void style(){
+    this.graph.addAttribute("ui.stylesheet", "url('file:" + System.getProperty("user.dir") 
+            + "/data/graphstream_ressources/graph_style.css'" + ")");
+    this.levelOfDetail.reset();
+  }
+  
+  /**
+   * Add a node known to be new to the graph.
+   * 
+   * @param nodeId The id of the node to add.
+   */
+  private void node(String nodeId){
+    Node n = graph.addNode(nodeId);
+    nodeIds.add(nodeId);
+    n.addAttribute("ui.label",nodeId);
+    n.addAttribute("ui.size",NODE_SIZE);
+    n.addAttribute("ui.class","unselected");
+    if(!graphBuilt){
+      graphBuilt = true;
     }
-    for(String s : this.linkIds){                                               // process all the edges
-      updateLink(s,linkIds.contains(s));                                        // select the ones in parameter and unselect the others
+    changed(true,nodeId);
+  }
+  
+  /**
+   * Add an edge known to be new to the graph.
+   * 
+   * @param fromId The id of the node the edge starts from.
+   * @param toId The id of the node the edge goes to.
+   */
+  private void link(String fromId,String toId){
+    Edge e = graph.addEdge(links.add(fromId,toId),fromId,toId,true);
+    e.addAttribute("ui.size",LINK_SIZE);
+    if((graph.getNode(fromId).hasAttribute("selected?")) 
+    || (graph.getNode(toId).hasAttribute("selected?"))){
+      e.setAttribute("selected?");
+      selectedLinks.add(e.getId());
+    }
+    e.setAttribute("ui.class",(e.hasAttribute("selected?")?"selected":"unselected"));
+    changed(true,fromId,toId);
+  }
+  
+  /**
+   * Note that the graph changed. In a batch, all the nodes are placed again
+   * and all the chains grouped again at its end. Otherwise, with the layered
+   * layout, the nodes changed are placed next to the others, that do not
+   * move; with the continuous layout, the nodes around the change are moved
+   * again. Only the chains around the change are grouped again.
+   * 
+   * @param toPlace true if the nodes changed may have to be placed, false if
+   *                they only lost links and keep their places.
+   * @param around The ids of the nodes changed, or next to the change.
+   */
+  private void changed(boolean toPlace, String... around){
+    levelOfDetail.ungroup(Arrays.asList(around));
+    groupNeeded = true;
+    if(autoLayout){
+      if(!wholeLayout){
+        for(String id : around){                                                // the nodes and their neighbours
+          Node n = graph.getNode(id);
+          if(n != null && movingNodes.add(id)){
+            Iterator<Node> neighbours = n.getNeighborNodeIterator();
+            while(neighbours.hasNext()){
+              movingNodes.add(neighbours.next().getId());
+            }
+          }
+        }
+      }
+      if(batchDepth == 0){
+        startForceLayout();
+        regroup();
+      }
+      return;
+    }
+    if(batchDepth > 0){
+      layoutNeeded = true;
+      return;
+    }
+    if(toPlace){
+      for(String id : around){
+        placeNode(id);
+      }
+    }
+    keepPositions();
+    regroup();
+  }
+  
+  /**
+   * Group all the chains of the graph in clusters, from the current positions
+   * of the nodes.
+   */
+  private void group(){
+    levelOfDetail.group(nodeIds);
+    groupNeeded = false;
+  }
+  
+  /**
+   * Group in clusters the chains changed since they were last grouped, see
+   * {@link LevelOfDetail#regroup(java.util.Collection)}.
+   */
+  private void regroup(){
+    levelOfDetail.regroup(nodeIds);
+    groupNeeded = false;
+  }
+  
+  /**
+   * Start the continuous layout, or update the nodes it moves if it is
+   * running: all the nodes or only the nodes around the changes, the others
+   * being frozen.
+   */
+  private void startForceLayout(){
+    if(viewer == null || batchDepth > 0){
+      return;
+    }
+    for(String id : nodeIds){                                                   // freeze or free the nodes that change
+      boolean moving = wholeLayout || movingNodes.contains(id);
+      if(moving && frozenNodes.remove(id)){
+        graph.getNode(id).removeAttribute("layout.frozen");
+      }
+      else if(!moving && frozenNodes.add(id)){
+        graph.getNode(id).addAttribute("layout.frozen");
+      }
+    }
+    if(forceLayout == null){
+      forceLayout = new SpringBox(false);
+      viewer.enableAutoLayout(forceLayout);                                     // from the current positions
+      graphQueue.setContinuous(true);                                           // the nodes move
+      levelOfDetail.setLayoutRunning(true);
+    }
+    layoutMonitor.watch(forceLayout);
+  }
+  
+  /**
+   * Stop the continuous layout, once it has converged or when it is not used
+   * anymore. The next changes only move the nodes around them.
+   */
+  private void stopForceLayout(){
+    layoutMonitor.stop();
+    if(forceLayout != null){
+      viewer.disableAutoLayout();
+      forceLayout = null;
+      graphQueue.setContinuous(false);
+      levelOfDetail.setLayoutRunning(false);
+      graphQueue.pump();                                                        // the last positions of the nodes
+      if(batchDepth == 0){
+        group();                                                                // the clusters over their nodes
+      }
+    }
+    wholeLayout = false;
+    movingNodes.clear();
+  }
+  
+  /**
+   * Tell whether a modification is asked from another thread than the event
+   * dispatch thread, in which case it is queued. Otherwise the modifications
+   * queued are run first, so that they are run in order.
+   * 
+   * @param command The modification, to run again from the event dispatch
+   *                thread.
+   * @return true if the modification is queued, false if it must be run now.
+   */
+  private boolean queued(Runnable command){
+    if(SwingUtilities.isEventDispatchThread()){
+      graphQueue.drain();
+      return false;
+    }
+    graphQueue.post(command);
+    return true;
+  }
+  
+  /**
+   * Check that a modification that may fail is asked from the event dispatch
+   * thread, and run the modifications queued before.
+   * 
+   * @throws RPGSCException If the modification is asked from another thread,
+   *                        it has to be posted, see {@link #post(Runnable)}.
+   */
+  private void checkThread() throws RPGSCException{
+    if(!SwingUtilities.isEventDispatchThread()){
+      throw new RPGSCException("The graph can only be modified from the event dispatch thread.");
+    }
+    graphQueue.drain();
+  }
+  
+  /**
+   * Give the layered layout of the graph, not computed yet.
+   * 
+   * @return The layout, given the nodes and the edges of the graph.
+   */
+  private LayeredLayout layeredLayout(){
+    LayeredLayout toReturn = new LayeredLayout();
+    for(String id : nodeIds){                                                   // in the order of the scenario
+      toReturn.addNode(id);
+    }
+    for(Edge e : graph.getEachEdge()){
+      if(nodeIds.contains(e.getSourceNode().getId())                           // not the edges of the clusters
+      && nodeIds.contains(e.getTargetNode().getId())){
+        toReturn.addLink(e.getSourceNode().getId(),e.getTargetNode().getId());
+      }
+    }
+    return toReturn;
+  }
+  
+  /**
+   * Move the nodes to the given positions.
+   * 
+   * @param placed The abscissa and the ordinate of each node, by id.
+   */
+  private void place(HashMap<String,double[]> placed){
+    positions.clear();
+    for(Node n : graph){
+      double[] position = placed.get(n.getId());
+      if(position != null){
+        n.setAttribute("xyz",position[0],position[1],0.0);
+        positions.put(n.getId(),position);
+      }
+    }
+    layoutNeeded = false;
+  }
+  
+  /**
+   * Place a node changed next to the nodes already placed, that do not move.
+   * A new node is put on the layer after the deepest of its previous nodes,
+   * or before the highest of its next nodes, at the mean abscissa of its
+   * neighbours; a node without neighbour goes on the first layer, on the right
+   * of the graph. A node already placed only moves when it has one neighbour,
+   * as a node linked for the first time; otherwise the links going up the
+   * layers wait for the next full layout. The node is then moved to the right
+   * until its place on the layer is free.
+   * 
+   * @param nodeId The id of the node, that may have been removed.
+   */
+  private void placeNode(String nodeId){
+    Node n = graph.getNode(nodeId);
+    if(n == null){
+      return;
+    }
+    double[] position = positions.get(nodeId);
+    double layer;
+    double deepest = Double.NaN, highest = Double.NaN, sum = 0;
+    int count = 0;
+    for(String s : links.linksOf(nodeId)){
+      boolean previous = nodeId.equals(links.getTo(s));
+      double[] around = positions.get(previous ? links.getFrom(s) : links.getTo(s));
+      if(around == null || around == position){                                 // not placed yet, or a loop
+        continue;
+      }
+      double aroundLayer = Math.round(-around[1]);
+      if(previous){
+        deepest = (Double.isNaN(deepest) ? aroundLayer : Math.max(deepest, aroundLayer));
+      }
+      else{
+        highest = (Double.isNaN(highest) ? aroundLayer : Math.min(highest, aroundLayer));
+      }
+      sum += around[0];
+      count++;
+    }
+    if(position != null && count != 1){                                         // anchored to its neighbours, or alone
+      return;
+    }
+    double x;
+    if(!Double.isNaN(deepest)){
+      layer = deepest + 1;
+      x = sum / count;
+    }
+    else if(!Double.isNaN(highest)){
+      layer = highest - 1;
+      x = sum / count;
+    }
+    else{
+      layer = 0;
+      x = 0;
+      for(double[] placed : positions.values()){
+        x = Math.max(x, placed[0] + 1);
+      }
+    }
+    ArrayList<Double> row = new ArrayList<>();                                  // the nodes of the layer, from left to right
+    for(Map.Entry<String,double[]> placed : positions.entrySet()){
+      if(!placed.getKey().equals(nodeId) && Math.round(-placed.getValue()[1]) == layer){
+        row.add(placed.getValue()[0]);
+      }
+    }
+    Collections.sort(row);
+    for(double other : row){                                                    // the first free place on the right
+      if(Math.abs(other - x) < 1){
+        x = other + 1;
+      }
+    }
+    position = new double[]{x, -layer};
+    positions.put(nodeId, position);
+    n.setAttribute("xyz",position[0],position[1],0.0);
+  }
+  
+  /**
+   * Keep the positions of the nodes placed by the layered layout in the layout
+   * file of the scenario, if any, for the graph as it is now.
+   */
+  private void keepPositions(){
+    if(layoutFile != null && !autoLayout && positions.size() == nodeIds.size()){
+      layoutFile.write(layeredLayout().fingerprint(), positions);
     }
   }
   
@@ -316,7 +1012,8 @@ public class MyGraph implements ViewerListener, MouseInputListener{
   @Override
   public void mouseReleased(MouseEvent e) {
     if(!graphBuilt){return;}
-    fromViewer.pump();
+    graphQueue.pump();                                                          // the events of the viewer now
+    graphQueue.pumpSoon();                                                      // and while they come
   }
   
   /**
@@ -335,26 +1032,23 @@ public class MyGraph implements ViewerListener, MouseInputListener{
   @Override
   public void mouseClicked(MouseEvent e){
     if(!graphBuilt){return;}
-    String nodeId = "";                                                         // check all existing nodes
-    for(String id : this.nodeIds){                                              // in order to find the one "under" the cursor
-       Object[] xy = graph.getNode(id).getArray("xyz");
-       double x = this.viewer.getDefaultView().getCamera()                      // transform the graph coordinate into JPanel coordinate (for X)
-               .transformGuToPx((Double)xy[0], (Double)xy[1], 0).x;
-       double y = this.viewer.getDefaultView().getCamera()                      // transform the graph coordinate into JPanel coordinate (for Y)
-               .transformGuToPx((Double)xy[0], (Double)xy[1], 0).y;
-       if((x - NODE_SIZE/2 < e.getPoint().x && e.getPoint().x < x + NODE_SIZE/2)// does not take into account overlapping nodes
-       && (y - NODE_SIZE/2 < e.getPoint().y && e.getPoint().y < y + NODE_SIZE/2)// and return true for the first one tested
-       ){
-         nodeId = id;                                                           // this should be the node under the cursor.
-       }//if
-    }//for
-    if(!"".equals(nodeId)){                                                     // if a node has been found
+    Camera camera = this.viewer.getDefaultView().getCamera();
+    if(camera.getMetrics().ratioPx2Gu <= 0){                                    // nothing drawn yet
+      return;
+    }
+    Point3 clicked = camera.transformPxToGu(e.getX(), e.getY());                // transform the JPanel coordinate into graph coordinate
+    String nodeId = this.nodeIndex.nodeAt(clicked.x, clicked.y,                 // the node "under" the cursor, the nearest one
+            NODE_SIZE / 2.0 / camera.getMetrics().ratioPx2Gu);                 // or the one drawn on top if they overlap
+    if(nodeId != null && levelOfDetail.isCluster(nodeId)){                      // a cluster of elements
+      if(e.getButton() == MouseEvent.BUTTON1 && e.getClickCount() == 2){
+        levelOfDetail.show(nodeId);                                             // shows its elements
+      }
+      return;
+    }
+    if(nodeId != null){                                                         // if a node has been found
       if(e.getButton() == MouseEvent.BUTTON1){                                  // click on the left button
         if(e.getClickCount() == 2){                                             // two clicks
-        ArrayList<String> nodeLinks = new ArrayList<>();
-        for(Edge edge : graph.getNode(nodeId).getEdgeSet()){                    // retrieve all the edges attached to the node
-          nodeLinks.add(edge.getId());                          
-        }
+        ArrayList<String> nodeLinks = new ArrayList<>(links.linksOf(nodeId));   // retrieve all the edges attached to the node
         updateNodesAndLinks(nodeId,nodeLinks);                                  // update the node and its edges to selected state
         this.ihm.selectElement(nodeId);                                         // display info about the selected element on the main IHM
         }
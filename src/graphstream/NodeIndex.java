@@ -0,0 +1,379 @@
+package graphstream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.graphstream.stream.SinkAdapter;
+
+/**
+ * This class indexes the positions of the nodes of a graph in a uniform grid,
+ * so that the node under the mouse is found without testing all the nodes.
+ *
+ * The index follows the graph as a sink: each time the layout moves a node,
+ * its "xyz" (or "x" and "y") attribute changes and the node is moved in the
+ * grid. The size of the cells follows the size of the nodes in graph units,
+ * which changes with the zoom, so that a search only visits a few cells. The
+ * hidden nodes are not in the grid.
+ *
+ * @author Nicolas Brax
+ */
+class NodeIndex extends SinkAdapter {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * A node indexed, with its position and its cell.
+   */
+  private static final class Entry {
+
+    /**
+     * The id of the node.
+     */
+    private final String nodeId;
+
+    /**
+     * The order of the node in the graph: the last nodes are drawn over the
+     * first ones.
+     */
+    private final long order;
+
+    /**
+     * The position of the node, in graph units.
+     */
+    private double x, y;
+
+    /**
+     * The key of the cell holding the node.
+     */
+    private long cell;
+
+    /**
+     * True if the node is in a cell, false until its position is known.
+     */
+    private boolean placed;
+
+    /**
+     * True if the node has a position.
+     */
+    private boolean positioned;
+
+    /**
+     * True if the node is hidden.
+     */
+    private boolean hidden;
+
+    /**
+     * Constructor of an entry.
+     *
+     * @param nodeId The id of the node.
+     * @param order The order of the node in the graph.
+     */
+    private Entry(String nodeId, long order){
+      this.nodeId = nodeId;
+      this.order = order;
+    }
+  }
+
+  /**
+   * The ratio between the size of the cells and the searched size above which
+   * the cells are rebuilt.
+   */
+  private static final double RESIZE_RATIO = 4;
+
+  /**
+   * The nodes indexed by id, positioned or not.
+   */
+  private final HashMap<String,Entry> entries = new HashMap<>();
+
+  /**
+   * The positioned nodes by cell.
+   */
+  private final HashMap<Long,ArrayList<Entry>> cells = new HashMap<>();
+
+  /**
+   * The size of the cells, in graph units.
+   */
+  private double cellSize = 1;
+
+  /**
+   * The order of the next node added.
+   */
+  private long nextOrder;
+
+
+  /****************************************************************************/
+  /** Search Methods                                                         **/
+  /****************************************************************************/
+
+  /**
+   * Find the node under a point: among the nodes whose square of the given
+   * half size contains the point, the nearest one, or the one drawn last if
+   * several are as near.
+   *
+   * @param x The abscissa of the point, in graph units.
+   * @param y The ordinate of the point, in graph units.
+   * @param halfSize The half size of the nodes, in graph units.
+   * @return The id of the node, null if there is none under the point.
+   */
+  String nodeAt(double x, double y, double halfSize){
+    if(halfSize <= 0){
+      return null;
+    }
+    if(this.cellSize > RESIZE_RATIO * 2 * halfSize                              // the zoom changed a lot
+    || this.cellSize * RESIZE_RATIO < 2 * halfSize){
+      resize(2 * halfSize);
+    }
+    Entry found = null;
+    double foundDistance = Double.MAX_VALUE;
+    long minX = cellOf(x - halfSize), maxX = cellOf(x + halfSize);
+    long minY = cellOf(y - halfSize), maxY = cellOf(y + halfSize);
+    for(long cx = minX ; cx <= maxX ; cx++){
+      for(long cy = minY ; cy <= maxY ; cy++){
+        ArrayList<Entry> cell = this.cells.get(key(cx, cy));
+        if(cell == null){
+          continue;
+        }
+        for(Entry entry : cell){
+          double dx = Math.abs(entry.x - x), dy = Math.abs(entry.y - y);
+          if(dx >= halfSize || dy >= halfSize){
+            continue;
+          }
+          double distance = dx * dx + dy * dy;
+          if(distance < foundDistance
+          || (distance == foundDistance && entry.order > found.order)){
+            found = entry;
+            foundDistance = distance;
+          }
+        }
+      }
+    }
+    return (found == null ? null : found.nodeId);
+  }
+
+
+  /****************************************************************************/
+  /** Graph Events Methods                                                   **/
+  /****************************************************************************/
+
+  @Override
+  public void nodeAdded(String sourceId, long timeId, String nodeId){
+    entry(nodeId);
+  }
+
+  @Override
+  public void nodeRemoved(String sourceId, long timeId, String nodeId){
+    Entry removed = this.entries.remove(nodeId);
+    if(removed != null){
+      unplace(removed);
+    }
+  }
+
+  @Override
+  public void graphCleared(String sourceId, long timeId){
+    this.entries.clear();
+    this.cells.clear();
+  }
+
+  @Override
+  public void nodeAttributeAdded(String sourceId, long timeId, String nodeId,
+          String attribute, Object value){
+    if("ui.hide".equals(attribute)){
+      hidden(nodeId, true);
+    }
+    else{
+      moved(nodeId, attribute, value);
+    }
+  }
+
+  @Override
+  public void nodeAttributeChanged(String sourceId, long timeId, String nodeId,
+          String attribute, Object oldValue, Object newValue){
+    moved(nodeId, attribute, newValue);
+  }
+
+  @Override
+  public void nodeAttributeRemoved(String sourceId, long timeId, String nodeId,
+          String attribute){
+    if("xyz".equals(attribute) || "xy".equals(attribute)){
+      Entry entry = this.entries.get(nodeId);
+      if(entry != null){
+        unplace(entry);
+        entry.positioned = false;
+      }
+    }
+    else if("ui.hide".equals(attribute)){
+      hidden(nodeId, false);
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Move a node in the grid if one of its position attributes changed.
+   *
+   * @param nodeId The id of the node.
+   * @param attribute The attribute changed.
+   * @param value The new value of the attribute.
+   */
+  private void moved(String nodeId, String attribute, Object value){
+    Entry entry;
+    switch(attribute){
+      case "xyz":
+      case "xy":
+        double[] position = position(value);
+        if(position == null){
+          return;
+        }
+        entry = entry(nodeId);
+        unplace(entry);
+        entry.x = position[0];
+        entry.y = position[1];
+        break;
+      case "x":
+      case "y":
+        if(!(value instanceof Number)){
+          return;
+        }
+        entry = entry(nodeId);
+        unplace(entry);
+        if("x".equals(attribute)){
+          entry.x = ((Number)value).doubleValue();
+        }
+        else{
+          entry.y = ((Number)value).doubleValue();
+        }
+        break;
+      default:
+        return;
+    }
+    entry.positioned = true;
+    if(!entry.hidden){
+      place(entry);
+    }
+  }
+
+  /**
+   * Hide a node, that is removed from the grid, or show it again.
+   *
+   * @param nodeId The id of the node.
+   * @param hidden true to hide the node, false to show it.
+   */
+  private void hidden(String nodeId, boolean hidden){
+    Entry entry = entry(nodeId);
+    entry.hidden = hidden;
+    if(hidden){
+      unplace(entry);
+    }
+    else if(entry.positioned && !entry.placed){
+      place(entry);
+    }
+  }
+
+  /**
+   * Give the entry of a node, created in the order of the graph if needed.
+   *
+   * @param nodeId The id of the node.
+   * @return The entry.
+   */
+  private Entry entry(String nodeId){
+    Entry toReturn = this.entries.get(nodeId);
+    if(toReturn == null){
+      toReturn = new Entry(nodeId, this.nextOrder++);
+      this.entries.put(nodeId, toReturn);
+    }
+    return toReturn;
+  }
+
+  /**
+   * Add an entry to the cell of its position.
+   *
+   * @param entry The entry.
+   */
+  private void place(Entry entry){
+    entry.cell = key(cellOf(entry.x), cellOf(entry.y));
+    entry.placed = true;
+    this.cells.computeIfAbsent(entry.cell, k -> new ArrayList<>(2)).add(entry);
+  }
+
+  /**
+   * Remove an entry from its cell, if positioned.
+   *
+   * @param entry The entry.
+   */
+  private void unplace(Entry entry){
+    if(!entry.placed){
+      return;
+    }
+    ArrayList<Entry> cell = this.cells.get(entry.cell);
+    if(cell != null){
+      cell.remove(entry);
+      if(cell.isEmpty()){
+        this.cells.remove(entry.cell);
+      }
+    }
+    entry.placed = false;
+  }
+
+  /**
+   * Rebuild the grid with cells of a new size.
+   *
+   * @param newSize The new size of the cells.
+   */
+  private void resize(double newSize){
+    ArrayList<Entry> placed = new ArrayList<>();
+    for(ArrayList<Entry> cell : this.cells.values()){
+      placed.addAll(cell);
+    }
+    this.cells.clear();
+    this.cellSize = newSize;
+    for(Entry entry : placed){
+      place(entry);
+    }
+  }
+
+  /**
+   * Give the cell coordinate of a position coordinate.
+   *
+   * @param coordinate The position coordinate, in graph units.
+   * @return The cell coordinate.
+   */
+  private long cellOf(double coordinate){
+    return (long)Math.floor(coordinate / this.cellSize);
+  }
+
+  /**
+   * Give the key of a cell.
+   *
+   * @param cx The abscissa of the cell.
+   * @param cy The ordinate of the cell.
+   * @return The key.
+   */
+  private static long key(long cx, long cy){
+    return (cx << 32) ^ (cy & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Read a position attribute, given as an array of numbers.
+   *
+   * @param value The value of the attribute.
+   * @return The abscissa and the ordinate, null if the value is not a position.
+   */
+  static double[] position(Object value){
+    if(value instanceof double[] && ((double[])value).length >= 2){
+      return (double[])value;
+    }
+    if(value instanceof float[] && ((float[])value).length >= 2){
+      return new double[]{((float[])value)[0], ((float[])value)[1]};
+    }
+    if(value instanceof Object[] && ((Object[])value).length >= 2
+    && ((Object[])value)[0] instanceof Number && ((Object[])value)[1] instanceof Number){
+      return new double[]{((Number)((Object[])value)[0]).doubleValue(),
+                          ((Number)((Object[])value)[1]).doubleValue()};
+    }
+    return null;
+  }
+}
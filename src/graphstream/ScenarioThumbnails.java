@@ -0,0 +1,381 @@
+package graphstream;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.graphstream.graph.Edge;
+import org.graphstream.graph.Graph;
+import org.graphstream.graph.Node;
+import org.graphstream.graph.implementations.SingleGraph;
+import org.graphstream.stream.file.FileSinkImages;
+import org.graphstream.stream.file.FileSinkSVG2;
+import scenario.Scenario;
+import scenario.ScenarioElement;
+import tools.RPGSCException;
+import tools.ScenarioCatalog;
+import tools.ScenarioFormat;
+import tools.ScenarioJournal;
+import tools.ScenarioLayoutFile;
+import tools.XmlTool;
+
+/**
+ * This class draws the graphs of the saved scenarios into image files, without
+ * any window, to preview the whole library of scenarios. The graphs are drawn
+ * with the style of the graph view, see {@link MyGraph}, and placed by the
+ * layered layout, see {@link LayeredLayout}, whose positions are kept in the
+ * layout file of each scenario.
+ *
+ * The scenarios are drawn in parallel, one per processor. A thumbnail is only
+ * drawn again when its scenario file changed: the thumbnail carries the last
+ * modification time of the scenario file, journal included, or of the style
+ * if it is more recent.
+ *
+ * To draw the thumbnails from the command line, without display:
+ *   java -Djava.awt.headless=true graphstream.ScenarioThumbnails [png|svg]
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioThumbnails {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The formats of the thumbnails.
+   */
+  public enum Format {
+
+    /**
+     * Portable Network Graphics image.
+     */
+    PNG(".png"),
+
+    /**
+     * Scalable Vector Graphics drawing.
+     */
+    SVG(".svg");
+
+    /**
+     * The extension of the files of the format.
+     */
+    private final String extension;
+
+    /**
+     * Constructor of a format.
+     *
+     * @param extension The extension of the files.
+     */
+    Format(String extension){
+      this.extension = extension;
+    }
+
+    /**
+     * Give the extension of the files of the format.
+     *
+     * @return The extension, with its dot.
+     */
+    public String getExtension(){
+      return this.extension;
+    }
+  }
+
+  /**
+   * The number of nodes above which the labels are not drawn.
+   */
+  private static final int LABEL_LIMIT = 150;
+
+  /**
+   * The style sheet of the graph view.
+   */
+  private static final File STYLE = new File(System.getProperty("user.dir")
+          + "/data/graphstream_ressources/graph_style.css");
+
+  /**
+   * The tool reading the scenarios.
+   */
+  private final XmlTool xml = new XmlTool();
+
+  /**
+   * The folder of the thumbnails.
+   */
+  private final File folder;
+
+  /**
+   * The format of the thumbnails.
+   */
+  private final Format format;
+
+  /**
+   * The width of the images, in pixels.
+   */
+  private int width = 640;
+
+  /**
+   * The height of the images, in pixels.
+   */
+  private int height = 480;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of the thumbnails of the saved scenarios, in the thumbnail
+   * folder of the data, see {@link XmlTool#getThumbnailFolder()}.
+   *
+   * @param format The format of the thumbnails.
+   */
+  public ScenarioThumbnails(Format format){
+    this(new XmlTool().getThumbnailFolder(), format);
+  }
+
+  /**
+   * Constructor of the thumbnails of the saved scenarios.
+   *
+   * @param folder The folder of the thumbnails.
+   * @param format The format of the thumbnails.
+   */
+  public ScenarioThumbnails(File folder, Format format){
+    this.folder = folder;
+    this.format = format;
+  }
+
+
+  /****************************************************************************/
+  /** Drawing Methods                                                        **/
+  /****************************************************************************/
+
+  /**
+   * Draw the thumbnails from the command line.
+   *
+   * @param args The format of the thumbnails, "png" by default or "svg".
+   */
+  public static void main(String[] args){
+    Format format = (args.length > 0 && "svg".equalsIgnoreCase(args[0]) ? Format.SVG : Format.PNG);
+    try{
+      List<File> drawn = new ScenarioThumbnails(format).drawAll();
+      System.out.println(drawn.size() + " thumbnail(s) drawn.");
+    }catch(RPGSCException e){
+      System.err.println(e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Set the size of the images. The drawings keep it as their proportions.
+   *
+   * @param width The width, in pixels.
+   * @param height The height, in pixels.
+   */
+  public void setResolution(int width, int height){
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Give the thumbnail of a saved scenario.
+   *
+   * @param entry The scenario file.
+   * @return The thumbnail file, that may not exist.
+   */
+  public File getThumbnail(ScenarioCatalog.Entry entry){
+    String name = entry.getFile().getName();
+    return new File(this.folder, name.substring(0, name.length()
+            - entry.getFormat().getExtension().length()) + this.format.getExtension());
+  }
+
+  /**
+   * Draw the thumbnails of all the saved scenarios whose file changed since
+   * their thumbnail was drawn. A scenario saved in several formats is drawn
+   * from its most recent file.
+   *
+   * @return The thumbnails drawn.
+   * @throws RPGSCException If a thumbnail cannot be drawn, once the others
+   *                        are.
+   */
+  public List<File> drawAll() throws RPGSCException{
+    HashMap<String,ScenarioCatalog.Entry> latest = new HashMap<>();
+    ScenarioCatalog saves = this.xml.getCatalog();
+    if(!saves.isWatching()){
+      saves.refresh();
+    }
+    for(ScenarioCatalog.Entry entry : saves.getEntries()){
+      ScenarioCatalog.Entry other = latest.get(entry.getTitle());
+      if(other == null || entry.getLastModified() > other.getLastModified()){
+        latest.put(entry.getTitle(), entry);
+      }
+    }
+    if(!this.folder.isDirectory() && !this.folder.mkdirs()){
+      throw new RPGSCException("Unable to create the thumbnail folder " + this.folder + ".");
+    }
+    ArrayList<Callable<File>> toDraw = new ArrayList<>();
+    for(ScenarioCatalog.Entry entry : latest.values()){
+      if(getThumbnail(entry).lastModified() != stamp(entry)){                   // not drawn since the file changed
+        toDraw.add(() -> draw(entry));
+      }
+    }
+    ExecutorService drawers = Executors.newFixedThreadPool(
+            Math.max(1, Math.min(toDraw.size(), Runtime.getRuntime().availableProcessors())), r -> {
+      Thread toReturn = new Thread(r, "Thumbnail drawing");
+      toReturn.setDaemon(true);
+      return toReturn;
+    });
+    ArrayList<File> toReturn = new ArrayList<>();
+    RPGSCException failure = null;
+    try{
+      for(Future<File> drawn : drawers.invokeAll(toDraw)){
+        try{
+          toReturn.add(drawn.get());
+        }catch(ExecutionException ee){
+          if(failure == null){                                                  // the others are drawn anyway
+            failure = (ee.getCause() instanceof RPGSCException ? (RPGSCException)ee.getCause()
+                    : new RPGSCException("Unable to draw a thumbnail: " + ee.getCause().getMessage()));
+          }
+        }
+      }
+    }catch(InterruptedException ie){
+      Thread.currentThread().interrupt();
+      throw new RPGSCException("The drawing of the thumbnails was interrupted.");
+    }finally{
+      drawers.shutdownNow();
+    }
+    if(failure != null){
+      throw failure;
+    }
+    return toReturn;
+  }
+
+  /**
+   * Draw the thumbnail of a saved scenario. It is drawn aside then moved, so
+   * that it is never seen half drawn.
+   *
+   * @param entry The scenario file.
+   * @return The thumbnail file.
+   * @throws RPGSCException If the scenario cannot be read or the thumbnail
+   *                        cannot be written.
+   */
+  public File draw(ScenarioCatalog.Entry entry) throws RPGSCException{
+    long stamp = stamp(entry);
+    Scenario toDraw = this.xml.loadScenario(entry.getFile(), entry.getFormat(),
+            true);                                                              // the ids and the links only
+    Graph graph = graph(toDraw);
+    File thumbnail = getThumbnail(entry);
+    File aside = new File(thumbnail.getPath() + ".drawing");
+    try{
+      if(this.format == Format.PNG){
+        FileSinkImages image = new FileSinkImages(FileSinkImages.OutputType.PNG,
+                FileSinkImages.Resolutions.VGA);
+        image.setResolution(this.width, this.height);
+        image.setRenderer(FileSinkImages.RendererType.BASIC);                   // no window needed
+        image.setLayoutPolicy(FileSinkImages.LayoutPolicy.NO_LAYOUT);          // already placed
+        image.setQuality(FileSinkImages.Quality.HIGH);
+        image.setStyleSheet(styleSheet(graph));
+        image.writeAll(graph, aside.getPath());
+      }
+      else{
+        graph.addAttribute("ui.stylesheet", styleSheet(graph));
+        new FileSinkSVG2().writeAll(graph, aside.getPath());
+      }
+      Files.move(aside.toPath(), thumbnail.toPath(), StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+      thumbnail.setLastModified(stamp);                                         // drawn for this version of the file
+    }catch(IOException | RuntimeException e){
+      aside.delete();
+      throw new RPGSCException("Unable to draw the thumbnail of " + entry.getTitle()
+              + ": " + e.getMessage());
+    }
+    return thumbnail;
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Build the graph of a scenario, placed by the layered layout, as the graph
+   * view does.
+   *
+   * @param toDraw The scenario.
+   * @return The graph.
+   * @throws RPGSCException If the save folder cannot be followed.
+   */
+  private Graph graph(Scenario toDraw) throws RPGSCException{
+    Graph toReturn = new SingleGraph(toDraw.getTitle());
+    LayeredLayout layered = new LayeredLayout();
+    for(String id : toDraw.getWholeScenario().keySet()){
+      Node n = toReturn.addNode(id);
+      n.addAttribute("ui.label", id);
+      n.addAttribute("ui.size", MyGraph.NODE_SIZE);
+      n.addAttribute("ui.class", "unselected");
+      layered.addNode(id);
+    }
+    for(ScenarioElement element : toDraw.getWholeScenario().values()){
+      if(element.hasNext()){
+        for(String next : element.getNextElements()){
+          if(toReturn.getNode(next) != null
+          && toReturn.getEdge(LinkRegistry.idOf(element.getElementId(), next)) == null){
+            Edge e = toReturn.addEdge(LinkRegistry.idOf(element.getElementId(), next), element.getElementId(), next, true);
+            e.addAttribute("ui.size", MyGraph.LINK_SIZE);
+            e.addAttribute("ui.class", "unselected");
+            layered.addLink(element.getElementId(), next);
+          }
+        }
+      }
+    }
+    long fingerprint = layered.fingerprint();
+    ScenarioLayoutFile positions = this.xml.getLayoutFile(toDraw.getTitle());
+    HashMap<String,double[]> kept = positions.read(fingerprint);
+    if(kept == null || kept.size() != toReturn.getNodeCount()){                 // shared with the graph view
+      kept = layered.compute();
+      positions.write(fingerprint, kept);
+    }
+    for(Node n : toReturn){
+      double[] position = kept.get(n.getId());
+      if(position != null){
+        n.addAttribute("xyz", position[0], position[1], 0.0);
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Give the version of a scenario file a thumbnail is drawn for.
+   *
+   * @param entry The scenario file.
+   * @return The last modification time of the file, its journal or the style.
+   */
+  private static long stamp(ScenarioCatalog.Entry entry){
+    long toReturn = (entry.getFormat() == ScenarioFormat.XML
+            ? ScenarioJournal.lastModified(entry.getFile()) : entry.getFile().lastModified());
+    return Math.max(toReturn, STYLE.lastModified()) / 1000 * 1000;              // as precise as the file systems
+  }
+
+  /**
+   * Give the style sheet of the graph view, without the labels if the graph
+   * is too large for them to be read.
+   *
+   * @param graph The graph to draw.
+   * @return The style sheet.
+   * @throws IOException If the style sheet cannot be read.
+   */
+  private static String styleSheet(Graph graph) throws IOException{
+    String toReturn = new String(Files.readAllBytes(STYLE.toPath()), StandardCharsets.UTF_8);
+    if(graph.getNodeCount() > LABEL_LIMIT){
+      toReturn += "\nnode { text-mode: hidden; }";
+    }
+    return toReturn;
+  }
+}
@@ -1,18 +1,38 @@
 package ihm;
 
+import generation.ConstrainedGenerator;
+import generation.CreationData;
+import generation.CreationData.Entry;
+import generation.Difficulty;
+import generation.PreferenceLearner;
+import generation.ScenarioConstraints;
+import generation.ScenarioGenerator;
+import graphstream.LinkRegistry;
 import graphstream.MyGraph;
 import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import javax.swing.DefaultListModel;
 import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import scenario.Scenario;
+import tools.ProgressListener;
 import tools.RPGSCException;
+import tools.ScenarioCatalog;
+import tools.ScenarioJournal;
 import tools.XmlTool;
 
 /**
@@ -36,7 +56,7 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
    * A variable to handle the several id to be displayed into the left list of
    * the user interface.
    */
-  private DefaultListModel elementList = new DefaultListModel();
+  private DefaultListModel<String> elementList = new DefaultListModel<>();
   
   /**
    * An attribute to indicate the scenario state, i.e. wether it is saved or not.
@@ -49,6 +69,48 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
    */
   private MyGraph scenarioGraph;
   
+  /**
+   * The journal of the current scenario once it has been saved, null before.
+   * All the modifications of a saved scenario are journaled, so that a save
+   * only has to sync the journal.
+   */
+  private ScenarioJournal journal;
+  
+  /**
+   * The title of the scenario when its journal was started, the file of the
+   * journal being named after it.
+   */
+  private String journalTitle;
+  
+  /**
+   * The number of modifications of the scenario, to know whether it has been
+   * modified while it was saved in the background.
+   */
+  private int modificationCount;
+  
+  /**
+   * The generator of the random scenarios, null if the creation data cannot
+   * be read.
+   */
+  private ScenarioGenerator generator;
+  
+  /**
+   * The learner of the scores of the creation data, null if they cannot be
+   * read.
+   */
+  private PreferenceLearner learner;
+  
+  /**
+   * The generated scenario not judged yet: saving it accepts its entries,
+   * generating another one in its place rejects them. Null if none.
+   */
+  private Scenario unjudged;
+  
+  /**
+   * The entries drawn for the generated scenario not judged yet.
+   */
+  private List<Entry> unjudgedEntries;
+  
   
   /****************************************************************************/
   /** Constructor Methods                                                    **/
@@ -67,8 +129,13 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
     this.setIconImage(icon.getImage());
     
     XmlTool xml = new XmlTool();                                                // retrieving all the available scenarii
-    for(String s : xml.getAllScenarioTitles()){
-      jcbbScenarioChoice.addItem(s);                                            // to be put into a combo box
+    try{
+      fillScenarioChoice(xml.getAllScenarioTitles());                           // to be put into a combo box
+      ScenarioCatalog saves = xml.getCatalog();
+      saves.addChangeListener(() -> SwingUtilities.invokeLater(                 // and kept up to date with the saves
+              () -> fillScenarioChoice(saves.getTitles())));
+    }catch(RPGSCException e){
+      JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
     }
     
     jlblScenarioTitle.setText("");                                              // no scenario is loaded yet
@@ -84,9 +151,15 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
     pack();
     repaint();
     
-    jcbbDifficulty.setEnabled(false);                                           // because it is not implemented yet.
-    jtextNbElement.setEnabled(false);                                           // because it is not implemented yet.
-    jbtnRandomGeneration.setEnabled(false);                                     // because it is not implemented yet.
+    jcbbDifficulty.setSelectedItem(Difficulty.NORMAL.getLabel());               // a random generation by default
+    jtextNbElement.setText("10");
+    try{
+      generator = new ScenarioGenerator(CreationData.getShared());              // the creation data are read once
+      learner = new PreferenceLearner(CreationData.getShared());                // and learnt from the generated scenarios
+    }catch(RPGSCException e){
+      jbtnRandomGeneration.setEnabled(false);                                   // no generation without them
+      jbtnRandomGeneration.setToolTipText(e.getMessage());
+    }
     
     this.saveNeeded = false;                                                    // initial state, no save is needed obviously
   }
@@ -105,9 +178,73 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
    * scenario. Pretty straightforward.
    */
   public void saveScenario(){
-    XmlTool xml = new XmlTool();
-    xml.saveScenario(this.myScenario);
-    save(false);                                                                // scenario is saved
+    saveScenario(null);
+  }
+  
+  /**
+   * Save the current scenario, then do something once it is saved. The first
+   * save writes the whole file in the background; the following ones only
+   * sync the journal of the file, which is quick enough to be done at once.
+   * 
+   * @param then what to do once the scenario is saved, null for nothing.
+   */
+  private void saveScenario(Runnable then){
+    if(this.journal != null && (this.journal.isDetached()
+            || !Objects.equals(this.journalTitle, this.myScenario.getTitle()))){
+      try{                                                                      // rewritten or renamed: save it whole
+        closeJournal(false);
+      }catch(RPGSCException e){
+        JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        return;
+      }
+    }
+    if(this.journal != null){                                                   // the file exists, sync its journal
+      try{
+        this.journal.sync();
+      }catch(RPGSCException e){
+        JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        return;
+      }
+      save(false);                                                              // scenario is saved
+      accepted(this.myScenario);
+      if(then != null){
+        then.run();
+      }
+      return;
+    }
+    XmlTool xml = new XmlTool();                                                // first save: write the whole file
+    Scenario saved = this.myScenario;
+    int modifications = this.modificationCount;
+    inBackground("Saving " + saved.getTitle(),                                  // a copy, the scenario stays editable
+            progress -> xml.saveScenarioAsync(new Scenario(saved), progress), done -> {
+      accepted(saved);
+      if(saved == this.myScenario && modifications == this.modificationCount){ // then journal the next modifications
+        try{
+          this.journal = xml.attachJournal(saved);
+          this.journalTitle = saved.getTitle();
+        }catch(RPGSCException e){
+          JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+          return;
+        }
+        save(false);                                                            // scenario is saved
+      }                                                                         // otherwise it is saved again whole next time
+      if(then != null){
+        then.run();
+      }
+    });
+  }
+  
+  /**
+   * Accept the entries of a generated scenario once it has been saved, unless
+   * it has been judged already.
+   * 
+   * @param saved the scenario saved.
+   */
+  private void accepted(Scenario saved){
+    if(this.unjudged == saved && this.unjudged != null){                        // a generated scenario kept is accepted
+      this.learner.accept(this.unjudgedEntries);
+      this.unjudged = null;
+    }
   }
   
   /**
@@ -189,15 +326,145 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
   public void save(boolean save){
     this.saveNeeded = save;
     if(save){
+      this.modificationCount++;
       if(!this.getTitle().contains("*")){
         this.setTitle("*" + this.getTitle());
       }  
     }
-    else{
+    else if(this.getTitle().startsWith("*")){
       this.setTitle(this.getTitle().substring(1));
     }
   }
 
+  /**
+   * Fill the scenario combo box with the given titles, keeping the selected
+   * scenario if it is still available.
+   * 
+   * @param titles the titles of the scenarii available.
+   */
+  private void fillScenarioChoice(ArrayList<String> titles){
+    Object selected = jcbbScenarioChoice.getSelectedItem();
+    jcbbScenarioChoice.removeAllItems();
+    for(String s : titles){
+      jcbbScenarioChoice.addItem(s);
+    }
+    if(selected != null && titles.contains((String)selected)){
+      jcbbScenarioChoice.setSelectedItem(selected);
+    }
+  }
+  
+  /**
+   * Run a loading or a saving in the background, showing its progress, then
+   * handle its result in the event dispatch thread. The load and save buttons
+   * are disabled meanwhile. Nothing is done if the user cancels the work.
+   * 
+   * @param <T> the type of the result of the work.
+   * @param message the description of the work.
+   * @param task the way to start the work, given the listener of its progress.
+   * @param then what to do with the result of the work.
+   */
+  private <T> void inBackground(String message, 
+          Function<ProgressListener,CompletableFuture<T>> task, Consumer<T> then){
+    TaskProgress progress = new TaskProgress(this, message);
+    jbtnLoadScenario.setEnabled(false);
+    jButton1.setEnabled(false);
+    CompletableFuture<T> work = task.apply(progress);
+    progress.follow(work);
+    work.whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+      jbtnLoadScenario.setEnabled(true);
+      jButton1.setEnabled(true);
+      if(error == null){
+        then.accept(result);
+      }
+      else if(!(error instanceof CancellationException)){
+        JOptionPane.showMessageDialog(this, error.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+      }
+    }));
+  }
+  
+  /**
+   * Search a scenario satisfying constraints in the background. The search
+   * stops as soon as the future is cancelled.
+   * 
+   * @param constrained the generator searching the scenario.
+   * @param constraints the constraints of the scenario.
+   * @return the future result of the search.
+   */
+  private static CompletableFuture<ConstrainedGenerator.Result> search(ConstrainedGenerator constrained, 
+          ScenarioConstraints constraints){
+    CompletableFuture<ConstrainedGenerator.Result> toReturn = new CompletableFuture<>();
+    ForkJoinPool.commonPool().execute(() -> {
+      try{
+        toReturn.complete(constrained.generate(constraints, ThreadLocalRandom.current(), toReturn::isCancelled));
+      }catch(Throwable t){
+        toReturn.completeExceptionally(t);                                      // nothing done if cancelled
+      }
+    });
+    return toReturn;
+  }
+  
+  /**
+   * Display the current scenario, just loaded: its elements in the list and
+   * its graph in the viewer.
+   */
+  private void displayScenario(){
+    jtxtElementId.setText("");                                                  // no display to do beforehand
+    jtxtElementCore.setText("");
+    jtextScenarioTitle.setText("");
+    elementList = new DefaultListModel<>();                                     // filled before being shown
+    jlblScenarioTitle.setText(this.myScenario.getTitle());                      // indicate the scenario name/title
+    for(String id : this.myScenario.getWholeScenario().keySet()){               // for each element in the scenario
+      elementList.addElement(id);                                               // add the id to the list
+    }//for id -> add to the list
+    try{
+      scenarioGraph.showScenario(this.myScenario,                               // build the graph in one batch, the nodes
+              new XmlTool().getLayoutFile(this.myScenario.getTitle()));         // placed as the last time if not changed
+    }catch(RPGSCException e){
+      System.err.println(e.getMessage() + " This is not possible while loading an"
+              + " existing scenario. Program will now quit.");
+      System.exit(9);
+    }
+    scenarioGraph.addPipe();                                                    // add the listeners on the graph visualisation
+    jlistElement.setModel(elementList);                                         // update the list view of the elements of the scenario
+  }
+  
+  /**
+   * Close the journal of the current scenario and quit.
+   */
+  private void quit(){
+    try{
+      closeJournal(!this.saveNeeded);
+    }catch(RPGSCException e){
+      JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+    }
+    if(this.learner != null){
+      try{
+        this.learner.close();                                                   // the judgements not written yet
+      }catch(RPGSCException e){
+        JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+      }
+    }
+    System.exit(0);  
+  }
+  
+  /**
+   * Close the journal of the current scenario, if any.
+   * 
+   * @param keep true to keep the modifications not saved yet in the journal,
+   *             false to drop them.
+   * @throws RPGSCException if the journal cannot be closed properly.
+   */
+  private void closeJournal(boolean keep) throws RPGSCException{
+    if(this.journal != null){
+      ScenarioJournal toClose = this.journal;
+      this.journal = null;
+      if(!keep){
+        toClose.discard();
+      }
+      toClose.close();
+    }
+  }
+
   /****************************************************************************/
   /** The generated methods from NetBeans Swing Interface                    **/
   /****************************************************************************/
@@ -237,6 +504,8 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
     jButton3 = new javax.swing.JButton();
     jlblLinkCreation = new javax.swing.JLabel();
     jMenuBar1 = new javax.swing.JMenuBar();
+    jMenuView = new javax.swing.JMenu();
+    jchkContinuousLayout = new javax.swing.JCheckBoxMenuItem();
     jMenuHelp = new javax.swing.JMenu();
     Instruction = new javax.swing.JMenuItem();
 
@@ -288,6 +557,11 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
     });
 
     jbtnRandomGeneration.setText("Random Generation");
+    jbtnRandomGeneration.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        jbtnRandomGenerationActionPerformed(evt);
+      }
+    });
 
     jLabel3.setText("Number of Element:");
 
@@ -337,6 +611,18 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
     jlblLinkCreation.setMinimumSize(new java.awt.Dimension(495, 16));
     jlblLinkCreation.setPreferredSize(new java.awt.Dimension(495, 16));
 
+    jMenuView.setText("View");
+
+    jchkContinuousLayout.setText("Continuous Layout");
+    jchkContinuousLayout.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        jchkContinuousLayoutActionPerformed(evt);
+      }
+    });
+    jMenuView.add(jchkContinuousLayout);
+
+    jMenuBar1.add(jMenuView);
+
     jMenuHelp.setText("Help");
 
     Instruction.setText("Instructions");
@@ -545,12 +831,12 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
       ArrayList<String> linkIds = new ArrayList<>();                            // update the graphic part via the class MyGraph
       if(this.myScenario.getElement(selected).hasNext()){                       // if the element has next elements
         for(String next : myScenario.getElement(selected).getNextElements()){
-          linkIds.add(selected+next);                                           // the outcoming links to update
+          linkIds.add(LinkRegistry.idOf(selected,next));                        // the outcoming links to update
         }//for next
       }//if hasNext
        if(this.myScenario.getElement(selected).hasPrevious()){                  // if the element has previous elements
         for(String previous : myScenario.getElement(selected).getPreviousElements()){
-          linkIds.add(previous+selected);                                       // the incoming links to update
+          linkIds.add(LinkRegistry.idOf(previous,selected));                    // the incoming links to update
         }//for previous
       }//if hasPrevious
       scenarioGraph.updateNodesAndLinks(                                        
@@ -559,44 +845,77 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
   }//GEN-LAST:event_jlistElementMouseClicked
 
   private void jbtnLoadScenarioActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jbtnLoadScenarioActionPerformed
+    String title = (String)jcbbScenarioChoice.getSelectedItem();               // load the scenario set in the combo box
+    if(title == null){
+      return;
+    }
     XmlTool xml = new XmlTool();
-    this.myScenario = xml.loadScenario((String)jcbbScenarioChoice.getSelectedItem()); // load the scenario set in the combo box
-    jtxtElementId.setText("");                                                  // no display to do beforehand
-    jtxtElementCore.setText("");
-    jtextScenarioTitle.setText("");
-    elementList.clear();
-    jlblScenarioTitle.setText(this.myScenario.getTitle());                      // indicate the scenario name/title
-    for(String id : this.myScenario.getWholeScenario().keySet()){               // for each element in the scenario
-      elementList.addElement(id);                                               // add the id to the list
-      scenarioGraph.addNode(id);                                                // add the related node in the graph
-    }//for id -> add node
-    for(String id : this.myScenario.getWholeScenario().keySet()){               // for each element in the scenario
-      if(this.myScenario.getElement(id).hasNext()){                             // if the node has next elements
-        for(String next : myScenario.getElement(id).getNextElements()){         // for each next elements of the node
-          try{
-            scenarioGraph.addLink(id,next);                                     // add a link between the two nodes
-          }catch(RPGSCException e){
-            System.err.println("The link between " + id + " and " + next + " is already"
-                    + " created. This is not possible while loading an existing"
-                    + "scenario. Program will now quit.");
-            System.exit(9);
-          }
-        }// for next
-      }// if hasNext()
-    }//for id -> addLink
-    scenarioGraph.addPipe();                                                    // add the listeners on the graph visualisation
-    jlistElement.setModel(elementList);                                         // update the list view of the elements of the scenario
+    try{
+      closeJournal(false);                                                      // unsaved modifications are dropped
+    }catch(RPGSCException e){
+      JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    inBackground("Loading " + title,
+            progress -> xml.openJournalAsync(title, progress), opened -> {
+      this.journal = opened;
+      this.journalTitle = opened.getScenario().getTitle();
+      this.myScenario = opened.getScenario();
+      displayScenario();
+    });
   }//GEN-LAST:event_jbtnLoadScenarioActionPerformed
 
+  private void jbtnRandomGenerationActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jbtnRandomGenerationActionPerformed
+    int elementCount;
+    try{
+      elementCount = Integer.parseInt(jtextNbElement.getText().trim());
+    }catch(NumberFormatException e){
+      elementCount = 0;
+    }
+    if(elementCount < 1){
+      JOptionPane.showMessageDialog(this, "The number of elements must be a positive number.", 
+              "Error", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    try{
+      closeJournal(false);                                                      // unsaved modifications are dropped
+    }catch(RPGSCException e){
+      JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    if(this.unjudged == this.myScenario && this.unjudged != null){              // a generated scenario dropped is rejected
+      this.learner.reject(this.unjudgedEntries);
+    }
+    this.unjudged = null;
+    ScenarioConstraints constraints = new ScenarioConstraints(elementCount,     // the combo box shows the names of the difficulties
+            Difficulty.ofLabel((String)jcbbDifficulty.getSelectedItem()));
+    ConstrainedGenerator constrained = new ConstrainedGenerator(this.generator);
+    String title = (jtextScenarioTitle.getText().isEmpty() ? "Random Scenario" : jtextScenarioTitle.getText());
+    inBackground("Generating " + title,                                         // the search takes a second at most
+            progress -> search(constrained, constraints), result -> {
+      this.myScenario = result.getScenario();
+      this.myScenario.setTitle(title);
+      this.unjudged = (result.isSatisfied() ? this.myScenario : null);          // a part is not worth learning from
+      this.unjudgedEntries = result.getDrawn();
+      displayScenario();
+      save(true);                                                               // the scenario has not been saved yet
+      if(!result.isSatisfied()){
+        JOptionPane.showMessageDialog(this, "No scenario of " + constraints.getElementCount() + " elements fits the "
+                + "difficulty, the largest part found is shown.", "Warning", JOptionPane.WARNING_MESSAGE);
+      }
+    });
+  }//GEN-LAST:event_jbtnRandomGenerationActionPerformed
+
   private void jbtnQuitActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jbtnQuitActionPerformed
     if(this.saveNeeded){                                                        // if a save is needed while closing
       int dialogButton = JOptionPane.YES_NO_OPTION;                             // proposes to do so
       int dialogResult = JOptionPane.showConfirmDialog (null, "Would you like to save before quit?","Warning",dialogButton);
       if(dialogResult == JOptionPane.YES_OPTION){
-        saveScenario();
+        saveScenario(this::quit);                                               // quit once saved
+        return;
       }
     }
-    System.exit(0);  
+    quit();
   }//GEN-LAST:event_jbtnQuitActionPerformed
 
   private void jButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton1ActionPerformed
@@ -633,6 +952,10 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
     JOptionPane.showMessageDialog(null, new JLabel(html1 + "400" + html2 + s));
   }//GEN-LAST:event_InstructionActionPerformed
 
+  private void jchkContinuousLayoutActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jchkContinuousLayoutActionPerformed
+    scenarioGraph.setAutoLayout(jchkContinuousLayout.isSelected());             // the nodes moved by the viewer, or placed on layers
+  }//GEN-LAST:event_jchkContinuousLayoutActionPerformed
+
   /**
    * Launching the thread containing the user interface
    * (auto-generated)
@@ -683,6 +1006,7 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
   private javax.swing.JLabel jLabel6;
   private javax.swing.JMenuBar jMenuBar1;
   private javax.swing.JMenu jMenuHelp;
+  private javax.swing.JMenu jMenuView;
   private javax.swing.JScrollPane jScrollPane1;
   private javax.swing.JScrollPane jScrollPane2;
   private javax.swing.JButton jbtnAddElement;
@@ -692,6 +1016,7 @@ public class RPGScenarioCreationIHM extends javax.swing.JFrame {
   private javax.swing.JButton jbtnRemoveElement;
   private javax.swing.JComboBox<String> jcbbDifficulty;
   private javax.swing.JComboBox<String> jcbbScenarioChoice;
+  private javax.swing.JCheckBoxMenuItem jchkContinuousLayout;
   private javax.swing.JLabel jlblLinkCreation;
   private javax.swing.JLabel jlblScenarioTitle;
   private javax.swing.JList<String> jlistElement;
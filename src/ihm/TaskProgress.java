@@ -0,0 +1,118 @@
+package ihm;
+
+import java.awt.Component;
+import java.util.concurrent.CompletableFuture;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import tools.ProgressListener;
+
+/**
+ * This class displays the progress of a work done in the background, such as
+ * the loading or the saving of a scenario, in a progress dialog that pops up
+ * only if the work lasts. The dialog allows the user to cancel the work.
+ *
+ * The progress is given by the background thread and shown by the event
+ * dispatch thread, which polls it a few times per second.
+ *
+ * @author Nicolas Brax
+ */
+class TaskProgress implements ProgressListener {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The precision of the progress bar.
+   */
+  private static final int MAXIMUM = 1000;
+
+  /**
+   * The delay between two updates of the dialog, in milliseconds.
+   */
+  private static final int POLL_DELAY = 100;
+
+  /**
+   * The dialog.
+   */
+  private final ProgressMonitor monitor;
+
+  /**
+   * The timer updating the dialog.
+   */
+  private final Timer timer;
+
+  /**
+   * The amount of work done, given by the background thread.
+   */
+  private volatile long done;
+
+  /**
+   * The amount of work to do, given by the background thread.
+   */
+  private volatile long total;
+
+  /**
+   * The work followed, null before it is started.
+   */
+  private CompletableFuture<?> work;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of the progress of a work, to be called from the event
+   * dispatch thread.
+   *
+   * @param parent The component the dialog belongs to.
+   * @param message The description of the work.
+   */
+  TaskProgress(Component parent, String message){
+    this.monitor = new ProgressMonitor(parent, message, null, 0, MAXIMUM);
+    this.timer = new Timer(POLL_DELAY, e -> poll());
+  }
+
+
+  /****************************************************************************/
+  /** Progress Methods                                                       **/
+  /****************************************************************************/
+
+  /**
+   * Follow a work started with this object as its progress listener, until it
+   * is done. To be called from the event dispatch thread.
+   *
+   * @param toFollow The work.
+   */
+  void follow(CompletableFuture<?> toFollow){
+    this.work = toFollow;
+    this.timer.start();
+    toFollow.whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+      this.timer.stop();
+      this.monitor.close();
+    }));
+  }
+
+  @Override
+  public void progressed(long done, long total){
+    this.done = done;
+    this.total = total;
+  }
+
+  /**
+   * Update the dialog, or cancel the work if the user asked to.
+   */
+  private void poll(){
+    if(this.monitor.isCanceled()){
+      this.work.cancel(false);                                                  // the work stops at its next progress
+      return;
+    }
+    long workDone = this.done;
+    long workTotal = this.total;
+    if(workTotal > 0){                                                          // the dialog closes itself at the maximum
+      this.monitor.setProgress((int)Math.min(MAXIMUM - 1, MAXIMUM * workDone / workTotal));
+    }
+  }
+}
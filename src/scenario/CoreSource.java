@@ -0,0 +1,36 @@
+package scenario;
+
+import java.util.ArrayList;
+
+/**
+ * This interface allows the core sequences of actions of the elements of a
+ * scenario to be read on demand, from the binary file the scenario has been
+ * loaded from, instead of being all read with the scenario.
+ * See {@link Scenario#addElement(String, CoreSource, int, boolean)}.
+ *
+ * The core of an element is read by the first call to
+ * {@link ScenarioElement#getCore()}, then kept by the element. A source may be
+ * shared by several copies of a scenario and read from several threads.
+ *
+ * @author Nicolas Brax
+ */
+public interface CoreSource {
+
+  /**
+   * Read the core sequence of actions of an element.
+   *
+   * @param number The number of the element in the source.
+   * @return A new list of the actions.
+   * @throws java.io.UncheckedIOException If the source cannot be read anymore.
+   */
+  ArrayList<String> readCore(int number);
+
+  /**
+   * Estimate the memory held by the source as long as an element may read its
+   * core from it, e.g. the content of the file, so that a cache of scenarios
+   * can weigh it.
+   *
+   * @return The estimated size, in bytes.
+   */
+  long getRetainedSize();
+}
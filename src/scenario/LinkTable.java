@@ -0,0 +1,390 @@
+package scenario;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class stores one direction of the links of a scenario graph (the next
+ * links or the previous links) between interned element indexes.
+ *
+ * The links of an index are kept in a primitive int array, in the order they
+ * have been added, so that the scenario is saved in the same order as before.
+ * A hashed index of all the (from, to) pairs gives the position of each link
+ * in its array: adding, checking and removing a link are done in constant
+ * time, whatever the number of links of an element. A removed link leaves a
+ * hole in the array that is skipped while iterating; the array of an index is
+ * compacted when more than half of it are holes.
+ *
+ * @author Nicolas Brax
+ */
+final class LinkTable {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The value marking a removed link in an adjacency array.
+   */
+  static final int HOLE = -1;
+
+  /**
+   * The initial capacity of an adjacency array, allocated on the first link.
+   */
+  private static final int INITIAL_LINKS = 2;
+
+  /**
+   * The initial capacity of the hashed index, a power of two.
+   */
+  private static final int INITIAL_INDEX = 16;
+
+  /**
+   * The value marking a free key in the hashed index. No link can have this
+   * key as the indexes are positive.
+   */
+  private static final long FREE = -1L;
+
+  /**
+   * The links of each index. Only the first slots[i] values are used, among
+   * which some may be holes.
+   */
+  private int[][] links;
+
+  /**
+   * The number of used slots, links and holes, of each adjacency array.
+   */
+  private int[] slots;
+
+  /**
+   * The number of links of each index.
+   */
+  private int[] counts;
+
+  /**
+   * The keys of the hashed index, each one packing a (from, to) pair.
+   */
+  private long[] keys;
+
+  /**
+   * The position of each link of the hashed index in its adjacency array.
+   */
+  private int[] positions;
+
+  /**
+   * The number of links in the hashed index.
+   */
+  private int size;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Build an empty table for the given number of indexes.
+   *
+   * @param capacity The initial number of indexes.
+   */
+  LinkTable(int capacity){
+    this.links = new int[capacity][];
+    this.slots = new int[capacity];
+    this.counts = new int[capacity];
+    this.keys = new long[INITIAL_INDEX];
+    Arrays.fill(this.keys, FREE);
+    this.positions = new int[INITIAL_INDEX];
+  }
+
+  /**
+   * Build a copy of a table.
+   *
+   * @param toCopy The table to copy.
+   */
+  LinkTable(LinkTable toCopy){
+    this.links = new int[toCopy.links.length][];
+    for(int i = 0 ; i < this.links.length ; ++i){
+      if(toCopy.links[i] != null){
+        this.links[i] = toCopy.links[i].clone();
+      }
+    }
+    this.slots = toCopy.slots.clone();
+    this.counts = toCopy.counts.clone();
+    this.keys = toCopy.keys.clone();
+    this.positions = toCopy.positions.clone();
+    this.size = toCopy.size;
+  }
+
+
+  /****************************************************************************/
+  /** Link Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Add a link, if it does not exist yet.
+   *
+   * @param from The index the link belongs to.
+   * @param to The index the link points to.
+   * @return True if the link has been added, false if it already exists.
+   */
+  boolean add(int from, int to){
+    if(find(key(from, to)) >= 0){
+      return false;
+    }
+    int[] array = this.links[from];
+    if(array == null){
+      array = new int[INITIAL_LINKS];
+    }
+    else if(this.slots[from] == array.length){
+      array = Arrays.copyOf(array, array.length * 2);
+    }
+    int position = this.slots[from]++;
+    array[position] = to;
+    this.links[from] = array;
+    this.counts[from]++;
+    put(key(from, to), position);
+    return true;
+  }
+
+  /**
+   * Check if a link exists.
+   *
+   * @param from The index the link belongs to.
+   * @param to The index the link points to.
+   * @return True if the link exists.
+   */
+  boolean contains(int from, int to){
+    return (find(key(from, to)) >= 0);
+  }
+
+  /**
+   * Remove a link, if it exists.
+   *
+   * @param from The index the link belongs to.
+   * @param to The index the link points to.
+   * @return True if the link has been removed.
+   */
+  boolean remove(int from, int to){
+    int slot = find(key(from, to));
+    if(slot < 0){
+      return false;
+    }
+    this.links[from][this.positions[slot]] = HOLE;
+    delete(slot);
+    this.counts[from]--;
+    if(this.counts[from] == 0){                                                 // no more links: drop the array
+      this.links[from] = null;
+      this.slots[from] = 0;
+    }
+    else if(this.counts[from] * 2 < this.slots[from]){                          // too many holes: compact the array
+      compact(from);
+    }
+    return true;
+  }
+
+  /**
+   * Remove all the links of an index.
+   *
+   * @param from The index to clear.
+   */
+  void clear(int from){
+    for(int i = 0 ; i < this.slots[from] ; ++i){
+      if(this.links[from][i] != HOLE){
+        delete(find(key(from, this.links[from][i])));
+      }
+    }
+    this.links[from] = null;
+    this.slots[from] = 0;
+    this.counts[from] = 0;
+  }
+
+  /**
+   * Give the number of links of an index.
+   *
+   * @param from The index.
+   * @return The number of links.
+   */
+  int count(int from){
+    return this.counts[from];
+  }
+
+  /**
+   * Give the adjacency array of an index. Only the first
+   * {@link #slots(int)} values are used and the removed links are marked as
+   * {@link #HOLE}. The array must not be modified.
+   *
+   * @param from The index.
+   * @return The adjacency array, null if the index has no link.
+   */
+  int[] links(int from){
+    return this.links[from];
+  }
+
+  /**
+   * Give the number of used slots of the adjacency array of an index.
+   *
+   * @param from The index.
+   * @return The number of used slots.
+   */
+  int slots(int from){
+    return this.slots[from];
+  }
+
+  /**
+   * Give the indexes linked to an index, in the order of addition, as the ids
+   * they are interned for.
+   *
+   * @param from The index.
+   * @param ids The interned ids.
+   * @return A new list of the ids.
+   */
+  ArrayList<String> ids(int from, String[] ids){
+    ArrayList<String> toReturn = new ArrayList<>(this.counts[from]);
+    for(int i = 0 ; i < this.slots[from] ; ++i){
+      if(this.links[from][i] != HOLE){
+        toReturn.add(ids[this.links[from][i]]);
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Give room for the given number of indexes.
+   *
+   * @param capacity The new number of indexes.
+   */
+  void grow(int capacity){
+    this.links = Arrays.copyOf(this.links, capacity);
+    this.slots = Arrays.copyOf(this.slots, capacity);
+    this.counts = Arrays.copyOf(this.counts, capacity);
+  }
+
+
+  /****************************************************************************/
+  /** Hashed Index Methods                                                   **/
+  /****************************************************************************/
+
+  /**
+   * Pack a (from, to) pair into a key of the hashed index.
+   *
+   * @param from The index the link belongs to.
+   * @param to The index the link points to.
+   * @return The key.
+   */
+  private static long key(int from, int to){
+    return (((long)from) << 32) | (to & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Give the first slot of the hashed index to probe for a key.
+   *
+   * @param key The key.
+   * @return The slot.
+   */
+  private int hash(long key){
+    long h = key * 0x9E3779B97F4A7C15L;                                         // Fibonacci hashing
+    return (int)(h >>> 32) & (this.keys.length - 1);
+  }
+
+  /**
+   * Give the slot of a key in the hashed index.
+   *
+   * @param key The key to look for.
+   * @return The slot, -1 if the key is not in the index.
+   */
+  private int find(long key){
+    int mask = this.keys.length - 1;
+    for(int slot = hash(key) ; this.keys[slot] != FREE ; slot = (slot + 1) & mask){
+      if(this.keys[slot] == key){
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Store or update the position of a key in the hashed index.
+   *
+   * @param key The key.
+   * @param position The position of the link in its adjacency array.
+   */
+  private void put(long key, int position){
+    if((this.size + 1) * 4 > this.keys.length * 3){                             // keep the load factor under 0.75
+      rehash(this.keys.length * 2);
+    }
+    int mask = this.keys.length - 1;
+    int slot = hash(key);
+    while(this.keys[slot] != FREE && this.keys[slot] != key){
+      slot = (slot + 1) & mask;
+    }
+    if(this.keys[slot] == FREE){
+      this.size++;
+    }
+    this.keys[slot] = key;
+    this.positions[slot] = position;
+  }
+
+  /**
+   * Remove the key stored at the given slot of the hashed index. The following
+   * keys of the probe sequence are shifted back so that no tombstone is needed.
+   *
+   * @param slot The slot to free.
+   */
+  private void delete(int slot){
+    int mask = this.keys.length - 1;
+    int hole = slot;
+    int next = (hole + 1) & mask;
+    while(this.keys[next] != FREE){
+      int home = hash(this.keys[next]);
+      if(((next - home) & mask) >= ((next - hole) & mask)){                     // the key can move back to the hole
+        this.keys[hole] = this.keys[next];
+        this.positions[hole] = this.positions[next];
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    this.keys[hole] = FREE;
+    this.size--;
+  }
+
+  /**
+   * Rebuild the hashed index with a new capacity.
+   *
+   * @param capacity The new capacity, a power of two.
+   */
+  private void rehash(int capacity){
+    long[] oldKeys = this.keys;
+    int[] oldPositions = this.positions;
+    this.keys = new long[capacity];
+    Arrays.fill(this.keys, FREE);
+    this.positions = new int[capacity];
+    int mask = capacity - 1;
+    for(int i = 0 ; i < oldKeys.length ; ++i){
+      if(oldKeys[i] != FREE){
+        int slot = hash(oldKeys[i]);
+        while(this.keys[slot] != FREE){
+          slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = oldKeys[i];
+        this.positions[slot] = oldPositions[i];
+      }
+    }
+  }
+
+  /**
+   * Remove the holes of the adjacency array of an index, keeping the order of
+   * the links, and update their positions in the hashed index.
+   *
+   * @param from The index to compact.
+   */
+  private void compact(int from){
+    int[] array = this.links[from];
+    int kept = 0;
+    for(int i = 0 ; i < this.slots[from] ; ++i){
+      if(array[i] != HOLE){
+        array[kept] = array[i];
+        this.positions[find(key(from, array[i]))] = kept;
+        kept++;
+      }
+    }
+    this.slots[from] = kept;
+  }
+}
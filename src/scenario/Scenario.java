@@ -1,7 +1,7 @@
 package scenario;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class allows to handle a scenario for a tabletop rpg. A scenario is 
@@ -22,11 +22,11 @@ public class Scenario {
   private String title;
   
   /**
-   * A map of all the element constituting the current scenario. Each element is
-   * referenced by a unique identificator within the scenario. This id can be
-   * generated by the scenario.
+   * The graph engine storing all the element constituting the current scenario.
+   * Each element is referenced by a unique identificator within the scenario,
+   * interned by the engine. This id can be generated by the scenario.
    */
-  private HashMap<String,ScenarioElement> scenario;
+  private ScenarioGraph scenario;
   
   /**
    * A counter of element used to generate a unique id for the element of 
@@ -41,11 +41,25 @@ public class Scenario {
   
   /**
    * Default Consructor.
-   * Set the title to an empty character string and initialize the element map.
+   * Set the title to an empty character string and initialize the graph engine.
    */
   public Scenario(){
     this.title = "";
-    this.scenario = new HashMap<>();
+    this.scenario = new ScenarioGraph();
+  }
+  
+  /**
+   * Copy Constructor.
+   * Build a deep copy of a scenario: same title, and a copy of each element
+   * with its core and its links, in the same order. The graph engine is copied
+   * array by array, without adding the elements one by one. The listeners of
+   * the scenario are not copied.
+   * 
+   * @param toCopy The scenario to copy.
+   */
+  public Scenario(Scenario toCopy){
+    this.title = toCopy.title;
+    this.scenario = new ScenarioGraph(toCopy.scenario);
   }
   
   
@@ -60,7 +74,7 @@ public class Scenario {
    * @return The scenario element with the correponding id.
    */
   public ScenarioElement getElement(String elementId){
-    return this.scenario.get(elementId);
+    return this.scenario.element(elementId);
   }
   
   /**
@@ -68,10 +82,41 @@ public class Scenario {
    * identified and accessed by its id. The map is constituted as follows:
    * <elementId,scenarioElement>
    * 
-   * @return A HashMap containing all the elements of the scenario.
+   * The map is a read only view over the scenario: it follows its modifications
+   * and iterates the elements in the order they have been added.
+   * 
+   * @return A Map containing all the elements of the scenario.
+   */
+  public Map<String,ScenarioElement> getWholeScenario(){
+    return this.scenario.elementMap();
+  }
+  
+  /**
+   * Give the number of elements of the current scenario.
+   * 
+   * @return The number of elements.
    */
-  public HashMap<String,ScenarioElement> getWholeScenario(){
-    return this.scenario;
+  public int size(){
+    return this.scenario.elementCount();
+  }
+  
+  /**
+   * This method allows the addition of an element whose core sequence of 
+   * actions is read on demand from a source, e.g. the file the scenario is
+   * being loaded from. See {@link CoreSource}.
+   * 
+   * @param elementId The id of the element.
+   * @param source The source of the core sequence of actions.
+   * @param number The number of the element in the source.
+   * @param force Force to erase the eventual existing element.
+   * @return The id of the element added to the scenario.
+   */
+  public String addElement(String elementId, CoreSource source, int number, boolean force){
+    String toReturn = addElement(elementId, (ArrayList<String>)null, force);
+    if(toReturn.equals(elementId)){
+      getElement(elementId).setCoreSource(source, number);
+    }
+    return toReturn;
   }
   
   /**
@@ -85,12 +130,11 @@ public class Scenario {
    */
   public String addElement(String elementId, ArrayList<String> core, boolean force){
     String toReturn = "";
-    if((force && this.scenario.containsKey(elementId))
-    ||(!this.scenario.containsKey(elementId))
-    ||(this.scenario == null)
+    if((force && existInScenario(elementId))
+    ||(!existInScenario(elementId))
     ){
       toReturn = elementId;
-      this.scenario.put(elementId, new ScenarioElement(elementId,core));
+      this.scenario.putElement(elementId, core);
     }
     else{
       toReturn = "already existing";
@@ -119,17 +163,10 @@ public class Scenario {
    * @param elementId The id of the element to remove.
    */
   public void removeElement(String elementId){
-    if(this.scenario.get(elementId).hasNext()){                                 // if the element has next elements
-      for(String next : this.scenario.get(elementId).getNextElements()){
-        this.scenario.get(next).removePrevious(elementId);                      // remove it as a previous from the next ones
-      }
-    }
-    if(this.scenario.get(elementId).hasPrevious()){                             // if the element has previous elements
-      for(String previous : this.scenario.get(elementId).getPreviousElements()){
-        this.scenario.get(previous).removeNext(elementId);                      // remove it as a next from the previous ones
-      }
-    }
-    this.scenario.remove(elementId);                                            // remove the element
+    int index = this.scenario.indexOf(elementId);
+    if(index >= 0 && this.scenario.elementAt(index) != null){                   // if the element is in the scenario
+      this.scenario.removeElement(index);                                       // remove it as well as its references
+    }                                                                           // from its previous and next elements
   }
   
   /**
@@ -149,6 +186,26 @@ public class Scenario {
    */
   public void setTitle(String title){
     this.title = title;
+    this.scenario.titleChanged(title);
+  }
+  
+  /**
+   * Add a listener that is informed of all the modifications made to the
+   * scenario and to its elements.
+   * 
+   * @param listener The listener to add.
+   */
+  public void addScenarioListener(ScenarioListener listener){
+    this.scenario.addListener(listener);
+  }
+  
+  /**
+   * Remove a listener added by {@link #addScenarioListener(ScenarioListener)}.
+   * 
+   * @param listener The listener to remove.
+   */
+  public void removeScenarioListener(ScenarioListener listener){
+    this.scenario.removeListener(listener);
   }
   
   
@@ -176,7 +233,7 @@ public class Scenario {
    * @return True if it exists in the element map, false otherwise.
    */
   public boolean existInScenario(String elementId){
-    return this.scenario.containsKey(elementId);
+    return (this.scenario.element(elementId) != null);
   }
   
   
@@ -188,9 +245,9 @@ public class Scenario {
   @Override
   public String toString(){
     String toReturn = this.title + "\r\n";
-    for(String id : this.scenario.keySet()){
+    for(String id : getWholeScenario().keySet()){
       toReturn += "ElementId: " + id + "\r\n";
-      for(String core : this.scenario.get(id).getCore()){
+      for(String core : getElement(id).getCore()){
         toReturn += " - " + core + "\r\n";
       }
       toReturn += "\r\n------\r\n";
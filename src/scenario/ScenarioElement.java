@@ -24,19 +24,33 @@ public class ScenarioElement {
   private String elementId;
   
   /**
-   * The list of previous element within the scenario.
+   * The core sequence of action of the element, null while it has not been
+   * read from its source.
    */
-  private ArrayList<String> previousElements;
+  private ArrayList<String> core;
   
   /**
-   * The list of following element within the scenario.
+   * The source to read the core from on demand, null once it is read or if the
+   * core has been given with the element.
    */
-  private ArrayList<String> nextElements;
+  private CoreSource coreSource;
   
   /**
-   * The core sequence of action of the element.
+   * The number of the element in its core source.
    */
-  private ArrayList<String> core;
+  private int coreNumber;
+  
+  /**
+   * The graph engine storing the previous and next links of the element. It is
+   * the graph of the scenario the element belongs to, or a graph of its own for
+   * an element built outside of a scenario.
+   */
+  private ScenarioGraph graph;
+  
+  /**
+   * The index of the element within its graph engine.
+   */
+  private int index;
   
   
   /****************************************************************************/
@@ -47,8 +61,8 @@ public class ScenarioElement {
    * Default Constructor
    */
   public ScenarioElement(){
-    this.nextElements = new ArrayList<>();
-    this.previousElements = new ArrayList<>();
+    this.graph = new ScenarioGraph();
+    this.index = this.graph.intern(null);
     this.core = new ArrayList<>();
   }
   
@@ -59,8 +73,8 @@ public class ScenarioElement {
    */
   public ScenarioElement(String id){
     this.elementId = id;
-    this.nextElements = new ArrayList<>();
-    this.previousElements = new ArrayList<>();
+    this.graph = new ScenarioGraph();
+    this.index = this.graph.intern(id);
     this.core = new ArrayList<>();
   }
   
@@ -74,8 +88,23 @@ public class ScenarioElement {
   public ScenarioElement(String id, ArrayList<String> core){
     this.elementId = id;
     this.core = core;
-    this.nextElements = new ArrayList<>();
-    this.previousElements = new ArrayList<>();
+    this.graph = new ScenarioGraph();
+    this.index = this.graph.intern(id);
+  }
+  
+  /**
+   * Constructor of an element stored within the graph engine of a scenario.
+   * 
+   * @param id    the id of the element within the scenario.
+   * @param core  the sequence of actions to be taken in this element.
+   * @param graph the graph engine of the scenario.
+   * @param index the index of the element within the graph engine.
+   */
+  ScenarioElement(String id, ArrayList<String> core, ScenarioGraph graph, int index){
+    this.elementId = id;
+    this.core = core;
+    this.graph = graph;
+    this.index = index;
   }
   
   
@@ -104,14 +133,16 @@ public class ScenarioElement {
   /**
    * Give the previous elements of the current element within the scenario.
    * 
+   * The list is a copy: modifying it does not modify the element.
+   * 
    * @return null if there is none, an array list of id otherwise
    */
   public ArrayList<String> getPreviousElements() {
-    if(this.previousElements.isEmpty()){
+    if(!hasPrevious()){
       return null;
     }
     else{
-      return previousElements;
+      return this.graph.previousIds(this.index);
     }
   }
 
@@ -122,7 +153,12 @@ public class ScenarioElement {
    * @param previousElements the list of id to take as previous elements
    */
   public void setPreviousElements(ArrayList<String> previousElements) {
-    this.previousElements = previousElements;
+    this.graph.clearPrevious(this.index);
+    if(previousElements != null){
+      for(String previous : previousElements){
+        addPreviousElement(previous);
+      }
+    }
   }
   
   /**
@@ -131,10 +167,7 @@ public class ScenarioElement {
    * @param toAdd the id of the element to add as a previous one.
    */
   public void addPreviousElement(String toAdd){
-    if(!this.previousElements.contains(toAdd)){
-      this.previousElements.add(toAdd);
-    }
-    else{
+    if(!this.graph.addPrevious(this.index, this.graph.intern(toAdd))){
       // TODO: error or warning
     }
   }
@@ -145,7 +178,10 @@ public class ScenarioElement {
    * @param elementId the element to remove
    */
   void removePrevious(String elementId) {
-    this.previousElements.remove(elementId);
+    int toRemove = this.graph.indexOf(elementId);
+    if(toRemove >= 0){
+      this.graph.removePrevious(this.index, toRemove);
+    }
   }
   
   /**
@@ -155,20 +191,22 @@ public class ScenarioElement {
    * @return true if the element have previous ones in the scenario.
    */
   public boolean hasPrevious(){
-    return (this.previousElements != null && !this.previousElements.isEmpty());
+    return (this.graph.previousCount(this.index) > 0);
   }
 
   /**
    * Give the next elements of the current element within the scenario.
    * 
+   * The list is a copy: modifying it does not modify the element.
+   * 
    * @return null if there is none, an array list of id otherwise
    */
   public ArrayList<String> getNextElements() {
-    if(this.nextElements.isEmpty()){
+    if(!hasNext()){
       return null;
     }
     else{
-      return nextElements;
+      return this.graph.nextIds(this.index);
     }
   }
 
@@ -179,7 +217,12 @@ public class ScenarioElement {
    * @param nextElements the list of id to take as previous elements
    */
   public void setNextElements(ArrayList<String> nextElements) {
-    this.nextElements = nextElements;
+    this.graph.clearNext(this.index);
+    if(nextElements != null){
+      for(String next : nextElements){
+        addNextElement(next);
+      }
+    }
   }
   
   /**
@@ -188,10 +231,7 @@ public class ScenarioElement {
    * @param toAdd the id of the element to add as a next one.
    */
   public void addNextElement(String toAdd){
-    if(!this.nextElements.contains(toAdd)){
-      this.nextElements.add(toAdd);
-    }
-    else{
+    if(!this.graph.addNext(this.index, this.graph.intern(toAdd))){
       // TODO: error or warning
     }
   }
@@ -202,7 +242,10 @@ public class ScenarioElement {
    * @param elementId the element to remove
    */
   void removeNext(String elementId) {
-    this.nextElements.remove(elementId);
+    int toRemove = this.graph.indexOf(elementId);
+    if(toRemove >= 0){
+      this.graph.removeNext(this.index, toRemove);
+    }
   }
   
   /**
@@ -212,18 +255,42 @@ public class ScenarioElement {
    * @return true if the element have next ones in the scenario.
    */
   public boolean hasNext(){
-    return (this.nextElements != null && !this.nextElements.isEmpty());
+    return (this.graph.nextCount(this.index) > 0);
   }
 
   /**
    * Give all the actions to take in order to fulfill the current element within
-   * the scenario.
+   * the scenario. For an element loaded lazily, the actions are read from the
+   * file on the first call, then kept.
    * 
    * @return an array list of all the core action to take for the current element.
    */
   public ArrayList<String> getCore() {
+    if(this.core == null && this.coreSource != null){
+      this.core = this.coreSource.readCore(this.coreNumber);
+      this.coreSource = null;
+    }
     return core;
   }
+  
+  /**
+   * Tell whether the core of the element is in memory, i.e. it has not been 
+   * loaded lazily or it has been read since.
+   * 
+   * @return true if the core is in memory.
+   */
+  public boolean isCoreLoaded(){
+    return (this.coreSource == null);
+  }
+  
+  /**
+   * Give the source the core of the element is read from on demand.
+   * 
+   * @return the source, null if the core is in memory.
+   */
+  public CoreSource getCoreSource(){
+    return this.coreSource;
+  }
 
   /**
    * Modify the core actions to take in order to complete the current element
@@ -233,6 +300,8 @@ public class ScenarioElement {
    */
   public void setCore(ArrayList<String> core) {
     this.core = core;
+    this.coreSource = null;
+    this.graph.coreChanged(this.index, core);
   }
   
   /**
@@ -242,8 +311,59 @@ public class ScenarioElement {
    * @param toAdd one action to add.
    */
   public void addCore(String toAdd){
+    getCore();                                                                  // read it first if loaded lazily
     if(!this.core.contains(toAdd)){
       this.core.add(toAdd);
+      this.graph.coreChanged(this.index, this.core);
+    }
+  }
+  
+  
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+  
+  /**
+   * Make the core of the element be read on demand from a source.
+   * 
+   * @param source the source of the core.
+   * @param number the number of the element in the source.
+   */
+  void setCoreSource(CoreSource source, int number){
+    this.core = null;
+    this.coreSource = source;
+    this.coreNumber = number;
+  }
+  
+  /**
+   * Build a copy of the element for another graph engine. A core not read yet
+   * is not read: the copy reads it from the same source.
+   * 
+   * @param graph the graph engine of the copy.
+   * @param index the index of the copy within the graph engine.
+   * @return the copy.
+   */
+  ScenarioElement copyTo(ScenarioGraph graph, int index){
+    ScenarioElement toReturn = new ScenarioElement(this.elementId, 
+            (this.core == null ? null : new ArrayList<>(this.core)), graph, index);
+    if(this.coreSource != null){
+      toReturn.setCoreSource(this.coreSource, this.coreNumber);
     }
+    return toReturn;
+  }
+  
+  /**
+   * Move the element out of the graph engine of its scenario into a graph of
+   * its own, keeping a copy of its current previous and next elements. This is
+   * called by the scenario when the element is removed or replaced, so that a
+   * reference kept on it stays usable.
+   */
+  void detach(){
+    ArrayList<String> previouses = this.graph.previousIds(this.index);
+    ArrayList<String> nexts = this.graph.nextIds(this.index);
+    this.graph = new ScenarioGraph();
+    this.index = this.graph.intern(this.elementId);
+    setPreviousElements(previouses);
+    setNextElements(nexts);
   }
 }
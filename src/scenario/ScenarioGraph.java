@@ -0,0 +1,641 @@
+package scenario;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * This class is the internal engine behind a scenario. It stores the graph of
+ * the elements in a compact form in order to handle scenarios made of tens of
+ * thousands of elements.
+ *
+ * Each element id is interned once and then referenced by an int index. The
+ * previous and next links of an element are stored as primitive int arrays
+ * indexed by these ints, patched in place on each edit (see {@link LinkTable}
+ * for the constant time addition, check and removal of a link).
+ *
+ * An id may be interned without being an element of the scenario: a link can
+ * reference an element that has not been added (yet).
+ *
+ * This class is not thread safe, as the scenario itself.
+ *
+ * @author Nicolas Brax
+ */
+final class ScenarioGraph {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The initial capacity of the arrays indexed by the interned ids.
+   */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /**
+   * The index of each interned id.
+   */
+  private final HashMap<String,Integer> indexes;
+
+  /**
+   * The interned ids, by index.
+   */
+  private String[] ids;
+
+  /**
+   * The elements of the scenario, by index. A null value indicates an id that
+   * is only referenced by a link.
+   */
+  private ScenarioElement[] elements;
+
+  /**
+   * The next links of each index.
+   */
+  private final LinkTable nexts;
+
+  /**
+   * The previous links of each index.
+   */
+  private final LinkTable previouses;
+
+  /**
+   * The index of the element following each element in the order of addition,
+   * -1 for the last one.
+   */
+  private int[] orderNexts;
+
+  /**
+   * The index of the element preceding each element in the order of addition,
+   * -1 for the first one.
+   */
+  private int[] orderPreviouses;
+
+  /**
+   * The index of the first element in the order of addition, -1 if none.
+   */
+  private int firstElement = -1;
+
+  /**
+   * The index of the last element in the order of addition, -1 if none.
+   */
+  private int lastElement = -1;
+
+  /**
+   * The number of interned ids.
+   */
+  private int idCount;
+
+  /**
+   * The number of elements in the scenario.
+   */
+  private int elementCount;
+
+  /**
+   * A counter incremented on each addition or removal of an element, used to
+   * detect concurrent modifications in the map view.
+   */
+  private int elementModCount;
+
+  /**
+   * The listeners of the modifications of the graph, null if there is none.
+   */
+  private ArrayList<ScenarioListener> listeners;
+
+  /**
+   * The read only map view of the elements, built on first use.
+   */
+  private Map<String,ScenarioElement> elementView;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Default Constructor.
+   * Build an empty graph.
+   */
+  ScenarioGraph(){
+    this.indexes = new HashMap<>();
+    this.ids = new String[INITIAL_CAPACITY];
+    this.elements = new ScenarioElement[INITIAL_CAPACITY];
+    this.nexts = new LinkTable(INITIAL_CAPACITY);
+    this.previouses = new LinkTable(INITIAL_CAPACITY);
+    this.orderNexts = new int[INITIAL_CAPACITY];
+    this.orderPreviouses = new int[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Copy Constructor.
+   * Build a deep copy of a graph: the arrays are copied as they are and each
+   * element is copied with a copy of its core, see
+   * {@link ScenarioElement#copyTo(ScenarioGraph, int)}. The listeners are not copied.
+   *
+   * @param toCopy The graph to copy.
+   */
+  ScenarioGraph(ScenarioGraph toCopy){
+    this.indexes = new HashMap<>(toCopy.indexes);
+    this.ids = toCopy.ids.clone();
+    this.elements = new ScenarioElement[toCopy.elements.length];
+    for(int i = 0 ; i < toCopy.idCount ; ++i){
+      ScenarioElement element = toCopy.elements[i];
+      if(element != null){
+        this.elements[i] = element.copyTo(this, i);
+      }
+    }
+    this.nexts = new LinkTable(toCopy.nexts);
+    this.previouses = new LinkTable(toCopy.previouses);
+    this.orderNexts = toCopy.orderNexts.clone();
+    this.orderPreviouses = toCopy.orderPreviouses.clone();
+    this.firstElement = toCopy.firstElement;
+    this.lastElement = toCopy.lastElement;
+    this.idCount = toCopy.idCount;
+    this.elementCount = toCopy.elementCount;
+  }
+
+
+  /****************************************************************************/
+  /** Id Methods                                                             **/
+  /****************************************************************************/
+
+  /**
+   * Give the index of an id, interning it if it is not known yet.
+   *
+   * @param id The id to intern.
+   * @return The index of the id.
+   */
+  int intern(String id){
+    Integer index = this.indexes.get(id);
+    if(index != null){
+      return index;
+    }
+    if(this.idCount == this.ids.length){
+      grow();
+    }
+    int newIndex = this.idCount++;
+    this.ids[newIndex] = id;
+    this.indexes.put(id, newIndex);
+    return newIndex;
+  }
+
+  /**
+   * Give the index of an id without interning it.
+   *
+   * @param id The id to look for.
+   * @return The index of the id, -1 if it is unknown.
+   */
+  int indexOf(String id){
+    Integer index = this.indexes.get(id);
+    return (index == null ? -1 : index);
+  }
+
+  /**
+   * Give the id interned at the given index.
+   *
+   * @param index The index of the id.
+   * @return The id.
+   */
+  String idOf(int index){
+    return this.ids[index];
+  }
+
+  /**
+   * Give the number of interned ids. Valid indexes are in [0, idCount()[.
+   *
+   * @return The number of interned ids.
+   */
+  int idCount(){
+    return this.idCount;
+  }
+
+  /**
+   * Double the capacity of all the arrays indexed by the interned ids.
+   */
+  private void grow(){
+    int capacity = this.ids.length * 2;
+    this.ids = Arrays.copyOf(this.ids, capacity);
+    this.elements = Arrays.copyOf(this.elements, capacity);
+    this.nexts.grow(capacity);
+    this.previouses.grow(capacity);
+    this.orderNexts = Arrays.copyOf(this.orderNexts, capacity);
+    this.orderPreviouses = Arrays.copyOf(this.orderPreviouses, capacity);
+  }
+
+
+  /****************************************************************************/
+  /** Element Methods                                                        **/
+  /****************************************************************************/
+
+  /**
+   * Give the element stored at the given index.
+   *
+   * @param index The index of the element.
+   * @return The element, null if the index is only referenced by links.
+   */
+  ScenarioElement elementAt(int index){
+    return this.elements[index];
+  }
+
+  /**
+   * Give the element with the given id.
+   *
+   * @param id The id of the element.
+   * @return The element, null if it is not in the scenario.
+   */
+  ScenarioElement element(String id){
+    int index = indexOf(id);
+    return (index < 0 ? null : this.elements[index]);
+  }
+
+  /**
+   * Store an element at the index of the given id. An eventual existing element
+   * is replaced and loses its own previous and next links, as the new element
+   * starts without any.
+   *
+   * @param id The id of the element.
+   * @param core The core sequence of actions of the element.
+   * @return The new element.
+   */
+  ScenarioElement putElement(String id, ArrayList<String> core){
+    int index = intern(id);
+    if(this.elements[index] == null){
+      this.elementCount++;
+      this.orderPreviouses[index] = this.lastElement;                         // append it to the order of addition
+      this.orderNexts[index] = -1;
+      if(this.lastElement < 0){
+        this.firstElement = index;
+      }
+      else{
+        this.orderNexts[this.lastElement] = index;
+      }
+      this.lastElement = index;
+    }
+    else{
+      this.elements[index].detach();
+      clearLinks(index);
+    }
+    ScenarioElement element = new ScenarioElement(id, core, this, index);
+    this.elements[index] = element;
+    this.elementModCount++;
+    if(this.listeners != null){
+      for(ScenarioListener listener : this.listeners){
+        listener.elementPut(id, core);
+      }
+    }
+    return element;
+  }
+
+  /**
+   * Remove the element stored at the given index, as well as all its links and
+   * the references to it from its previous and next elements.
+   *
+   * @param index The index of the element to remove.
+   */
+  void removeElement(int index){
+    int[] links = this.nexts.links(index);
+    for(int i = 0 ; i < this.nexts.slots(index) ; ++i){                         // remove it as a previous from the next ones
+      if(links[i] != LinkTable.HOLE && links[i] != index){
+        this.previouses.remove(links[i], index);
+      }
+    }
+    links = this.previouses.links(index);
+    for(int i = 0 ; i < this.previouses.slots(index) ; ++i){                    // remove it as a next from the previous ones
+      if(links[i] != LinkTable.HOLE && links[i] != index){
+        this.nexts.remove(links[i], index);
+      }
+    }
+    if(this.elements[index] != null){
+      this.elements[index].detach();
+      this.elements[index] = null;
+      this.elementCount--;
+      int before = this.orderPreviouses[index];                                 // unlink it from the order of addition
+      int after = this.orderNexts[index];
+      if(before < 0){
+        this.firstElement = after;
+      }
+      else{
+        this.orderNexts[before] = after;
+      }
+      if(after < 0){
+        this.lastElement = before;
+      }
+      else{
+        this.orderPreviouses[after] = before;
+      }
+    }
+    clearLinks(index);
+    this.elementModCount++;
+    if(this.listeners != null){
+      for(ScenarioListener listener : this.listeners){
+        listener.elementRemoved(this.ids[index]);
+      }
+    }
+  }
+
+  /**
+   * Give a read only map view of the elements of the scenario, identified by
+   * their id. The view follows the modifications of the graph and iterates
+   * the elements in the order they have been added.
+   *
+   * @return The map view of the elements.
+   */
+  Map<String,ScenarioElement> elementMap(){
+    if(this.elementView == null){
+      this.elementView = new ElementView();
+    }
+    return this.elementView;
+  }
+
+  /**
+   * Give the number of elements in the scenario.
+   *
+   * @return The number of elements.
+   */
+  int elementCount(){
+    return this.elementCount;
+  }
+
+
+  /****************************************************************************/
+  /** Link Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Add a next link from an index to another one, if it does not exist yet.
+   *
+   * @param from The index of the element the link starts from.
+   * @param to The index of the next element.
+   * @return True if the link has been added, false if it already exists.
+   */
+  boolean addNext(int from, int to){
+    return linkEdited(this.nexts.add(from, to), from, to, true, true);
+  }
+
+  /**
+   * Add a previous link from an index to another one, if it does not exist yet.
+   *
+   * @param from The index of the element the link belongs to.
+   * @param to The index of the previous element.
+   * @return True if the link has been added, false if it already exists.
+   */
+  boolean addPrevious(int from, int to){
+    return linkEdited(this.previouses.add(from, to), from, to, false, true);
+  }
+
+  /**
+   * Remove a next link.
+   *
+   * @param from The index of the element the link starts from.
+   * @param to The index of the next element.
+   */
+  void removeNext(int from, int to){
+    linkEdited(this.nexts.remove(from, to), from, to, true, false);
+  }
+
+  /**
+   * Remove a previous link.
+   *
+   * @param from The index of the element the link belongs to.
+   * @param to The index of the previous element.
+   */
+  void removePrevious(int from, int to){
+    linkEdited(this.previouses.remove(from, to), from, to, false, false);
+  }
+
+  /**
+   * Remove all the next links of an index. The previous links pointing back to
+   * it from the other indexes are kept, as for {@link #removeNext(int, int)}.
+   *
+   * @param index The index of the element.
+   */
+  void clearNext(int index){
+    this.nexts.clear(index);
+    if(this.listeners != null){
+      for(ScenarioListener listener : this.listeners){
+        listener.linksCleared(this.ids[index], true);
+      }
+    }
+  }
+
+  /**
+   * Remove all the previous links of an index. See also
+   * {@link #clearNext(int)}.
+   *
+   * @param index The index of the element.
+   */
+  void clearPrevious(int index){
+    this.previouses.clear(index);
+    if(this.listeners != null){
+      for(ScenarioListener listener : this.listeners){
+        listener.linksCleared(this.ids[index], false);
+      }
+    }
+  }
+
+  /**
+   * Give the number of next links of an index.
+   *
+   * @param index The index of the element.
+   * @return The number of next links.
+   */
+  int nextCount(int index){
+    return this.nexts.count(index);
+  }
+
+  /**
+   * Give the number of previous links of an index.
+   *
+   * @param index The index of the element.
+   * @return The number of previous links.
+   */
+  int previousCount(int index){
+    return this.previouses.count(index);
+  }
+
+  /**
+   * Give the ids of the next elements of an index, in insertion order.
+   *
+   * @param index The index of the element.
+   * @return A new list of the ids.
+   */
+  ArrayList<String> nextIds(int index){
+    return this.nexts.ids(index, this.ids);
+  }
+
+  /**
+   * Give the ids of the previous elements of an index, in insertion order.
+   *
+   * @param index The index of the element.
+   * @return A new list of the ids.
+   */
+  ArrayList<String> previousIds(int index){
+    return this.previouses.ids(index, this.ids);
+  }
+
+
+  /****************************************************************************/
+  /** Listener Methods                                                       **/
+  /****************************************************************************/
+
+  /**
+   * Add a listener of the modifications of the graph.
+   *
+   * @param listener The listener to add.
+   */
+  void addListener(ScenarioListener listener){
+    if(this.listeners == null){
+      this.listeners = new ArrayList<>();
+    }
+    this.listeners.add(listener);
+  }
+
+  /**
+   * Remove a listener of the modifications of the graph.
+   *
+   * @param listener The listener to remove.
+   */
+  void removeListener(ScenarioListener listener){
+    if(this.listeners != null){
+      this.listeners.remove(listener);
+    }
+  }
+
+  /**
+   * Inform the listeners that the title of the scenario has been changed.
+   *
+   * @param title The new title.
+   */
+  void titleChanged(String title){
+    if(this.listeners != null){
+      for(ScenarioListener listener : this.listeners){
+        listener.titleChanged(title);
+      }
+    }
+  }
+
+  /**
+   * Inform the listeners that the core sequence of actions of an element has
+   * been changed.
+   *
+   * @param index The index of the element.
+   * @param core The new core sequence of actions.
+   */
+  void coreChanged(int index, ArrayList<String> core){
+    if(this.listeners != null){
+      for(ScenarioListener listener : this.listeners){
+        listener.coreChanged(this.ids[index], core);
+      }
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Remove all the links, previous and next, of an index. The references to
+   * this index from the other ones are kept.
+   *
+   * @param index The index to clear.
+   */
+  private void clearLinks(int index){
+    this.nexts.clear(index);
+    this.previouses.clear(index);
+  }
+
+  /**
+   * Record an edit of a link if one has been made, and inform the listeners.
+   *
+   * @param edit True if the link has been modified.
+   * @param from The index of the element the link belongs to.
+   * @param to The index of the linked element.
+   * @param next True for a next link, false for a previous one.
+   * @param added True if the link has been added, false if removed.
+   * @return The edit parameter.
+   */
+  private boolean linkEdited(boolean edit, int from, int to, boolean next, boolean added){
+    if(edit){
+      if(this.listeners != null){
+        for(ScenarioListener listener : this.listeners){
+          if(added){
+            listener.linkAdded(this.ids[from], this.ids[to], next);
+          }
+          else{
+            listener.linkRemoved(this.ids[from], this.ids[to], next);
+          }
+        }
+      }
+    }
+    return edit;
+  }
+
+
+  /****************************************************************************/
+  /** Views                                                                  **/
+  /****************************************************************************/
+
+  /**
+   * A read only map of the elements of the graph, without any copy.
+   */
+  private final class ElementView extends AbstractMap<String,ScenarioElement> {
+
+    @Override
+    public int size(){
+      return elementCount;
+    }
+
+    @Override
+    public boolean containsKey(Object key){
+      return (key instanceof String && element((String)key) != null);
+    }
+
+    @Override
+    public ScenarioElement get(Object key){
+      return (key instanceof String ? element((String)key) : null);
+    }
+
+    @Override
+    public Set<Map.Entry<String,ScenarioElement>> entrySet(){
+      return new AbstractSet<Map.Entry<String,ScenarioElement>>(){
+        @Override
+        public int size(){
+          return elementCount;
+        }
+
+        @Override
+        public Iterator<Map.Entry<String,ScenarioElement>> iterator(){
+          return new Iterator<Map.Entry<String,ScenarioElement>>(){
+            private final int expectedModCount = elementModCount;
+            private int next = firstElement;
+
+            @Override
+            public boolean hasNext(){
+              return this.next >= 0;
+            }
+
+            @Override
+            public Map.Entry<String,ScenarioElement> next(){
+              if(elementModCount != this.expectedModCount){
+                throw new ConcurrentModificationException();
+              }
+              if(!hasNext()){
+                throw new NoSuchElementException();
+              }
+              int current = this.next;
+              this.next = orderNexts[current];
+              return new AbstractMap.SimpleImmutableEntry<>(ids[current], elements[current]);
+            }
+          };
+        }
+      };
+    }
+  }
+}
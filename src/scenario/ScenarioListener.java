@@ -0,0 +1,74 @@
+package scenario;
+
+import java.util.ArrayList;
+
+/**
+ * This interface allows to follow all the modifications made to a scenario,
+ * whether they are made through the scenario itself or through one of its
+ * elements. See {@link Scenario#addScenarioListener(ScenarioListener)}.
+ *
+ * The listeners are called synchronously, in the thread modifying the
+ * scenario, after the modification is done. They must not modify the scenario.
+ *
+ * @author Nicolas Brax
+ */
+public interface ScenarioListener {
+
+  /**
+   * The title of the scenario has been changed.
+   *
+   * @param title The new title.
+   */
+  void titleChanged(String title);
+
+  /**
+   * An element has been added to the scenario, or replaced. A replaced element
+   * has lost its own previous and next elements.
+   *
+   * @param elementId The id of the element.
+   * @param core The core sequence of actions of the element.
+   */
+  void elementPut(String elementId, ArrayList<String> core);
+
+  /**
+   * An element has been removed from the scenario, as well as the references
+   * to it from its previous and next elements.
+   *
+   * @param elementId The id of the element.
+   */
+  void elementRemoved(String elementId);
+
+  /**
+   * A previous or next element has been added to an element.
+   *
+   * @param elementId The id of the element modified.
+   * @param linkedId The id of the previous or next element.
+   * @param next True for a next element, false for a previous one.
+   */
+  void linkAdded(String elementId, String linkedId, boolean next);
+
+  /**
+   * A previous or next element has been removed from an element.
+   *
+   * @param elementId The id of the element modified.
+   * @param linkedId The id of the previous or next element.
+   * @param next True for a next element, false for a previous one.
+   */
+  void linkRemoved(String elementId, String linkedId, boolean next);
+
+  /**
+   * All the previous or next elements of an element have been removed.
+   *
+   * @param elementId The id of the element modified.
+   * @param next True for the next elements, false for the previous ones.
+   */
+  void linksCleared(String elementId, boolean next);
+
+  /**
+   * The core sequence of actions of an element has been changed.
+   *
+   * @param elementId The id of the element modified.
+   * @param core The new core sequence of actions.
+   */
+  void coreChanged(String elementId, ArrayList<String> core);
+}
@@ -0,0 +1,104 @@
+package tools;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This class is a stream reporting the number of bytes read to a progress
+ * listener, each time a step is crossed.
+ *
+ * @author Nicolas Brax
+ */
+class ProgressInputStream extends FilterInputStream {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The number of bytes between two reports.
+   */
+  private static final long STEP = 256 * 1024;
+
+  /**
+   * The listener of the progress.
+   */
+  private final ProgressListener listener;
+
+  /**
+   * The total number of bytes to read.
+   */
+  private final long total;
+
+  /**
+   * The number of bytes read.
+   */
+  private long done;
+
+  /**
+   * The number of bytes read at the next report.
+   */
+  private long nextReport = STEP;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Build a stream reporting its progress.
+   *
+   * @param in The stream to read.
+   * @param total The total number of bytes to read.
+   * @param listener The listener of the progress.
+   */
+  ProgressInputStream(InputStream in, long total, ProgressListener listener){
+    super(in);
+    this.total = total;
+    this.listener = listener;
+  }
+
+
+  /****************************************************************************/
+  /** Stream Methods                                                         **/
+  /****************************************************************************/
+
+  @Override
+  public int read() throws IOException{
+    int toReturn = super.read();
+    if(toReturn >= 0){
+      advance(1);
+    }
+    return toReturn;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException{
+    int toReturn = super.read(b, off, len);
+    if(toReturn > 0){
+      advance(toReturn);
+    }
+    return toReturn;
+  }
+
+  @Override
+  public long skip(long n) throws IOException{
+    long toReturn = super.skip(n);
+    advance(toReturn);
+    return toReturn;
+  }
+
+  /**
+   * Count bytes read and report the progress if a step is crossed.
+   *
+   * @param read The number of bytes read.
+   */
+  private void advance(long read){
+    this.done += read;
+    if(this.done >= this.nextReport){
+      this.nextReport = this.done + STEP;
+      this.listener.progressed(Math.min(this.done, this.total), this.total);
+    }
+  }
+}
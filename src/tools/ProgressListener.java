@@ -0,0 +1,23 @@
+package tools;
+
+/**
+ * This interface allows to follow the progress of a long reading or writing
+ * of a scenario. See {@link XmlTool#loadScenarioAsync(String, ScenarioFormat, 
+ * boolean, ProgressListener)}.
+ *
+ * The listener is called from the thread doing the work, from time to time. It
+ * may stop the work by throwing a {@link java.util.concurrent.CancellationException}.
+ *
+ * @author Nicolas Brax
+ */
+public interface ProgressListener {
+
+  /**
+   * A part of the work has been done.
+   *
+   * @param done The amount of work done, in [0, total].
+   * @param total The amount of work to do, in an unit depending on the work:
+   *              bytes, elements...
+   */
+  void progressed(long done, long total);
+}
@@ -0,0 +1,450 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import scenario.CoreSource;
+import scenario.Scenario;
+
+/**
+ * This class reads a scenario saved in the binary format written by
+ * {@link ScenarioBinaryWriter}, where the layout of the file is described.
+ *
+ * The file is read in memory in one block through its channel, then closed;
+ * opening it only checks its header. The file is not mapped, as a mapping
+ * keeps the file open until it is garbage collected and the save methods
+ * could not replace it on some systems. The elements and the strings are then
+ * decoded on demand by their number, thanks to the offset indexes of the
+ * file, and each string is decoded once. The whole scenario can also be built in one run with
+ * {@link #read()}, or without its cores with {@link #readLazily()}: the cores
+ * of each element are then read on demand.
+ *
+ * All the reads use absolute positions in the buffer so a reader can be
+ * shared between threads.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioBinaryReader implements CoreSource {
+
+  /****************************************************************************/
+  /** Format Constants                                                       **/
+  /****************************************************************************/
+
+  /**
+   * The magic number starting a binary scenario file: "RPGS".
+   */
+  static final int MAGIC = 0x52504753;
+
+  /**
+   * The version of the binary format.
+   */
+  static final int VERSION = 1;
+
+  /**
+   * The size of the header, in bytes.
+   */
+  static final int HEADER_SIZE = 7 * 4;
+
+  /**
+   * The number of elements between two reports of the progress.
+   */
+  private static final int PROGRESS_STEP = 1024;
+
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The name of the file, for the error messages.
+   */
+  private final String sourceName;
+
+  /**
+   * The content of the file.
+   */
+  private final ByteBuffer buffer;
+
+  /**
+   * The number of the title in the string table.
+   */
+  private final int titleString;
+
+  /**
+   * The number of strings of the string table.
+   */
+  private final int stringCount;
+
+  /**
+   * The number of elements of the scenario.
+   */
+  private final int elementCount;
+
+  /**
+   * The offset of the string index.
+   */
+  private final int stringIndexOffset;
+
+  /**
+   * The offset of the element index.
+   */
+  private final int elementIndexOffset;
+
+  /**
+   * The strings already decoded, by number.
+   */
+  private final String[] strings;
+
+  /**
+   * The listener of the progress of the reading, null if none.
+   */
+  private ProgressListener progressListener;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Open a binary scenario file. Only the header is read.
+   *
+   * @param inputFile The file to open.
+   * @throws RPGSCException If the file cannot be read or is not a binary
+   *                        scenario file.
+   */
+  public ScenarioBinaryReader(File inputFile) throws RPGSCException{
+    this.sourceName = inputFile.getName();
+    try(FileChannel channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)){
+      if(channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE){
+        throw error("unexpected file size " + channel.size());
+      }
+      this.buffer = ByteBuffer.allocate((int)channel.size()).order(ByteOrder.BIG_ENDIAN);
+      while(this.buffer.hasRemaining()){
+        if(channel.read(this.buffer) < 0){
+          throw error("unexpected end of file");
+        }
+      }
+      this.buffer.flip();
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to read the scenario file "
+              + this.sourceName + ".", ioe);
+    }
+    if(this.buffer.getInt(0) != MAGIC){
+      throw error("not a binary scenario file");
+    }
+    if(this.buffer.getInt(4) != VERSION){
+      throw error("unsupported version " + this.buffer.getInt(4));
+    }
+    this.titleString = this.buffer.getInt(8);
+    this.stringCount = this.buffer.getInt(12);
+    this.elementCount = this.buffer.getInt(16);
+    this.stringIndexOffset = this.buffer.getInt(20);
+    this.elementIndexOffset = this.buffer.getInt(24);
+    if(this.stringCount < 0 || this.elementCount < 0
+    || this.stringIndexOffset < HEADER_SIZE
+    || this.stringIndexOffset + 4L * this.stringCount > this.buffer.capacity()
+    || this.elementIndexOffset < HEADER_SIZE
+    || this.elementIndexOffset + 4L * this.elementCount > this.buffer.capacity()
+    || this.titleString < 0 || this.titleString >= this.stringCount){
+      throw error("corrupted header");
+    }
+    this.strings = new String[this.stringCount];
+  }
+
+
+  /****************************************************************************/
+  /** Reading Methods                                                        **/
+  /****************************************************************************/
+
+  /**
+   * Read the whole scenario.
+   *
+   * @return The scenario read.
+   * @throws RPGSCException If the file is corrupted.
+   */
+  public Scenario read() throws RPGSCException{
+    Scenario toReturn = new Scenario();
+    toReturn.setTitle(getTitle());
+    for(int i = 0 ; i < this.elementCount ; ++i){
+      int[] at = {elementOffset(i)};
+      String elementId = getString(varint(at));
+      toReturn.addElement(elementId, strings(at), true);
+      progressed(i);
+      ArrayList<String> nexts = strings(at);
+      for(String previous : strings(at)){
+        toReturn.getElement(elementId).addPreviousElement(previous);
+      }
+      for(String next : nexts){
+        toReturn.getElement(elementId).addNextElement(next);
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Read the title, the ids and the links of the scenario. The elements of the
+   * scenario read their cores from this reader on demand.
+   *
+   * @return The scenario read.
+   * @throws RPGSCException If the file is corrupted.
+   */
+  public Scenario readLazily() throws RPGSCException{
+    Scenario toReturn = new Scenario();
+    toReturn.setTitle(getTitle());
+    for(int i = 0 ; i < this.elementCount ; ++i){
+      int[] at = {elementOffset(i)};
+      String elementId = getString(varint(at));
+      skipStrings(at);                                                          // the cores, read on demand
+      toReturn.addElement(elementId, this, i, true);
+      progressed(i);
+      ArrayList<String> nexts = strings(at);
+      for(String previous : strings(at)){
+        toReturn.getElement(elementId).addPreviousElement(previous);
+      }
+      for(String next : nexts){
+        toReturn.getElement(elementId).addNextElement(next);
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Read the core sequence of actions of an element, for the scenarios read
+   * lazily.
+   *
+   * @param number The number of the element.
+   * @return A new list of the actions.
+   * @throws UncheckedIOException If the file is corrupted.
+   */
+  @Override
+  public ArrayList<String> readCore(int number){
+    try{
+      return getCores(number);
+    }catch(RPGSCException e){
+      throw new UncheckedIOException(new IOException(e.getMessage(), e));
+    }
+  }
+
+  /**
+   * Estimate the memory held by the reader: the content of the file, and the
+   * strings it decodes, at most two bytes for each byte of the file plus a
+   * header for each string.
+   *
+   * @return The estimated size, in bytes.
+   */
+  @Override
+  public long getRetainedSize(){
+    return 3L * this.buffer.capacity() + 48L * this.strings.length;
+  }
+
+  /**
+   * Set the listener of the progress of the reading of a whole scenario, null for none.
+   *
+   * @param progressListener The listener, called every 1024 elements read.
+   */
+  public void setProgressListener(ProgressListener progressListener){
+    this.progressListener = progressListener;
+  }
+
+  /**
+   * Give the title of the scenario.
+   *
+   * @return The title.
+   * @throws RPGSCException If the file is corrupted.
+   */
+  public String getTitle() throws RPGSCException{
+    return getString(this.titleString);
+  }
+
+  /**
+   * Give the number of elements of the scenario.
+   *
+   * @return The number of elements.
+   */
+  public int getElementCount(){
+    return this.elementCount;
+  }
+
+  /**
+   * Give the id of an element.
+   *
+   * @param element The number of the element, in [0, getElementCount()[.
+   * @return The id of the element.
+   * @throws RPGSCException If the file is corrupted.
+   */
+  public String getElementId(int element) throws RPGSCException{
+    int[] at = {elementOffset(element)};
+    return getString(varint(at));
+  }
+
+  /**
+   * Give the core sequence of actions of an element.
+   *
+   * @param element The number of the element, in [0, getElementCount()[.
+   * @return A new list of the cores.
+   * @throws RPGSCException If the file is corrupted.
+   */
+  public ArrayList<String> getCores(int element) throws RPGSCException{
+    int[] at = {elementOffset(element)};
+    varint(at);                                                                 // the id
+    return strings(at);
+  }
+
+  /**
+   * Give the ids of the next elements of an element.
+   *
+   * @param element The number of the element, in [0, getElementCount()[.
+   * @return A new list of the ids.
+   * @throws RPGSCException If the file is corrupted.
+   */
+  public ArrayList<String> getNextIds(int element) throws RPGSCException{
+    int[] at = {elementOffset(element)};
+    varint(at);                                                                 // the id
+    skipStrings(at);                                                            // the cores
+    return strings(at);
+  }
+
+  /**
+   * Give the ids of the previous elements of an element.
+   *
+   * @param element The number of the element, in [0, getElementCount()[.
+   * @return A new list of the ids.
+   * @throws RPGSCException If the file is corrupted.
+   */
+  public ArrayList<String> getPreviousIds(int element) throws RPGSCException{
+    int[] at = {elementOffset(element)};
+    varint(at);                                                                 // the id
+    skipStrings(at);                                                            // the cores
+    skipStrings(at);                                                            // the next ids
+    return strings(at);
+  }
+
+  /**
+   * Give a string of the string table, decoding it on the first access.
+   *
+   * @param string The number of the string.
+   * @return The string.
+   * @throws RPGSCException If the file is corrupted.
+   */
+  public String getString(int string) throws RPGSCException{
+    if(string < 0 || string >= this.stringCount){
+      throw error("string " + string + " out of range");
+    }
+    String toReturn = this.strings[string];
+    if(toReturn == null){
+      int[] at = {this.buffer.getInt(this.stringIndexOffset + 4 * string)};
+      int length = varint(at);
+      if(length < 0 || at[0] + (long)length > this.buffer.capacity()){
+        throw error("string " + string + " out of the file");
+      }
+      byte[] bytes = new byte[length];
+      ByteBuffer view = this.buffer.duplicate();                                // a private position for the bulk read
+      view.position(at[0]);
+      view.get(bytes);
+      toReturn = new String(bytes, StandardCharsets.UTF_8);
+      this.strings[string] = toReturn;                                          // a benign race between threads
+    }
+    return toReturn;
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Report the progress of the reading of a whole scenario, every few elements.
+   *
+   * @param element The number of the element just read.
+   */
+  private void progressed(int element){
+    if(this.progressListener != null && (element + 1) % PROGRESS_STEP == 0){
+      this.progressListener.progressed(element + 1, this.elementCount);
+    }
+  }
+
+  /**
+   * Give the offset of an element in the file.
+   *
+   * @param element The number of the element.
+   * @return The offset.
+   * @throws RPGSCException If the number is out of range.
+   */
+  private int elementOffset(int element) throws RPGSCException{
+    if(element < 0 || element >= this.elementCount){
+      throw error("element " + element + " out of range");
+    }
+    return this.buffer.getInt(this.elementIndexOffset + 4 * element);
+  }
+
+  /**
+   * Read a list of strings, stored as their count followed by their numbers.
+   *
+   * @param at The cursor in the file, moved after the list.
+   * @return A new list of the strings.
+   * @throws RPGSCException If the file is corrupted.
+   */
+  private ArrayList<String> strings(int[] at) throws RPGSCException{
+    int count = varint(at);
+    if(count < 0 || count > this.buffer.limit() - at[0]){                       // a string number takes one byte at least
+      throw error("list of " + count + " strings out of the file");
+    }
+    ArrayList<String> toReturn = new ArrayList<>(count);
+    for(int i = 0 ; i < count ; ++i){
+      toReturn.add(getString(varint(at)));
+    }
+    return toReturn;
+  }
+
+  /**
+   * Skip a list of strings.
+   *
+   * @param at The cursor in the file, moved after the list.
+   * @throws RPGSCException If the file is corrupted.
+   */
+  private void skipStrings(int[] at) throws RPGSCException{
+    int count = varint(at);
+    for(int i = 0 ; i < count ; ++i){
+      varint(at);
+    }
+  }
+
+  /**
+   * Read an unsigned varint (LEB128).
+   *
+   * @param at The cursor in the file, moved after the varint.
+   * @return The value.
+   * @throws RPGSCException If the varint is out of the file or too long.
+   */
+  private int varint(int[] at) throws RPGSCException{
+    int value = 0;
+    for(int shift = 0 ; shift < 35 ; shift += 7){
+      if(at[0] < 0 || at[0] >= this.buffer.limit()){                            // a corrupted offset
+        throw error("unexpected end of file");
+      }
+      byte b = this.buffer.get(at[0]++);
+      value |= (b & 0x7F) << shift;
+      if((b & 0x80) == 0){
+        return value;
+      }
+    }
+    throw error("malformed varint at " + at[0]);
+  }
+
+  /**
+   * Build the exception reporting an invalid file.
+   *
+   * @param reason The reason of the error.
+   * @return The exception to throw.
+   */
+  private RPGSCException error(String reason){
+    return new RPGSCException("Invalid binary scenario file " + this.sourceName
+            + ": " + reason + ".");
+  }
+}
@@ -0,0 +1,333 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import scenario.Scenario;
+import scenario.ScenarioElement;
+
+/**
+ * This class writes a scenario in the compact binary format read by
+ * {@link ScenarioBinaryReader}.
+ *
+ * The file is made of (all the fixed size numbers are big endian):
+ * <pre>
+ * header        magic "RPGS", version (int), title string (int),
+ *               string count (int), element count (int),
+ *               string index offset (int), element index offset (int)
+ * strings       for each string: byte length (varint), UTF-8 bytes
+ * elements      for each element: id string (varint),
+ *               core count (varint), core strings (varints),
+ *               next count (varint), next id strings (varints),
+ *               previous count (varint), previous id strings (varints)
+ * string index  the offset of each string (int)
+ * element index the offset of each element (int)
+ * </pre>
+ * Every id and core text is stored once in the string table and referenced by
+ * its number everywhere else. The varints are unsigned LEB128. As the reader
+ * reads the whole file in one buffer, a file is limited to 2 GB.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioBinaryWriter {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The size of the write buffer, in bytes.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The number of elements between two reports of the progress.
+   */
+  private static final int PROGRESS_STEP = 1024;
+
+  /**
+   * The channel of the file being written.
+   */
+  private FileChannel channel;
+
+  /**
+   * The write buffer.
+   */
+  private ByteBuffer buffer;
+
+  /**
+   * The position in the file of the first byte of the buffer.
+   */
+  private long flushed;
+
+  /**
+   * The listener of the progress of the writing, null if none.
+   */
+  private ProgressListener progressListener;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * The Default Constructor that does nothing.
+   */
+  public ScenarioBinaryWriter(){
+    // nothing to do
+  }
+
+
+  /****************************************************************************/
+  /** Writing Methods                                                        **/
+  /****************************************************************************/
+
+  /**
+   * Set the listener of the progress of the writing, null for none.
+   *
+   * @param progressListener The listener, called every 1024 elements handled.
+   */
+  public void setProgressListener(ProgressListener progressListener){
+    this.progressListener = progressListener;
+  }
+
+  /**
+   * Write a scenario into the given file, replacing its eventual content.
+   *
+   * @param toSave The scenario to write.
+   * @param outputFile The file to write.
+   * @throws RPGSCException If the file cannot be written or is too large.
+   */
+  public synchronized void write(Scenario toSave, File outputFile) throws RPGSCException{
+    HashMap<String,Integer> stringIndexes = new HashMap<>();                    // the string table, built
+    ArrayList<String> strings = new ArrayList<>();                              // before any write
+    int titleIndex = intern(toSave.getTitle(), stringIndexes, strings);
+    int handled = 0;                                                            // each element is handled twice
+    for(ScenarioElement element : toSave.getWholeScenario().values()){
+      progressed(handled++, toSave.size());
+      intern(element.getElementId(), stringIndexes, strings);
+      internAll(element.getCore(), stringIndexes, strings);
+      internAll(element.getNextElements(), stringIndexes, strings);             // a linked id may not be an element
+      internAll(element.getPreviousElements(), stringIndexes, strings);
+    }
+    try(FileChannel fileChannel = FileChannel.open(outputFile.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)){
+      this.channel = fileChannel;
+      this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+      this.flushed = 0;
+
+      this.buffer.position(ScenarioBinaryReader.HEADER_SIZE);                   // room for the header, written at the end
+
+      int[] stringOffsets = new int[strings.size()];                            // the string table
+      for(int i = 0 ; i < strings.size() ; ++i){
+        stringOffsets[i] = position();
+        byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+        putVarint(bytes.length);
+        putBytes(bytes);
+      }
+
+      int[] elementOffsets = new int[toSave.size()];                            // the elements
+      int elementIndex = 0;
+      for(ScenarioElement element : toSave.getWholeScenario().values()){
+        progressed(handled++, toSave.size());
+        elementOffsets[elementIndex++] = position();
+        putVarint(stringIndexes.get(element.getElementId()));
+        putStrings(element.getCore(), stringIndexes);
+        putStrings(element.getNextElements(), stringIndexes);
+        putStrings(element.getPreviousElements(), stringIndexes);
+      }
+
+      int stringIndexOffset = position();                                       // the indexes
+      for(int offset : stringOffsets){
+        putInt(offset);
+      }
+      int elementIndexOffset = position();
+      for(int offset : elementOffsets){
+        putInt(offset);
+      }
+      position();                                                               // check the final size
+      flush();
+
+      ByteBuffer header = ByteBuffer.allocate(ScenarioBinaryReader.HEADER_SIZE)
+              .order(ByteOrder.BIG_ENDIAN);
+      header.putInt(ScenarioBinaryReader.MAGIC);
+      header.putInt(ScenarioBinaryReader.VERSION);
+      header.putInt(titleIndex);
+      header.putInt(strings.size());
+      header.putInt(elementOffsets.length);
+      header.putInt(stringIndexOffset);
+      header.putInt(elementIndexOffset);
+      header.flip();
+      while(header.hasRemaining()){
+        fileChannel.write(header, header.position());
+      }
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to write the scenario file "
+              + outputFile.getName() + ".", ioe);
+    }finally{
+      this.channel = null;
+      this.buffer = null;
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Report the progress of the writing, every few elements.
+   *
+   * @param handled The number of elements handled so far, each one twice.
+   * @param elementCount The number of elements of the scenario.
+   */
+  private void progressed(int handled, int elementCount){
+    if(this.progressListener != null && handled % PROGRESS_STEP == 0){
+      this.progressListener.progressed(handled, 2L * elementCount);
+    }
+  }
+
+  /**
+   * Add a string to the string table if it is not there yet.
+   *
+   * @param s The string, null is stored as an empty string.
+   * @param stringIndexes The index of each string of the table.
+   * @param strings The string table.
+   * @return The index of the string in the table.
+   */
+  private static int intern(String s, HashMap<String,Integer> stringIndexes,
+          ArrayList<String> strings){
+    String key = (s == null ? "" : s);
+    Integer index = stringIndexes.get(key);
+    if(index == null){
+      index = strings.size();
+      stringIndexes.put(key, index);
+      strings.add(key);
+    }
+    return index;
+  }
+
+  /**
+   * Add all the strings of a list to the string table.
+   *
+   * @param list The strings, may be null.
+   * @param stringIndexes The index of each string of the table.
+   * @param strings The string table.
+   */
+  private static void internAll(ArrayList<String> list, HashMap<String,Integer> stringIndexes,
+          ArrayList<String> strings){
+    if(list != null){
+      for(String s : list){
+        intern(s, stringIndexes, strings);
+      }
+    }
+  }
+
+  /**
+   * Write a list of strings as their count followed by their indexes in the
+   * string table.
+   *
+   * @param list The strings, may be null.
+   * @param stringIndexes The index of each string of the table.
+   * @throws IOException If the channel fails.
+   */
+  private void putStrings(ArrayList<String> list, HashMap<String,Integer> stringIndexes)
+          throws IOException{
+    if(list == null){
+      putVarint(0);
+      return;
+    }
+    putVarint(list.size());
+    for(String s : list){
+      putVarint(stringIndexes.get(s == null ? "" : s));
+    }
+  }
+
+  /**
+   * Give the current position in the file.
+   *
+   * @return The position.
+   * @throws IOException If the file exceeds the size of the format.
+   */
+  private int position() throws IOException{
+    long position = this.flushed + this.buffer.position();
+    if(position > Integer.MAX_VALUE){
+      throw new IOException("The scenario is too large for the binary format.");
+    }
+    return (int)position;
+  }
+
+  /**
+   * Write an unsigned varint (LEB128).
+   *
+   * @param value The value, positive.
+   * @throws IOException If the channel fails.
+   */
+  private void putVarint(int value) throws IOException{
+    ensure(5);
+    while((value & ~0x7F) != 0){
+      this.buffer.put((byte)((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    this.buffer.put((byte)value);
+  }
+
+  /**
+   * Write a fixed size int.
+   *
+   * @param value The value.
+   * @throws IOException If the channel fails.
+   */
+  private void putInt(int value) throws IOException{
+    ensure(4);
+    this.buffer.putInt(value);
+  }
+
+  /**
+   * Write an array of bytes.
+   *
+   * @param bytes The bytes.
+   * @throws IOException If the channel fails.
+   */
+  private void putBytes(byte[] bytes) throws IOException{
+    int written = 0;
+    while(written < bytes.length){
+      ensure(1);
+      int length = Math.min(this.buffer.remaining(), bytes.length - written);
+      this.buffer.put(bytes, written, length);
+      written += length;
+    }
+  }
+
+  /**
+   * Flush the buffer if it does not have room for the given number of bytes.
+   *
+   * @param needed The number of bytes needed.
+   * @throws IOException If the channel fails.
+   */
+  private void ensure(int needed) throws IOException{
+    if(this.buffer.remaining() < needed){
+      flush();
+    }
+  }
+
+  /**
+   * Write the content of the buffer into the channel and empty it.
+   *
+   * @throws IOException If the channel fails.
+   */
+  private void flush() throws IOException{
+    this.buffer.flip();
+    while(this.buffer.hasRemaining()){
+      this.flushed += this.channel.write(this.buffer, this.flushed);
+    }
+    this.buffer.clear();
+  }
+}
@@ -0,0 +1,384 @@
+package tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import scenario.CoreSource;
+import scenario.Scenario;
+import scenario.ScenarioElement;
+
+/**
+ * This class keeps the last scenarios read from their files, so that reading
+ * again a file that has not changed does not parse it again.
+ *
+ * A scenario is cached with the size and the last modification time of its
+ * file: as soon as one of them changes, the cached scenario is dropped and the
+ * file is read again. A file read lazily and the same file read whole are two
+ * different scenarios of the cache. The cache is bounded both by a number of
+ * scenarios and by an estimate of their memory size, which includes the
+ * content of the files the lazy scenarios keep to read their cores; the least
+ * recently used scenarios are dropped first.
+ *
+ * The cached scenarios are private to the cache: each one is a copy of the
+ * scenario read and each read gives a new copy, so that a scenario modified by
+ * its user never changes the cache.
+ *
+ * The cache can be used from several threads.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioCache {
+
+  /****************************************************************************/
+  /** Public Constants                                                       **/
+  /****************************************************************************/
+
+  /**
+   * The default maximal number of scenarios cached.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 16;
+
+  /**
+   * The default maximal estimated memory size of the scenarios cached, in bytes.
+   */
+  public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+
+
+  /****************************************************************************/
+  /** Loader Interface                                                       **/
+  /****************************************************************************/
+
+  /**
+   * The way to read a scenario file when it is not cached.
+   */
+  public interface Loader {
+
+    /**
+     * Read a scenario file.
+     *
+     * @param file The file to read.
+     * @return The scenario read.
+     * @throws RPGSCException If the file cannot be read.
+     */
+    Scenario load(File file) throws RPGSCException;
+  }
+
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * A cached scenario, with the state of its file when it has been read.
+   */
+  private static final class Entry {
+
+    /**
+     * The private copy of the scenario.
+     */
+    private final Scenario scenario;
+
+    /**
+     * The size of the file.
+     */
+    private final long size;
+
+    /**
+     * The last modification time of the file.
+     */
+    private final long lastModified;
+
+    /**
+     * The estimated memory size of the scenario.
+     */
+    private final long weight;
+
+    /**
+     * Constructor of an entry.
+     *
+     * @param scenario The private copy of the scenario.
+     * @param size The size of the file.
+     * @param lastModified The last modification time of the file.
+     */
+    private Entry(Scenario scenario, long size, long lastModified){
+      this.scenario = scenario;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.weight = weigh(scenario);
+    }
+  }
+
+  /**
+   * The end of the key of a scenario read lazily, after the path of its file.
+   */
+  private static final String LAZY_KEY = "#lazy";
+
+  /**
+   * The cached scenarios by path, followed by the lazy key for the scenarios
+   * read lazily, from the least to the most recently used.
+   */
+  private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * The maximal number of scenarios cached.
+   */
+  private final int maxEntries;
+
+  /**
+   * The maximal estimated memory size of the scenarios cached.
+   */
+  private final long maxWeight;
+
+  /**
+   * The estimated memory size of the scenarios cached.
+   */
+  private long weight;
+
+  /**
+   * The number of reads given by the cache.
+   */
+  private long hitCount;
+
+  /**
+   * The number of reads that needed to read the file.
+   */
+  private long missCount;
+
+  /**
+   * The number of scenarios dropped to keep the cache in its bounds.
+   */
+  private long evictionCount;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * The Default Constructor, with the default bounds.
+   */
+  public ScenarioCache(){
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT);
+  }
+
+  /**
+   * Constructor specifying the bounds of the cache.
+   *
+   * @param maxEntries The maximal number of scenarios cached.
+   * @param maxWeight The maximal estimated memory size of the scenarios
+   *                  cached, in bytes. A larger scenario is never cached.
+   */
+  public ScenarioCache(int maxEntries, long maxWeight){
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+  }
+
+
+  /****************************************************************************/
+  /** Cache Methods                                                          **/
+  /****************************************************************************/
+
+  /**
+   * Give the scenario stored in a file: a copy of the cached scenario if the
+   * file has not changed since it was read, otherwise the scenario read by the
+   * loader, which is then cached.
+   *
+   * @param file The file to read.
+   * @param lazy true if the loader reads the cores of the elements on demand,
+   *             false if it reads the whole scenario.
+   * @param loader The way to read the file.
+   * @return The scenario, which can be freely modified.
+   * @throws RPGSCException If the file cannot be read.
+   */
+  public Scenario load(File file, boolean lazy, Loader loader) throws RPGSCException{
+    String key = file.getAbsolutePath() + (lazy ? LAZY_KEY : "");
+    long size = file.length();
+    long lastModified = file.lastModified();
+    Entry cached;
+    synchronized(this){
+      cached = this.entries.get(key);
+      if(cached != null && cached.size == size && cached.lastModified == lastModified){
+        this.hitCount++;
+      }
+      else{
+        cached = null;
+        this.missCount++;
+      }
+    }
+    if(cached != null){
+      return new Scenario(cached.scenario);                                     // never modified, copied out of the lock
+    }
+    Scenario loaded = loader.load(file);
+    if(file.length() == size && file.lastModified() == lastModified){           // not changed while read
+      put(key, new Entry(new Scenario(loaded), size, lastModified));
+    }
+    return loaded;
+  }
+
+  /**
+   * Drop the scenarios of a file, read lazily or not, if cached.
+   *
+   * @param file The file.
+   */
+  public synchronized void invalidate(File file){
+    remove(file.getAbsolutePath());
+    remove(file.getAbsolutePath() + LAZY_KEY);
+  }
+
+  /**
+   * Drop all the scenarios cached. The counters are kept.
+   */
+  public synchronized void clear(){
+    this.entries.clear();
+    this.weight = 0;
+  }
+
+  /**
+   * Give the number of scenarios cached.
+   *
+   * @return The number of scenarios.
+   */
+  public synchronized int size(){
+    return this.entries.size();
+  }
+
+  /**
+   * Give the estimated memory size of the scenarios cached.
+   *
+   * @return The size, in bytes.
+   */
+  public synchronized long getWeight(){
+    return this.weight;
+  }
+
+  /**
+   * Give the number of reads given by the cache.
+   *
+   * @return The number of hits.
+   */
+  public synchronized long getHitCount(){
+    return this.hitCount;
+  }
+
+  /**
+   * Give the number of reads that needed to read the file.
+   *
+   * @return The number of misses.
+   */
+  public synchronized long getMissCount(){
+    return this.missCount;
+  }
+
+  /**
+   * Give the number of scenarios dropped to keep the cache in its bounds.
+   *
+   * @return The number of evictions.
+   */
+  public synchronized long getEvictionCount(){
+    return this.evictionCount;
+  }
+
+  /**
+   * Give the part of the reads given by the cache.
+   *
+   * @return The hit rate, in [0, 1], 0 if there was no read.
+   */
+  public synchronized double getHitRate(){
+    long reads = this.hitCount + this.missCount;
+    return (reads == 0 ? 0 : (double)this.hitCount / reads);
+  }
+
+  @Override
+  public synchronized String toString(){
+    return "ScenarioCache[" + this.entries.size() + " scenarios, " + this.weight
+            + " bytes, " + this.hitCount + " hits, " + this.missCount + " misses, "
+            + this.evictionCount + " evictions]";
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Cache a scenario, then drop the least recently used ones until the cache
+   * is in its bounds.
+   *
+   * @param key The key of the scenario.
+   * @param toCache The entry to cache.
+   */
+  private synchronized void put(String key, Entry toCache){
+    if(toCache.weight > this.maxWeight || this.maxEntries <= 0){
+      remove(key);
+      return;
+    }
+    Entry replaced = this.entries.put(key, toCache);
+    if(replaced != null){
+      this.weight -= replaced.weight;
+    }
+    this.weight += toCache.weight;
+    Iterator<Map.Entry<String,Entry>> eldest = this.entries.entrySet().iterator();
+    while(this.entries.size() > this.maxEntries || this.weight > this.maxWeight){
+      Entry evicted = eldest.next().getValue();
+      eldest.remove();
+      this.weight -= evicted.weight;
+      this.evictionCount++;
+    }
+  }
+
+  /**
+   * Drop a scenario, if cached.
+   *
+   * @param key The key of the scenario.
+   */
+  private synchronized void remove(String key){
+    Entry removed = this.entries.remove(key);
+    if(removed != null){
+      this.weight -= removed.weight;
+    }
+  }
+
+  /**
+   * Estimate the memory size of a scenario, from its number of elements and
+   * links, the length of its strings and the memory held by the sources of
+   * its cores not read yet, each source being counted once.
+   *
+   * @param scenario The scenario.
+   * @return The estimated size, in bytes.
+   */
+  private static long weigh(Scenario scenario){
+    long toReturn = 64 + (scenario.getTitle() == null ? 0 : 2L * scenario.getTitle().length());
+    Set<CoreSource> sources = Collections.newSetFromMap(new IdentityHashMap<>());
+    for(ScenarioElement element : scenario.getWholeScenario().values()){
+      toReturn += 96 + 2L * element.getElementId().length();                    // the element and its id
+      toReturn += 16 * (count(element.getNextElements()) + count(element.getPreviousElements()));
+      CoreSource source = element.getCoreSource();
+      if(source != null){                                                       // a lazy core is not read to be weighed
+        if(sources.add(source)){
+          toReturn += source.getRetainedSize();
+        }
+      }
+      else if(element.getCore() != null){
+        for(String core : element.getCore()){
+          toReturn += 48 + (core == null ? 0 : 2L * core.length());
+        }
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Give the size of a list that may be null.
+   *
+   * @param list The list.
+   * @return The size, 0 for null.
+   */
+  private static int count(ArrayList<String> list){
+    return (list == null ? 0 : list.size());
+  }
+}
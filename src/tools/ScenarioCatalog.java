@@ -0,0 +1,651 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class keeps a catalog of the scenarios saved in a folder: for each
+ * scenario file, the title read from the file, the format, the number of
+ * elements, the size and the last modification time of the file.
+ *
+ * The catalog is stored in the folder itself, in a small index file, so that
+ * it is available as soon as it is opened, without reading any scenario file.
+ * A refresh only reads the files whose size or modification time changed
+ * since the last time they were read. Once {@link #startWatching()} is called,
+ * a background thread follows the changes of the folder and updates the
+ * catalog file by file, and the change listeners are called from this thread.
+ *
+ * The catalog can be used from several threads.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioCatalog {
+
+  /****************************************************************************/
+  /** Format Constants                                                       **/
+  /****************************************************************************/
+
+  /**
+   * The name of the index file, in the folder of the scenarios.
+   */
+  static final String INDEX_NAME = ".catalog";
+
+  /**
+   * The magic number starting the index file: "RPGC".
+   */
+  private static final int MAGIC = 0x52504743;
+
+  /**
+   * The version of the index file format.
+   */
+  private static final int VERSION = 1;
+
+
+  /****************************************************************************/
+  /** Entry Class                                                            **/
+  /****************************************************************************/
+
+  /**
+   * The description of one scenario file of the catalog. An entry is immutable.
+   */
+  public static final class Entry {
+
+    /**
+     * The title of the scenario.
+     */
+    private final String title;
+
+    /**
+     * The scenario file.
+     */
+    private final File file;
+
+    /**
+     * The format of the file.
+     */
+    private final ScenarioFormat format;
+
+    /**
+     * The number of elements of the scenario, -1 if the file cannot be read.
+     */
+    private final int elementCount;
+
+    /**
+     * The size of the file, in bytes.
+     */
+    private final long size;
+
+    /**
+     * The last modification time of the file, in milliseconds.
+     */
+    private final long lastModified;
+
+    /**
+     * Constructor of an entry.
+     *
+     * @param title The title of the scenario.
+     * @param file The scenario file.
+     * @param format The format of the file.
+     * @param elementCount The number of elements, -1 if unknown.
+     * @param size The size of the file.
+     * @param lastModified The last modification time of the file.
+     */
+    Entry(String title, File file, ScenarioFormat format, int elementCount,
+            long size, long lastModified){
+      this.title = title;
+      this.file = file;
+      this.format = format;
+      this.elementCount = elementCount;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * Give the title of the scenario.
+     *
+     * @return The title.
+     */
+    public String getTitle(){
+      return this.title;
+    }
+
+    /**
+     * Give the scenario file.
+     *
+     * @return The file.
+     */
+    public File getFile(){
+      return this.file;
+    }
+
+    /**
+     * Give the format of the scenario file.
+     *
+     * @return The format.
+     */
+    public ScenarioFormat getFormat(){
+      return this.format;
+    }
+
+    /**
+     * Give the number of elements of the scenario.
+     *
+     * @return The number of elements, -1 if the file cannot be read.
+     */
+    public int getElementCount(){
+      return this.elementCount;
+    }
+
+    /**
+     * Give the size of the scenario file.
+     *
+     * @return The size, in bytes.
+     */
+    public long getSize(){
+      return this.size;
+    }
+
+    /**
+     * Give the last modification time of the scenario file.
+     *
+     * @return The time, in milliseconds since the epoch.
+     */
+    public long getLastModified(){
+      return this.lastModified;
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The folder of the scenarios.
+   */
+  private final File directory;
+
+  /**
+   * The index file of the catalog.
+   */
+  private final File indexFile;
+
+  /**
+   * The entries of the catalog, by file name.
+   */
+  private final HashMap<String,Entry> entries = new HashMap<>();
+
+  /**
+   * The sorted titles of the catalog, null when they have to be computed again.
+   */
+  private ArrayList<String> titles;
+
+  /**
+   * The entry giving the file of each title and format, see
+   * {@link #getEntry(String, ScenarioFormat)}, null when it has to be computed
+   * again with the titles.
+   */
+  private HashMap<String,Entry> owners;
+
+  /**
+   * The listeners called when the catalog changes.
+   */
+  private final CopyOnWriteArrayList<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * The service watching the folder, null if the folder is not watched.
+   */
+  private WatchService watcher;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Open the catalog of a folder. The catalog is read from its index file; if
+   * there is no valid index yet, the folder is read to build it.
+   *
+   * @param directory The folder of the scenarios.
+   */
+  public ScenarioCatalog(File directory){
+    this.directory = directory.getAbsoluteFile();
+    this.indexFile = new File(this.directory, INDEX_NAME);
+    if(!load()){
+      refresh();
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Catalog Methods                                                        **/
+  /****************************************************************************/
+
+  /**
+   * Give the titles of all the scenarios of the catalog, sorted, each title
+   * once even if the scenario is saved in several formats. A file holding the
+   * same title as another file, see {@link #getEntry(String, ScenarioFormat)},
+   * is listed under the title rebuilt from its name.
+   *
+   * @return A new list of the titles.
+   */
+  public synchronized ArrayList<String> getTitles(){
+    index();
+    return new ArrayList<>(this.titles);
+  }
+
+  /**
+   * Give all the entries of the catalog.
+   *
+   * @return A new list of the entries, sorted by file name.
+   */
+  public synchronized ArrayList<Entry> getEntries(){
+    ArrayList<String> names = new ArrayList<>(this.entries.keySet());
+    Collections.sort(names);
+    ArrayList<Entry> toReturn = new ArrayList<>(names.size());
+    for(String name : names){
+      toReturn.add(this.entries.get(name));
+    }
+    return toReturn;
+  }
+
+  /**
+   * Give the entry of a scenario saved in a given format. If several files of
+   * this format hold a scenario with this title, the file named after the
+   * title is given if there is one, the first file by name otherwise.
+   *
+   * @param title The title of the scenario.
+   * @param format The format of the file.
+   * @return The entry, null if the catalog has no such scenario.
+   */
+  public synchronized Entry getEntry(String title, ScenarioFormat format){
+    index();
+    return this.owners.get(format.getExtension() + '\n' + title);
+  }
+
+  /**
+   * Add a listener called each time the catalog changes. When the folder is
+   * watched, the listener is called from the watching thread.
+   *
+   * @param listener The listener.
+   */
+  public void addChangeListener(Runnable listener){
+    this.listeners.add(listener);
+  }
+
+  /**
+   * Remove a listener added by {@link #addChangeListener(Runnable)}.
+   *
+   * @param listener The listener.
+   */
+  public void removeChangeListener(Runnable listener){
+    this.listeners.remove(listener);
+  }
+
+  /**
+   * Bring the whole catalog up to date with the folder. Only the files whose
+   * size or modification time changed are read.
+   */
+  public void refresh(){
+    File[] files = this.directory.listFiles();
+    reconcile((files == null ? new File[0] : files), true);
+  }
+
+  /**
+   * Bring the entry of one file up to date, after it has been written or
+   * deleted.
+   *
+   * @param file The file.
+   */
+  public void update(File file){
+    reconcile(new File[]{file.getAbsoluteFile()}, false);
+  }
+
+
+  /****************************************************************************/
+  /** Watching Methods                                                       **/
+  /****************************************************************************/
+
+  /**
+   * Start following the changes of the folder in a background thread. The
+   * catalog is first refreshed in this thread, in case the folder changed
+   * while it was not watched. Does nothing if the folder is already watched.
+   *
+   * @throws RPGSCException If the folder cannot be watched.
+   */
+  public synchronized void startWatching() throws RPGSCException{
+    if(this.watcher != null){
+      return;
+    }
+    try{
+      this.watcher = this.directory.toPath().getFileSystem().newWatchService();
+      this.directory.toPath().register(this.watcher,
+              StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_DELETE,
+              StandardWatchEventKinds.ENTRY_MODIFY);
+    }catch(IOException ioe){
+      close();
+      throw new RPGSCException("Unable to watch the scenario folder "
+              + this.directory.getName() + ".", ioe);
+    }
+    final WatchService toWatch = this.watcher;
+    Thread thread = new Thread(() -> watch(toWatch), "Scenario catalog watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Tell whether the folder is followed by a background thread.
+   *
+   * @return true if the folder is watched.
+   */
+  public synchronized boolean isWatching(){
+    return this.watcher != null;
+  }
+
+  /**
+   * Stop following the changes of the folder.
+   */
+  public synchronized void close(){
+    if(this.watcher != null){
+      try{
+        this.watcher.close();
+      }catch(IOException ioe){
+        // the watching thread stops anyway
+      }
+      this.watcher = null;
+    }
+  }
+
+  /**
+   * The loop of the watching thread: refresh the entries of the files changed
+   * until the watch service is closed.
+   *
+   * @param toWatch The watch service.
+   */
+  private void watch(WatchService toWatch){
+    refresh();
+    try{
+      while(true){
+        WatchKey key = toWatch.take();
+        boolean overflow = false;
+        LinkedHashSet<File> changed = new LinkedHashSet<>();
+        for(WatchEvent<?> event : key.pollEvents()){
+          if(event.kind() == StandardWatchEventKinds.OVERFLOW){
+            overflow = true;                                                    // some events are lost
+          }
+          else{
+            changed.add(new File(this.directory, ((Path)event.context()).toString()));
+          }
+        }
+        if(overflow){
+          refresh();
+        }
+        else{
+          reconcile(changed.toArray(new File[changed.size()]), false);
+        }
+        if(!key.reset()){                                                       // the folder is gone
+          close();
+          return;
+        }
+      }
+    }catch(InterruptedException | ClosedWatchServiceException e){
+      // the catalog is closed
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Bring the entries of some files up to date, then save the index and call
+   * the listeners if anything changed. The files are read out of the lock.
+   *
+   * @param files The files to check.
+   * @param complete true if the files are all the files of the folder, so that
+   *                 the entries of the other files are removed.
+   */
+  private void reconcile(File[] files, boolean complete){
+    HashMap<String,Entry> changed = new HashMap<>();
+    HashSet<String> removed = new HashSet<>();
+    HashSet<String> seen = new HashSet<>();
+    for(File file : files){
+      ScenarioFormat format = ScenarioFormat.fromFileName(file.getName());
+      if(format == null){                                                       // backups, journals, index...
+        continue;
+      }
+      Entry known;
+      synchronized(this){
+        known = this.entries.get(file.getName());
+      }
+      if(!file.isFile()){
+        if(known != null){
+          removed.add(file.getName());
+        }
+        continue;
+      }
+      seen.add(file.getName());
+      long size = file.length();
+      long lastModified = file.lastModified();
+      if(known == null || known.getSize() != size || known.getLastModified() != lastModified){
+        changed.put(file.getName(), summarize(file, format, size, lastModified));
+      }
+    }
+    synchronized(this){
+      if(complete){
+        for(String name : this.entries.keySet()){
+          if(!seen.contains(name)){
+            removed.add(name);
+          }
+        }
+      }
+      if(changed.isEmpty() && removed.isEmpty()){
+        return;
+      }
+      this.entries.keySet().removeAll(removed);
+      this.entries.putAll(changed);
+      this.titles = null;
+      this.owners = null;
+      save();
+    }
+    for(Runnable listener : this.listeners){
+      listener.run();
+    }
+  }
+
+  /**
+   * Compute the titles and the owner of each title and format, if they are
+   * not up to date.
+   */
+  private synchronized void index(){
+    if(this.titles != null){
+      return;
+    }
+    this.owners = new HashMap<>();
+    ArrayList<Entry> all = getEntries();
+    for(Entry entry : all){                                                     // first the files named after their title
+      if(entry.getFile().getName().equals(fileNameOf(entry.getTitle()) 
+              + entry.getFormat().getExtension())){
+        this.owners.put(entry.getFormat().getExtension() + '\n' + entry.getTitle(), entry);
+      }
+    }
+    for(Entry entry : all){                                                     // then the first file by name
+      this.owners.putIfAbsent(entry.getFormat().getExtension() + '\n' + entry.getTitle(), entry);
+    }
+    LinkedHashSet<String> unique = new LinkedHashSet<>();
+    for(Entry entry : all){
+      if(this.owners.get(entry.getFormat().getExtension() + '\n' + entry.getTitle()) == entry){
+        unique.add(entry.getTitle());
+      }
+      else{
+        unique.add(titleFromFileName(entry.getFile().getName()));
+      }
+    }
+    this.titles = new ArrayList<>(unique);
+    Collections.sort(this.titles, String.CASE_INSENSITIVE_ORDER);
+  }
+
+  /**
+   * Read the title and the number of elements of a scenario file. A file that
+   * cannot be read, e.g. because it is being written, is named after the file
+   * name until it is read again.
+   *
+   * @param file The file.
+   * @param format The format of the file.
+   * @param size The size of the file.
+   * @param lastModified The last modification time of the file.
+   * @return The entry of the file.
+   */
+  private Entry summarize(File file, ScenarioFormat format, long size, long lastModified){
+    String title;
+    int elementCount;
+    try{
+      if(format == ScenarioFormat.BINARY){
+        ScenarioBinaryReader reader = new ScenarioBinaryReader(file);
+        title = reader.getTitle();
+        elementCount = reader.getElementCount();
+      }
+      else{
+        ScenarioXmlReader reader = new ScenarioXmlReader();
+        title = reader.readSummary(file);
+        elementCount = reader.getElementCount();
+      }
+    }catch(RPGSCException e){
+      title = null;
+      elementCount = -1;
+    }
+    if(title == null || title.trim().isEmpty()){
+      title = titleFromFileName(file.getName());
+    }
+    return new Entry(title, file, format, elementCount, size, lastModified);
+  }
+
+  /**
+   * Rebuild a title from a file name: the extension is removed and the name is
+   * cut on upper cases.
+   *
+   * @param fileName The name of the file.
+   * @return The title.
+   */
+  static String titleFromFileName(String fileName){
+    String s = fileName.substring(0,fileName.lastIndexOf('.'));                 // remove the file extension
+    String[] parts = s.split("(?=\\p{Upper})");                                 // cut the string on upper case
+    String notRawName = "";
+    for(int i = 0; i < parts.length ; ++i){
+      notRawName += parts[i] + (i == (parts.length - 1) ? "" : " ");            // add each part to the string to return
+    }
+    return notRawName;
+  }
+
+  /**
+   * Rebuild the name of the file of a scenario from its title, without its
+   * extension: each word of the title starts with an upper case and the white
+   * spaces are removed.
+   *
+   * @param title The title of the scenario.
+   * @return The name of the file.
+   */
+  static String fileNameOf(String title){
+    String[] part = title.split(" ");                                           // remove all white space in the scenario name
+    String rawFilename = "";
+    for(int i = 0 ; i < part.length ; ++i){                                     // for each word in the scenario name
+      if(part[i].isEmpty()){
+        continue;
+      }
+      rawFilename += (part[i].substring(0,1).toUpperCase() 
+                  + part[i].substring(1));                                      // change the first letter to upper case
+                                                                                // and concatene it
+    }
+    return rawFilename;
+  }
+
+  /**
+   * Read the index file into the catalog. Only the entries of the files still
+   * present are kept; whether they are up to date is checked by a refresh.
+   *
+   * @return true if the index has been read, false if there is no valid index.
+   */
+  private synchronized boolean load(){
+    if(!this.indexFile.isFile()){
+      return false;
+    }
+    try(DataInputStream input = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(this.indexFile)))){
+      if(input.readInt() != MAGIC || input.readInt() != VERSION){
+        return false;
+      }
+      int count = input.readInt();
+      HashMap<String,Entry> read = new HashMap<>();
+      for(int i = 0 ; i < count ; ++i){
+        String name = input.readUTF();
+        String title = input.readUTF();
+        int elementCount = input.readInt();
+        long size = input.readLong();
+        long lastModified = input.readLong();
+        ScenarioFormat format = ScenarioFormat.fromFileName(name);
+        if(format != null){
+          read.put(name, new Entry(title, new File(this.directory, name), format,
+                  elementCount, size, lastModified));
+        }
+      }
+      this.entries.clear();
+      this.entries.putAll(read);
+      this.titles = null;
+      this.owners = null;
+      return true;
+    }catch(IOException ioe){
+      return false;                                                             // rebuilt from the folder
+    }
+  }
+
+  /**
+   * Write the catalog into its index file. The index is written aside then
+   * moved, so that it is never seen half written. The index is only a cache:
+   * if it cannot be written, it is rebuilt the next time.
+   */
+  private synchronized void save(){
+    File temporary = new File(this.directory, INDEX_NAME + ".tmp");
+    try{
+      try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+              new FileOutputStream(temporary)))){
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(this.entries.size());
+        for(Entry entry : this.entries.values()){
+          output.writeUTF(entry.getFile().getName());
+          output.writeUTF(entry.getTitle());
+          output.writeInt(entry.getElementCount());
+          output.writeLong(entry.getSize());
+          output.writeLong(entry.getLastModified());
+        }
+      }
+      Files.move(temporary.toPath(), this.indexFile.toPath(),
+              StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }catch(IOException ioe){
+      temporary.delete();
+      this.indexFile.delete();                                                  // never keep a stale index
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package tools;
+
+/**
+ * The formats a scenario can be saved in. Each format has its own file
+ * extension in the save folder; a scenario may be saved in both.
+ *
+ * @author Nicolas Brax
+ */
+public enum ScenarioFormat {
+
+  /**
+   * The XML format, readable and editable by hand. See
+   * {@link ScenarioXmlReader} and {@link ScenarioXmlWriter}.
+   */
+  XML(".xml"),
+
+  /**
+   * The compact binary format, opened without any parsing. See
+   * {@link ScenarioBinaryReader} and {@link ScenarioBinaryWriter}.
+   */
+  BINARY(".rpgs");
+
+  /**
+   * The file extension of the format, dot included.
+   */
+  private final String extension;
+
+  /**
+   * Constructor of a format.
+   *
+   * @param extension The file extension of the format, dot included.
+   */
+  private ScenarioFormat(String extension){
+    this.extension = extension;
+  }
+
+  /**
+   * Give the file extension of the format, dot included.
+   *
+   * @return The file extension.
+   */
+  public String getExtension(){
+    return this.extension;
+  }
+
+  /**
+   * Give the format of a file after its name.
+   *
+   * @param fileName The name of the file.
+   * @return The format, null if the extension is not known.
+   */
+  public static ScenarioFormat fromFileName(String fileName){
+    for(ScenarioFormat format : values()){
+      if(fileName.endsWith(format.extension)){
+        return format;
+      }
+    }
+    return null;
+  }
+}
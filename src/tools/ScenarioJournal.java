@@ -0,0 +1,940 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import scenario.Scenario;
+import scenario.ScenarioElement;
+import scenario.ScenarioListener;
+
+/**
+ * This class keeps an append-only journal of all the modifications made to a
+ * scenario saved as an XML file (the snapshot), so that saving a small change
+ * to a huge scenario is a few bytes append instead of a whole rewrite.
+ *
+ * Each modification is appended, as soon as it is made, to the current
+ * segment of the journal: a file named after the snapshot followed by
+ * ".journal." and the generation of the segment. Each record is framed with
+ * its length and a CRC so that a record torn by a crash is detected and
+ * ignored. {@link #sync()} forces the journal to the disk.
+ *
+ * From time to time the journal is compacted: a new segment is started and,
+ * in the background, the snapshot and the closed segments are merged into a
+ * new snapshot which records the generation of the last segment merged (see
+ * {@link ScenarioXmlWriter}). The new snapshot replaces the old one
+ * atomically before the merged segments are deleted, so a crash at any time
+ * loses nothing and never replays a segment twice.
+ *
+ * A journal is used from one thread only, as the scenario it follows. The
+ * only exception is a full rewrite of its snapshot, from any thread: the
+ * journal is then detached, see {@link #deleteSegments(File)}.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioJournal implements ScenarioListener {
+
+  /****************************************************************************/
+  /** Format Constants                                                       **/
+  /****************************************************************************/
+
+  /**
+   * The part of the name of a segment between the snapshot name and the
+   * generation of the segment.
+   */
+  static final String SEGMENT_SUFFIX = ".journal.";
+
+  /**
+   * The magic number starting a segment: "RPGJ".
+   */
+  private static final int MAGIC = 0x5250474A;
+
+  /**
+   * The record types.
+   */
+  private static final byte TITLE = 1;
+  private static final byte PUT_ELEMENT = 2;
+  private static final byte REMOVE_ELEMENT = 3;
+  private static final byte ADD_LINK = 4;
+  private static final byte REMOVE_LINK = 5;
+  private static final byte CLEAR_LINKS = 6;
+  private static final byte SET_CORE = 7;
+
+  /**
+   * The minimal size of the current segment, in bytes, before a compaction is
+   * started on a sync.
+   */
+  private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+
+  /**
+   * The single thread compacting the journals in the background. Being a
+   * single thread, the compactions of a snapshot never overlap.
+   */
+  private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "Scenario journal compaction");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * The journals open, not closed yet, so that a rewrite of their snapshot
+   * can detach them.
+   */
+  private static final List<ScenarioJournal> OPEN = new ArrayList<>();
+
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The snapshot file the journal is applied on.
+   */
+  private final File snapshot;
+
+  /**
+   * The scenario followed by the journal.
+   */
+  private final Scenario scenario;
+
+  /**
+   * The channel of the current segment.
+   */
+  private FileChannel channel;
+
+  /**
+   * The generation of the current segment.
+   */
+  private long generation;
+
+  /**
+   * The size of the current segment at the last sync.
+   */
+  private long syncedSize;
+
+  /**
+   * The buffer used to encode a record, reused for all the records.
+   */
+  private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+
+  /**
+   * The encoder of a record, writing into recordBytes.
+   */
+  private final DataOutputStream record = new DataOutputStream(this.recordBytes);
+
+  /**
+   * The first error met while appending a record, reported by the next sync.
+   */
+  private RPGSCException failure;
+
+  /**
+   * The last compaction started, null if none or once its end is reported.
+   */
+  private Future<?> compaction;
+
+  /**
+   * True once the snapshot has been rewritten whole and the segments deleted:
+   * nothing is journaled anymore.
+   */
+  private boolean detached;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Build a journal following a scenario, and start its first segment.
+   *
+   * @param snapshot The snapshot file.
+   * @param scenario The scenario, as stored by the snapshot and its journal.
+   * @param generation The generation of the first segment.
+   * @throws RPGSCException If the segment cannot be created.
+   */
+  private ScenarioJournal(File snapshot, Scenario scenario, long generation) throws RPGSCException{
+    this.snapshot = snapshot;
+    this.scenario = scenario;
+    startSegment(generation);
+    scenario.addScenarioListener(this);
+    synchronized(OPEN){
+      OPEN.add(this);
+    }
+  }
+
+  /**
+   * Open the journal of a snapshot file: the scenario is recovered from the
+   * snapshot and its journal, then all its modifications are journaled in a
+   * new segment.
+   *
+   * @param snapshot The snapshot file, which must exist.
+   * @return The journal, see {@link #getScenario()}.
+   * @throws RPGSCException If the snapshot or the journal cannot be read, or
+   *                        the new segment cannot be created.
+   */
+  public static ScenarioJournal open(File snapshot) throws RPGSCException{
+    return open(snapshot, new ScenarioXmlReader()::read);
+  }
+
+  /**
+   * Open the journal of a snapshot file, as {@link #open(File)}, reading the
+   * snapshot in a given way, e.g. through a cache.
+   *
+   * @param snapshot The snapshot file, which must exist.
+   * @param loader The way to read the snapshot.
+   * @return The journal, see {@link #getScenario()}.
+   * @throws RPGSCException If the snapshot or the journal cannot be read, or
+   *                        the new segment cannot be created.
+   */
+  public static ScenarioJournal open(File snapshot, ScenarioCache.Loader loader) throws RPGSCException{
+    Scenario recovered = recover(snapshot, loader);
+    long merged = new ScenarioXmlReader().readJournalGeneration(snapshot);
+    return new ScenarioJournal(snapshot, recovered, nextGeneration(snapshot, merged));
+  }
+
+  /**
+   * Start the journal of a scenario that has just been fully written into its
+   * snapshot file: all its following modifications are journaled.
+   *
+   * @param snapshot The snapshot file, which must hold the scenario.
+   * @param scenario The scenario to follow.
+   * @return The journal.
+   * @throws RPGSCException If the segment cannot be created.
+   */
+  public static ScenarioJournal attach(File snapshot, Scenario scenario) throws RPGSCException{
+    awaitCompactions();
+    return new ScenarioJournal(snapshot, scenario, nextGeneration(snapshot, -1));
+  }
+
+
+  /****************************************************************************/
+  /** Journal Methods                                                        **/
+  /****************************************************************************/
+
+  /**
+   * Give the scenario followed by the journal.
+   *
+   * @return The scenario.
+   */
+  public Scenario getScenario(){
+    return this.scenario;
+  }
+
+  /**
+   * Give the snapshot file the journal is applied on.
+   *
+   * @return The snapshot file.
+   */
+  public File getSnapshot(){
+    return this.snapshot;
+  }
+
+  /**
+   * Tell whether the journal has been detached from its snapshot, the
+   * snapshot having been rewritten whole, see {@link #deleteSegments(File)}.
+   * The scenario has then to be saved whole again to be journaled.
+   *
+   * @return true if the journal is detached.
+   */
+  public synchronized boolean isDetached(){
+    return this.detached;
+  }
+
+  /**
+   * Force all the modifications journaled so far to the disk. A compaction is
+   * started in the background if the current segment has grown large enough.
+   *
+   * @throws RPGSCException If a modification could not be journaled, the
+   *                        journal cannot be forced to the disk or it has
+   *                        been detached.
+   */
+  public synchronized void sync() throws RPGSCException{
+    checkFailure();
+    try{
+      this.channel.force(false);
+      this.syncedSize = this.channel.size();
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to save the journal of "
+              + this.snapshot.getName() + ".", ioe);
+    }
+    if(this.syncedSize > Math.max(MIN_COMPACTION_SIZE, this.snapshot.length() / 2)){
+      compact();
+    }
+  }
+
+  /**
+   * Forget the modifications journaled since the last sync. The scenario
+   * itself is not modified: it is up to the caller to drop it. Nothing is
+   * done on a detached journal.
+   *
+   * @throws RPGSCException If the journal cannot be truncated.
+   */
+  public synchronized void discard() throws RPGSCException{
+    if(this.detached){
+      return;
+    }
+    try{
+      this.channel.truncate(this.syncedSize);
+      this.channel.force(false);
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to discard the journal of "
+              + this.snapshot.getName() + ".", ioe);
+    }
+  }
+
+  /**
+   * Start a compaction: the following modifications go into a new segment and
+   * the previous ones, synced or not, are merged into the snapshot in the
+   * background.
+   *
+   * The eventual error of the compaction is thrown by the next sync, compact
+   * or close once the compaction is over.
+   *
+   * @return The background compaction, whose get method throws the eventual
+   *         error of the compaction.
+   * @throws RPGSCException If the new segment cannot be created, the previous
+   *                        compaction failed or the journal is detached.
+   */
+  public synchronized Future<?> compact() throws RPGSCException{
+    checkFailure();
+    final long upTo = this.generation;
+    closeChannel();
+    startSegment(upTo + 1);
+    final File toCompact = this.snapshot;
+    this.compaction = COMPACTOR.submit(() -> {
+      merge(toCompact, upTo);
+      return null;
+    });
+    return this.compaction;
+  }
+
+  /**
+   * Stop following the scenario and close the current segment. The
+   * modifications not synced yet are kept, as after a crash. The last
+   * compaction started is waited for. Closing a detached journal only stops
+   * following the scenario.
+   *
+   * @throws RPGSCException If a modification could not be journaled, or the
+   *                        last compaction failed.
+   */
+  public synchronized void close() throws RPGSCException{
+    synchronized(OPEN){
+      OPEN.remove(this);
+    }
+    this.scenario.removeScenarioListener(this);
+    if(this.detached){
+      return;
+    }
+    closeChannel();
+    if(this.compaction != null){
+      try{
+        this.compaction.get();
+      }catch(InterruptedException ie){
+        Thread.currentThread().interrupt();
+        throw new RPGSCException("Interrupted while waiting for the compaction of the journal of "
+                + this.snapshot.getName() + ".", ie);
+      }catch(ExecutionException ee){
+        // reported below
+      }
+    }
+    checkFailure();
+  }
+
+
+  /****************************************************************************/
+  /** Recovery Methods                                                       **/
+  /****************************************************************************/
+
+  /**
+   * Read a scenario from its snapshot file and replay its journal, if any.
+   *
+   * @param snapshot The snapshot file.
+   * @return The scenario.
+   * @throws RPGSCException If the snapshot or the journal cannot be read.
+   */
+  public static Scenario recover(File snapshot) throws RPGSCException{
+    return recover(snapshot, new ScenarioXmlReader()::read);
+  }
+
+  /**
+   * Delete all the segments of the journal of a snapshot. This is to be done
+   * when the snapshot is fully rewritten, after {@link #awaitCompactions()}.
+   *
+   * The journals still open on the snapshot are detached first: their current
+   * segment is closed, they do not journal anything anymore, and their next
+   * sync throws an {@link RPGSCException}, see {@link #isDetached()}.
+   *
+   * @param snapshot The snapshot file.
+   */
+  public static void deleteSegments(File snapshot){
+    File rewritten = snapshot.getAbsoluteFile();
+    ArrayList<ScenarioJournal> open;
+    synchronized(OPEN){
+      open = new ArrayList<>(OPEN);
+    }
+    for(ScenarioJournal journal : open){                                        // not under the lock, see close
+      if(journal.snapshot.getAbsoluteFile().equals(rewritten)){
+        journal.detach();
+      }
+    }
+    for(File segment : segments(snapshot).values()){
+      segment.delete();
+    }
+  }
+
+  /**
+   * Give the last modification time of a scenario saved as a snapshot and its
+   * journal: the last time the snapshot or one of its segments was written.
+   *
+   * @param snapshot The snapshot file.
+   * @return The last modification time, 0 if the snapshot does not exist.
+   */
+  public static long lastModified(File snapshot){
+    long toReturn = snapshot.lastModified();
+    for(File segment : segments(snapshot).values()){
+      toReturn = Math.max(toReturn, segment.lastModified());
+    }
+    return toReturn;
+  }
+
+  /**
+   * Wait for the end of the compactions started so far, so that the snapshot
+   * files and their journals can be read or written safely.
+   *
+   * @throws RPGSCException If the wait is interrupted.
+   */
+  public static void awaitCompactions() throws RPGSCException{
+    try{
+      COMPACTOR.submit(() -> { }).get();
+    }catch(InterruptedException ie){
+      Thread.currentThread().interrupt();
+      throw new RPGSCException("Interrupted while waiting for the journal compactions.", ie);
+    }catch(ExecutionException ee){
+      // an empty task does not fail
+    }
+  }
+
+  /**
+   * Read a scenario from its snapshot file and replay the segments of its
+   * journal that have not been merged into the snapshot yet. The segments
+   * already merged, left by an interrupted compaction, are deleted. The
+   * snapshot is read in a given way, e.g. through a cache; the 
+   * journal is always replayed.
+   *
+   * @param snapshot The snapshot file.
+   * @param loader The way to read the snapshot.
+   * @return The scenario.
+   * @throws RPGSCException If the snapshot or the journal cannot be read.
+   */
+  public static Scenario recover(File snapshot, ScenarioCache.Loader loader) throws RPGSCException{
+    awaitCompactions();
+    Scenario toReturn = loader.load(snapshot);
+    long merged = new ScenarioXmlReader().readJournalGeneration(snapshot);      // only the root tag is read
+    for(Map.Entry<Long,File> segment : segments(snapshot).entrySet()){
+      if(segment.getKey() <= merged){
+        segment.getValue().delete();
+      }
+      else{
+        replay(segment.getValue(), toReturn);
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Merge the segments up to a generation into the snapshot, then delete them.
+   *
+   * @param snapshot The snapshot file.
+   * @param upTo The generation of the last segment to merge.
+   * @throws RPGSCException If a file cannot be read or written.
+   */
+  private static void merge(File snapshot, long upTo) throws RPGSCException{
+    ScenarioXmlReader reader = new ScenarioXmlReader();
+    Scenario merged = reader.read(snapshot);
+    long alreadyMerged = reader.getJournalGeneration();
+    TreeMap<Long,File> segments = segments(snapshot);
+    for(Map.Entry<Long,File> segment : segments.headMap(upTo, true).entrySet()){
+      if(segment.getKey() > alreadyMerged){
+        replay(segment.getValue(), merged);
+      }
+    }
+    File temporary = new File(snapshot.getPath() + ".tmp");
+    new ScenarioXmlWriter(true, false, upTo).write(merged, temporary);
+    try{
+      try(FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)){
+        channel.force(true);
+      }
+      Files.move(temporary.toPath(), snapshot.toPath(),
+              StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to compact the journal of "
+              + snapshot.getName() + ".", ioe);
+    }
+    for(File segment : segments.headMap(upTo, true).values()){
+      segment.delete();
+    }
+  }
+
+  /**
+   * Apply all the records of a segment to a scenario. The reading stops at the
+   * first incomplete or corrupted record, as left by a crash.
+   *
+   * @param segment The segment file.
+   * @param toUpdate The scenario to update.
+   * @throws RPGSCException If the segment cannot be read.
+   */
+  private static void replay(File segment, Scenario toUpdate) throws RPGSCException{
+    try(InputStream stream = Files.newInputStream(segment.toPath());
+        DataInputStream input = new DataInputStream(new BufferedInputStream(stream))){
+      if(input.readInt() != MAGIC){
+        throw new RPGSCException("Invalid journal segment " + segment.getName() + ".");
+      }
+      CRC32 crc = new CRC32();
+      while(true){
+        int length;
+        long expected;
+        byte[] payload;
+        try{
+          length = input.readInt();
+          expected = input.readInt() & 0xFFFFFFFFL;
+          if(length <= 0){
+            return;
+          }
+          payload = new byte[length];
+          input.readFully(payload);
+        }catch(EOFException eof){
+          return;                                                               // end of the segment, or torn record
+        }
+        crc.reset();
+        crc.update(payload, 0, length);
+        if(crc.getValue() != expected){
+          return;                                                               // torn record
+        }
+        apply(new DataInputStream(new ByteArrayInputStream(payload)), toUpdate);
+      }
+    }catch(EOFException eof){
+      throw new RPGSCException("Invalid journal segment " + segment.getName() + ".", eof);
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to read the journal segment "
+              + segment.getName() + ".", ioe);
+    }
+  }
+
+  /**
+   * Apply one record to a scenario.
+   *
+   * @param input The content of the record.
+   * @param toUpdate The scenario to update.
+   * @throws IOException If the record is malformed.
+   */
+  private static void apply(DataInputStream input, Scenario toUpdate) throws IOException{
+    byte type = input.readByte();
+    if(type == TITLE){
+      toUpdate.setTitle(readString(input));
+      return;
+    }
+    String elementId = readString(input);
+    ScenarioElement element = toUpdate.getElement(elementId);
+    switch(type){
+      case PUT_ELEMENT:
+        toUpdate.addElement(elementId, readStrings(input), true);
+        break;
+      case REMOVE_ELEMENT:
+        toUpdate.removeElement(elementId);
+        break;
+      case ADD_LINK:
+      case REMOVE_LINK:
+      case CLEAR_LINKS:
+        boolean next = input.readBoolean();
+        String linkedId = (type == CLEAR_LINKS ? null : readString(input));
+        if(element == null){
+          break;
+        }
+        if(type == ADD_LINK){
+          if(next){
+            element.addNextElement(linkedId);
+          }
+          else{
+            element.addPreviousElement(linkedId);
+          }
+        }
+        else{
+          ArrayList<String> links = (next ? element.getNextElements() : element.getPreviousElements());
+          if(links == null || type == CLEAR_LINKS){
+            links = new ArrayList<>();
+          }
+          links.remove(linkedId);
+          if(next){
+            element.setNextElements(links);
+          }
+          else{
+            element.setPreviousElements(links);
+          }
+        }
+        break;
+      case SET_CORE:
+        ArrayList<String> core = readStrings(input);
+        if(element != null){
+          element.setCore(core);
+        }
+        break;
+      default:
+        throw new IOException("Unknown journal record " + type + ".");
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Listener Methods                                                       **/
+  /****************************************************************************/
+
+  @Override
+  public void titleChanged(String title){
+    try{
+      startRecord(TITLE);
+      writeString(title);
+      endRecord();
+    }catch(IOException ioe){
+      fail(ioe);
+    }
+  }
+
+  @Override
+  public void elementPut(String elementId, ArrayList<String> core){
+    try{
+      startRecord(PUT_ELEMENT);
+      writeString(elementId);
+      writeStrings(core);
+      endRecord();
+    }catch(IOException ioe){
+      fail(ioe);
+    }
+  }
+
+  @Override
+  public void elementRemoved(String elementId){
+    try{
+      startRecord(REMOVE_ELEMENT);
+      writeString(elementId);
+      endRecord();
+    }catch(IOException ioe){
+      fail(ioe);
+    }
+  }
+
+  @Override
+  public void linkAdded(String elementId, String linkedId, boolean next){
+    linkRecord(ADD_LINK, elementId, linkedId, next);
+  }
+
+  @Override
+  public void linkRemoved(String elementId, String linkedId, boolean next){
+    linkRecord(REMOVE_LINK, elementId, linkedId, next);
+  }
+
+  @Override
+  public void linksCleared(String elementId, boolean next){
+    try{
+      startRecord(CLEAR_LINKS);
+      writeString(elementId);
+      this.record.writeBoolean(next);
+      endRecord();
+    }catch(IOException ioe){
+      fail(ioe);
+    }
+  }
+
+  @Override
+  public void coreChanged(String elementId, ArrayList<String> core){
+    try{
+      startRecord(SET_CORE);
+      writeString(elementId);
+      writeStrings(core);
+      endRecord();
+    }catch(IOException ioe){
+      fail(ioe);
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Give the segments of the journal of a snapshot, by generation.
+   *
+   * @param snapshot The snapshot file.
+   * @return The segments sorted by generation.
+   */
+  private static TreeMap<Long,File> segments(File snapshot){
+    TreeMap<Long,File> toReturn = new TreeMap<>();
+    String prefix = snapshot.getName() + SEGMENT_SUFFIX;
+    File[] files = snapshot.getAbsoluteFile().getParentFile().listFiles();
+    if(files == null){
+      return toReturn;
+    }
+    for(File file : files){
+      if(file.getName().startsWith(prefix)){
+        try{
+          toReturn.put(Long.parseLong(file.getName().substring(prefix.length())), file);
+        }catch(NumberFormatException nfe){
+          // not a segment
+        }
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Give the generation of the next segment of a snapshot, after all the
+   * existing ones.
+   *
+   * @param snapshot The snapshot file.
+   * @param merged The generation of the last segment merged into the snapshot.
+   * @return The generation of the next segment.
+   */
+  private static long nextGeneration(File snapshot, long merged){
+    TreeMap<Long,File> segments = segments(snapshot);
+    return Math.max(merged, (segments.isEmpty() ? -1 : segments.lastKey())) + 1;
+  }
+
+  /**
+   * Create a new segment and make it the current one.
+   *
+   * @param newGeneration The generation of the segment.
+   * @throws RPGSCException If the segment cannot be created.
+   */
+  private void startSegment(long newGeneration) throws RPGSCException{
+    File segment = new File(this.snapshot.getPath() + SEGMENT_SUFFIX + newGeneration);
+    try{
+      this.channel = FileChannel.open(segment.toPath(), StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.WRITE);
+      ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+      header.flip();
+      while(header.hasRemaining()){
+        this.channel.write(header);
+      }
+      this.channel.force(true);
+      this.generation = newGeneration;
+      this.syncedSize = this.channel.size();
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to create the journal segment "
+              + segment.getName() + ".", ioe);
+    }
+  }
+
+  /**
+   * Detach the journal from its snapshot, rewritten whole: the current segment
+   * is closed and nothing is journaled anymore.
+   */
+  private synchronized void detach(){
+    if(!this.detached){
+      this.detached = true;
+      try{
+        this.channel.close();
+      }catch(IOException ioe){
+        // the segment is deleted anyway
+      }
+    }
+  }
+
+  /**
+   * Close the channel of the current segment.
+   */
+  private void closeChannel(){
+    try{
+      this.channel.close();
+    }catch(IOException ioe){
+      fail(ioe);
+    }
+  }
+
+  /**
+   * Append a record about a link.
+   *
+   * @param type The type of the record.
+   * @param elementId The id of the element modified.
+   * @param linkedId The id of the previous or next element.
+   * @param next True for a next element, false for a previous one.
+   */
+  private void linkRecord(byte type, String elementId, String linkedId, boolean next){
+    try{
+      startRecord(type);
+      writeString(elementId);
+      this.record.writeBoolean(next);
+      writeString(linkedId);
+      endRecord();
+    }catch(IOException ioe){
+      fail(ioe);
+    }
+  }
+
+  /**
+   * Start the encoding of a record.
+   *
+   * @param type The type of the record.
+   * @throws IOException Never, the record is encoded in memory.
+   */
+  private void startRecord(byte type) throws IOException{
+    this.recordBytes.reset();
+    this.record.writeByte(type);
+  }
+
+  /**
+   * Append the record encoded to the current segment, framed with its length
+   * and its CRC, in one write so that it survives a crash of the application.
+   *
+   * @throws IOException If the segment cannot be written.
+   */
+  private synchronized void endRecord() throws IOException{
+    if(this.failure != null || this.detached){
+      return;                                                                   // the journal is broken, see sync
+    }
+    byte[] payload = this.recordBytes.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(payload, 0, payload.length);
+    ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+    frame.putInt(payload.length);
+    frame.putInt((int)crc.getValue());
+    frame.put(payload);
+    frame.flip();
+    while(frame.hasRemaining()){
+      this.channel.write(frame);
+    }
+  }
+
+  /**
+   * Encode a string of a record.
+   *
+   * @param s The string, may be null.
+   * @throws IOException Never, the record is encoded in memory.
+   */
+  private void writeString(String s) throws IOException{
+    if(s == null){
+      this.record.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    this.record.writeInt(bytes.length);
+    this.record.write(bytes);
+  }
+
+  /**
+   * Encode a list of strings of a record.
+   *
+   * @param list The strings, may be null.
+   * @throws IOException Never, the record is encoded in memory.
+   */
+  private void writeStrings(ArrayList<String> list) throws IOException{
+    if(list == null){
+      this.record.writeInt(-1);
+      return;
+    }
+    this.record.writeInt(list.size());
+    for(String s : list){
+      writeString(s);
+    }
+  }
+
+  /**
+   * Decode a string of a record.
+   *
+   * @param input The content of the record.
+   * @return The string, may be null.
+   * @throws IOException If the record is malformed.
+   */
+  private static String readString(DataInputStream input) throws IOException{
+    int length = input.readInt();
+    if(length < 0){
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Decode a list of strings of a record.
+   *
+   * @param input The content of the record.
+   * @return A new list of the strings, null if the list was null.
+   * @throws IOException If the record is malformed.
+   */
+  private static ArrayList<String> readStrings(DataInputStream input) throws IOException{
+    int count = input.readInt();
+    if(count < 0){
+      return null;
+    }
+    ArrayList<String> toReturn = new ArrayList<>(count);
+    for(int i = 0 ; i < count ; ++i){
+      toReturn.add(readString(input));
+    }
+    return toReturn;
+  }
+
+  /**
+   * Record the first error met while appending, to be reported by the next
+   * sync. The following records are not appended anymore.
+   *
+   * @param ioe The error.
+   */
+  private synchronized void fail(IOException ioe){
+    if(this.failure == null){
+      this.failure = new RPGSCException("Unable to journal a modification of "
+              + this.snapshot.getName() + ".", ioe);
+    }
+  }
+
+  /**
+   * Throw the error met while appending, if any, or the error of the last
+   * compaction if it is over. The error of a compaction is thrown once: the
+   * segments it failed to merge are merged by the next one. A detached
+   * journal always throws.
+   *
+   * @throws RPGSCException The error met.
+   */
+  private synchronized void checkFailure() throws RPGSCException{
+    if(this.failure != null){
+      throw this.failure;
+    }
+    if(this.detached){
+      throw new RPGSCException("The scenario file " + this.snapshot.getName()
+              + " has been rewritten: its journal is closed.");
+    }
+    if(this.compaction != null && this.compaction.isDone()){
+      Future<?> done = this.compaction;
+      this.compaction = null;
+      try{
+        done.get();
+      }catch(InterruptedException ie){
+        Thread.currentThread().interrupt();                                     // cannot happen, the compaction is over
+      }catch(ExecutionException ee){
+        if(ee.getCause() instanceof RPGSCException){
+          throw (RPGSCException)ee.getCause();
+        }
+        throw new RPGSCException("Unable to compact the journal of "
+                + this.snapshot.getName() + ".", ee.getCause());
+      }
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the positions of the nodes of the graph of a scenario in a
+ * file next to the scenario file, so that the graph of a scenario opened again
+ * is shown at once instead of being laid out again.
+ *
+ * The positions are stored with a fingerprint of the graph they were computed
+ * for: positions whose fingerprint is not the one of the graph shown are not
+ * read. The file is only a cache: if it cannot be read or written, the layout
+ * is computed again.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioLayoutFile {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The extension added to the name of the scenario file.
+   */
+  static final String EXTENSION = ".layout";
+
+  /**
+   * The first bytes of a layout file: "RPGL".
+   */
+  private static final int MAGIC = 0x5250474C;
+
+  /**
+   * The version of the layout file format.
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * The layout file.
+   */
+  private final File file;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * Constructor of the layout file of a scenario file.
+   *
+   * @param scenarioFile The scenario file.
+   */
+  public ScenarioLayoutFile(File scenarioFile){
+    this.file = new File(scenarioFile.getPath() + EXTENSION);
+  }
+
+
+  /****************************************************************************/
+  /** Reading and Writing Methods                                            **/
+  /****************************************************************************/
+
+  /**
+   * Give the layout file.
+   *
+   * @return The file, that may not exist.
+   */
+  public File getFile(){
+    return this.file;
+  }
+
+  /**
+   * Read the positions of the nodes, if they were computed for the graph.
+   *
+   * @param fingerprint The fingerprint of the graph shown.
+   * @return The abscissa and the ordinate of each node by id, null if there are
+   *         no valid positions for this graph.
+   */
+  public HashMap<String,double[]> read(long fingerprint){
+    if(!this.file.isFile()){
+      return null;
+    }
+    try(DataInputStream input = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(this.file)))){
+      if(input.readInt() != MAGIC || input.readInt() != VERSION
+      || input.readLong() != fingerprint){
+        return null;
+      }
+      int count = input.readInt();
+      HashMap<String,double[]> toReturn = new HashMap<>(2 * count);
+      for(int i = 0 ; i < count ; ++i){
+        String nodeId = input.readUTF();
+        toReturn.put(nodeId, new double[]{input.readDouble(), input.readDouble()});
+      }
+      return toReturn;
+    }catch(IOException ioe){
+      return null;                                                              // computed again
+    }
+  }
+
+  /**
+   * Write the positions of the nodes. They are written aside then moved, so
+   * that they are never seen half written.
+   *
+   * @param fingerprint The fingerprint of the graph the positions are for.
+   * @param positions The abscissa and the ordinate of each node, by id.
+   */
+  public void write(long fingerprint, Map<String,double[]> positions){
+    File temporary = new File(this.file.getPath() + ".tmp");
+    try{
+      try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+              new FileOutputStream(temporary)))){
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(fingerprint);
+        output.writeInt(positions.size());
+        for(Map.Entry<String,double[]> position : positions.entrySet()){
+          output.writeUTF(position.getKey());
+          output.writeDouble(position.getValue()[0]);
+          output.writeDouble(position.getValue()[1]);
+        }
+      }
+      Files.move(temporary.toPath(), this.file.toPath(),
+              StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }catch(IOException ioe){
+      temporary.delete();
+      this.file.delete();                                                       // never keep stale positions
+    }
+  }
+}
@@ -0,0 +1,428 @@
+package tools;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import scenario.Scenario;
+
+/**
+ * This class reads a scenario saved as an XML file with a streaming pull
+ * parser (StAX). The scenario is filled directly from the event stream: no
+ * document is built in memory, only the element being read is buffered.
+ *
+ * The file format is the one written by {@link XmlTool#saveScenario(Scenario)}:
+ * <pre>
+ * &lt;scenario&gt;
+ *   &lt;title&gt;...&lt;/title&gt;
+ *   &lt;elements&gt;
+ *     &lt;element id="..."&gt;
+ *       &lt;cores&gt;&lt;core&gt;...&lt;/core&gt;&lt;/cores&gt;
+ *       &lt;nextIds&gt;&lt;nextId&gt;...&lt;/nextId&gt;&lt;/nextIds&gt;
+ *       &lt;previousIds&gt;&lt;previousId&gt;...&lt;/previousId&gt;&lt;/previousIds&gt;
+ *     &lt;/element&gt;
+ *   &lt;/elements&gt;
+ * &lt;/scenario&gt;
+ * </pre>
+ * The children of an element may come in any order. Unknown tags are skipped.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioXmlReader {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The factory of the pull parsers, configured once. DTD and external
+   * entities are disabled as a scenario file never needs them.
+   */
+  private static final XMLInputFactory FACTORY = createFactory();
+
+  /**
+   * The journal generation recorded in the last file read, -1 if none.
+   */
+  private long journalGeneration = -1;
+
+  /**
+   * The number of elements of the last file read.
+   */
+  private int elementCount;
+
+  /**
+   * The listener of the progress of the reading, null if none.
+   */
+  private ProgressListener progressListener;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * The Default Constructor that does nothing.
+   */
+  public ScenarioXmlReader(){
+    // nothing to do
+  }
+
+
+  /****************************************************************************/
+  /** Reading Methods                                                        **/
+  /****************************************************************************/
+
+  /**
+   * Read the scenario stored in the given file.
+   *
+   * @param inputFile The file to read.
+   * @return The scenario read.
+   * @throws RPGSCException If the file cannot be read or is not a valid
+   *                        scenario file.
+   */
+  public Scenario read(File inputFile) throws RPGSCException{
+    InputStream file = null;
+    try{
+      file = new FileInputStream(inputFile);
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to read the scenario file "
+              + inputFile.getName() + ".", ioe);
+    }
+    if(this.progressListener != null){                                          // the bytes read give the progress
+      file = new ProgressInputStream(file, inputFile.length(), this.progressListener);
+    }
+    try(InputStream stream = new BufferedInputStream(file)){
+      return read(stream, inputFile.getName());
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to read the scenario file "
+              + inputFile.getName() + ".", ioe);
+    }
+  }
+
+  /**
+   * Read the scenario from the given stream. The stream is not closed.
+   *
+   * @param stream The stream to read.
+   * @param sourceName The name of the source, for the error messages.
+   * @return The scenario read.
+   * @throws RPGSCException If the stream is not a valid scenario file.
+   */
+  public Scenario read(InputStream stream, String sourceName) throws RPGSCException{
+    Scenario toReturn = new Scenario();
+    XMLStreamReader reader = null;
+    try{
+      reader = FACTORY.createXMLStreamReader(stream);
+      reader.nextTag();                                                         // the root element
+      expect(reader, "scenario", sourceName);
+      this.journalGeneration = parseGeneration(reader.getAttributeValue(null, "journal"),
+              sourceName);
+      while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+        switch(reader.getLocalName()){
+          case "title":
+            toReturn.setTitle(reader.getElementText());
+            break;
+          case "elements":
+            readElements(reader, toReturn, sourceName);
+            break;
+          default:
+            skip(reader);
+        }
+      }
+    }catch(XMLStreamException xse){
+      throw new RPGSCException("Invalid scenario file " + sourceName
+              + where(xse.getLocation()) + ": " + xse.getMessage(), xse);
+    }finally{
+      close(reader);
+    }
+    this.elementCount = toReturn.size();
+    return toReturn;
+  }
+
+  /**
+   * Read only the title of the scenario stored in the given file, and count
+   * its elements without building them. See {@link #getElementCount()}.
+   *
+   * @param inputFile The file to read.
+   * @return The title of the scenario, null if the file has none.
+   * @throws RPGSCException If the file cannot be read or is not a valid
+   *                        scenario file.
+   */
+  public String readSummary(File inputFile) throws RPGSCException{
+    String title = null;
+    int count = 0;
+    XMLStreamReader reader = null;
+    try(InputStream stream = new BufferedInputStream(new FileInputStream(inputFile))){
+      reader = FACTORY.createXMLStreamReader(stream);
+      reader.nextTag();                                                         // the root element
+      expect(reader, "scenario", inputFile.getName());
+      this.journalGeneration = parseGeneration(reader.getAttributeValue(null, "journal"),
+              inputFile.getName());
+      while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+        if("title".equals(reader.getLocalName())){
+          title = reader.getElementText();
+        }
+        else if("elements".equals(reader.getLocalName())){
+          while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+            if("element".equals(reader.getLocalName())){
+              count++;
+            }
+            skip(reader);
+          }
+        }
+        else{
+          skip(reader);
+        }
+      }
+    }catch(XMLStreamException xse){
+      throw new RPGSCException("Invalid scenario file " + inputFile.getName()
+              + where(xse.getLocation()) + ": " + xse.getMessage(), xse);
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to read the scenario file "
+              + inputFile.getName() + ".", ioe);
+    }finally{
+      close(reader);
+    }
+    this.elementCount = count;
+    return title;
+  }
+
+  /**
+   * Read only the journal generation recorded in the root tag of the given
+   * file. See {@link #getJournalGeneration()}.
+   *
+   * @param inputFile The file to read.
+   * @return The generation, -1 if the file does not record any.
+   * @throws RPGSCException If the file cannot be read or is not a valid
+   *                        scenario file.
+   */
+  public long readJournalGeneration(File inputFile) throws RPGSCException{
+    XMLStreamReader reader = null;
+    try(InputStream stream = new BufferedInputStream(new FileInputStream(inputFile))){
+      reader = FACTORY.createXMLStreamReader(stream);
+      reader.nextTag();                                                         // the root element only
+      expect(reader, "scenario", inputFile.getName());
+      this.journalGeneration = parseGeneration(reader.getAttributeValue(null, "journal"),
+              inputFile.getName());
+    }catch(XMLStreamException xse){
+      throw new RPGSCException("Invalid scenario file " + inputFile.getName()
+              + where(xse.getLocation()) + ": " + xse.getMessage(), xse);
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to read the scenario file "
+              + inputFile.getName() + ".", ioe);
+    }finally{
+      close(reader);
+    }
+    return this.journalGeneration;
+  }
+
+  /**
+   * Give the number of elements of the last file read, by
+   * {@link #read(InputStream, String)} or by {@link #readSummary(File)}.
+   *
+   * @return The number of elements.
+   */
+  public int getElementCount(){
+    return this.elementCount;
+  }
+
+  /**
+   * Set the listener of the progress of the reading of a file, null for none.
+   *
+   * @param progressListener The listener, called every 256 KB read.
+   */
+  public void setProgressListener(ProgressListener progressListener){
+    this.progressListener = progressListener;
+  }
+
+  /**
+   * Give the generation of the last journal segment merged into the last
+   * scenario read, as recorded by {@link ScenarioJournal}.
+   *
+   * @return The generation, -1 if the file does not record any.
+   */
+  public long getJournalGeneration(){
+    return this.journalGeneration;
+  }
+
+  /**
+   * Read all the element tags of the elements tag the reader is on, and add
+   * them to the scenario.
+   *
+   * @param reader The reader, on the start of the elements tag.
+   * @param toFill The scenario to fill.
+   * @param sourceName The name of the source, for the error messages.
+   * @throws XMLStreamException If the stream is not a valid XML document.
+   * @throws RPGSCException If an element has no id.
+   */
+  private void readElements(XMLStreamReader reader, Scenario toFill, String sourceName)
+          throws XMLStreamException, RPGSCException{
+    ArrayList<String> nexts = new ArrayList<>();                                // reused for each element
+    ArrayList<String> previouses = new ArrayList<>();
+    while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+      if(!"element".equals(reader.getLocalName())){
+        skip(reader);
+        continue;
+      }
+      String elementId = reader.getAttributeValue(null, "id");
+      if(elementId == null){
+        throw new RPGSCException("Invalid scenario file " + sourceName
+                + where(reader.getLocation()) + ": element without id.");
+      }
+      ArrayList<String> cores = new ArrayList<>();
+      nexts.clear();
+      previouses.clear();
+      while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+        switch(reader.getLocalName()){
+          case "cores":
+            readTexts(reader, "core", cores);
+            break;
+          case "nextIds":
+            readTexts(reader, "nextId", nexts);
+            break;
+          case "previousIds":
+            readTexts(reader, "previousId", previouses);
+            break;
+          default:
+            skip(reader);
+        }
+      }
+      toFill.addElement(elementId, cores, true);
+      for(String previous : previouses){
+        toFill.getElement(elementId).addPreviousElement(previous);
+      }
+      for(String next : nexts){
+        toFill.getElement(elementId).addNextElement(next);
+      }
+    }
+  }
+
+  /**
+   * Read the text of all the child tags with the given name of the current tag.
+   *
+   * @param reader The reader, on the start of the parent tag.
+   * @param childName The name of the child tags to read.
+   * @param toFill The list to fill with the texts.
+   * @throws XMLStreamException If the stream is not a valid XML document.
+   */
+  private void readTexts(XMLStreamReader reader, String childName, ArrayList<String> toFill)
+          throws XMLStreamException{
+    while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+      if(childName.equals(reader.getLocalName())){
+        toFill.add(reader.getElementText());
+      }
+      else{
+        skip(reader);
+      }
+    }
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Create the factory of the pull parsers.
+   *
+   * @return The factory.
+   */
+  private static XMLInputFactory createFactory(){
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    return factory;
+  }
+
+  /**
+   * Check that the reader is on the start of a tag with the given name.
+   *
+   * @param reader The reader.
+   * @param name The expected name.
+   * @param sourceName The name of the source, for the error messages.
+   * @throws RPGSCException If the tag does not have the expected name.
+   */
+  private void expect(XMLStreamReader reader, String name, String sourceName)
+          throws RPGSCException{
+    if(!name.equals(reader.getLocalName())){
+      throw new RPGSCException("Invalid scenario file " + sourceName
+              + where(reader.getLocation()) + ": <" + name + "> expected, <"
+              + reader.getLocalName() + "> found.");
+    }
+  }
+
+  /**
+   * Parse the journal attribute of the root tag.
+   *
+   * @param value The value of the attribute, may be null.
+   * @param sourceName The name of the source, for the error messages.
+   * @return The generation, -1 if the attribute is missing.
+   * @throws RPGSCException If the attribute is not a number.
+   */
+  private long parseGeneration(String value, String sourceName) throws RPGSCException{
+    if(value == null){
+      return -1;
+    }
+    try{
+      return Long.parseLong(value);
+    }catch(NumberFormatException nfe){
+      throw new RPGSCException("Invalid scenario file " + sourceName
+              + ": invalid journal generation " + value + ".", nfe);
+    }
+  }
+
+  /**
+   * Skip the current tag and all its content.
+   *
+   * @param reader The reader, on the start of the tag to skip.
+   * @throws XMLStreamException If the stream is not a valid XML document.
+   */
+  private void skip(XMLStreamReader reader) throws XMLStreamException{
+    int depth = 1;
+    while(depth > 0){
+      int event = reader.next();
+      if(event == XMLStreamConstants.START_ELEMENT){
+        depth++;
+      }
+      else if(event == XMLStreamConstants.END_ELEMENT){
+        depth--;
+      }
+    }
+  }
+
+  /**
+   * Give a readable position in the source for the error messages.
+   *
+   * @param location The location given by the parser, may be null.
+   * @return The position, empty if unknown.
+   */
+  private String where(Location location){
+    if(location == null || location.getLineNumber() < 0){
+      return "";
+    }
+    return " (line " + location.getLineNumber() + ", column "
+            + location.getColumnNumber() + ")";
+  }
+
+  /**
+   * Close a reader, ignoring the errors as the stream is closed anyway.
+   *
+   * @param reader The reader to close, may be null.
+   */
+  private void close(XMLStreamReader reader){
+    if(reader != null){
+      try{
+        reader.close();
+      }catch(XMLStreamException xse){
+        // the underlying stream is closed by the caller
+      }
+    }
+  }
+}
@@ -0,0 +1,415 @@
+package tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import scenario.Scenario;
+import scenario.ScenarioElement;
+
+/**
+ * This class writes a scenario as an XML file in a streaming way. The tags are
+ * emitted directly from the elements of the scenario into a buffered writer
+ * over a file channel: no document is built in memory and the time and the
+ * allocations needed grow linearly with the number of elements and cores.
+ *
+ * Two modes are available:
+ * - pretty: the same output as the one written by JDOM with its pretty
+ *   format (two spaces indentation, CRLF line separators, texts trimmed of
+ *   their leading and trailing whitespaces), so that the saved files do not
+ *   change;
+ * - compact: no indentation and no line separator at all, the texts being
+ *   written as they are.
+ *
+ * The elements are written in the order of the scenario, or sorted by id if a
+ * deterministic ordering is asked. The previous and next ids of an element are
+ * always written in the order they have been added.
+ *
+ * The file format is the one read by {@link ScenarioXmlReader}.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioXmlWriter {
+
+  /****************************************************************************/
+  /** Private Attributes                                                     **/
+  /****************************************************************************/
+
+  /**
+   * The size of the buffer of the writer, in chars.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The number of elements between two reports of the progress.
+   */
+  private static final int PROGRESS_STEP = 1024;
+
+  /**
+   * The line separator of the pretty mode.
+   */
+  private static final String NEW_LINE = "\r\n";
+
+  /**
+   * True to indent the tags, false for a compact file.
+   */
+  private final boolean pretty;
+
+  /**
+   * True to write the elements sorted by id, false to keep the order of the
+   * scenario.
+   */
+  private final boolean sorted;
+
+  /**
+   * The generation of the last journal segment merged into the scenario, see
+   * {@link ScenarioJournal}, or -1 if the scenario is not journaled.
+   */
+  private final long journalGeneration;
+
+  /**
+   * The listener of the progress of the writing, null if none.
+   */
+  private ProgressListener progressListener;
+
+
+  /****************************************************************************/
+  /** Constructor Methods                                                    **/
+  /****************************************************************************/
+
+  /**
+   * The Default Constructor: pretty mode, elements in the order of the scenario.
+   */
+  public ScenarioXmlWriter(){
+    this(true, false);
+  }
+
+  /**
+   * Constructor specifying the mode of the writer.
+   *
+   * @param pretty True to indent the tags, false for a compact file.
+   * @param sorted True to write the elements sorted by id, false to keep the
+   *               order of the scenario.
+   */
+  public ScenarioXmlWriter(boolean pretty, boolean sorted){
+    this(pretty, sorted, -1);
+  }
+
+  /**
+   * Constructor specifying the mode of the writer and the journal generation
+   * to record in the file. The generation is written as the journal attribute
+   * of the root tag.
+   *
+   * @param pretty True to indent the tags, false for a compact file.
+   * @param sorted True to write the elements sorted by id, false to keep the
+   *               order of the scenario.
+   * @param journalGeneration The generation of the last journal segment merged
+   *                          into the scenario, -1 for none.
+   */
+  public ScenarioXmlWriter(boolean pretty, boolean sorted, long journalGeneration){
+    this.pretty = pretty;
+    this.sorted = sorted;
+    this.journalGeneration = journalGeneration;
+  }
+
+
+  /****************************************************************************/
+  /** Writing Methods                                                        **/
+  /****************************************************************************/
+
+  /**
+   * Set the listener of the progress of the writing, null for none.
+   *
+   * @param progressListener The listener, called every 1024 elements written.
+   */
+  public void setProgressListener(ProgressListener progressListener){
+    this.progressListener = progressListener;
+  }
+
+  /**
+   * Write a scenario into the given file, replacing its eventual content.
+   *
+   * @param toSave The scenario to write.
+   * @param outputFile The file to write.
+   * @throws RPGSCException If the file cannot be written.
+   */
+  public void write(Scenario toSave, File outputFile) throws RPGSCException{
+    try(FileChannel channel = FileChannel.open(outputFile.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+            Channels.newOutputStream(channel), StandardCharsets.UTF_8), BUFFER_SIZE)){
+      write(toSave, writer);
+    }catch(IOException ioe){
+      throw new RPGSCException("Unable to write the scenario file "
+              + outputFile.getName() + ".", ioe);
+    }
+  }
+
+  /**
+   * Write a scenario into the given writer. The writer is flushed but not
+   * closed.
+   *
+   * @param toSave The scenario to write.
+   * @param writer The writer to write into.
+   * @throws IOException If the writer fails.
+   */
+  public void write(Scenario toSave, Writer writer) throws IOException{
+    writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    newLine(writer, 0);
+    if(this.journalGeneration < 0){
+      writer.write("<scenario>");
+    }
+    else{
+      writer.write("<scenario journal=\"" + this.journalGeneration + "\">");
+    }
+    newLine(writer, 1);
+    textTag(writer, "title", toSave.getTitle());
+    newLine(writer, 1);
+    if(toSave.size() == 0){
+      writer.write("<elements />");
+    }
+    else{
+      writer.write("<elements>");
+      Iterable<String> ids = toSave.getWholeScenario().keySet();
+      if(this.sorted){
+        ArrayList<String> sortedIds = new ArrayList<>(toSave.getWholeScenario().keySet());
+        Collections.sort(sortedIds);
+        ids = sortedIds;
+      }
+      int written = 0;
+      for(String id : ids){
+        newLine(writer, 2);
+        writeElement(writer, toSave.getElement(id));
+        if(this.progressListener != null && ++written % PROGRESS_STEP == 0){
+          this.progressListener.progressed(written, toSave.size());
+        }
+      }
+      newLine(writer, 1);
+      writer.write("</elements>");
+    }
+    newLine(writer, 0);
+    writer.write("</scenario>");
+    newLine(writer, 0);
+    writer.flush();
+  }
+
+  /**
+   * Write one element tag, with its cores, next ids and previous ids.
+   *
+   * @param writer The writer to write into.
+   * @param element The element to write.
+   * @throws IOException If the writer fails.
+   */
+  private void writeElement(Writer writer, ScenarioElement element) throws IOException{
+    writer.write("<element id=\"");
+    attribute(writer, element.getElementId());
+    writer.write("\">");
+    newLine(writer, 3);
+    writeList(writer, "cores", "core", element.getCore());
+    newLine(writer, 3);
+    writeList(writer, "nextIds", "nextId", element.getNextElements());
+    newLine(writer, 3);
+    writeList(writer, "previousIds", "previousId", element.getPreviousElements());
+    newLine(writer, 2);
+    writer.write("</element>");
+  }
+
+  /**
+   * Write a tag containing one child tag for each text of a list.
+   *
+   * @param writer The writer to write into.
+   * @param name The name of the tag.
+   * @param childName The name of the child tags.
+   * @param texts The texts of the child tags, may be null.
+   * @throws IOException If the writer fails.
+   */
+  private void writeList(Writer writer, String name, String childName,
+          ArrayList<String> texts) throws IOException{
+    if(texts == null || texts.isEmpty()){
+      empty(writer, name);
+      return;
+    }
+    writer.write('<');
+    writer.write(name);
+    writer.write('>');
+    for(String text : texts){
+      newLine(writer, 4);
+      textTag(writer, childName, text);
+    }
+    newLine(writer, 3);
+    writer.write("</");
+    writer.write(name);
+    writer.write('>');
+  }
+
+
+  /****************************************************************************/
+  /** Tool Methods                                                           **/
+  /****************************************************************************/
+
+  /**
+   * Write an empty tag.
+   *
+   * @param writer The writer to write into.
+   * @param name The name of the tag.
+   * @throws IOException If the writer fails.
+   */
+  private void empty(Writer writer, String name) throws IOException{
+    writer.write('<');
+    writer.write(name);
+    writer.write(this.pretty ? " />" : "/>");
+  }
+
+  /**
+   * Write a tag containing a text, trimmed in the pretty mode as JDOM does.
+   * A tag without text is written empty.
+   *
+   * @param writer The writer to write into.
+   * @param name The name of the tag.
+   * @param text The text of the tag, may be null.
+   * @throws IOException If the writer fails.
+   */
+  private void textTag(Writer writer, String name, String text) throws IOException{
+    String content = (this.pretty ? trim(text) : text);
+    if(content == null || content.isEmpty()){
+      empty(writer, name);
+      return;
+    }
+    writer.write('<');
+    writer.write(name);
+    writer.write('>');
+    text(writer, content);
+    writer.write("</");
+    writer.write(name);
+    writer.write('>');
+  }
+
+  /**
+   * Remove the leading and trailing XML whitespaces of a text: spaces, tabs,
+   * carriage returns and line feeds.
+   *
+   * @param text The text, may be null.
+   * @return The text trimmed, null if the text is null.
+   */
+  private static String trim(String text){
+    if(text == null){
+      return null;
+    }
+    int start = 0;
+    int end = text.length();
+    while(start < end && isXmlWhitespace(text.charAt(start))){
+      start++;
+    }
+    while(end > start && isXmlWhitespace(text.charAt(end - 1))){
+      end--;
+    }
+    return text.substring(start, end);
+  }
+
+  /**
+   * Tell whether a character is an XML whitespace.
+   *
+   * @param c The character.
+   * @return true for a space, a tab, a carriage return or a line feed.
+   */
+  private static boolean isXmlWhitespace(char c){
+    return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+  }
+
+  /**
+   * Start a new line with the given indentation level, in the pretty mode only.
+   *
+   * @param writer The writer to write into.
+   * @param level The indentation level.
+   * @throws IOException If the writer fails.
+   */
+  private void newLine(Writer writer, int level) throws IOException{
+    if(this.pretty){
+      writer.write(NEW_LINE);
+      for(int i = 0 ; i < level ; ++i){
+        writer.write("  ");
+      }
+    }
+  }
+
+  /**
+   * Write a text content, escaping the XML special characters.
+   *
+   * @param writer The writer to write into.
+   * @param text The text to write, may be null.
+   * @throws IOException If the writer fails.
+   */
+  private void text(Writer writer, String text) throws IOException{
+    escape(writer, text, false);
+  }
+
+  /**
+   * Write an attribute value, escaping the XML special characters.
+   *
+   * @param writer The writer to write into.
+   * @param value The value to write, may be null.
+   * @throws IOException If the writer fails.
+   */
+  private void attribute(Writer writer, String value) throws IOException{
+    escape(writer, value, true);
+  }
+
+  /**
+   * Write a string, escaping the XML special characters. The line feeds of a
+   * text are written as the line separator in the pretty mode, as JDOM does.
+   * The unescaped runs of characters are written in one call.
+   *
+   * @param writer The writer to write into.
+   * @param s The string to write, may be null.
+   * @param inAttribute True if the string is an attribute value.
+   * @throws IOException If the writer fails.
+   */
+  private void escape(Writer writer, String s, boolean inAttribute) throws IOException{
+    if(s == null){
+      return;
+    }
+    int start = 0;
+    for(int i = 0 ; i < s.length() ; ++i){
+      String replacement;
+      switch(s.charAt(i)){
+        case '&':
+          replacement = "&amp;";
+          break;
+        case '<':
+          replacement = "&lt;";
+          break;
+        case '>':
+          replacement = "&gt;";
+          break;
+        case '\r':
+          replacement = "&#xD;";
+          break;
+        case '"':
+          replacement = (inAttribute ? "&quot;" : null);
+          break;
+        case '\n':
+          replacement = (inAttribute ? "&#xA;" : (this.pretty ? NEW_LINE : null));
+          break;
+        case '\t':
+          replacement = (inAttribute ? "&#x9;" : null);
+          break;
+        default:
+          replacement = null;
+      }
+      if(replacement != null){
+        writer.write(s, start, i - start);
+        writer.write(replacement);
+        start = i + 1;
+      }
+    }
+    writer.write(s, start, s.length() - start);
+  }
+}
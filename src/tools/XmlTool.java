@@ -1,17 +1,11 @@
 package tools;
 
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.List;
-import org.jdom2.Document;
-import org.jdom2.Element;
-import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import scenario.Scenario;
 
 /**
@@ -43,6 +37,58 @@ public class XmlTool {
    */
   private final String scenarioSaves = dataPath + "save_data/";
   
+  /**
+   * The catalog of the save folder, opened on the first use.
+   */
+  private static ScenarioCatalog catalog;
+  
+  /**
+   * The cache of the scenarios loaded, shared by all the tools, so that loading
+   * again a scenario whose file has not changed does not read it again.
+   */
+  private static final ScenarioCache cache = new ScenarioCache();
+  
+  /**
+   * The thread reading and writing the scenario files in the background, one
+   * file at a time so that a save never overlaps a load of the same file.
+   */
+  private static final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(r -> {
+    Thread toReturn = new Thread(r, "Scenario I/O");
+    toReturn.setDaemon(true);                                                   // never keeps the application alive
+    return toReturn;
+  });
+  
+  /**
+   * A work done in the background, following its progress.
+   * 
+   * @param <T> the type of the result of the work.
+   */
+  private interface Task<T> {
+    
+    /**
+     * Do the work.
+     * 
+     * @param progress the listener of the progress of the work.
+     * @return the result of the work.
+     * @throws RPGSCException if the work fails.
+     */
+    T run(ProgressListener progress) throws RPGSCException;
+  }
+  
+  /**
+   * The writing of a scenario into a file.
+   */
+  private interface FileWriting {
+    
+    /**
+     * Write the file.
+     * 
+     * @param outputFile the file to write.
+     * @throws RPGSCException if the file cannot be written.
+     */
+    void write(File outputFile) throws RPGSCException;
+  }
+  
   /****************************************************************************/
   /** Constructor Methods                                                    **/
   /****************************************************************************/
@@ -61,25 +107,48 @@ public class XmlTool {
   
   /**
    * This method provides a list of all the scenario stored in the save folder.
-   * Each file is named after the title of the scenario so the file name is 
-   * then deconstructed in order to provide the right scenario name.
+   * The titles come from the catalog of the folder, see {@link ScenarioCatalog},
+   * so that no scenario file is read unless it changed since the last time it
+   * was listed. A scenario saved in several formats is listed once.
    * 
    * @return An array list containing all the scenario in the save folder.
+   * @throws RPGSCException if the save folder cannot be followed.
    */
-  public ArrayList<String> getAllScenarioTitles(){
-    ArrayList<String> toReturn = new ArrayList<>();
-    for(File f : new File(scenarioSaves).listFiles()){
-      if(f.isFile() && !f.getName().contains("bk")){
-        String s = f.getName().substring(0,f.getName().lastIndexOf('.'));       // remove the file extension
-        String[] parts = s.split("(?=\\p{Upper})");                             // cut the string on upper case
-        String notRawName = "";                                             
-        for(int i = 0; i < parts.length ; ++i){
-          notRawName += parts[i] + (i == (parts.length - 1) ? "" : " ");        // add each part to the string to return
-        }
-        toReturn.add(notRawName);
+  public ArrayList<String> getAllScenarioTitles() throws RPGSCException{
+    ScenarioCatalog saves = getCatalog();
+    if(!saves.isWatching()){                                                    // nothing follows the folder
+      saves.refresh();
+    }
+    return saves.getTitles();
+  }
+  
+  /**
+   * Give the cache of the scenarios loaded, shared by all the tools, for
+   * example to follow its hit rate.
+   * 
+   * @return the cache of the scenarios loaded.
+   */
+  public ScenarioCache getCache(){
+    return cache;
+  }
+  
+  /**
+   * Give the catalog of the save folder, shared by all the tools. The first
+   * call opens it and starts following the changes of the folder.
+   * 
+   * @return the catalog of the save folder.
+   * @throws RPGSCException if the save folder cannot be followed; the next
+   *                        call tries again.
+   */
+  public ScenarioCatalog getCatalog() throws RPGSCException{
+    synchronized(XmlTool.class){
+      if(catalog == null){
+        ScenarioCatalog opened = new ScenarioCatalog(new File(scenarioSaves));
+        opened.startWatching();
+        catalog = opened;
       }
+      return catalog;
     }
-    return toReturn;
   }
   
   /**
@@ -87,120 +156,423 @@ public class XmlTool {
    * the scenario that is returned.
    * 
    * It used the name of the scenario as a parameter. This name is then used
-   * to rebuild the filename.
+   * to rebuild the filename. If the scenario is saved in several formats, the
+   * most recent file is read.
    * 
    * @param notRawFilename the name of the scenario.
    * @return the scenario loaded after the name in parameter.
+   * @throws RPGSCException if the file cannot be read or is not a valid
+   *                        scenario file.
    */
-  public Scenario loadScenario(String notRawFilename){
-    Scenario toReturn = new Scenario();                                         // the element to return
-    String[] part = notRawFilename.split(" ");                                  // remove all white space in the scenario name
-    String rawFilename = "";
-    for(int i = 0 ; i < part.length ; ++i){                                     // for each word in the scenario name
-      rawFilename += (part[i].substring(0,1).toUpperCase() 
-                  + part[i].substring(1));                                      // change the first letter to upper case
-                                                                                // and concatene it
+  public Scenario loadScenario(String notRawFilename) throws RPGSCException{
+    ScenarioFormat latest = ScenarioFormat.XML;
+    long latestModified = -1;
+    for(ScenarioFormat format : ScenarioFormat.values()){
+      File file = getScenarioFile(notRawFilename, format);
+      if(file.isFile() && file.lastModified() > latestModified){
+        latest = format;
+        latestModified = file.lastModified();
+      }
     }
-    File inputFile = new File(scenarioSaves + rawFilename + ".xml");            // add the file extension
-    
-    /* XML BLOCK */ 
-    try{
-      SAXBuilder saxBuilder = new SAXBuilder();
-      Document document = saxBuilder.build(inputFile);
-      Element root = document.getRootElement();
-      toReturn.setTitle(root.getChildText("title"));
-      List<Element> elements = root.getChild("elements").getChildren();
-      for(Element element : elements){
-        String elementId;
-        ArrayList<String> coresToAdd = new ArrayList<>();
-        elementId = element.getAttributeValue("id");
-        List<Element> cores = element.getChild("cores").getChildren();
-        for(Element core : cores){
-          coresToAdd.add(core.getText());
-        }//for core in cores
-        toReturn.addElement(elementId, coresToAdd,true);
-        List<Element> previouses = element.getChild("previousIds").getChildren();
-        for(Element previous : previouses){
-          toReturn.getElement(elementId).addPreviousElement(previous.getText());
-        }
-        List<Element> nexts = element.getChild("nextIds").getChildren();
-        for(Element next : nexts){
-          toReturn.getElement(elementId).addNextElement(next.getText());
-        }
-      }//for element in elements
-    }catch(JDOMException | IOException e){
-      //e.printStackTrace();
-    }//catch
-    /* END of XML BLOCK */
-    return toReturn;
+    return loadScenario(notRawFilename, latest);
+  }
+  
+  /**
+   * This function retrieve the different elements of a scenario saved in the 
+   * given format and load them in the scenario that is returned. The XML files
+   * are read by a streaming parser, see {@link ScenarioXmlReader}, and the 
+   * binary files are read in one block, see {@link ScenarioBinaryReader}. A file
+   * not changed since it was last loaded is not read again, see 
+   * {@link ScenarioCache}.
+   * 
+   * @param notRawFilename the name of the scenario.
+   * @param format the format of the file to read.
+   * @return the scenario loaded after the name in parameter.
+   * @throws RPGSCException if the file cannot be read or is not a valid
+   *                        scenario file.
+   */
+  public Scenario loadScenario(String notRawFilename, ScenarioFormat format) throws RPGSCException{
+    return loadScenario(notRawFilename, format, false);
+  }
+  
+  /**
+   * This function retrieve the different elements of a scenario saved in the 
+   * given format, as {@link #loadScenario(String, ScenarioFormat)}, or lazily
+   * for a binary file: only the ids and the links of the elements are read, 
+   * and the core of each element is read the first time it is asked, see 
+   * {@link ScenarioBinaryReader#readLazily()}. An XML file is always read 
+   * whole.
+   * 
+   * @param notRawFilename the name of the scenario.
+   * @param format the format of the file to read.
+   * @param lazy true to read the cores of the elements of a binary file on
+   *             demand.
+   * @return the scenario loaded after the name in parameter.
+   * @throws RPGSCException if the file cannot be read or is not a valid
+   *                        scenario file.
+   */
+  public Scenario loadScenario(String notRawFilename, ScenarioFormat format, boolean lazy)
+          throws RPGSCException{
+    return loadScenario(getScenarioFile(notRawFilename, format), format, lazy);
+  }
+  
+  /**
+   * This function retrieve the different elements of a scenario from the given
+   * file, as {@link #loadScenario(String, ScenarioFormat, boolean)}. Several
+   * files may hold scenarios of the same title: the file, not the title,
+   * tells which one is read.
+   * 
+   * @param inputFile the file of the scenario.
+   * @param format the format of the file.
+   * @param lazy true to read the cores of the elements of a binary file on
+   *             demand.
+   * @return the scenario loaded from the file.
+   * @throws RPGSCException if the file cannot be read or is not a valid
+   *                        scenario file.
+   */
+  public Scenario loadScenario(File inputFile, ScenarioFormat format, boolean lazy)
+          throws RPGSCException{
+    if(format == ScenarioFormat.BINARY){
+      return loader(format, lazy, null).load(inputFile);
+    }
+    return ScenarioJournal.recover(inputFile, loader(format, lazy, null));      // the XML file and its eventual journal
+  }
+  
+  /**
+   * Load a scenario in the background, as 
+   * {@link #loadScenario(String, ScenarioFormat, boolean)}. The loads and the
+   * saves run one after the other on a dedicated thread, so that the caller,
+   * typically the event dispatch thread, is never blocked.
+   * 
+   * Cancelling the future stops the reading as soon as possible.
+   * 
+   * @param notRawFilename the name of the scenario.
+   * @param format the format of the file to read.
+   * @param lazy true to read the cores of the elements of a binary file on
+   *             demand.
+   * @param listener the listener of the progress of the reading, in bytes for
+   *                 the XML files and in elements for the binary files, called
+   *                 from the background thread; null for none.
+   * @return the future scenario, completed exceptionally with an 
+   *         {@link RPGSCException} if the file cannot be read.
+   */
+  public CompletableFuture<Scenario> loadScenarioAsync(String notRawFilename, 
+          ScenarioFormat format, boolean lazy, ProgressListener listener){
+    return submit(progress -> {
+      File inputFile = getScenarioFile(notRawFilename, format);
+      if(format == ScenarioFormat.BINARY){
+        return loader(format, lazy, progress).load(inputFile);
+      }
+      return ScenarioJournal.recover(inputFile, loader(format, lazy, progress));
+    }, listener);
+  }
+  
+  /**
+   * Load a scenario saved in the XML format and journal all its following
+   * modifications, see {@link ScenarioJournal}.
+   * 
+   * @param notRawFilename the name of the scenario.
+   * @return the journal, giving the scenario loaded.
+   * @throws RPGSCException if the file cannot be read or the journal cannot
+   *                        be started.
+   */
+  public ScenarioJournal openJournal(String notRawFilename) throws RPGSCException{
+    return ScenarioJournal.open(getScenarioFile(notRawFilename, ScenarioFormat.XML),
+            loader(ScenarioFormat.XML, false, null));
+  }
+  
+  /**
+   * Load a scenario saved in the XML format and journal all its following
+   * modifications in the background, as {@link #openJournal(String)}.
+   * 
+   * Cancelling the future stops the reading as soon as possible; no journal is
+   * started then.
+   * 
+   * @param notRawFilename the name of the scenario.
+   * @param listener the listener of the progress of the reading, in bytes, 
+   *                 called from the background thread; null for none.
+   * @return the future journal, completed exceptionally with an 
+   *         {@link RPGSCException} if the file cannot be read or the journal
+   *         cannot be started.
+   */
+  public CompletableFuture<ScenarioJournal> openJournalAsync(String notRawFilename, 
+          ProgressListener listener){
+    return submit(progress -> ScenarioJournal.open(
+            getScenarioFile(notRawFilename, ScenarioFormat.XML),
+            loader(ScenarioFormat.XML, false, progress)), listener);
+  }
+  
+  /**
+   * Journal all the following modifications of a scenario that has just been
+   * saved in the XML format, see {@link ScenarioJournal}.
+   * 
+   * @param toFollow the scenario saved.
+   * @return the journal.
+   * @throws RPGSCException if the journal cannot be started.
+   */
+  public ScenarioJournal attachJournal(Scenario toFollow) throws RPGSCException{
+    return ScenarioJournal.attach(getScenarioFile(toFollow.getTitle(), ScenarioFormat.XML), toFollow);
   }
   
   /**
    * This function save a scenario in a file named after the scenario title/name.
+   * The file is indented and the elements are written in the order of the
+   * scenario.
    * 
    * @param toSave the scenario to save.
+   * @throws RPGSCException if the file cannot be written.
    */
-  public void saveScenario(Scenario toSave){
-    
-    String[] part = toSave.getTitle().split(" ");                               // remove all white space in the scenario name
-    String rawFilename = "";
-    for(int i = 0 ; i < part.length ; ++i){                                     // for each word in the scenario name
-      rawFilename += (part[i].substring(0,1).toUpperCase() 
-                  + part[i].substring(1));                                      // change the first letter to upper case
-                                                                                // and concatene it
+  public void saveScenario(Scenario toSave) throws RPGSCException{
+    saveScenario(toSave, true, false);
+  }
+  
+  /**
+   * This function save a scenario in a file named after the scenario title/name.
+   * The previous version of the file is kept as a backup and its eventual
+   * journal is dropped. The file is written by a streaming writer, see
+   * {@link ScenarioXmlWriter}.
+   * 
+   * @param toSave the scenario to save.
+   * @param pretty true to indent the file, false for a compact file.
+   * @param sorted true to write the elements sorted by id, false to keep the
+   *               order of the scenario.
+   * @throws RPGSCException if the file cannot be written.
+   */
+  public void saveScenario(Scenario toSave, boolean pretty, boolean sorted) throws RPGSCException{
+    ScenarioXmlWriter writer = new ScenarioXmlWriter(pretty, sorted);
+    write(toSave, ScenarioFormat.XML, f -> writer.write(toSave, f));
+  }
+  
+  /**
+   * This function save a scenario in the background, as 
+   * {@link #saveScenario(Scenario)}. The loads and the saves run one after the
+   * other on a dedicated thread. The scenario must not be modified until the
+   * save is done: save a copy of a scenario still edited.
+   * 
+   * Cancelling the future stops the writing as soon as possible, and keeps the
+   * previous version of the file.
+   * 
+   * @param toSave the scenario to save.
+   * @param listener the listener of the progress of the writing, in elements,
+   *                 called from the background thread; null for none.
+   * @return the future done, completed exceptionally with an 
+   *         {@link RPGSCException} if the file cannot be written.
+   */
+  public CompletableFuture<Void> saveScenarioAsync(Scenario toSave, ProgressListener listener){
+    return submit(progress -> {
+      ScenarioXmlWriter writer = new ScenarioXmlWriter();
+      writer.setProgressListener(progress);
+      write(toSave, ScenarioFormat.XML, f -> writer.write(toSave, f));
+      return null;
+    }, listener);
+  }
+  
+  /**
+   * This function save a scenario in a file of the given format, named after
+   * the scenario title/name. The previous version of the file is kept as a
+   * backup. The XML files are indented.
+   * 
+   * @param toSave the scenario to save.
+   * @param format the format of the file to write.
+   * @throws RPGSCException if the file cannot be written.
+   */
+  public void saveScenario(Scenario toSave, ScenarioFormat format) throws RPGSCException{
+    if(format == ScenarioFormat.XML){
+      saveScenario(toSave);
+    }
+    else{
+      ScenarioBinaryWriter writer = new ScenarioBinaryWriter();
+      write(toSave, format, f -> writer.write(toSave, f));
+    }
+  }
+  
+  /**
+   * Convert a saved scenario from one format to another one. The file in the
+   * source format is kept.
+   * 
+   * @param notRawFilename the name of the scenario.
+   * @param from the format of the file to read.
+   * @param to the format of the file to write.
+   * @throws RPGSCException if a file cannot be read or written.
+   */
+  public void convertScenario(String notRawFilename, ScenarioFormat from, ScenarioFormat to)
+          throws RPGSCException{
+    Scenario toConvert = loadScenario(notRawFilename, from);
+    toConvert.setTitle(notRawFilename);                                         // keep the same file name
+    saveScenario(toConvert, to);
+  }
+  
+  /**
+   * Give the file keeping the positions of the nodes of the graph of a saved
+   * scenario, next to the scenario file.
+   * 
+   * @param notRawFilename the name of the scenario.
+   * @return the layout file of the scenario.
+   * @throws RPGSCException if the save folder cannot be followed.
+   */
+  public ScenarioLayoutFile getLayoutFile(String notRawFilename) throws RPGSCException{
+    return new ScenarioLayoutFile(getScenarioFile(notRawFilename, ScenarioFormat.XML));
+  }
+  
+  /**
+   * Give the folder of the thumbnails of the saved scenarios.
+   * 
+   * @return the folder, that may not exist.
+   */
+  public File getThumbnailFolder(){
+    return new File(dataPath + "thumbnails/");
+  }
+  
+  /**
+   * Give the folder of the creation data the random scenarios are generated
+   * from.
+   * 
+   * @return the folder.
+   */
+  public File getCreationDataFolder(){
+    return new File(dataPath + "creation_data/");
+  }
+  
+  /**
+   * Give the folder of the pools of scenarios generated in batch, apart from
+   * the saved scenarios.
+   * 
+   * @return the folder, that may not exist.
+   */
+  public File getBatchFolder(){
+    return new File(dataPath + "batch_data/");
+  }
+  
+  /**
+   * Give the file of a scenario. The catalog gives the file holding a scenario
+   * with this title, whatever its name. Otherwise the name of the file is
+   * rebuilt from the title: each word of the title starts with an upper case 
+   * and the white spaces are removed.
+   * 
+   * @param notRawFilename the name of the scenario.
+   * @param format the format of the file.
+   * @return the file of the scenario in the save folder.
+   * @throws RPGSCException if the save folder cannot be followed.
+   */
+  private File getScenarioFile(String notRawFilename, ScenarioFormat format) throws RPGSCException{
+    ScenarioCatalog.Entry known = getCatalog().getEntry(notRawFilename, format);
+    if(known != null){
+      return known.getFile();
     }
-    File outputFile = new File(scenarioSaves + rawFilename + ".xml");           // add the file extension
-      
-    /* XML BLOCK */
+    return new File(scenarioSaves + ScenarioCatalog.fileNameOf(notRawFilename)
+            + format.getExtension());                                           // add the file extension
+  }
+  
+  /**
+   * Write a scenario file: the file is first written aside, then the previous
+   * version is kept as a backup and the new file takes its place, so that a
+   * failed or cancelled save never leaves a truncated file. The eventual
+   * journal of the file is dropped, a journal still open on it being detached
+   * first, see {@link ScenarioJournal#deleteSegments(File)}.
+   * 
+   * @param toSave the scenario to save.
+   * @param format the format of the file.
+   * @param writer the way to write the file aside.
+   * @throws RPGSCException if the file cannot be written.
+   */
+  private void write(Scenario toSave, ScenarioFormat format, FileWriting writer) 
+          throws RPGSCException{
+    ScenarioJournal.awaitCompactions();
+    File outputFile = getScenarioFile(toSave.getTitle(), format);
+    File aside = new File(outputFile + ".saving");
     try{
-      if (outputFile.exists()) {
-       File renamed = new File(outputFile + ".bk");
-       outputFile.renameTo(renamed);
-       outputFile.delete();
+      writer.write(aside);
+    }catch(RPGSCException | RuntimeException e){
+      aside.delete();
+      throw e;
+    }
+    backup(outputFile);
+    if(!aside.renameTo(outputFile)){
+      aside.delete();
+      throw new RPGSCException("Unable to write the scenario file " 
+              + outputFile.getName() + ".");
+    }
+    if(format == ScenarioFormat.XML){
+      ScenarioJournal.deleteSegments(outputFile);                               // the file holds the whole scenario
+    }
+    getCatalog().update(outputFile);
+  }
+  
+  /**
+   * Give the way to read the files of a format, through the cache of the
+   * scenarios loaded. A scenario cached may have been read lazily or not.
+   * 
+   * @param format the format of the files.
+   * @param lazy true to read the cores of the elements of a binary file on
+   *             demand.
+   * @param progress the listener of the progress of the reading, null for none.
+   * @return the loader.
+   */
+  private ScenarioCache.Loader loader(ScenarioFormat format, boolean lazy, ProgressListener progress){
+    ScenarioCache.Loader reader;
+    if(format == ScenarioFormat.BINARY){
+      reader = f -> {
+        ScenarioBinaryReader binary = new ScenarioBinaryReader(f);
+        binary.setProgressListener(progress);
+        return (lazy ? binary.readLazily() : binary.read());
+      };
+    }
+    else{
+      reader = f -> {
+        ScenarioXmlReader xml = new ScenarioXmlReader();
+        xml.setProgressListener(progress);
+        return xml.read(f);
+      };
+    }
+    return f -> cache.load(f, lazy && format == ScenarioFormat.BINARY, reader);
+  }
+  
+  /**
+   * Run a work on the background thread. The listener given to the work stops
+   * it as soon as the future is cancelled.
+   * 
+   * @param <T> the type of the result of the work.
+   * @param task the work.
+   * @param listener the listener of the progress of the work, null for none.
+   * @return the future result of the work.
+   */
+  private static <T> CompletableFuture<T> submit(Task<T> task, ProgressListener listener){
+    CompletableFuture<T> toReturn = new CompletableFuture<>();
+    ProgressListener progress = (done, total) -> {
+      if(toReturn.isCancelled()){
+        throw new CancellationException();
       }
-      outputFile.createNewFile();
-      DataOutputStream stream = new DataOutputStream(new FileOutputStream(outputFile));
-      Element scenario = new Element("scenario");                               // root element
-      Document doc = new Document(scenario);
-      Element title = new Element("title");
-      title.setText(toSave.getTitle());
-      Element elements = new Element("elements");
-      for(String id : toSave.getWholeScenario().keySet()){
-        Element element = new Element("element").setAttribute("id", id);
-        Element cores = new Element("cores");
-        for(String sCore : toSave.getElement(id).getCore()){
-          Element core = new Element("core").setText(sCore);
-          cores.addContent(core);
-        }//for core in getCore
-        Element nextS = new Element("nextIds");
-        if(toSave.getElement(id).hasNext()){
-          for(String nextId : toSave.getElement(id).getNextElements()){
-            Element next = new Element("nextId").setText(nextId);
-            nextS.addContent(next);
-          }//for next in getNext
-        }//if hasNext
-        Element previousS = new Element("previousIds");
-        if(toSave.getElement(id).hasPrevious()){
-          for(String previousId : toSave.getElement(id).getPreviousElements()){
-            Element previous = new Element("previousId").setText(previousId);
-            previousS.addContent(previous);
-          }//for previous in getPrevious
-        }//if hasPrevious
-        element.addContent(cores);                                              // adding cores set of the current element
-        element.addContent(nextS);                                              // adding next ids of the current element
-        element.addContent(previousS);                                          // adding previous ids of the current element
-        elements.addContent(element);                                           // adding the current element to the scenario
-      }//for id in wholeScenario
-      scenario.addContent(title);
-      scenario.addContent(elements);
-      XMLOutputter xmlOut = new XMLOutputter();
-      xmlOut.setFormat(Format.getPrettyFormat());
-      xmlOut.output(doc, stream);
-      stream.close();
-    }catch (IOException ioe){
-      System.err.println("ECHEC!");
+      if(listener != null){
+        listener.progressed(done, total);
+      }
+    };
+    ioExecutor.execute(() -> {
+      if(toReturn.isCancelled()){                                               // cancelled while waiting
+        return;
+      }
+      try{
+        toReturn.complete(task.run(progress));
+      }catch(Throwable t){
+        if(!toReturn.isCancelled()){
+          toReturn.completeExceptionally(t);
+        }
+      }
+    });
+    return toReturn;
+  }
+  
+  /**
+   * Rename an existing file as a backup before it is written again. If the
+   * renaming fails, no backup is kept.
+   * 
+   * @param outputFile the file to write.
+   */
+  private void backup(File outputFile){
+    if(outputFile.exists()){                                                    // keep the previous version as a backup
+      File renamed = new File(outputFile + ".bk");
+      renamed.delete();
+      outputFile.renameTo(renamed);
     }
-    /* END of XML BLOCK */
   }
   
-}
\ No newline at end of file
+}
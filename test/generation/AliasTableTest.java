@@ -0,0 +1,152 @@
+package generation;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link AliasTable}: each index is drawn in proportion to its
+ * weight, and an index without weight is never drawn.
+ *
+ * @author Nicolas Brax
+ */
+public class AliasTableTest {
+
+  /**
+   * The weights of the tests, with zeros, tiny and huge weights.
+   */
+  private static final double[] WEIGHTS = {1, 2, 3, 4, 0, 10, 0.5, 50, 0, 1e-3};
+
+  /**
+   * A random generator going through a regular grid of all its draws: each
+   * column of the table is drawn with each of the given number of evenly
+   * spaced doubles. The table then gives its exact distribution, up to the
+   * step of the grid.
+   */
+  private static final class GridRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of doubles drawn for each column.
+     */
+    private final int steps;
+
+    /**
+     * The number of draws made.
+     */
+    private long draws;
+
+    /**
+     * Constructor of a generator going through a grid.
+     *
+     * @param steps The number of doubles drawn for each column.
+     */
+    private GridRandom(int steps){
+      this.steps = steps;
+    }
+
+    @Override
+    public int nextInt(int bound){
+      return (int)(this.draws / this.steps % bound);
+    }
+
+    @Override
+    public double nextDouble(){
+      return (this.draws++ % this.steps + 0.5) / this.steps;
+    }
+  }
+
+  /**
+   * Going through all the draws gives the weights, as probabilities.
+   */
+  @Test
+  public void exactDistribution(){
+    int steps = 100000;
+    AliasTable table = new AliasTable(WEIGHTS);
+    GridRandom grid = new GridRandom(steps);
+    long[] counts = new long[WEIGHTS.length];
+    for(long i = (long)steps * WEIGHTS.length ; i > 0 ; --i){
+      counts[table.sample(grid)]++;
+    }
+    double total = 0;
+    for(double weight : WEIGHTS){
+      total += weight;
+    }
+    for(int i = 0 ; i < WEIGHTS.length ; ++i){
+      assertEquals("index " + i, WEIGHTS[i] / total, counts[i] / (double)(steps * WEIGHTS.length), 1e-5);
+    }
+  }
+
+  /**
+   * Random draws follow the weights: the chi-squared statistic of a million
+   * draws stays under its critical value at 0.1%.
+   */
+  @Test
+  public void randomDistribution(){
+    int draws = 1000000;
+    AliasTable table = new AliasTable(WEIGHTS);
+    Random random = new Random(2018);
+    long[] counts = new long[WEIGHTS.length];
+    for(int i = 0 ; i < draws ; ++i){
+      counts[table.sample(random)]++;
+    }
+    double total = 0;
+    for(double weight : WEIGHTS){
+      total += weight;
+    }
+    double chiSquared = 0;
+    int degrees = -1;
+    for(int i = 0 ; i < WEIGHTS.length ; ++i){
+      if(WEIGHTS[i] == 0){
+        assertEquals("index " + i, 0, counts[i]);
+        continue;
+      }
+      double expected = draws * WEIGHTS[i] / total;
+      chiSquared += (counts[i] - expected) * (counts[i] - expected) / expected;
+      degrees++;
+    }
+    assertEquals(7, degrees);
+    assertTrue("chi-squared " + chiSquared, chiSquared < 24.32);                // 7 degrees of freedom, p = 0.001
+  }
+
+  /**
+   * A single index, or a single positive weight, is always drawn.
+   */
+  @Test
+  public void singleIndex(){
+    Random random = new Random(1);
+    AliasTable one = new AliasTable(new double[]{3});
+    AliasTable onlyLast = new AliasTable(new double[]{0, 0, 0, 2});
+    for(int i = 0 ; i < 1000 ; ++i){
+      assertEquals(0, one.sample(random));
+      assertEquals(3, onlyLast.sample(random));
+    }
+    assertEquals(4, onlyLast.size());
+  }
+
+  /**
+   * A negative weight is refused.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeWeight(){
+    new AliasTable(new double[]{1, -1});
+  }
+
+  /**
+   * A NaN weight is refused.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void nanWeight(){
+    new AliasTable(new double[]{1, Double.NaN});
+  }
+
+  /**
+   * A table without any positive weight is refused.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void nothingToDraw(){
+    new AliasTable(new double[]{0, 0});
+  }
+}
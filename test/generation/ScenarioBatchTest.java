@@ -0,0 +1,143 @@
+package generation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import tools.RPGSCException;
+import tools.ScenarioFormat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests of {@link ScenarioBatch}: a seed gives the same pool of scenarios,
+ * byte for byte, whatever the number of threads generating it.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioBatchTest {
+
+  /**
+   * The number of scenarios of each pool, enough to be split between the
+   * threads.
+   */
+  private static final int COUNT = 200;
+
+  /**
+   * The generator of the scenarios, on the creation data of the project.
+   */
+  private ScenarioGenerator generator;
+
+  /**
+   * The folder of the pools written by a test.
+   */
+  private File folder;
+
+  /**
+   * Load the creation data and create the folder of the test.
+   *
+   * @throws Exception If the data cannot be read or the folder created.
+   */
+  @Before
+  public void prepare() throws Exception{
+    this.generator = new ScenarioGenerator(new CreationData(new File("data/creation_data")));
+    this.folder = Files.createTempDirectory("batch").toFile();
+  }
+
+  /**
+   * Delete the folder of the test and its pools.
+   */
+  @After
+  public void deleteFolder(){
+    for(File pool : this.folder.listFiles()){
+      for(File file : pool.listFiles()){
+        file.delete();
+      }
+      pool.delete();
+    }
+    this.folder.delete();
+  }
+
+  /**
+   * One thread or four give the same XML files for the same seed.
+   *
+   * @throws Exception If a file cannot be written or read.
+   */
+  @Test
+  public void sameSeedSameXmlPool() throws Exception{
+    assertSamePool(generate(ScenarioFormat.XML, 1, 42, "one"), generate(ScenarioFormat.XML, 4, 42, "four"));
+  }
+
+  /**
+   * One thread or four give the same binary files for the same seed.
+   *
+   * @throws Exception If a file cannot be written or read.
+   */
+  @Test
+  public void sameSeedSameBinaryPool() throws Exception{
+    assertSamePool(generate(ScenarioFormat.BINARY, 1, 42, "one"), generate(ScenarioFormat.BINARY, 4, 42, "four"));
+  }
+
+  /**
+   * Another seed gives another pool.
+   *
+   * @throws Exception If a file cannot be written or read.
+   */
+  @Test
+  public void otherSeedOtherPool() throws Exception{
+    File first = generate(ScenarioFormat.XML, 4, 42, "first");
+    File second = generate(ScenarioFormat.XML, 4, 43, "second");
+    int same = 0;
+    for(int i = 0 ; i < COUNT ; ++i){
+      String name = ScenarioBatch.titleOf("Pool", i) + ".xml";
+      if(Arrays.equals(Files.readAllBytes(new File(first, name).toPath()),
+              Files.readAllBytes(new File(second, name).toPath()))){
+        same++;
+      }
+    }
+    assertFalse("all the scenarios are the same", same == COUNT);
+  }
+
+  /**
+   * Generate a pool of scenarios of ten elements into a folder of its own.
+   *
+   * @param format The format of the files.
+   * @param parallelism The number of threads.
+   * @param seed The seed of the pool.
+   * @param name The name of the folder.
+   * @return The folder.
+   * @throws RPGSCException If a file cannot be written.
+   */
+  private File generate(ScenarioFormat format, int parallelism, long seed, String name) throws RPGSCException{
+    File toReturn = new File(this.folder, name);
+    ScenarioBatch batch = new ScenarioBatch(this.generator, 10, Difficulty.NORMAL);
+    batch.setFormat(format);
+    batch.setParallelism(parallelism);
+    batch.generate("Pool", COUNT, seed, toReturn);
+    return toReturn;
+  }
+
+  /**
+   * Check that two folders hold the same files, with the same content.
+   *
+   * @param expected The first folder.
+   * @param actual The second folder.
+   * @throws IOException If a file cannot be read.
+   */
+  private static void assertSamePool(File expected, File actual) throws IOException{
+    String[] names = expected.list();
+    Arrays.sort(names);
+    String[] actualNames = actual.list();
+    Arrays.sort(actualNames);
+    assertEquals(COUNT, names.length);
+    assertArrayEquals(names, actualNames);
+    for(String name : names){
+      assertArrayEquals(name, Files.readAllBytes(new File(expected, name).toPath()),
+              Files.readAllBytes(new File(actual, name).toPath()));
+    }
+  }
+}
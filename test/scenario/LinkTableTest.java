@@ -0,0 +1,161 @@
+package scenario;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link LinkTable}, checked against a plain list of the links of
+ * each index. Many links between few indexes fill the hashed index, so that
+ * the keys removed are shifted back through long probe sequences.
+ *
+ * @author Nicolas Brax
+ */
+public class LinkTableTest {
+
+  /**
+   * The links are added once, in order, and removed once.
+   */
+  @Test
+  public void addContainsRemove(){
+    LinkTable table = new LinkTable(4);
+    assertTrue(table.add(0, 1));
+    assertTrue(table.add(0, 2));
+    assertFalse(table.add(0, 1));
+    assertTrue(table.contains(0, 1));
+    assertFalse(table.contains(1, 0));
+    assertEquals(2, table.count(0));
+    assertTrue(table.remove(0, 1));
+    assertFalse(table.remove(0, 1));
+    assertFalse(table.contains(0, 1));
+    assertTrue(table.contains(0, 2));
+    assertEquals(1, table.count(0));
+  }
+
+  /**
+   * The array of an index is dropped with its last link, and compacted when
+   * it holds more holes than links, the order of the links being kept.
+   */
+  @Test
+  public void holesAreCompacted(){
+    String[] ids = {"a", "b", "c", "d", "e", "f"};
+    LinkTable table = new LinkTable(ids.length);
+    for(int to = 1 ; to < ids.length ; ++to){
+      table.add(0, to);
+    }
+    table.remove(0, 1);
+    table.remove(0, 3);
+    table.remove(0, 4);
+    assertTrue(table.slots(0) <= 2 * table.count(0));
+    assertEquals(list("c", "f"), table.ids(0, ids));
+    table.remove(0, 2);
+    table.remove(0, 5);
+    assertNull(table.links(0));
+    assertEquals(0, table.slots(0));
+  }
+
+  /**
+   * Clearing an index removes its links from the hashed index too.
+   */
+  @Test
+  public void clearRemovesAllTheLinks(){
+    LinkTable table = new LinkTable(3);
+    table.add(0, 1);
+    table.add(0, 2);
+    table.add(1, 2);
+    table.clear(0);
+    assertEquals(0, table.count(0));
+    assertFalse(table.contains(0, 1));
+    assertFalse(table.contains(0, 2));
+    assertTrue(table.contains(1, 2));
+    assertTrue(table.add(0, 2));
+  }
+
+  /**
+   * Random additions and removals keep the table equal to the model, for
+   * every pair of indexes, whatever the order of the removals in the probe
+   * sequences of the hashed index.
+   */
+  @Test
+  public void randomOperationsMatchTheModel(){
+    int indexCount = 24;
+    String[] ids = new String[indexCount];
+    ArrayList<LinkedHashSet<String>> model = new ArrayList<>();
+    for(int i = 0 ; i < indexCount ; ++i){
+      ids[i] = "e" + i;
+      model.add(new LinkedHashSet<>());
+    }
+    LinkTable table = new LinkTable(indexCount);
+    Random random = new Random(42);
+    for(int step = 0 ; step < 200000 ; ++step){
+      int from = random.nextInt(indexCount);
+      int to = random.nextInt(indexCount);
+      int operation = random.nextInt(10);
+      if(operation < 6){
+        assertEquals(model.get(from).add(ids[to]), table.add(from, to));
+      }
+      else if(operation < 9){
+        assertEquals(model.get(from).remove(ids[to]), table.remove(from, to));
+      }
+      else if(random.nextInt(50) == 0){
+        model.get(from).clear();
+        table.clear(from);
+      }
+      if(step % 997 == 0){
+        check(table, model, ids);
+      }
+    }
+    check(table, model, ids);
+  }
+
+  /**
+   * A copy does not share its arrays with the table copied.
+   */
+  @Test
+  public void copyIsIndependent(){
+    LinkTable table = new LinkTable(2);
+    table.add(0, 1);
+    LinkTable copy = new LinkTable(table);
+    copy.remove(0, 1);
+    copy.add(1, 0);
+    assertTrue(table.contains(0, 1));
+    assertFalse(table.contains(1, 0));
+    assertFalse(copy.contains(0, 1));
+  }
+
+  /**
+   * Check every pair of indexes of the table against the model.
+   *
+   * @param table The table.
+   * @param model The links of each index, in the order of addition.
+   * @param ids The ids of the indexes.
+   */
+  private static void check(LinkTable table, ArrayList<LinkedHashSet<String>> model, String[] ids){
+    for(int from = 0 ; from < ids.length ; ++from){
+      assertEquals(new ArrayList<>(model.get(from)), table.ids(from, ids));
+      assertEquals(model.get(from).size(), table.count(from));
+      for(int to = 0 ; to < ids.length ; ++to){
+        assertEquals(model.get(from).contains(ids[to]), table.contains(from, to));
+      }
+    }
+  }
+
+  /**
+   * Build a list of ids.
+   *
+   * @param ids The ids.
+   * @return A new list of the ids.
+   */
+  private static ArrayList<String> list(String... ids){
+    ArrayList<String> toReturn = new ArrayList<>();
+    for(String id : ids){
+      toReturn.add(id);
+    }
+    return toReturn;
+  }
+}
@@ -0,0 +1,234 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scenario.Scenario;
+import scenario.ScenarioElement;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link ScenarioBinaryWriter} and {@link ScenarioBinaryReader}: a
+ * scenario written then read is the same, and a corrupted file is rejected
+ * with an {@link RPGSCException} whatever the corruption.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioBinaryTest {
+
+  /**
+   * The folder of the files written by a test.
+   */
+  private File folder;
+
+  /**
+   * Create the folder of the test.
+   *
+   * @throws IOException If the folder cannot be created.
+   */
+  @Before
+  public void createFolder() throws IOException{
+    this.folder = Files.createTempDirectory("binary").toFile();
+  }
+
+  /**
+   * Delete the folder of the test.
+   */
+  @After
+  public void deleteFolder(){
+    for(File file : this.folder.listFiles()){
+      file.delete();
+    }
+    this.folder.delete();
+  }
+
+  /**
+   * A scenario is read back whole, lazily, and element by element.
+   *
+   * @throws RPGSCException If the file cannot be written or read.
+   */
+  @Test
+  public void roundTrip() throws RPGSCException{
+    Scenario written = scenario();
+    File file = write(written);
+    ScenarioBinaryReader reader = new ScenarioBinaryReader(file);
+    assertSameScenario(written, reader.read());
+    assertSameScenario(written, new ScenarioBinaryReader(file).readLazily());
+    assertEquals(written.size(), reader.getElementCount());
+    for(int i = 0 ; i < reader.getElementCount() ; ++i){
+      ScenarioElement element = written.getElement(reader.getElementId(i));
+      assertEquals(element.getCore(), reader.getCores(i));
+    }
+  }
+
+  /**
+   * An empty scenario is read back.
+   *
+   * @throws RPGSCException If the file cannot be written or read.
+   */
+  @Test
+  public void emptyScenario() throws RPGSCException{
+    Scenario written = new Scenario();
+    written.setTitle("Empty");
+    assertSameScenario(written, new ScenarioBinaryReader(write(written)).read());
+  }
+
+  /**
+   * A scenario without title is read back with an empty title.
+   *
+   * @throws RPGSCException If the file cannot be written or read.
+   */
+  @Test
+  public void noTitle() throws RPGSCException{
+    Scenario written = scenario();
+    written.setTitle(null);
+    assertEquals("", new ScenarioBinaryReader(write(written)).read().getTitle());
+  }
+
+  /**
+   * A file that is not a binary scenario is rejected.
+   *
+   * @throws IOException If the file cannot be written.
+   */
+  @Test
+  public void notABinaryScenario() throws IOException{
+    File file = new File(this.folder, "text.rpgs");
+    Files.write(file.toPath(), "<scenario></scenario> and some more text".getBytes("UTF-8"));
+    assertRejected(file);
+  }
+
+  /**
+   * A truncated file is rejected.
+   *
+   * @throws Exception If the file cannot be written.
+   */
+  @Test
+  public void truncatedFile() throws Exception{
+    File file = write(scenario());
+    byte[] content = Files.readAllBytes(file.toPath());
+    for(int length : new int[]{0, 10, ScenarioBinaryReader.HEADER_SIZE, content.length / 2, content.length - 1}){
+      Files.write(file.toPath(), Arrays.copyOf(content, length));
+      assertRejected(file);
+    }
+  }
+
+  /**
+   * A huge count of cores is rejected before any list is allocated for it.
+   *
+   * @throws Exception If the file cannot be written.
+   */
+  @Test
+  public void hugeCount() throws Exception{
+    File file = write(scenario());
+    byte[] content = Files.readAllBytes(file.toPath());
+    ByteBuffer buffer = ByteBuffer.wrap(content);
+    int element = buffer.getInt(buffer.getInt(24));                             // the offset of the first element
+    while((content[element] & 0x80) != 0){                                      // skip its id
+      element++;
+    }
+    element++;
+    byte[] count = {(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x07};      // Integer.MAX_VALUE
+    System.arraycopy(count, 0, content, element, count.length);
+    Files.write(file.toPath(), content);
+    assertRejected(file);
+  }
+
+  /**
+   * Random corruptions of the file are either read or rejected with an
+   * {@link RPGSCException}, never with another exception.
+   *
+   * @throws Exception If the file cannot be written.
+   */
+  @Test
+  public void randomCorruptions() throws Exception{
+    File file = write(scenario());
+    byte[] content = Files.readAllBytes(file.toPath());
+    Random random = new Random(7);
+    for(int i = 0 ; i < 2000 ; ++i){
+      byte[] corrupted = content.clone();
+      for(int flips = 1 + random.nextInt(3) ; flips > 0 ; --flips){
+        corrupted[random.nextInt(corrupted.length)] = (byte)random.nextInt(256);
+      }
+      Files.write(file.toPath(), corrupted);
+      try{
+        new ScenarioBinaryReader(file).read();
+        new ScenarioBinaryReader(file).readLazily();
+      }catch(RPGSCException e){
+        // rejected
+      }catch(RuntimeException | OutOfMemoryError e){
+        throw new AssertionError("corruption " + i + " not rejected", e);
+      }
+    }
+  }
+
+  /**
+   * Build a scenario with a few elements, shared texts and links.
+   *
+   * @return The scenario.
+   */
+  private static Scenario scenario(){
+    Scenario toReturn = new Scenario();
+    toReturn.setTitle("Binary é");
+    toReturn.addElement("a", new ArrayList<>(Arrays.asList("Main protagonist: elf", "Motivation: revenge")), true);
+    toReturn.addElement("b", new ArrayList<>(Arrays.asList("Encounter: troll", "Motivation: revenge")), true);
+    toReturn.addElement("c", new ArrayList<>(), true);
+    toReturn.getElement("a").addNextElement("b");
+    toReturn.getElement("b").addPreviousElement("a");
+    toReturn.getElement("a").addNextElement("c");
+    toReturn.getElement("c").addPreviousElement("a");
+    return toReturn;
+  }
+
+  /**
+   * Write a scenario in a file of the folder.
+   *
+   * @param toWrite The scenario.
+   * @return The file.
+   * @throws RPGSCException If the file cannot be written.
+   */
+  private File write(Scenario toWrite) throws RPGSCException{
+    File toReturn = new File(this.folder, "scenario.rpgs");
+    new ScenarioBinaryWriter().write(toWrite, toReturn);
+    return toReturn;
+  }
+
+  /**
+   * Check that two scenarios have the same title, elements, cores and links.
+   *
+   * @param expected The scenario expected.
+   * @param actual The scenario read.
+   */
+  private static void assertSameScenario(Scenario expected, Scenario actual){
+    assertEquals(expected.getTitle(), actual.getTitle());
+    assertEquals(expected.getWholeScenario().keySet(), actual.getWholeScenario().keySet());
+    for(ScenarioElement element : expected.getWholeScenario().values()){
+      ScenarioElement read = actual.getElement(element.getElementId());
+      assertEquals(element.getCore(), read.getCore());
+      assertEquals(element.getNextElements(), read.getNextElements());
+      assertEquals(element.getPreviousElements(), read.getPreviousElements());
+    }
+  }
+
+  /**
+   * Check that a file is rejected by the reader.
+   *
+   * @param file The file.
+   */
+  private static void assertRejected(File file){
+    try{
+      new ScenarioBinaryReader(file).read();
+      fail("file read");
+    }catch(RPGSCException e){
+      assertTrue(e.getMessage().contains(file.getName()));
+    }
+  }
+}
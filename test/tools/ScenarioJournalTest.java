@@ -0,0 +1,301 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scenario.Scenario;
+import scenario.ScenarioElement;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link ScenarioJournal}: the modifications journaled are replayed
+ * on the snapshot, a record torn by a crash is ignored with the following
+ * ones, and a compaction merges the segments into the snapshot.
+ *
+ * @author Nicolas Brax
+ */
+public class ScenarioJournalTest {
+
+  /**
+   * The folder of the files written by a test.
+   */
+  private File folder;
+
+  /**
+   * The snapshot file of the test.
+   */
+  private File snapshot;
+
+  /**
+   * Create the folder of the test.
+   *
+   * @throws IOException If the folder cannot be created.
+   */
+  @Before
+  public void createFolder() throws IOException{
+    this.folder = Files.createTempDirectory("journal").toFile();
+    this.snapshot = new File(this.folder, "Journaled.xml");
+  }
+
+  /**
+   * Delete the folder of the test, once the compactions are over.
+   *
+   * @throws RPGSCException If the wait is interrupted.
+   */
+  @After
+  public void deleteFolder() throws RPGSCException{
+    ScenarioJournal.awaitCompactions();
+    for(File file : this.folder.listFiles()){
+      file.delete();
+    }
+    this.folder.delete();
+  }
+
+  /**
+   * All the kinds of modifications are replayed on the snapshot.
+   *
+   * @throws RPGSCException If a file cannot be written or read.
+   */
+  @Test
+  public void modificationsAreReplayed() throws RPGSCException{
+    Scenario scenario = saved();
+    ScenarioJournal journal = ScenarioJournal.attach(this.snapshot, scenario);
+    modify(scenario);
+    journal.sync();
+    journal.close();
+    assertSameScenario(scenario, ScenarioJournal.recover(this.snapshot));
+  }
+
+  /**
+   * The modifications not synced when the journal is discarded are lost.
+   *
+   * @throws RPGSCException If a file cannot be written or read.
+   */
+  @Test
+  public void discardedModificationsAreLost() throws RPGSCException{
+    Scenario scenario = saved();
+    ScenarioJournal journal = ScenarioJournal.attach(this.snapshot, scenario);
+    scenario.setTitle("Synced");
+    journal.sync();
+    Scenario expected = new Scenario(scenario);
+    modify(scenario);
+    journal.discard();
+    journal.close();
+    assertSameScenario(expected, ScenarioJournal.recover(this.snapshot));
+  }
+
+  /**
+   * A record cut by a crash is ignored, the previous ones are replayed.
+   *
+   * @throws Exception If a file cannot be written or read.
+   */
+  @Test
+  public void tornTailIsIgnored() throws Exception{
+    Scenario scenario = saved();
+    ScenarioJournal journal = ScenarioJournal.attach(this.snapshot, scenario);
+    modify(scenario);
+    journal.sync();
+    Scenario expected = new Scenario(scenario);
+    scenario.setTitle("Torn");
+    journal.sync();
+    journal.close();
+    try(RandomAccessFile segment = new RandomAccessFile(segments().get(0), "rw")){
+      segment.setLength(segment.length() - 3);                                  // in the middle of the title record
+    }
+    assertSameScenario(expected, ScenarioJournal.recover(this.snapshot));
+  }
+
+  /**
+   * A record whose CRC does not match is ignored with the following ones.
+   *
+   * @throws Exception If a file cannot be written or read.
+   */
+  @Test
+  public void corruptedRecordIsIgnored() throws Exception{
+    Scenario scenario = saved();
+    ScenarioJournal journal = ScenarioJournal.attach(this.snapshot, scenario);
+    modify(scenario);
+    journal.sync();
+    Scenario expected = new Scenario(scenario);
+    scenario.setTitle("Corrupted");
+    journal.sync();
+    journal.close();
+    try(RandomAccessFile segment = new RandomAccessFile(segments().get(0), "rw")){
+      segment.seek(segment.length() - 1);                                       // the last character of the title
+      segment.write('X');
+    }
+    assertSameScenario(expected, ScenarioJournal.recover(this.snapshot));
+  }
+
+  /**
+   * A compaction merges the segments into the snapshot and deletes them; the
+   * modifications made meanwhile go into the new segment.
+   *
+   * @throws Exception If a file cannot be written or read.
+   */
+  @Test
+  public void compactionMergesTheSegments() throws Exception{
+    Scenario scenario = saved();
+    ScenarioJournal journal = ScenarioJournal.attach(this.snapshot, scenario);
+    modify(scenario);
+    journal.sync();
+    journal.compact().get();
+    assertEquals(1, segments().size());                                         // the new one only
+    assertTrue(new ScenarioXmlReader().readJournalGeneration(this.snapshot) >= 0);
+    Scenario merged = new ScenarioXmlReader().read(this.snapshot);
+    assertEquals(scenario.getTitle(), merged.getTitle());
+    scenario.getElement("b").addCore("After the compaction");
+    journal.sync();
+    journal.close();
+    assertSameScenario(scenario, ScenarioJournal.recover(this.snapshot));
+  }
+
+  /**
+   * The error of a failed compaction is thrown once by the next sync, and the
+   * segments it did not merge are still replayed.
+   *
+   * @throws Exception If a file cannot be written or read.
+   */
+  @Test
+  public void failedCompactionIsReported() throws Exception{
+    Scenario scenario = saved();
+    byte[] content = Files.readAllBytes(this.snapshot.toPath());
+    ScenarioJournal journal = ScenarioJournal.attach(this.snapshot, scenario);
+    modify(scenario);
+    journal.sync();
+    Files.write(this.snapshot.toPath(), "not a scenario".getBytes("UTF-8"));
+    try{
+      journal.compact().get();
+      fail("compaction done");
+    }catch(ExecutionException e){
+      assertTrue(e.getCause() instanceof RPGSCException);
+    }
+    try{
+      journal.sync();
+      fail("failure not reported");
+    }catch(RPGSCException e){
+      // reported once
+    }
+    journal.sync();
+    journal.close();
+    Files.write(this.snapshot.toPath(), content);
+    assertSameScenario(scenario, ScenarioJournal.recover(this.snapshot));
+  }
+
+  /**
+   * A rewrite of the snapshot detaches the journal still open on it: its
+   * segments are deleted, the following modifications are not journaled, its
+   * sync fails and its close does not.
+   *
+   * @throws RPGSCException If a file cannot be written or read.
+   */
+  @Test
+  public void rewriteDetachesTheJournal() throws RPGSCException{
+    Scenario scenario = saved();
+    ScenarioJournal journal = ScenarioJournal.attach(this.snapshot, scenario);
+    modify(scenario);
+    journal.sync();
+    Scenario rewritten = new Scenario(scenario);
+    new ScenarioXmlWriter().write(rewritten, this.snapshot);
+    ScenarioJournal.deleteSegments(this.snapshot);
+    assertTrue(journal.isDetached());
+    assertEquals(0, segments().size());
+    scenario.setTitle("Not journaled");
+    try{
+      journal.sync();
+      fail("detached journal synced");
+    }catch(RPGSCException e){
+      assertTrue(e.getMessage().contains(this.snapshot.getName()));
+    }
+    journal.discard();
+    journal.close();
+    assertEquals(0, segments().size());
+    assertSameScenario(rewritten, ScenarioJournal.recover(this.snapshot));
+  }
+
+  /**
+   * Write the snapshot of a scenario with a few elements and links.
+   *
+   * @return The scenario, as saved.
+   * @throws RPGSCException If the snapshot cannot be written.
+   */
+  private Scenario saved() throws RPGSCException{
+    Scenario toReturn = new Scenario();
+    toReturn.setTitle("Journaled");
+    toReturn.addElement("a", new ArrayList<>(Arrays.asList("Main protagonist: elf")), true);
+    toReturn.addElement("b", new ArrayList<>(Arrays.asList("Encounter: troll")), true);
+    toReturn.getElement("a").addNextElement("b");
+    toReturn.getElement("b").addPreviousElement("a");
+    new ScenarioXmlWriter().write(toReturn, this.snapshot);
+    return toReturn;
+  }
+
+  /**
+   * Apply every kind of modification to a scenario.
+   *
+   * @param scenario The scenario, as saved.
+   */
+  private static void modify(Scenario scenario){
+    scenario.setTitle("Journaled again");
+    scenario.addElement("c", new ArrayList<>(Arrays.asList("Location: castle")), true);
+    scenario.getElement("b").addNextElement("c");
+    scenario.getElement("c").addPreviousElement("b");
+    scenario.getElement("a").setCore(new ArrayList<>(Arrays.asList("Main protagonist: dwarf", "Motivation: greed")));
+    scenario.getElement("c").addCore("Threat: wolf");
+    scenario.getElement("a").setNextElements(new ArrayList<>());
+    scenario.getElement("b").setPreviousElements(new ArrayList<>());
+    scenario.addElement("d", new ArrayList<>(), true);
+    scenario.removeElement("d");
+  }
+
+  /**
+   * Give the segments of the journal of the snapshot.
+   *
+   * @return The segment files.
+   */
+  private ArrayList<File> segments(){
+    ArrayList<File> toReturn = new ArrayList<>();
+    for(File file : this.folder.listFiles()){
+      if(file.getName().startsWith(this.snapshot.getName() + ScenarioJournal.SEGMENT_SUFFIX)){
+        toReturn.add(file);
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Check that two scenarios have the same title, elements, cores and links.
+   *
+   * @param expected The scenario expected.
+   * @param actual The scenario recovered.
+   */
+  private static void assertSameScenario(Scenario expected, Scenario actual){
+    assertEquals(expected.getTitle(), actual.getTitle());
+    assertEquals(expected.getWholeScenario().keySet(), actual.getWholeScenario().keySet());
+    for(ScenarioElement element : expected.getWholeScenario().values()){
+      ScenarioElement read = actual.getElement(element.getElementId());
+      assertEquals(element.getCore(), read.getCore());
+      assertEquals(links(element.getNextElements()), links(read.getNextElements()));
+      assertEquals(links(element.getPreviousElements()), links(read.getPreviousElements()));
+    }
+  }
+
+  /**
+   * Give the links of an element, no link being an empty list.
+   *
+   * @param links The links, may be null.
+   * @return The links.
+   */
+  private static ArrayList<String> links(ArrayList<String> links){
+    return (links == null ? new ArrayList<>() : links);
+  }
+}